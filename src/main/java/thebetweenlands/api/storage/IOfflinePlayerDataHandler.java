@@ -1,6 +1,7 @@
 package thebetweenlands.api.storage;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import javax.annotation.Nullable;
 
@@ -20,6 +21,17 @@ public interface IOfflinePlayerDataHandler {
 	@Nullable
 	public NBTTagCompound getOfflinePlayerData(UUID playerUuid);
 
+	/**
+	 * Returns offline data specific to the player with the specified UUID without
+	 * waiting for it to be loaded from disk. The future is completed on the server thread
+	 * and is completed with null if the player has no data.
+	 * @param playerUuid
+	 * @return
+	 */
+	public default CompletableFuture<NBTTagCompound> getOfflinePlayerDataAsync(UUID playerUuid) {
+		return CompletableFuture.completedFuture(this.getOfflinePlayerData(playerUuid));
+	}
+
 	/**
 	 * Sets the offline data of the player with the specified UUID.
 	 * @param playerUuid
@@ -18,6 +18,7 @@ import net.minecraftforge.fml.common.event.FMLInterModComms;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppedEvent;
 import net.minecraftforge.fml.common.network.NetworkRegistry;
 import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 import net.minecraftforge.fml.common.registry.GameRegistry;
@@ -33,6 +34,8 @@ import thebetweenlands.common.capability.swarmed.SwarmedCapability;
 import thebetweenlands.common.command.CommandAspectDiscovery;
 import thebetweenlands.common.command.CommandBLEvent;
 import thebetweenlands.common.command.CommandDecay;
+import thebetweenlands.common.command.CommandPregen;
+import thebetweenlands.common.command.CommandProfile;
 import thebetweenlands.common.command.CommandReloadRecipes;
 import thebetweenlands.common.command.CommandResetAspects;
 import thebetweenlands.common.config.BetweenlandsConfig;
@@ -41,6 +44,9 @@ import thebetweenlands.common.entity.EntityVolarkite;
 import thebetweenlands.common.entity.draeton.EntityDraeton;
 import thebetweenlands.common.entity.mobs.EntityChiromawMatriarch;
 import thebetweenlands.common.entity.mobs.EntitySludgeMenace;
+import thebetweenlands.common.entity.movement.AsyncPathService;
+import thebetweenlands.common.entity.movement.PathNodeTypeCache;
+import thebetweenlands.common.entity.movement.SectionSnapshotCache;
 import thebetweenlands.common.entity.rowboat.EntityWeedwoodRowboat;
 import thebetweenlands.common.handler.AdvancementHandler;
 import thebetweenlands.common.handler.AnvilEventHandler;
@@ -90,13 +96,18 @@ import thebetweenlands.common.registries.SoundRegistry;
 import thebetweenlands.common.tile.TileEntitySimulacrum;
 import thebetweenlands.common.world.WorldProviderBetweenlands;
 import thebetweenlands.common.world.biome.spawning.WorldMobSpawner;
+import thebetweenlands.common.world.gen.WorldPregenerator;
+import thebetweenlands.common.world.gen.feature.StructureBuildBuffer;
 import thebetweenlands.common.world.gen.feature.structure.WorldGenDruidCircle;
 import thebetweenlands.common.world.gen.feature.structure.WorldGenWaystone;
 import thebetweenlands.common.world.storage.BetweenlandsChunkStorage;
+import thebetweenlands.common.world.storage.LocalStorageSaveHandler;
 import thebetweenlands.common.world.storage.OfflinePlayerHandlerImpl;
 import thebetweenlands.common.world.storage.WorldStorageImpl;
+import thebetweenlands.common.world.teleporter.PortalSearchScheduler;
 import thebetweenlands.compat.tmg.TMGEquipmentInventory;
 import thebetweenlands.core.TheBetweenlandsPreconditions;
+import thebetweenlands.util.profiling.HotPathProfiler;
 
 @Mod(modid = ModInfo.ID, name = ModInfo.NAME, version = ModInfo.VERSION, acceptedMinecraftVersions = ModInfo.MC_VERSIONS, certificateFingerprint = "${fingerprint}", dependencies = ModInfo.DEPENDENCIES, serverSideOnly = ModInfo.SERVER_ONLY)
 public class TheBetweenlands {
@@ -217,6 +228,14 @@ public class TheBetweenlands {
 		}*/
 		GameruleRegistry.INSTANCE.onServerStarting(event);
 		event.registerServerCommand(new CommandReloadRecipes());
+		event.registerServerCommand(new CommandPregen());
+		event.registerServerCommand(new CommandProfile());
+		HotPathProfiler.setEnabled(BetweenlandsConfig.PERFORMANCE.hotPathProfiling);
+	}
+
+	@EventHandler
+	public void serverStopped(FMLServerStoppedEvent event) {
+		LocalStorageSaveHandler.shutdownWriters();
 	}
 
 	/**
@@ -282,5 +301,11 @@ public class TheBetweenlands {
 		MinecraftForge.EVENT_BUS.register(TileEntitySimulacrum.class);
 		MinecraftForge.EVENT_BUS.register(BlessingEntityCapability.class);
 		MinecraftForge.EVENT_BUS.register(SwarmedCapability.class);
+		MinecraftForge.EVENT_BUS.register(WorldPregenerator.class);
+		MinecraftForge.EVENT_BUS.register(PortalSearchScheduler.class);
+		MinecraftForge.EVENT_BUS.register(AsyncPathService.class);
+		MinecraftForge.EVENT_BUS.register(SectionSnapshotCache.class);
+		MinecraftForge.EVENT_BUS.register(PathNodeTypeCache.class);
+		MinecraftForge.EVENT_BUS.register(StructureBuildBuffer.class);
 	}
 }
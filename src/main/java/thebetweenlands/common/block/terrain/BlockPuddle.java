@@ -119,25 +119,38 @@ public class BlockPuddle extends Block implements ITintedBlock, IStateMappedBloc
 	@Override
 	public void updateTick(World world, BlockPos pos, IBlockState state, Random rand) {
 		if(!world.isRemote) {
-			int amount = state.getValue(AMOUNT);
 			if(!BetweenlandsWorldStorage.forWorld(world).getEnvironmentEventRegistry().heavyRain.isActive()) {
 				world.setBlockToAir(pos);
-				amount = 0;
-			} else if(world.canBlockSeeSky(pos)) {
+				return;
+			}
+
+			int prevAmount = state.getValue(AMOUNT);
+			int amount = prevAmount;
+			if(world.canBlockSeeSky(pos)) {
 				amount = Math.min(amount + rand.nextInt(6), 15);
-				world.setBlockState(pos, state.withProperty(AMOUNT, amount), 2);
 			}
-			if(amount > 2) {
+
+			boolean spread = amount > 2;
+			if(spread) {
 				amount = Math.max(0, amount - 3);
+			}
+
+			//Only set the state once and only if it changed
+			if(amount != prevAmount) {
 				world.setBlockState(pos, state.withProperty(AMOUNT, amount), 2);
-				for(int xo = -1; xo <= 1; xo++) {
-					for(int zo = -1; zo <= 1; zo++) {
-						BlockPos newPos = pos.add(xo, 0, zo);
-						if((xo == 0 && zo == 0) || xo*xo == zo*zo) continue;
-						if((world.isAirBlock(newPos) || world.getBlockState(newPos).getBlock() instanceof BlockGenericCrop) && this.canPlaceBlockAt(world, newPos)) {
-							world.setBlockState(newPos, getDefaultState());
-						} else if(world.getBlockState(newPos).getBlock() == BlockRegistry.PUDDLE) {
-							world.setBlockState(newPos, state.withProperty(AMOUNT, Math.min(amount + rand.nextInt(6), 15)), 2);
+			}
+
+			if(spread) {
+				for(EnumFacing facing : EnumFacing.HORIZONTALS) {
+					BlockPos newPos = pos.offset(facing);
+					IBlockState newState = world.getBlockState(newPos);
+					Block newBlock = newState.getBlock();
+					if((newBlock.isAir(newState, world, newPos) || newBlock instanceof BlockGenericCrop) && this.canPlaceBlockAt(world, newPos)) {
+						world.setBlockState(newPos, this.getDefaultState());
+					} else if(newBlock == BlockRegistry.PUDDLE) {
+						int newAmount = Math.min(amount + rand.nextInt(6), 15);
+						if(newAmount != newState.getValue(AMOUNT)) {
+							world.setBlockState(newPos, state.withProperty(AMOUNT, newAmount), 2);
 						}
 					}
 				}
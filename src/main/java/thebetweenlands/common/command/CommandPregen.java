@@ -0,0 +1,128 @@
+package thebetweenlands.common.command;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentTranslation;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import thebetweenlands.common.world.gen.WorldPregenerator;
+
+public class CommandPregen extends CommandBase {
+	private List<String> childCommands = Arrays.asList("start", "stop", "resume", "status");
+
+	@Override
+	public String getName() {
+		return "blpregen";
+	}
+
+	@Override
+	public int getRequiredPermissionLevel() {
+		return 3;
+	}
+
+	@Override
+	public String getUsage(ICommandSender sender) {
+		return "command.blpregen.usage";
+	}
+
+	private void processStart(ICommandSender sender, String[] args) throws CommandException {
+		if(args.length < 2) {
+			throw new CommandException("command.blpregen.usage.start");
+		}
+
+		WorldServer world = getWorld(sender);
+
+		int radius = parseInt(args[1], 1, 10000);
+		int chunksPerTick = args.length >= 3 ? parseInt(args[2], 1, 256) : 4;
+
+		WorldPregenerator.Shape shape = WorldPregenerator.Shape.SPIRAL;
+		if(args.length >= 4) {
+			shape = WorldPregenerator.Shape.fromName(args[3]);
+			if(shape == null) {
+				throw new CommandException("command.blpregen.usage.start");
+			}
+		}
+
+		BlockPos center = sender.getPosition();
+
+		WorldPregenerator pregenerator = WorldPregenerator.start(world, center.getX() >> 4, center.getZ() >> 4, radius, shape, chunksPerTick);
+		notifyCommandListener(sender, this, "command.blpregen.success.start", pregenerator.getTotalTargets(), world.provider.getDimension());
+	}
+
+	private void processStop(ICommandSender sender) throws CommandException {
+		if(!WorldPregenerator.stop(getWorld(sender))) {
+			throw new CommandException("command.blpregen.failure.notrunning");
+		}
+		notifyCommandListener(sender, this, "command.blpregen.success.stop");
+	}
+
+	private void processResume(ICommandSender sender) throws CommandException {
+		WorldPregenerator pregenerator = WorldPregenerator.resume(getWorld(sender));
+		if(pregenerator == null) {
+			throw new CommandException("command.blpregen.failure.nocheckpoint");
+		}
+		notifyCommandListener(sender, this, "command.blpregen.success.resume", pregenerator.getProcessedTargets(), pregenerator.getTotalTargets());
+	}
+
+	private void processStatus(ICommandSender sender) throws CommandException {
+		WorldPregenerator pregenerator = WorldPregenerator.getActive(getWorld(sender));
+		if(pregenerator == null) {
+			throw new CommandException("command.blpregen.failure.notrunning");
+		}
+		sender.sendMessage(new TextComponentTranslation("command.blpregen.status",
+				pregenerator.getProcessedTargets(), pregenerator.getTotalTargets(),
+				String.format("%.1f", pregenerator.getProcessedTargets() * 100.0D / pregenerator.getTotalTargets()),
+				String.format("%.1f", pregenerator.getTargetsPerSecond()), pregenerator.getBudget(),
+				WorldPregenerator.formatDuration(pregenerator.getEstimatedSecondsLeft())));
+	}
+
+	private WorldServer getWorld(ICommandSender sender) throws CommandException {
+		World world = sender.getEntityWorld();
+		if(world instanceof WorldServer) {
+			return (WorldServer) world;
+		}
+		throw new CommandException("command.blpregen.failure.noworld");
+	}
+
+	@Override
+	public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos) {
+		if(args.length == 1) {
+			return getListOfStringsMatchingLastWord(args, childCommands);
+		} else if(args.length == 4 && "start".equals(args[0])) {
+			return getListOfStringsMatchingLastWord(args, WorldPregenerator.Shape.SPIRAL.getName(), WorldPregenerator.Shape.SQUARE.getName());
+		}
+		return Collections.<String>emptyList();
+	}
+
+	@Override
+	public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+		if(args.length < 1) {
+			throw new CommandException("command.blpregen.usage");
+		}
+		switch(args[0]) {
+		case "start":
+			processStart(sender, args);
+			break;
+		case "stop":
+			processStop(sender);
+			break;
+		case "resume":
+			processResume(sender);
+			break;
+		case "status":
+			processStatus(sender);
+			break;
+		default:
+			throw new CommandException("command.blpregen.usage");
+		}
+	}
+}
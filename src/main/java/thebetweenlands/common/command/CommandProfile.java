@@ -0,0 +1,145 @@
+package thebetweenlands.common.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.util.text.TextComponentTranslation;
+import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.world.gen.PopulateContext;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
+
+public class CommandProfile extends CommandBase {
+	private List<String> childCommands = Arrays.asList("start", "stop", "reset", "top", "report", "cascades");
+
+	@Override
+	public String getName() {
+		return "blprofile";
+	}
+
+	@Override
+	public int getRequiredPermissionLevel() {
+		return 3;
+	}
+
+	@Override
+	public String getUsage(ICommandSender sender) {
+		return "command.blprofile.usage";
+	}
+
+	private void processTop(ICommandSender sender, String[] args) throws CommandException {
+		int count = args.length >= 2 ? parseInt(args[1], 1, 100) : 10;
+
+		HotPathProfiler.Sort sort = HotPathProfiler.Sort.TOTAL;
+		if(args.length >= 3) {
+			sort = HotPathProfiler.Sort.fromName(args[2]);
+			if(sort == null) {
+				throw new CommandException("command.blprofile.usage.top");
+			}
+		}
+
+		List<ProfilerSection> sections = HotPathProfiler.getTopSections(sort, count);
+		if(sections.isEmpty()) {
+			throw new CommandException("command.blprofile.failure.nodata");
+		}
+
+		sender.sendMessage(new TextComponentTranslation("command.blprofile.top", sections.size(), sort.getName(), String.format("%.1f", HotPathProfiler.getProfiledMillis() / 1000.0D)));
+		for(ProfilerSection section : sections) {
+			sender.sendMessage(new TextComponentString(String.format("%s: %d calls, %.2fms total, avg %.1fus, p99 %.1fus, max %.1fus",
+					section.getName(), section.getCount(), section.getTotalNanos() / 1000000.0D, section.getAverageNanos() / 1000.0D,
+					section.getPercentileNanos(0.99D) / 1000.0D, section.getMaxNanos() / 1000.0D)));
+		}
+	}
+
+	private void processReport(MinecraftServer server, ICommandSender sender) throws CommandException {
+		try {
+			File file = HotPathProfiler.writeReport(server.getFile("betweenlands_profiles"));
+			notifyCommandListener(sender, this, "command.blprofile.success.report", file.getPath());
+		} catch(IOException ex) {
+			TheBetweenlands.logger.error("Failed writing profiler report", ex);
+			throw new CommandException("command.blprofile.failure.report");
+		}
+	}
+
+	private void processCascades(ICommandSender sender, String[] args) throws CommandException {
+		if(args.length >= 2) {
+			if(!"reset".equals(args[1])) {
+				throw new CommandException("command.blprofile.usage.cascades");
+			}
+			PopulateContext.resetCascades();
+			notifyCommandListener(sender, this, "command.blprofile.success.cascades.reset");
+			return;
+		}
+
+		List<Map.Entry<String, Long>> cascades = PopulateContext.getCascades();
+		if(cascades.isEmpty()) {
+			throw new CommandException("command.blprofile.failure.nocascades");
+		}
+
+		sender.sendMessage(new TextComponentTranslation("command.blprofile.cascades", cascades.size()));
+		for(Map.Entry<String, Long> entry : cascades) {
+			sender.sendMessage(new TextComponentString(String.format("%s: %d chunks", entry.getKey(), entry.getValue())));
+		}
+	}
+
+	@Override
+	public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos) {
+		if(args.length == 1) {
+			return getListOfStringsMatchingLastWord(args, childCommands);
+		} else if(args.length == 3 && "top".equals(args[0])) {
+			String[] sorts = new String[HotPathProfiler.Sort.values().length];
+			for(int i = 0; i < sorts.length; i++) {
+				sorts[i] = HotPathProfiler.Sort.values()[i].getName();
+			}
+			return getListOfStringsMatchingLastWord(args, sorts);
+		} else if(args.length == 2 && "cascades".equals(args[0])) {
+			return getListOfStringsMatchingLastWord(args, "reset");
+		}
+		return Collections.<String>emptyList();
+	}
+
+	@Override
+	public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+		if(args.length < 1) {
+			throw new CommandException("command.blprofile.usage");
+		}
+		switch(args[0]) {
+		case "start":
+			HotPathProfiler.reset();
+			HotPathProfiler.setEnabled(true);
+			notifyCommandListener(sender, this, "command.blprofile.success.start");
+			break;
+		case "stop":
+			HotPathProfiler.setEnabled(false);
+			notifyCommandListener(sender, this, "command.blprofile.success.stop");
+			break;
+		case "reset":
+			HotPathProfiler.reset();
+			notifyCommandListener(sender, this, "command.blprofile.success.reset");
+			break;
+		case "top":
+			processTop(sender, args);
+			break;
+		case "report":
+			processReport(server, sender);
+			break;
+		case "cascades":
+			processCascades(sender, args);
+			break;
+		default:
+			throw new CommandException("command.blprofile.usage");
+		}
+	}
+}
@@ -560,6 +560,80 @@ public class BetweenlandsConfig {
 		public boolean showNonBLGemRecipes = true;
 	}
 
+	@Name("performance")
+	@LangKey(LANG_PREFIX + "performance")
+	public static final Performance PERFORMANCE = new Performance();
+
+	public static class Performance {
+		@Name("local_storage_io_threads")
+		@LangKey(LANG_PREFIX + "local_storage_io_threads")
+		@Comment("The number of threads used to write local storages and their regions to disk. Applied when the next world is loaded")
+		@RequiresWorldRestart
+		@RangeInt(min = 1, max = 16)
+		public int localStorageIOThreads = 2;
+
+		@Name("local_storage_max_queued_files")
+		@LangKey(LANG_PREFIX + "local_storage_max_queued_files")
+		@Comment("The maximum number of local storage or region files that may wait to be written before the server waits for the writer threads to catch up")
+		@RangeInt(min = 2)
+		public int localStorageMaxQueuedFiles = 512;
+
+		@Name("async_portal_search")
+		@LangKey(LANG_PREFIX + "async_portal_search")
+		@Comment("If true, the position of a new portal is searched over multiple ticks while the player waits in the portal, instead of generating all chunks around the destination at once")
+		public boolean asyncPortalSearch = true;
+
+		@Name("portal_search_chunks_per_tick")
+		@LangKey(LANG_PREFIX + "portal_search_chunks_per_tick")
+		@Comment("The maximum number of chunks that are generated or loaded per tick for all portal searches together")
+		@RangeInt(min = 1, max = 64)
+		public int portalSearchChunksPerTick = 4;
+
+		@Name("offline_player_data_cache_size")
+		@LangKey(LANG_PREFIX + "offline_player_data_cache_size")
+		@Comment("The maximum number of offline player data entries (e.g. ring of gathering storage) that are kept in memory")
+		@RangeInt(min = 1)
+		public int offlinePlayerDataCacheSize = 256;
+
+		@Name("offline_player_data_cache_max_kb")
+		@LangKey(LANG_PREFIX + "offline_player_data_cache_max_kb")
+		@Comment("The maximum estimated size in kilobytes of the offline player data that is kept in memory")
+		@RangeInt(min = 64)
+		public int offlinePlayerDataCacheMaxKb = 16384;
+
+		@Name("hot_path_profiling")
+		@LangKey(LANG_PREFIX + "hot_path_profiling")
+		@Comment("If true, the hot path profiler is enabled when the server starts. It can also be controlled with '/blprofile'")
+		public boolean hotPathProfiling = false;
+
+		@Name("structure_template_disk_cache")
+		@LangKey(LANG_PREFIX + "structure_template_disk_cache")
+		@Comment("If true, the compiled block templates of structures are cached in the config folder so that they don't need to be compiled again after a restart")
+		public boolean structureTemplateDiskCache = true;
+
+		@Name("structure_build_buffer")
+		@LangKey(LANG_PREFIX + "structure_build_buffer")
+		@Comment("If true, the blocks of large structures, e.g. towers and fortresses, are placed directly into the chunk sections and relit and sent to players once per chunk instead of once per block")
+		public boolean structureBuildBuffer = true;
+
+		@Name("async_pathfinding")
+		@LangKey(LANG_PREFIX + "async_pathfinding")
+		@Comment("If true, the paths of climbing, flying and other mobs with custom pathfinding are searched on worker threads on a copy of the surrounding blocks. While the search is running mobs keep following their previous path if it leads close to the new target and otherwise stand still. The found path is followed once the search has finished, usually in the next tick")
+		public boolean asyncPathfinding = true;
+
+		@Name("pathfinding_threads")
+		@LangKey(LANG_PREFIX + "pathfinding_threads")
+		@Comment("The number of threads used to search the paths of mobs if async_pathfinding is enabled. Requires a restart")
+		@RequiresMcRestart
+		@RangeInt(min = 1, max = 16)
+		public int pathfindingThreads = 2;
+
+		@Name("path_node_type_cache")
+		@LangKey(LANG_PREFIX + "path_node_type_cache")
+		@Comment("If true, the path node types of blocks are cached and shared by all mobs of the same size and pathing capabilities, so that mobs repeatedly pathing in the same area, e.g. in dungeons, don't need to check the same blocks again")
+		public boolean pathNodeTypeCache = true;
+	}
+
 	@Name("online_event_overrides")
 	@LangKey(LANG_PREFIX + "online_event_overrides")
 	public static final EventOverrides EVENT_OVERRIDES = new EventOverrides();
@@ -284,6 +284,12 @@ public class EntityStalker extends EntityClimberBase implements IMob {
 	@Override
 	protected PathNavigate createNavigator(World worldIn) {
 		ObstructionAwarePathNavigateGround<EntityStalker> navigate = new ObstructionAwarePathNavigateClimber<EntityStalker>(this, worldIn, false, true, true) {
+			@Override
+			protected boolean canSearchAsync() {
+				//The pathing malus and heuristic depend on the world and the attack target
+				return false;
+			}
+
 			@Override
 			public Path getPathToEntityLiving(Entity entityIn) {
 				BlockPos pos = new BlockPos(entityIn);
@@ -0,0 +1,210 @@
+package thebetweenlands.common.entity.movement;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.pathfinding.Path;
+import net.minecraft.pathfinding.PathPoint;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent.Phase;
+import net.minecraftforge.fml.common.gameevent.TickEvent.ServerTickEvent;
+import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.config.BetweenlandsConfig;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
+
+/**
+ * Runs the path searches of {@link IAsyncPathFinder}s on a pool of worker threads.
+ * Searches that are equal to a search that is still running or has finished in the same tick, e.g.
+ * of a group of mobs following the same target, are not run again but share the result.
+ */
+public final class AsyncPathService {
+	private AsyncPathService() { }
+
+	private static final ProfilerSection SEARCH_SECTION = HotPathProfiler.section("pathfinding.async_search");
+
+	private static final AtomicInteger WORKER_THREAD_ID = new AtomicInteger(0);
+
+	private static ExecutorService executor;
+
+	private static final Map<Key, Job> JOBS = new HashMap<>();
+
+	/**
+	 * Trackers with a running search, checked every tick so that searches of removed entities are released
+	 */
+	private static final Set<AsyncPathTracker> TRACKERS = new HashSet<>();
+
+	private static final int CACHE_CLEANUP_INTERVAL = 200;
+
+	private static int ticks;
+
+	private static final class Key {
+		private final World world;
+		private final PathSearch search;
+
+		private Key(World world, PathSearch search) {
+			this.world = world;
+			this.search = search;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).world == this.world && ((Key) obj).search.equals(this.search);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(this.world) + this.search.hashCode();
+		}
+	}
+
+	/**
+	 * A submitted path search
+	 */
+	public static final class Job {
+		private final World world;
+		private final CompletableFuture<Path> future;
+
+		private Job(World world, CompletableFuture<Path> future) {
+			this.world = world;
+			this.future = future;
+		}
+
+		public boolean isDone() {
+			return this.future.isDone();
+		}
+
+		/**
+		 * Waits until the job is done
+		 */
+		public void await() {
+			this.future.join();
+		}
+
+		/**
+		 * Returns a copy of the found path that can be followed independently of the other
+		 * entities using the same job, or null if no path was found or the job hasn't finished yet
+		 * @return
+		 */
+		@Nullable
+		public Path getPath() {
+			Path path = this.future.getNow(null);
+			if(path == null) {
+				return null;
+			}
+			PathPoint[] points = new PathPoint[path.getCurrentPathLength()];
+			for(int i = 0; i < points.length; i++) {
+				PathPoint point = path.getPathPointFromIndex(i);
+				points[i] = point.cloneMove(point.x, point.y, point.z);
+			}
+			return new Path(points);
+		}
+	}
+
+	/**
+	 * Returns whether paths should be searched asynchronously
+	 * @return
+	 */
+	public static boolean isEnabled() {
+		return BetweenlandsConfig.PERFORMANCE.asyncPathfinding;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if(executor == null) {
+			executor = Executors.newFixedThreadPool(BetweenlandsConfig.PERFORMANCE.pathfindingThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r);
+					thread.setName("BL Path Finder #" + WORKER_THREAD_ID.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Returns the job of an equal search that is still running or has finished in this tick. Must be called on the server thread
+	 * @param world
+	 * @param search
+	 * @return
+	 */
+	@Nullable
+	public static Job getJob(World world, PathSearch search) {
+		return JOBS.get(new Key(world, search));
+	}
+
+	/**
+	 * Runs the search started by {@link IAsyncPathFinder#startSearch(net.minecraft.world.IBlockAccess, net.minecraft.entity.EntityLiving, double, double, double, float)}
+	 * on a worker thread. The path finder must not be used until the job is done. Must be called on the server thread
+	 * @param world
+	 * @param pathFinder
+	 * @param search
+	 * @return
+	 */
+	public static Job submit(World world, IAsyncPathFinder pathFinder, PathSearch search) {
+		CompletableFuture<Path> future = CompletableFuture.supplyAsync(() -> {
+			long start = HotPathProfiler.start();
+			try {
+				return pathFinder.search(search);
+			} catch(Exception ex) {
+				TheBetweenlands.logger.error("Failed searching path", ex);
+				return null;
+			} finally {
+				SEARCH_SECTION.end(start);
+			}
+		}, getExecutor());
+
+		Job job = new Job(world, future);
+		JOBS.put(new Key(world, search), job);
+		return job;
+	}
+
+	/**
+	 * Checks the tracker every tick until its running search has finished, see {@link AsyncPathTracker#releaseIfRemoved()}.
+	 * Must be called on the server thread
+	 * @param tracker
+	 */
+	static void track(AsyncPathTracker tracker) {
+		TRACKERS.add(tracker);
+	}
+
+	@SubscribeEvent
+	public static void onServerTick(ServerTickEvent event) {
+		if(event.phase == Phase.END) {
+			JOBS.values().removeIf(Job::isDone);
+
+			TRACKERS.removeIf(AsyncPathTracker::releaseIfRemoved);
+
+			if(++ticks % CACHE_CLEANUP_INTERVAL == 0) {
+				SectionSnapshotCache.removeAllExpired();
+				PathNodeTypeCache.removeAllExpired();
+			}
+		}
+	}
+
+	@SubscribeEvent
+	public static void onWorldUnload(WorldEvent.Unload event) {
+		JOBS.values().removeIf(job -> job.world == event.getWorld());
+
+		TRACKERS.removeIf(tracker -> {
+			if(tracker.getWorld() == event.getWorld()) {
+				tracker.release();
+				return true;
+			}
+			return false;
+		});
+	}
+}
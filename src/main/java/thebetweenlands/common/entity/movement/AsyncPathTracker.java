@@ -0,0 +1,258 @@
+package thebetweenlands.common.entity.movement;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.entity.EntityLiving;
+import net.minecraft.pathfinding.Path;
+import net.minecraft.pathfinding.PathNavigate;
+import net.minecraft.pathfinding.PathPoint;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.World;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
+
+/**
+ * Passes the path searches of a navigator to the {@link AsyncPathService}.
+ * <p>
+ * When a path is requested the surrounding blocks are copied into a {@link BlockAccessSnapshot}. Until the search has finished
+ * the navigator keeps following its previous path if that leads close to the new target, otherwise the entity stands still.
+ * Once the search has finished the navigator replaces the pending path with the found path in {@link #update()}, unless another
+ * path has been set or the path has been cleared in the meantime, see {@link #cancel()}.
+ * If the navigator's path finder is still busy with a previous search, the latest request is started as soon as that search has finished.
+ * If the entity is removed while a search is running the search is released by the {@link AsyncPathService} once it has finished.
+ * If {@link AsyncPathService#isEnabled()} is false paths are searched synchronously.
+ */
+public class AsyncPathTracker implements IAsyncPathFinder.SearchHandler {
+	private static final ProfilerSection SNAPSHOT_SECTION = HotPathProfiler.section("pathfinding.snapshot");
+
+	/**
+	 * The previous path is only followed while searching if it ends within this distance of the new target
+	 */
+	private static final double MAX_PENDING_PATH_TARGET_DISTANCE = 8.0D;
+
+	/**
+	 * Receives the found paths
+	 */
+	public static interface Listener {
+		/**
+		 * Called once the path search has finished
+		 * @param pendingPath The path that was returned when the path was requested, i.e. the previous path or null
+		 * @param path The found path, or null if no path was found
+		 */
+		public void onPathFound(@Nullable Path pendingPath, @Nullable Path path);
+	}
+
+	private final EntityLiving entity;
+	private final PathNavigate navigator;
+	private final Listener listener;
+
+	/**
+	 * Path finder that is busy with {@link #runningJob}
+	 */
+	@Nullable
+	private IAsyncPathFinder runningPathFinder;
+	@Nullable
+	private AsyncPathService.Job runningJob;
+
+	/**
+	 * Job whose result is passed to the listener, may belong to another navigator
+	 */
+	@Nullable
+	private AsyncPathService.Job awaitedJob;
+	@Nullable
+	private Path pendingPath;
+
+	/**
+	 * Latest request that must wait for {@link #runningPathFinder}
+	 */
+	@Nullable
+	private IAsyncPathFinder queuedPathFinder;
+	private double queuedX, queuedY, queuedZ;
+	private float queuedMaxDistance;
+
+	public AsyncPathTracker(EntityLiving entity, PathNavigate navigator, Listener listener) {
+		this.entity = entity;
+		this.navigator = navigator;
+		this.listener = listener;
+	}
+
+	@Override
+	@Nullable
+	public Path findPath(IAsyncPathFinder pathFinder, IBlockAccess world, EntityLiving entity, double x, double y, double z, float maxDistance) {
+		if(!AsyncPathService.isEnabled()) {
+			this.awaitedJob = null;
+			this.pendingPath = null;
+			this.queuedPathFinder = null;
+
+			if(this.runningJob != null && this.runningPathFinder == pathFinder) {
+				this.runningJob.await();
+				this.finishRunningJob();
+			}
+
+			PathSearch search = pathFinder.startSearch(world, entity, x, y, z, maxDistance);
+			Path path = pathFinder.search(search);
+			pathFinder.finishSearch();
+			return path;
+		}
+
+		this.pendingPath = this.getPendingPath(x, y, z);
+
+		if(this.runningJob != null && this.runningPathFinder == pathFinder) {
+			if(this.runningJob.isDone()) {
+				this.finishRunningJob();
+			} else {
+				this.awaitedJob = null;
+				this.queuedPathFinder = pathFinder;
+				this.queuedX = x;
+				this.queuedY = y;
+				this.queuedZ = z;
+				this.queuedMaxDistance = maxDistance;
+				return this.pendingPath;
+			}
+		}
+
+		this.queuedPathFinder = null;
+		this.startSearch(pathFinder, x, y, z, maxDistance);
+
+		return this.pendingPath;
+	}
+
+	/**
+	 * Returns the navigator's current path if it isn't finished and ends close to the target, otherwise null
+	 * so that the entity stands still until the search has finished
+	 */
+	@Nullable
+	private Path getPendingPath(double x, double y, double z) {
+		Path path = this.navigator.getPath();
+		if(path != null && !path.isFinished()) {
+			PathPoint end = path.getFinalPathPoint();
+			if(end != null) {
+				double dx = end.x + 0.5D - x;
+				double dy = end.y - y;
+				double dz = end.z + 0.5D - z;
+				if(dx * dx + dy * dy + dz * dz <= MAX_PENDING_PATH_TARGET_DISTANCE * MAX_PENDING_PATH_TARGET_DISTANCE) {
+					return path;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Discards the result of the awaited search, e.g. because the navigator's path was cleared.
+	 * A running search still finishes and is released as usual
+	 */
+	public void cancel() {
+		this.awaitedJob = null;
+		this.pendingPath = null;
+		this.queuedPathFinder = null;
+	}
+
+	private void startSearch(IAsyncPathFinder pathFinder, double x, double y, double z, float maxDistance) {
+		long start = HotPathProfiler.start();
+
+		BlockPos pos = new BlockPos(this.entity);
+		int range = (int)(maxDistance + 8.0F);
+		BlockAccessSnapshot snapshot = BlockAccessSnapshot.create(this.entity.world, pos.add(-range, -range, -range), pos.add(range, range, range));
+
+		PathSearch search = pathFinder.startSearch(snapshot, this.entity, x, y, z, maxDistance);
+
+		SNAPSHOT_SECTION.end(start);
+
+		AsyncPathService.Job job = AsyncPathService.getJob(this.entity.world, search);
+
+		if(job != null) {
+			//An equal search is already running, e.g. from a mob of the same group
+			pathFinder.finishSearch();
+		} else {
+			job = AsyncPathService.submit(this.entity.world, pathFinder, search);
+			this.runningJob = job;
+			this.runningPathFinder = pathFinder;
+			AsyncPathService.track(this);
+		}
+
+		this.awaitedJob = job;
+	}
+
+	private void finishRunningJob() {
+		this.runningPathFinder.finishSearch();
+		this.runningPathFinder = null;
+		this.runningJob = null;
+	}
+
+	/**
+	 * Releases the snapshot and node processor of the running search once it has finished if the entity
+	 * has been removed in the meantime, since the navigator is no longer updated then. Called every tick by the {@link AsyncPathService}
+	 * @return True if no search is running anymore and the tracker no longer needs to be checked
+	 */
+	boolean releaseIfRemoved() {
+		if(this.runningJob == null) {
+			return true;
+		}
+		if(this.runningJob.isDone() && (this.entity.isDead || this.entity.world.getEntityByID(this.entity.getEntityId()) != this.entity)) {
+			this.finishRunningJob();
+			this.cancel();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Waits for the running search and releases it. Called by the {@link AsyncPathService} when the world is unloaded
+	 */
+	void release() {
+		if(this.runningJob != null) {
+			this.runningJob.await();
+			this.finishRunningJob();
+		}
+		this.cancel();
+	}
+
+	World getWorld() {
+		return this.entity.world;
+	}
+
+	/**
+	 * Default listener behaviour of the navigators. Sets the found path as the navigator's path, or clears the path if no path was found,
+	 * unless another path has been set in the meantime
+	 * @param navigator
+	 * @param speed The navigator's current speed
+	 * @param pendingPath
+	 * @param path
+	 */
+	public static void replacePendingPath(PathNavigate navigator, double speed, @Nullable Path pendingPath, @Nullable Path path) {
+		Path currentPath = navigator.getPath();
+		if(currentPath == pendingPath || (currentPath != null && currentPath.isSamePath(pendingPath))) {
+			if(path != null) {
+				navigator.setPath(path, speed);
+			} else {
+				navigator.clearPath();
+			}
+		}
+	}
+
+	/**
+	 * Passes the found path to the listener once the search has finished and starts the queued search.
+	 * Must be called every tick by the navigator
+	 */
+	public void update() {
+		if(this.runningJob != null && this.runningJob.isDone()) {
+			this.finishRunningJob();
+
+			if(this.queuedPathFinder != null) {
+				IAsyncPathFinder pathFinder = this.queuedPathFinder;
+				this.queuedPathFinder = null;
+				this.startSearch(pathFinder, this.queuedX, this.queuedY, this.queuedZ, this.queuedMaxDistance);
+			}
+		}
+
+		if(this.awaitedJob != null && this.awaitedJob.isDone()) {
+			Path path = this.awaitedJob.getPath();
+			Path pendingPath = this.pendingPath;
+			this.awaitedJob = null;
+			this.pendingPath = null;
+			this.listener.onPathFound(pendingPath, path);
+		}
+	}
+}
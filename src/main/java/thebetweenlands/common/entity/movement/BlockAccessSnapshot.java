@@ -0,0 +1,221 @@
+package thebetweenlands.common.entity.movement;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Biomes;
+import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.Chunk;
+
+/**
+ * Immutable copy of the blocks in a region of the world, used in place of a {@link net.minecraft.world.ChunkCache}
+ * by path searches that run on a worker thread. The chunk sections are copied through the {@link SectionSnapshotCache}.
+ * Tile entities aren't copied and light is not available.
+ */
+public class BlockAccessSnapshot implements IBlockAccess {
+	private static final IBlockState AIR = Blocks.AIR.getDefaultState();
+
+	private final WorldType worldType;
+	private final int chunkX, chunkZ;
+	private final int sizeX, sizeZ;
+	private final int minSection, maxSection;
+
+	/**
+	 * Copied sections indexed by <code>(chunk index * 16) + section y</code>, null if the section is empty
+	 */
+	private final IBlockState[][] sections;
+	private final byte[][] biomes;
+
+	private BlockAccessSnapshot(WorldType worldType, int chunkX, int chunkZ, int sizeX, int sizeZ, int minSection, int maxSection) {
+		this.worldType = worldType;
+		this.chunkX = chunkX;
+		this.chunkZ = chunkZ;
+		this.sizeX = sizeX;
+		this.sizeZ = sizeZ;
+		this.minSection = minSection;
+		this.maxSection = maxSection;
+		this.sections = new IBlockState[sizeX * sizeZ * 16][];
+		this.biomes = new byte[sizeX * sizeZ][];
+	}
+
+	/**
+	 * Copies the blocks between the two positions. Must be called on the server thread. Like
+	 * {@link net.minecraft.world.ChunkCache} this loads the chunks in the region if necessary
+	 * @param world
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	public static BlockAccessSnapshot create(World world, BlockPos min, BlockPos max) {
+		int chunkX = min.getX() >> 4;
+		int chunkZ = min.getZ() >> 4;
+		int sizeX = (max.getX() >> 4) - chunkX + 1;
+		int sizeZ = (max.getZ() >> 4) - chunkZ + 1;
+		int minSection = MathHelper.clamp(min.getY() >> 4, 0, 15);
+		int maxSection = MathHelper.clamp(max.getY() >> 4, 0, 15);
+
+		BlockAccessSnapshot snapshot = new BlockAccessSnapshot(world.getWorldType(), chunkX, chunkZ, sizeX, sizeZ, minSection, maxSection);
+
+		SectionSnapshotCache cache = SectionSnapshotCache.forWorld(world);
+
+		for(int cx = 0; cx < sizeX; cx++) {
+			for(int cz = 0; cz < sizeZ; cz++) {
+				Chunk chunk = world.getChunk(chunkX + cx, chunkZ + cz);
+				int index = cx * sizeZ + cz;
+				snapshot.biomes[index] = cache.getBiomes(chunk);
+				for(int sy = minSection; sy <= maxSection; sy++) {
+					snapshot.sections[index * 16 + sy] = cache.getSection(chunk, sy);
+				}
+			}
+		}
+
+		return snapshot;
+	}
+
+	private int getChunkIndex(int x, int z) {
+		int cx = (x >> 4) - this.chunkX;
+		int cz = (z >> 4) - this.chunkZ;
+		if(cx < 0 || cx >= this.sizeX || cz < 0 || cz >= this.sizeZ) {
+			return -1;
+		}
+		return cx * this.sizeZ + cz;
+	}
+
+	/**
+	 * Returns whether the position lies within the copied region
+	 * @param pos
+	 * @return
+	 */
+	public boolean contains(BlockPos pos) {
+		int sy = pos.getY() >> 4;
+		return pos.getY() >= 0 && sy >= this.minSection && sy <= this.maxSection && this.getChunkIndex(pos.getX(), pos.getZ()) >= 0;
+	}
+
+	/**
+	 * Returns whether all blocks of the specified volume, all coordinates inclusive, are the same as in the world.
+	 * Unlike {@link #contains(BlockPos)} blocks below and above the world count as contained
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 * @return
+	 */
+	public boolean containsAll(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		boolean containsMinY = minY < 0 ? this.minSection == 0 : (minY >> 4) >= this.minSection;
+		boolean containsMaxY = maxY > 255 ? this.maxSection == 15 : (maxY >> 4) <= this.maxSection;
+		return containsMinY && containsMaxY && this.getChunkIndex(minX, minZ) >= 0 && this.getChunkIndex(maxX, maxZ) >= 0;
+	}
+
+	@Override
+	public IBlockState getBlockState(BlockPos pos) {
+		int y = pos.getY();
+		if(y >= 0 && y < 256) {
+			int index = this.getChunkIndex(pos.getX(), pos.getZ());
+			if(index >= 0) {
+				IBlockState[] section = this.sections[index * 16 + (y >> 4)];
+				if(section != null) {
+					return section[(y & 15) << 8 | (pos.getZ() & 15) << 4 | (pos.getX() & 15)];
+				}
+			}
+		}
+		return AIR;
+	}
+
+	@Override
+	@Nullable
+	public TileEntity getTileEntity(BlockPos pos) {
+		return null;
+	}
+
+	@Override
+	public int getCombinedLight(BlockPos pos, int lightValue) {
+		return 0;
+	}
+
+	@Override
+	public boolean isAirBlock(BlockPos pos) {
+		IBlockState state = this.getBlockState(pos);
+		return state.getBlock().isAir(state, this, pos);
+	}
+
+	@Override
+	public Biome getBiome(BlockPos pos) {
+		int index = this.getChunkIndex(pos.getX(), pos.getZ());
+		if(index >= 0) {
+			return Biome.getBiome(this.biomes[index][(pos.getZ() & 15) << 4 | (pos.getX() & 15)] & 255, Biomes.PLAINS);
+		}
+		return Biomes.PLAINS;
+	}
+
+	@Override
+	public int getStrongPower(BlockPos pos, EnumFacing direction) {
+		return this.getBlockState(pos).getStrongPower(this, pos, direction);
+	}
+
+	@Override
+	public WorldType getWorldType() {
+		return this.worldType;
+	}
+
+	@Override
+	public boolean isSideSolid(BlockPos pos, EnumFacing side, boolean _default) {
+		if(!this.contains(pos)) {
+			return _default;
+		}
+		return this.getBlockState(pos).isSideSolid(this, pos, side);
+	}
+
+	/**
+	 * Returns whether the collision box of the block intersects the specified box
+	 * @param state
+	 * @param pos
+	 * @param aabb
+	 * @return
+	 */
+	public boolean collidesWithBlock(IBlockState state, BlockPos pos, AxisAlignedBB aabb) {
+		AxisAlignedBB collisionBox = state.getCollisionBoundingBox(this, pos);
+		return collisionBox != Block.NULL_AABB && collisionBox.offset(pos).intersects(aabb);
+	}
+
+	/**
+	 * Replacement for {@link World#collidesWithAnyBlock(AxisAlignedBB)}. Only the collision
+	 * bounding box of each block is checked, not the individual boxes of blocks that consist of multiple boxes
+	 * @param aabb
+	 * @return
+	 */
+	public boolean collidesWithAnyBlock(AxisAlignedBB aabb) {
+		int minX = MathHelper.floor(aabb.minX) - 1;
+		int maxX = MathHelper.ceil(aabb.maxX) + 1;
+		int minY = MathHelper.floor(aabb.minY) - 1;
+		int maxY = MathHelper.ceil(aabb.maxY) + 1;
+		int minZ = MathHelper.floor(aabb.minZ) - 1;
+		int maxZ = MathHelper.ceil(aabb.maxZ) + 1;
+
+		BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+
+		for(int x = minX; x < maxX; x++) {
+			for(int z = minZ; z < maxZ; z++) {
+				for(int y = minY; y < maxY; y++) {
+					IBlockState state = this.getBlockState(pos.setPos(x, y, z));
+					if(state != AIR && this.collidesWithBlock(state, pos, aabb)) {
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,69 @@
+package thebetweenlands.common.entity.movement;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.SoundCategory;
+import net.minecraft.util.SoundEvent;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorldEventListener;
+import net.minecraft.world.World;
+
+/**
+ * World event listener that is only interested in block changes
+ */
+abstract class BlockChangeListener implements IWorldEventListener {
+	/**
+	 * Called when the blocks in the specified volume, all coordinates inclusive, may have changed
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 */
+	protected abstract void onBlocksChanged(int minX, int minY, int minZ, int maxX, int maxY, int maxZ);
+
+	@Override
+	public void notifyBlockUpdate(World worldIn, BlockPos pos, IBlockState oldState, IBlockState newState, int flags) {
+		this.onBlocksChanged(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ());
+	}
+
+	@Override
+	public void notifyLightSet(BlockPos pos) { }
+
+	@Override
+	public void markBlockRangeForRenderUpdate(int x1, int y1, int z1, int x2, int y2, int z2) {
+		this.onBlocksChanged(x1, y1, z1, x2, y2, z2);
+	}
+
+	@Override
+	public void playSoundToAllNearExcept(EntityPlayer player, SoundEvent soundIn, SoundCategory category, double x,
+			double y, double z, float volume, float pitch) { }
+
+	@Override
+	public void playRecord(SoundEvent soundIn, BlockPos pos) { }
+
+	@Override
+	public void spawnParticle(int particleID, boolean ignoreRange, double xCoord, double yCoord, double zCoord,
+			double xSpeed, double ySpeed, double zSpeed, int... parameters) { }
+
+	@Override
+	public void spawnParticle(int id, boolean ignoreRange, boolean p_190570_3_, double x, double y, double z,
+			double xSpeed, double ySpeed, double zSpeed, int... parameters) { }
+
+	@Override
+	public void onEntityAdded(Entity entity) { }
+
+	@Override
+	public void onEntityRemoved(Entity entity) { }
+
+	@Override
+	public void broadcastSound(int soundID, BlockPos pos, int data) { }
+
+	@Override
+	public void playEvent(EntityPlayer player, int type, BlockPos blockPosIn, int data) { }
+
+	@Override
+	public void sendBlockBreakProgress(int breakerId, BlockPos pos, int progress) { }
+}
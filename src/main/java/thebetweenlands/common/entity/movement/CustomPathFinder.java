@@ -1,5 +1,7 @@
 package thebetweenlands.common.entity.movement;
 
+import java.util.Arrays;
+
 import javax.annotation.Nullable;
 
 import net.minecraft.entity.Entity;
@@ -12,7 +14,7 @@ import net.minecraft.pathfinding.PathPoint;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.IBlockAccess;
 
-public class CustomPathFinder extends PathFinder {
+public class CustomPathFinder extends PathFinder implements IAsyncPathFinder {
 	private final PathHeap path = new PathHeap();
 	private final PathPoint[] pathOptions = new PathPoint[32];
 	private final NodeProcessor nodeProcessor;
@@ -27,6 +29,9 @@ public class CustomPathFinder extends PathFinder {
 
 	private Heuristic heuristic = DEFAULT_HEURISTIC;
 
+	@Nullable
+	private SearchHandler searchHandler;
+
 	public CustomPathFinder(NodeProcessor processor) {
 		super(processor);
 		this.nodeProcessor = processor;
@@ -46,6 +51,11 @@ public class CustomPathFinder extends PathFinder {
 		return this;
 	}
 
+	@Override
+	public void setSearchHandler(@Nullable SearchHandler handler) {
+		this.searchHandler = handler;
+	}
+
 	@Override
 	@Nullable
 	public Path findPath(IBlockAccess worldIn, EntityLiving entitylivingIn, Entity targetEntity, float maxDistance) {
@@ -60,6 +70,10 @@ public class CustomPathFinder extends PathFinder {
 
 	@Nullable
 	private Path findPath(IBlockAccess worldIn, EntityLiving entitylivingIn, double x, double y, double z, float maxDistance) {
+		if(this.searchHandler != null) {
+			return this.searchHandler.findPath(this, worldIn, entitylivingIn, x, y, z, maxDistance);
+		}
+
 		this.path.clearPath();
 		this.nodeProcessor.init(worldIn, entitylivingIn);
 		PathPoint startPathPoint = this.nodeProcessor.getStart();
@@ -69,6 +83,29 @@ public class CustomPathFinder extends PathFinder {
 		return path;
 	}
 
+	@Override
+	public PathSearch startSearch(IBlockAccess world, EntityLiving entity, double x, double y, double z, float maxDistance) {
+		this.path.clearPath();
+		this.nodeProcessor.init(world, entity);
+		PathPoint startPathPoint = this.nodeProcessor.getStart();
+		PathPoint targetPathPoint = this.nodeProcessor.getPathPointToCoords(x, y, z);
+		Object processorSettings = this.nodeProcessor instanceof ObstructionAwareWalkNodeProcessor ? ((ObstructionAwareWalkNodeProcessor<?>) this.nodeProcessor).getSearchSettings() : null;
+		return new PathSearch(startPathPoint, targetPathPoint, maxDistance, Arrays.asList(entity.getClass(), entity.width, entity.height, entity.stepHeight,
+				this.nodeProcessor.getClass(), this.nodeProcessor.getCanEnterDoors(), this.nodeProcessor.getCanOpenDoors(), this.nodeProcessor.getCanSwim(), processorSettings,
+				this.maxExpansions, this.heuristic));
+	}
+
+	@Override
+	@Nullable
+	public Path search(PathSearch search) {
+		return this.findPath(search.getStart(), search.getTarget(), search.getMaxDistance());
+	}
+
+	@Override
+	public void finishSearch() {
+		this.nodeProcessor.postProcess();
+	}
+
 	@Nullable
 	private Path findPath(PathPoint startPathPoint, PathPoint targetPathPoint, float maxDistance) {
 		startPathPoint.totalPathDistance = 0.0F;
@@ -116,10 +116,17 @@ public class FlyingNodeProcessorBL extends NodeProcessor {
 					IBlockState state = this.blockaccess.getBlockState(checkPos);
 					state = state.getActualState(this.blockaccess, checkPos);
 
-					List<AxisAlignedBB> collidingAABBs = new ArrayList<>();
-					state.addCollisionBoxToList(this.entity.world, checkPos, new AxisAlignedBB(x, y, z, x + this.entitySizeX, y + this.entitySizeY, z + this.entitySizeZ), collidingAABBs, this.entity, true);
-					if(!collidingAABBs.isEmpty()) {
-						return PathNodeType.BLOCKED;
+					//The world must not be accessed if the path is searched on a worker thread
+					if(this.blockaccess instanceof BlockAccessSnapshot) {
+						if(((BlockAccessSnapshot) this.blockaccess).collidesWithBlock(state, checkPos, new AxisAlignedBB(x, y, z, x + this.entitySizeX, y + this.entitySizeY, z + this.entitySizeZ))) {
+							return PathNodeType.BLOCKED;
+						}
+					} else {
+						List<AxisAlignedBB> collidingAABBs = new ArrayList<>();
+						state.addCollisionBoxToList(this.entity.world, checkPos, new AxisAlignedBB(x, y, z, x + this.entitySizeX, y + this.entitySizeY, z + this.entitySizeZ), collidingAABBs, this.entity, true);
+						if(!collidingAABBs.isEmpty()) {
+							return PathNodeType.BLOCKED;
+						}
 					}
 				}
 			}
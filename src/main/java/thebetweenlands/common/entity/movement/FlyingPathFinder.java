@@ -1,5 +1,6 @@
 package thebetweenlands.common.entity.movement;
 
+import java.util.Arrays;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -16,7 +17,7 @@ import net.minecraft.pathfinding.PathPoint;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.IBlockAccess;
 
-public class FlyingPathFinder extends PathFinder {
+public class FlyingPathFinder extends PathFinder implements IAsyncPathFinder {
 	/** The path being generated */
 	private final PathHeap path = new PathHeap();
 	private final Set<PathPoint> closedSet = Sets.<PathPoint>newHashSet();
@@ -24,11 +25,19 @@ public class FlyingPathFinder extends PathFinder {
 	private final PathPoint[] pathOptions = new PathPoint[32];
 	private final NodeProcessor nodeProcessor;
 
+	@Nullable
+	private SearchHandler searchHandler;
+
 	public FlyingPathFinder(NodeProcessor processor) {
 		super(processor);
 		this.nodeProcessor = processor;
 	}
 
+	@Override
+	public void setSearchHandler(@Nullable SearchHandler handler) {
+		this.searchHandler = handler;
+	}
+
 	@Override
 	@Nullable
 	public Path findPath(IBlockAccess worldIn, EntityLiving entitylivingIn, Entity targetEntity, float maxDistance) {
@@ -46,6 +55,10 @@ public class FlyingPathFinder extends PathFinder {
 	@Nullable
 	private Path findPath(IBlockAccess worldIn, EntityLiving entitylivingIn, double x, double y, double z,
 			float maxDistance) {
+		if (this.searchHandler != null) {
+			return this.searchHandler.findPath(this, worldIn, entitylivingIn, x, y, z, maxDistance);
+		}
+
 		this.path.clearPath();
 		this.nodeProcessor.init(worldIn, entitylivingIn);
 		PathPoint pathpoint = this.nodeProcessor.getStart();
@@ -55,6 +68,28 @@ public class FlyingPathFinder extends PathFinder {
 		return path;
 	}
 
+	@Override
+	public PathSearch startSearch(IBlockAccess world, EntityLiving entity, double x, double y, double z, float maxDistance) {
+		this.path.clearPath();
+		this.nodeProcessor.init(world, entity);
+		PathPoint pathpoint = this.nodeProcessor.getStart();
+		PathPoint pathpoint1 = this.nodeProcessor.getPathPointToCoords(x, y, z);
+		Object processorSettings = this.nodeProcessor instanceof FlyingNodeProcessorBL ? ((FlyingNodeProcessorBL) this.nodeProcessor).preferredMinHeight : null;
+		return new PathSearch(pathpoint, pathpoint1, maxDistance, Arrays.asList(entity.getClass(), entity.width, entity.height,
+				this.nodeProcessor.getClass(), this.nodeProcessor.getCanEnterDoors(), this.nodeProcessor.getCanOpenDoors(), this.nodeProcessor.getCanSwim(), processorSettings));
+	}
+
+	@Override
+	@Nullable
+	public Path search(PathSearch search) {
+		return this.findPath(search.getStart(), search.getTarget(), search.getMaxDistance());
+	}
+
+	@Override
+	public void finishSearch() {
+		this.nodeProcessor.postProcess();
+	}
+
 	@Nullable
 	private Path findPath(PathPoint pathFrom, PathPoint pathTo, float maxDistance) {
 		pathFrom.totalPathDistance = 0.0F;
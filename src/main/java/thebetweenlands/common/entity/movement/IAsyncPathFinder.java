@@ -0,0 +1,66 @@
+package thebetweenlands.common.entity.movement;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.entity.EntityLiving;
+import net.minecraft.pathfinding.Path;
+import net.minecraft.world.IBlockAccess;
+
+/**
+ * A path finder whose search can be split up so that the expensive part runs on a worker thread, see {@link AsyncPathService}.
+ * {@link #startSearch(IBlockAccess, EntityLiving, double, double, double, float)} and {@link #finishSearch()} are called
+ * on the server thread, {@link #search(PathSearch)} may be called on any thread and must only read the block access passed
+ * to {@link #startSearch(IBlockAccess, EntityLiving, double, double, double, float)}.
+ * Only one search per path finder may be running at a time.
+ */
+public interface IAsyncPathFinder {
+	/**
+	 * Handles the path searches of a path finder instead of running them synchronously, see {@link AsyncPathTracker}
+	 */
+	public static interface SearchHandler {
+		/**
+		 * Called instead of the synchronous search
+		 * @param pathFinder
+		 * @param world The block access the synchronous search would use
+		 * @param entity
+		 * @param x
+		 * @param y
+		 * @param z
+		 * @param maxDistance
+		 * @return The path that should be followed until the search has finished
+		 */
+		@Nullable
+		public Path findPath(IAsyncPathFinder pathFinder, IBlockAccess world, EntityLiving entity, double x, double y, double z, float maxDistance);
+	}
+
+	/**
+	 * Sets the handler that path searches are passed to, or null if paths are searched synchronously
+	 * @param handler
+	 */
+	public void setSearchHandler(@Nullable SearchHandler handler);
+
+	/**
+	 * Initializes the node processor and determines the start and target point of a search
+	 * @param world
+	 * @param entity
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param maxDistance
+	 * @return
+	 */
+	public PathSearch startSearch(IBlockAccess world, EntityLiving entity, double x, double y, double z, float maxDistance);
+
+	/**
+	 * Runs the search started by {@link #startSearch(IBlockAccess, EntityLiving, double, double, double, float)}
+	 * @param search
+	 * @return
+	 */
+	@Nullable
+	public Path search(PathSearch search);
+
+	/**
+	 * Releases the block access and entity of the finished search
+	 */
+	public void finishSearch();
+}
@@ -26,6 +26,8 @@ public class ObstructionAwarePathNavigateGround<T extends EntityLiving & IPathOb
 
 	protected int stuckCheckTicks = 0;
 
+	protected final AsyncPathTracker asyncPathTracker;
+
 	public ObstructionAwarePathNavigateGround(T entity, World worldIn) {
 		this(entity, worldIn, true);
 	}
@@ -41,6 +43,27 @@ public class ObstructionAwarePathNavigateGround<T extends EntityLiving & IPathOb
 			processor.setObstructionAwareEntity(entity);
 			processor.setCheckObstructions(checkObstructions);
 		}
+
+		this.asyncPathTracker = new AsyncPathTracker(entity, this, (pendingPath, path) -> AsyncPathTracker.replacePendingPath(this, this.speed, pendingPath, path));
+		if(!worldIn.isRemote && this.canSearchAsync()) {
+			this.pathFinder.setSearchHandler(this.asyncPathTracker);
+		}
+	}
+
+	/**
+	 * Returns whether the paths of this navigator can be searched on a worker thread, see {@link AsyncPathService}.
+	 * Must return false if the node processor, heuristic or pathing malus of the entity access anything but the block access of the search
+	 * @return
+	 */
+	protected boolean canSearchAsync() {
+		return true;
+	}
+
+	@Override
+	public void clearPath() {
+		super.clearPath();
+		//The path was cleared on purpose, don't set the path that is still being searched
+		this.asyncPathTracker.cancel();
 	}
 
 	public CustomPathFinder getAssignedPathFinder() {
@@ -60,6 +83,12 @@ public class ObstructionAwarePathNavigateGround<T extends EntityLiving & IPathOb
 		return new CustomPathFinder(nodeProcessor);
 	}
 
+	@Override
+	public void onUpdateNavigation() {
+		this.asyncPathTracker.update();
+		super.onUpdateNavigation();
+	}
+
 	@Override
 	public void updatePath() {
 		if(this.world.getTotalWorldTime() - this.lastTimeUpdated > 20L) {
@@ -1,7 +1,9 @@
 package thebetweenlands.common.entity.movement;
 
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -22,12 +24,54 @@ import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.IBlockAccess;
 
 public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObstructionAwareEntity> extends WalkNodeProcessor {
+	private static final PathNodeType[] NODE_TYPES = PathNodeType.values();
+
+	/**
+	 * Passed as requirement to {@link #isPassableWithExemptions(IBlockAccess, int, int, int, int, int)} if no facing is required
+	 */
+	private static final int ANY_FACING = -1;
+
+	private static final int UP_DOWN = getFacingMask(EnumFacing.UP, EnumFacing.DOWN);
+	private static final int UP_NORTH = getFacingMask(EnumFacing.UP, EnumFacing.NORTH);
+	private static final int UP_EAST = getFacingMask(EnumFacing.UP, EnumFacing.EAST);
+	private static final int UP_SOUTH = getFacingMask(EnumFacing.UP, EnumFacing.SOUTH);
+	private static final int UP_WEST = getFacingMask(EnumFacing.UP, EnumFacing.WEST);
+	private static final int DOWN_NORTH = getFacingMask(EnumFacing.DOWN, EnumFacing.NORTH);
+	private static final int DOWN_EAST = getFacingMask(EnumFacing.DOWN, EnumFacing.EAST);
+	private static final int DOWN_SOUTH = getFacingMask(EnumFacing.DOWN, EnumFacing.SOUTH);
+	private static final int DOWN_WEST = getFacingMask(EnumFacing.DOWN, EnumFacing.WEST);
+
 	protected T obstructionAwareEntity;
 	protected boolean startFromGround = true;
 	protected boolean checkObstructions = true;
 	protected int pathingSizeOffsetX, pathingSizeOffsetY, pathingSizeOffsetZ;
 	protected EnumSet<EnumFacing> pathableFacings = EnumSet.of(EnumFacing.DOWN);
 
+	/**
+	 * Same as {@link #pathableFacings}, iterated for every node without allocating an iterator
+	 */
+	private EnumFacing[] pathableFacingsArray = { EnumFacing.DOWN };
+
+	/**
+	 * Bitmask of the facings that made a node walkable, see {@link #getPathNodeType(IBlockAccess, int, int, int, int)}
+	 */
+	private int foundFacings;
+
+	private final EnumSet<PathNodeType> applicablePathNodeTypes = EnumSet.noneOf(PathNodeType.class);
+
+	private final PathNodeTypeCache.Resolver nodeTypeResolver = (blockAccess, x, y, z) -> this.getPathNodeType(blockAccess, x, y, z, 0);
+
+	@Nullable
+	private PathNodeTypeCache.View nodeTypeCache;
+
+	private static int getFacingMask(EnumFacing... facings) {
+		int mask = 0;
+		for(EnumFacing facing : facings) {
+			mask |= 1 << facing.getIndex();
+		}
+		return mask;
+	}
+
 	public void setObstructionAwareEntity(T obstructionAwareEntity) {
 		this.obstructionAwareEntity = obstructionAwareEntity;
 	}
@@ -52,6 +96,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 			this.pathableFacings.remove(EnumFacing.SOUTH);
 			this.pathableFacings.remove(EnumFacing.WEST);
 		}
+		this.pathableFacingsArray = this.pathableFacings.toArray(new EnumFacing[0]);
 	}
 
 	public void setCanPathCeiling(boolean canPathCeiling) {
@@ -60,6 +105,15 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 		} else {
 			this.pathableFacings.remove(EnumFacing.UP);
 		}
+		this.pathableFacingsArray = this.pathableFacings.toArray(new EnumFacing[0]);
+	}
+
+	/**
+	 * Returns the settings that affect the found paths besides the entity, see {@link PathSearch}
+	 * @return
+	 */
+	public List<Object> getSearchSettings() {
+		return Arrays.asList(this.startFromGround, this.checkObstructions, EnumSet.copyOf(this.pathableFacings));
 	}
 
 	@Override
@@ -68,6 +122,26 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 		this.pathingSizeOffsetX = Math.max(1, MathHelper.floor(this.entity.width / 2.0f + 1));
 		this.pathingSizeOffsetY = Math.max(1, MathHelper.floor(this.entity.height + 1));
 		this.pathingSizeOffsetZ = Math.max(1, MathHelper.floor(this.entity.width / 2.0f + 1));
+
+		if(this.nodeTypeCache != null) {
+			this.nodeTypeCache.release();
+		}
+
+		//The node type of a block depends on the blocks up to the pathing size offsets away
+		int nodeTypeRange = Math.max(Math.max(this.pathingSizeOffsetX, this.pathingSizeOffsetZ), this.pathingSizeOffsetY) + 1;
+		List<Object> nodeTypeCacheKey = Arrays.asList(this.getClass(), EnumSet.copyOf(this.pathableFacings), this.pathingSizeOffsetX, this.pathingSizeOffsetY, this.pathingSizeOffsetZ);
+
+		this.nodeTypeCache = PathNodeTypeCache.createView(mob.world, nodeTypeCacheKey, nodeTypeRange, sourceIn, this.nodeTypeResolver, null);
+	}
+
+	@Override
+	public void postProcess() {
+		if(this.nodeTypeCache != null) {
+			this.nodeTypeCache.release();
+			this.nodeTypeCache = null;
+		}
+
+		super.postProcess();
 	}
 
 	@Override
@@ -118,25 +192,28 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 		return options == null || options.length == 0 || ((options[0] == null || options[0].nodeType == PathNodeType.OPEN || options[0].costMalus != 0.0F) && (options.length <= 1 || (options[1] == null || options[1].nodeType == PathNodeType.OPEN || options[1].costMalus != 0.0F)));
 	}
 
-	private boolean isPassableWithExemptions(IBlockAccess blockAccess, int x, int y, int z, @Nullable EnumSet<EnumFacing> exemptions, @Nullable EnumSet<EnumFacing> requirement, @Nullable EnumSet<EnumFacing> found) {
-		if(requirement != null && found == null) {
-			found = EnumSet.noneOf(EnumFacing.class);
-		}
+	/**
+	 * Returns whether a block within the entity size is passable. The facings that made the checked blocks walkable are
+	 * stored in {@link #foundFacings}
+	 * @param blockAccess
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param exemptions Bitmask of the facings that are not checked
+	 * @param requirement Bitmask of the facings of which at least one must have made a block walkable, or {@link #ANY_FACING}
+	 * @return
+	 */
+	private boolean isPassableWithExemptions(IBlockAccess blockAccess, int x, int y, int z, int exemptions, int requirement) {
+		this.foundFacings = 0;
 
 		for(int xo = 0; xo < this.entitySizeX; xo++) {
 			for(int yo = 0; yo < this.entitySizeY; yo++) {
 				for(int zo = 0; zo < this.entitySizeZ; zo++) {
-					PathNodeType nodeType = this.getPathNodeType(blockAccess, x + xo, y + yo, z + zo, exemptions, found);
+					PathNodeType nodeType = this.getPathNodeType(blockAccess, x + xo, y + yo, z + zo, exemptions);
 
 					if(nodeType != PathNodeType.OPEN && this.entity.getPathPriority(nodeType) >= 0.0f) {
-						if(requirement != null) {
-							for(EnumFacing facing : requirement) {
-								if(found.contains(facing)) {
-									return true;
-								}
-							}
-
-							return false;
+						if(requirement != ANY_FACING) {
+							return (this.foundFacings & requirement) != 0;
 						}
 
 						return true;
@@ -196,9 +273,9 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 			boolean hasValidPath = false;
 
 			if(this.pathableFacings.size() > 1) {
-				EnumSet<EnumFacing> found = EnumSet.noneOf(EnumFacing.class);
-				this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y - 1, currentPoint.z, EnumSet.of(EnumFacing.UP, EnumFacing.DOWN), null, found);
-				hasValidPath = this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.UP, EnumFacing.DOWN), found, null);
+				this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y - 1, currentPoint.z, UP_DOWN, ANY_FACING);
+				int found = this.foundFacings;
+				hasValidPath = this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, UP_DOWN, found);
 			}
 
 			if(hasValidPath) {
@@ -213,10 +290,10 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 
 		PathPoint[] pathsPY = null;
 		if(this.pathableFacings.size() > 1) {
-			EnumSet<EnumFacing> found = EnumSet.noneOf(EnumFacing.class);
-			this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y + 1, currentPoint.z, EnumSet.of(EnumFacing.UP, EnumFacing.DOWN), null, found);
+			this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y + 1, currentPoint.z, UP_DOWN, ANY_FACING);
+			int found = this.foundFacings;
 
-			if(this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.UP, EnumFacing.DOWN), found, null)) {
+			if(this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, UP_DOWN, found)) {
 				pathsPY = this.getSafePoints(currentPoint.x, currentPoint.y + 1, currentPoint.z, stepHeight, height, EnumFacing.UP, this.checkObstructions);
 				for(int k = 0; k < pathsPY.length; k++) {
 					if(pathsPY[k] != null && !pathsPY[k].visited && pathsPY[k].distanceTo(targetPoint) < maxDistance) {
@@ -275,7 +352,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 			boolean avoidPathPY = this.shouldAvoidPathOptions(pathsPY);
 			boolean avoidPathNY = this.shouldAvoidPathOptions(pathsNY);
 
-			if(avoidPathNY && avoidPathNX && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.UP, EnumFacing.EAST), null, null)) {
+			if(avoidPathNY && avoidPathNX && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, UP_EAST, ANY_FACING)) {
 				PathPoint[] pathsNYNX = this.getSafePoints(currentPoint.x - 1, currentPoint.y - 1, currentPoint.z, stepHeight, height, EnumFacing.WEST, this.checkObstructions);
 
 				for(int k = 0; k < pathsNYNX.length; k++) {
@@ -285,7 +362,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 				}
 			}
 
-			if(avoidPathNY && avoidPathPX && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.UP, EnumFacing.WEST), null, null)) {
+			if(avoidPathNY && avoidPathPX && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, UP_WEST, ANY_FACING)) {
 				PathPoint[] pathsNYPX = this.getSafePoints(currentPoint.x + 1, currentPoint.y - 1, currentPoint.z, stepHeight, height, EnumFacing.EAST, this.checkObstructions);
 
 				for(int k = 0; k < pathsNYPX.length; k++) {
@@ -295,7 +372,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 				}
 			}
 
-			if(avoidPathNY && avoidPathNZ && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.UP, EnumFacing.SOUTH), null, null)) {
+			if(avoidPathNY && avoidPathNZ && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, UP_SOUTH, ANY_FACING)) {
 				PathPoint[] pathsNYNZ = this.getSafePoints(currentPoint.x, currentPoint.y - 1, currentPoint.z - 1, stepHeight, height, EnumFacing.NORTH, this.checkObstructions);
 
 				for(int k = 0; k < pathsNYNZ.length; k++) {
@@ -305,7 +382,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 				}
 			}
 
-			if(avoidPathNY && avoidPathPZ && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.UP, EnumFacing.NORTH), null, null)) {
+			if(avoidPathNY && avoidPathPZ && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, UP_NORTH, ANY_FACING)) {
 				PathPoint[] pathsNYPZ = this.getSafePoints(currentPoint.x, currentPoint.y - 1, currentPoint.z + 1, stepHeight, height, EnumFacing.SOUTH, this.checkObstructions);
 
 				for(int k = 0; k < pathsNYPZ.length; k++) {
@@ -315,7 +392,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 				}
 			}
 
-			if(avoidPathPY && avoidPathNX && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.DOWN, EnumFacing.EAST), null, null)) {
+			if(avoidPathPY && avoidPathNX && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, DOWN_EAST, ANY_FACING)) {
 				PathPoint[] pathsPYNX = this.getSafePoints(currentPoint.x - 1, currentPoint.y + 1, currentPoint.z, stepHeight, height, EnumFacing.WEST, this.checkObstructions);
 
 				for(int k = 0; k < pathsPYNX.length; k++) {
@@ -325,7 +402,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 				}
 			}
 
-			if(avoidPathPY && avoidPathPX && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.DOWN, EnumFacing.WEST), null, null)) {
+			if(avoidPathPY && avoidPathPX && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, DOWN_WEST, ANY_FACING)) {
 				PathPoint[] pathsPYPX = this.getSafePoints(currentPoint.x + 1, currentPoint.y + 1, currentPoint.z, stepHeight, height, EnumFacing.EAST, this.checkObstructions);
 
 				for(int k = 0; k < pathsPYPX.length; k++) {
@@ -335,7 +412,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 				}
 			}
 
-			if(avoidPathPY && avoidPathNZ && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.DOWN, EnumFacing.SOUTH), null, null)) {
+			if(avoidPathPY && avoidPathNZ && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, DOWN_SOUTH, ANY_FACING)) {
 				PathPoint[] pathsPYNZ = this.getSafePoints(currentPoint.x, currentPoint.y + 1, currentPoint.z - 1, stepHeight, height, EnumFacing.NORTH, this.checkObstructions);
 
 				for(int k = 0; k < pathsPYNZ.length; k++) {
@@ -345,7 +422,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 				}
 			}
 
-			if(avoidPathPY && avoidPathPZ && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, EnumSet.of(EnumFacing.DOWN, EnumFacing.NORTH), null, null)) {
+			if(avoidPathPY && avoidPathPZ && this.isPassableWithExemptions(this.blockaccess, currentPoint.x, currentPoint.y, currentPoint.z, DOWN_NORTH, ANY_FACING)) {
 				PathPoint[] pathsPYPZ = this.getSafePoints(currentPoint.x, currentPoint.y + 1, currentPoint.z + 1, stepHeight, height, EnumFacing.SOUTH, this.checkObstructions);
 
 				for(int k = 0; k < pathsPYPZ.length; k++) {
@@ -408,7 +485,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 						AxisAlignedBB blockAabb = this.blockaccess.getBlockState(pos).getBoundingBox(this.blockaccess, pos);
 						AxisAlignedBB enclosingAabb = checkAabb.expand(0.0D, blockAabb.maxY - 0.002D, 0.0D);
 
-						if(this.entity.world.collidesWithAnyBlock(enclosingAabb)) {
+						if(this.collidesWithAnyBlock(enclosingAabb)) {
 							directPathPoint = null;
 						}
 					}
@@ -417,13 +494,13 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 				if(nodeType == PathNodeType.OPEN) {
 					AxisAlignedBB checkAabb = new AxisAlignedBB((double)x - halfWidth + 0.5D, (double)y + 0.001D, (double)z - halfWidth + 0.5D, (double)x + halfWidth + 0.5D, (double)((float)y + this.entity.height), (double)z + halfWidth + 0.5D);
 
-					if(this.entity.world.collidesWithAnyBlock(checkAabb)) {
+					if(this.collidesWithAnyBlock(checkAabb)) {
 						result[0] = null;
 						return result;
 					}
 
 					if(this.entity.width >= 1.0F) {
-						for(EnumFacing pathableFacing : this.pathableFacings) {
+						for(EnumFacing pathableFacing : this.pathableFacingsArray) {
 							PathNodeType nodeTypeAtFacing = this.getPathNodeType(this.entity, x + pathableFacing.getXOffset() * this.pathingSizeOffsetX, y + (pathableFacing == EnumFacing.DOWN ? -1 : pathableFacing == EnumFacing.UP ? this.pathingSizeOffsetY : 0), z + pathableFacing.getZOffset() * this.pathingSizeOffsetZ);
 
 							if(nodeTypeAtFacing == PathNodeType.BLOCKED) {
@@ -524,23 +601,44 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 		}
 	}
 
+	private boolean collidesWithAnyBlock(AxisAlignedBB aabb) {
+		//The world must not be accessed if the path is searched on a worker thread
+		if(this.blockaccess instanceof BlockAccessSnapshot) {
+			return ((BlockAccessSnapshot) this.blockaccess).collidesWithAnyBlock(aabb);
+		}
+		return this.entity.world.collidesWithAnyBlock(aabb);
+	}
+
 	private PathNodeType getPathNodeType(EntityLiving entitylivingIn, int x, int y, int z) {
 		return this.getPathNodeType(this.blockaccess, x, y, z, entitylivingIn, this.entitySizeX, this.entitySizeY, this.entitySizeZ, this.getCanOpenDoors(), this.getCanEnterDoors());
 	}
 
 	@Override
 	public PathNodeType getPathNodeType(IBlockAccess blockaccessIn, int x, int y, int z) {
-		return this.getPathNodeType(blockaccessIn, x, y, z, EnumSet.noneOf(EnumFacing.class), null);
+		if(this.nodeTypeCache != null && blockaccessIn == this.blockaccess) {
+			return this.nodeTypeCache.getPathNodeType(blockaccessIn, x, y, z);
+		}
+		return this.getPathNodeType(blockaccessIn, x, y, z, 0);
 	}
 
-	protected PathNodeType getPathNodeType(IBlockAccess blockaccessIn, int x, int y, int z, @Nullable EnumSet<EnumFacing> exemptions, @Nullable EnumSet<EnumFacing> found) {
+	/**
+	 * Returns the node type of the specified block. If a pathable facing made the block walkable
+	 * it is added to {@link #foundFacings}
+	 * @param blockaccessIn
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param exemptions Bitmask of the pathable facings that are not checked
+	 * @return
+	 */
+	protected PathNodeType getPathNodeType(IBlockAccess blockaccessIn, int x, int y, int z, int exemptions) {
 		PathNodeType nodeType = this.getPathNodeTypeRaw(blockaccessIn, x, y, z);
 
 		if(nodeType == PathNodeType.OPEN && y >= 1) {
 			PooledMutableBlockPos pos = PooledMutableBlockPos.retain();
 
-			facings: for(EnumFacing pathableFacing : this.pathableFacings) {
-				if(exemptions == null || !exemptions.contains(pathableFacing)) {
+			facings: for(EnumFacing pathableFacing : this.pathableFacingsArray) {
+				if((exemptions & (1 << pathableFacing.getIndex())) == 0) {
 					int checkHeight = pathableFacing.getAxis() != Axis.Y ? Math.min(4, this.pathingSizeOffsetY - 1) : 0;
 
 					int cx = x + pathableFacing.getXOffset() * this.pathingSizeOffsetX;
@@ -563,9 +661,7 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 						}
 
 						if(nodeType == PathNodeType.WALKABLE) {
-							if(found != null) {
-								found.add(pathableFacing);
-							}
+							this.foundFacings |= 1 << pathableFacing.getIndex();
 							break facings;
 						}
 					}
@@ -583,7 +679,8 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 	public PathNodeType getPathNodeType(IBlockAccess blockaccessIn, int x, int y, int z, EntityLiving entity, int xSize, int ySize, int zSize, boolean canBreakDoorsIn, boolean canEnterDoorsIn) {
 		BlockPos pos = new BlockPos(entity);
 
-		EnumSet<PathNodeType> applicablePathNodeTypes = EnumSet.noneOf(PathNodeType.class);
+		EnumSet<PathNodeType> applicablePathNodeTypes = this.applicablePathNodeTypes;
+		applicablePathNodeTypes.clear();
 		PathNodeType centerPathNodeType = this.getPathNodeType(blockaccessIn, x, y, z, xSize, ySize, zSize, canBreakDoorsIn, canEnterDoorsIn, applicablePathNodeTypes, PathNodeType.BLOCKED, pos);
 
 		if(applicablePathNodeTypes.contains(PathNodeType.FENCE)) {
@@ -591,7 +688,11 @@ public class ObstructionAwareWalkNodeProcessor<T extends EntityLiving & IPathObs
 		} else {
 			PathNodeType selectedPathNodeType = PathNodeType.BLOCKED;
 
-			for(PathNodeType applicablePathNodeType : applicablePathNodeTypes) {
+			for(PathNodeType applicablePathNodeType : NODE_TYPES) {
+				if(!applicablePathNodeTypes.contains(applicablePathNodeType)) {
+					continue;
+				}
+
 				if(entity.getPathPriority(applicablePathNodeType) < 0.0F) {
 					return applicablePathNodeType;
 				}
@@ -10,6 +10,12 @@ public class PathNavigateBarrishee extends ObstructionAwarePathNavigateGround<En
 		this.setCanSwim(true);
 	}
 	
+	@Override
+	protected boolean canSearchAsync() {
+		//The node processor queries the guarded locations of the world
+		return false;
+	}
+
 	@Override
 	protected CustomPathFinder createPathFinder() {
 		NodeProcessor nodeProcessor = new WalkNodeProcessorBarrishee();
@@ -19,24 +19,45 @@ public class PathNavigateFlyingBL extends PathNavigate {
 	protected BlockPos targetPos;
 	protected long lastTimeUpdated;
 
+	protected FlyingPathFinder pathFinder;
+
+	protected final AsyncPathTracker asyncPathTracker;
+
 	public PathNavigateFlyingBL(EntityLiving entitylivingIn, World worldIn) {
 		super(entitylivingIn, worldIn);
+		this.asyncPathTracker = new AsyncPathTracker(entitylivingIn, this, (pendingPath, path) -> AsyncPathTracker.replacePendingPath(this, this.speed, pendingPath, path));
+		if(!worldIn.isRemote) {
+			this.pathFinder.setSearchHandler(this.asyncPathTracker);
+		}
 	}
 
 	public PathNavigateFlyingBL(EntityLiving entitylivingIn, World worldIn, int preferredMinHeight) {
-		super(entitylivingIn, worldIn);
+		this(entitylivingIn, worldIn);
 		if(this.nodeProcessor instanceof FlyingNodeProcessorBL) {
 			((FlyingNodeProcessorBL)this.nodeProcessor).preferredMinHeight = preferredMinHeight;
 		}
 	}
 
+	/**
+	 * Creates the path finder, only called once by the super constructor
+	 */
 	@Override
 	protected PathFinder getPathFinder() {
-		return new FlyingPathFinder(this.nodeProcessor = new FlyingNodeProcessorBL());
+		this.pathFinder = new FlyingPathFinder(this.nodeProcessor = new FlyingNodeProcessorBL());
+		return this.pathFinder;
+	}
+
+	@Override
+	public void clearPath() {
+		super.clearPath();
+		//The path was cleared on purpose, don't set the path that is still being searched
+		this.asyncPathTracker.cancel();
 	}
 
 	@Override
 	public void onUpdateNavigation() {
+		this.asyncPathTracker.update();
+
 		++this.totalTicks;
 
 		if (this.tryUpdatePath) {
@@ -142,7 +163,7 @@ public class PathNavigateFlyingBL extends PathNavigate {
 			BlockPos blockpos = new BlockPos(this.entity);
 			int i = (int)(f + 8.0F);
 			ChunkCache chunkcache = new ChunkCache(this.world, blockpos.add(-i, -i, -i), blockpos.add(i, i, i), 0);
-			Path path = this.getPathFinder().findPath(chunkcache, this.entity, this.targetPos, f);
+			Path path = this.pathFinder.findPath(chunkcache, this.entity, this.targetPos, f);
 			this.world.profiler.endSection();
 			return path;
 		}
@@ -165,7 +186,7 @@ public class PathNavigateFlyingBL extends PathNavigate {
 				BlockPos blockpos1 = (new BlockPos(this.entity)).up();
 				int i = (int)(f + 16.0F);
 				ChunkCache chunkcache = new ChunkCache(this.world, blockpos1.add(-i, -i, -i), blockpos1.add(i, i, i), 0);
-				Path path = this.getPathFinder().findPath(chunkcache, this.entity, new BlockPos(entityIn.posX, entityIn.getEntityBoundingBox().minY + entityIn.height / 2.0D, entityIn.posZ), f);
+				Path path = this.pathFinder.findPath(chunkcache, this.entity, new BlockPos(entityIn.posX, entityIn.getEntityBoundingBox().minY + entityIn.height / 2.0D, entityIn.posZ), f);
 				this.world.profiler.endSection();
 				return path;
 			}
@@ -0,0 +1,414 @@
+package thebetweenlands.common.entity.movement;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.pathfinding.PathNodeType;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import thebetweenlands.common.config.BetweenlandsConfig;
+
+/**
+ * Path node types of blocks that are shared by the node processors of all path searches in a world,
+ * so that mobs with the same size and pathing capabilities don't need to determine the node types of the same blocks again.
+ * <p>
+ * The node types of each node processor configuration are stored in a separate layer, one byte per block and
+ * one array per chunk section. A section is invalidated when a block within the layer's range of the section
+ * or the guard of a location changes, its chunk is unloaded or it is older than {@link #MAX_AGE} ticks.
+ * <p>
+ * Node processors access the cache through a {@link View} that is created when a search starts.
+ * Views are created and released on the server thread, but node types can be looked up on any thread.
+ * A view created for a {@link BlockAccessSnapshot} ignores the sections that were invalidated after the view was created.
+ */
+public final class PathNodeTypeCache {
+	/**
+	 * Maximum age of a section in ticks
+	 */
+	public static final int MAX_AGE = SectionSnapshotCache.MAX_AGE;
+
+	private static final PathNodeType[] NODE_TYPES = PathNodeType.values();
+
+	private static final Map<World, PathNodeTypeCache> CACHES = new HashMap<>();
+
+	/**
+	 * Determines the uncached node type of a block
+	 */
+	public static interface Resolver {
+		public PathNodeType getPathNodeType(IBlockAccess blockAccess, int x, int y, int z);
+	}
+
+	private static final class Section {
+		/**
+		 * Modification count of the cache when the section was invalidated
+		 */
+		private final long modCount;
+		private final long creationTime;
+
+		/**
+		 * Node type ordinals + 1 indexed by <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>, 0 if not yet determined
+		 */
+		@Nullable
+		private volatile byte[] nodeTypes;
+
+		private Section(long modCount, long creationTime) {
+			this.modCount = modCount;
+			this.creationTime = creationTime;
+		}
+
+		private byte[] getOrCreateNodeTypes() {
+			byte[] nodeTypes = this.nodeTypes;
+			if(nodeTypes == null) {
+				synchronized(this) {
+					nodeTypes = this.nodeTypes;
+					if(nodeTypes == null) {
+						this.nodeTypes = nodeTypes = new byte[4096];
+					}
+				}
+			}
+			return nodeTypes;
+		}
+	}
+
+	/**
+	 * Returned by {@link View#getSection(int, int, int)} for sections that can't be cached by the view
+	 */
+	private static final Section UNCACHED = new Section(Long.MAX_VALUE, Long.MIN_VALUE);
+
+	private static final class Layer {
+		private final int range;
+		private final ConcurrentMap<Long, Section> sections = new ConcurrentHashMap<>();
+
+		/**
+		 * Number of views that haven't been released yet
+		 */
+		private int activeViews;
+
+		private Layer(int range) {
+			this.range = range;
+		}
+	}
+
+	private class Listener extends BlockChangeListener {
+		@Override
+		protected void onBlocksChanged(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+			PathNodeTypeCache.this.invalidate(minX, minY, minZ, maxX, maxY, maxZ);
+		}
+	}
+
+	private final World world;
+	private final Listener listener = new Listener();
+	private final Map<Object, Layer> layers = new HashMap<>();
+
+	/**
+	 * Incremented whenever sections are invalidated
+	 */
+	private long modCount;
+
+	private PathNodeTypeCache(World world) {
+		this.world = world;
+	}
+
+	/**
+	 * Returns the cache of the specified world
+	 * @param world
+	 * @return
+	 */
+	public static PathNodeTypeCache forWorld(World world) {
+		PathNodeTypeCache cache = CACHES.get(world);
+		if(cache == null) {
+			CACHES.put(world, cache = new PathNodeTypeCache(world));
+			world.addEventListener(cache.listener);
+		}
+		return cache;
+	}
+
+	/**
+	 * Creates a view for a path search. Must be called on the server thread, and the view must be released once the search has finished
+	 * @param world The world the path is searched in
+	 * @param key Identifies the node processor configuration. Node processors with equal keys must determine equal node types
+	 * @param range The maximum distance of the blocks that affect the node type of a block
+	 * @param blockAccess The block access of the search. If this is a {@link BlockAccessSnapshot} the node types are determined on the
+	 * snapshot, otherwise they are determined on the world
+	 * @param resolver Determines the node types that are not yet cached
+	 * @param region The region of blocks the resolver may read, or null if not limited
+	 * @return The view, or null if the node types can't be cached
+	 */
+	@Nullable
+	public static View createView(World world, Object key, int range, IBlockAccess blockAccess, Resolver resolver, @Nullable BlockRegion region) {
+		if(world.isRemote || !BetweenlandsConfig.PERFORMANCE.pathNodeTypeCache || range >= 16) {
+			return null;
+		}
+
+		PathNodeTypeCache cache = forWorld(world);
+
+		Layer layer = cache.layers.get(key);
+		if(layer == null) {
+			cache.layers.put(key, layer = new Layer(range));
+		}
+
+		layer.activeViews++;
+
+		return new View(cache, layer, blockAccess instanceof BlockAccessSnapshot ? (BlockAccessSnapshot) blockAccess : null, resolver, region);
+	}
+
+	/**
+	 * Invalidates the node types that depend on the blocks in the specified volume, all coordinates inclusive,
+	 * e.g. because their location guard has changed
+	 * @param world
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 */
+	public static void invalidate(World world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if(!world.isRemote) {
+			PathNodeTypeCache cache = CACHES.get(world);
+			if(cache != null) {
+				cache.invalidate(minX, minY, minZ, maxX, maxY, maxZ);
+			}
+		}
+	}
+
+	private static long getSectionKey(int chunkX, int sectionY, int chunkZ) {
+		return ((long)chunkX & 0xFFFFFFL) << 28 | ((long)chunkZ & 0xFFFFFFL) << 4 | (long)(sectionY & 15);
+	}
+
+	private void invalidate(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		this.modCount++;
+
+		long time = this.world.getTotalWorldTime();
+
+		for(Layer layer : this.layers.values()) {
+			int minSectionY = Math.max(0, (minY - layer.range) >> 4);
+			int maxSectionY = Math.min(15, (maxY + layer.range) >> 4);
+
+			for(int cx = (minX - layer.range) >> 4; cx <= (maxX + layer.range) >> 4; cx++) {
+				for(int cz = (minZ - layer.range) >> 4; cz <= (maxZ + layer.range) >> 4; cz++) {
+					for(int sy = minSectionY; sy <= maxSectionY; sy++) {
+						Long key = getSectionKey(cx, sy, cz);
+
+						if(layer.activeViews > 0) {
+							//Running searches must not cache the node types of their outdated snapshot in this section
+							layer.sections.put(key, new Section(this.modCount, time));
+						} else {
+							layer.sections.remove(key);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the sections that are older than {@link #MAX_AGE} and the unused layers
+	 */
+	public void removeExpired() {
+		long time = this.world.getTotalWorldTime();
+
+		Iterator<Layer> it = this.layers.values().iterator();
+		while(it.hasNext()) {
+			Layer layer = it.next();
+			layer.sections.values().removeIf(section -> time - section.creationTime > MAX_AGE);
+			if(layer.activeViews == 0 && layer.sections.isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes the expired sections of all worlds
+	 */
+	public static void removeAllExpired() {
+		for(PathNodeTypeCache cache : CACHES.values()) {
+			cache.removeExpired();
+		}
+	}
+
+	@SubscribeEvent
+	public static void onChunkUnload(ChunkEvent.Unload event) {
+		PathNodeTypeCache cache = CACHES.get(event.getWorld());
+		if(cache != null) {
+			for(Layer layer : cache.layers.values()) {
+				for(int sy = 0; sy < 16; sy++) {
+					layer.sections.remove(getSectionKey(event.getChunk().x, sy, event.getChunk().z));
+				}
+			}
+		}
+	}
+
+	@SubscribeEvent
+	public static void onWorldUnload(WorldEvent.Unload event) {
+		PathNodeTypeCache cache = CACHES.remove(event.getWorld());
+		if(cache != null) {
+			event.getWorld().removeEventListener(cache.listener);
+		}
+	}
+
+	/**
+	 * Region of blocks, all coordinates inclusive
+	 */
+	public static final class BlockRegion {
+		private final int minX, minY, minZ, maxX, maxY, maxZ;
+
+		public BlockRegion(BlockPos min, BlockPos max) {
+			this.minX = min.getX();
+			this.minY = min.getY();
+			this.minZ = min.getZ();
+			this.maxX = max.getX();
+			this.maxY = max.getY();
+			this.maxZ = max.getZ();
+		}
+
+		public boolean contains(int x, int y, int z) {
+			return x >= this.minX && x <= this.maxX && y >= this.minY && y <= this.maxY && z >= this.minZ && z <= this.maxZ;
+		}
+	}
+
+	/**
+	 * Access to the cached node types of one path search. Only one thread at a time may use a view
+	 */
+	public static final class View {
+		private final PathNodeTypeCache cache;
+		private final Layer layer;
+		@Nullable
+		private final BlockAccessSnapshot snapshot;
+		private final Resolver resolver;
+		@Nullable
+		private final BlockRegion region;
+
+		private final long modCount;
+		private final long time;
+
+		private final Long2ObjectMap<Section> sections = new Long2ObjectOpenHashMap<>();
+		private long lastSectionKey;
+		@Nullable
+		private Section lastSection;
+
+		private boolean released;
+
+		private View(PathNodeTypeCache cache, Layer layer, @Nullable BlockAccessSnapshot snapshot, Resolver resolver, @Nullable BlockRegion region) {
+			this.cache = cache;
+			this.layer = layer;
+			this.snapshot = snapshot;
+			this.resolver = resolver;
+			this.region = region;
+			this.modCount = cache.modCount;
+			this.time = cache.world.getTotalWorldTime();
+		}
+
+		/**
+		 * Returns the node type of the specified block. If the block's section can't be cached the node type is determined
+		 * on the specified block access instead
+		 * @param blockAccess
+		 * @param x
+		 * @param y
+		 * @param z
+		 * @return
+		 */
+		public PathNodeType getPathNodeType(IBlockAccess blockAccess, int x, int y, int z) {
+			Section section = y >= 0 && y < 256 ? this.getSection(x >> 4, y >> 4, z >> 4) : UNCACHED;
+
+			if(section == UNCACHED) {
+				return this.resolver.getPathNodeType(blockAccess, x, y, z);
+			}
+
+			byte[] nodeTypes = section.getOrCreateNodeTypes();
+			int index = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+
+			int nodeType = nodeTypes[index];
+			if(nodeType != 0) {
+				return NODE_TYPES[nodeType - 1];
+			}
+
+			PathNodeType resolved = this.resolver.getPathNodeType(this.snapshot != null ? this.snapshot : this.cache.world, x, y, z);
+			nodeTypes[index] = (byte)(resolved.ordinal() + 1);
+			return resolved;
+		}
+
+		private Section getSection(int chunkX, int sectionY, int chunkZ) {
+			long key = getSectionKey(chunkX, sectionY, chunkZ);
+
+			if(this.lastSection != null && this.lastSectionKey == key) {
+				return this.lastSection;
+			}
+
+			Section section = this.sections.get(key);
+
+			if(section == null) {
+				this.sections.put(key, section = this.findSection(chunkX, sectionY, chunkZ, key));
+			}
+
+			this.lastSectionKey = key;
+			this.lastSection = section;
+
+			return section;
+		}
+
+		private Section findSection(int chunkX, int sectionY, int chunkZ, long key) {
+			int range = this.layer.range;
+
+			int minX = (chunkX << 4) - range;
+			int minY = (sectionY << 4) - range;
+			int minZ = (chunkZ << 4) - range;
+			int maxX = (chunkX << 4) + 15 + range;
+			int maxY = (sectionY << 4) + 15 + range;
+			int maxZ = (chunkZ << 4) + 15 + range;
+
+			if(this.region != null && (!this.region.contains(minX, minY, minZ) || !this.region.contains(maxX, maxY, maxZ))) {
+				return UNCACHED;
+			}
+
+			if(this.snapshot != null) {
+				if(!this.snapshot.containsAll(minX, minY, minZ, maxX, maxY, maxZ)) {
+					return UNCACHED;
+				}
+			} else if(!this.cache.world.isAreaLoaded(new BlockPos(minX, minY, minZ), new BlockPos(maxX, maxY, maxZ))) {
+				return UNCACHED;
+			}
+
+			Long boxedKey = key;
+
+			Section section = this.layer.sections.get(boxedKey);
+
+			if(section == null || this.time - section.creationTime > MAX_AGE) {
+				Section newSection = new Section(section != null ? section.modCount : Long.MIN_VALUE, this.time);
+
+				if(section == null ? this.layer.sections.putIfAbsent(boxedKey, newSection) == null : this.layer.sections.replace(boxedKey, section, newSection)) {
+					section = newSection;
+				} else {
+					section = this.layer.sections.get(boxedKey);
+				}
+			}
+
+			//Sections invalidated after this view was created may depend on blocks that differ from the snapshot
+			if(section == null || section.modCount > this.modCount) {
+				return UNCACHED;
+			}
+
+			return section;
+		}
+
+		/**
+		 * Releases the view once its search has finished. Must be called on the server thread
+		 */
+		public void release() {
+			if(!this.released) {
+				this.released = true;
+				this.layer.activeViews--;
+			}
+		}
+	}
+}
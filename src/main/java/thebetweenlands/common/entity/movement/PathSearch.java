@@ -0,0 +1,65 @@
+package thebetweenlands.common.entity.movement;
+
+import java.util.List;
+
+import net.minecraft.pathfinding.PathPoint;
+
+/**
+ * Start and target point of a path search started by {@link IAsyncPathFinder#startSearch(net.minecraft.world.IBlockAccess, net.minecraft.entity.EntityLiving, double, double, double, float)}.
+ * Two searches are equal if they have the same start and target point, maximum distance and path finder settings
+ * and would thus find the same path in the same world.
+ */
+public final class PathSearch {
+	private final PathPoint start;
+	private final PathPoint target;
+	private final float maxDistance;
+	private final List<Object> settings;
+
+	/**
+	 * @param start
+	 * @param target
+	 * @param maxDistance
+	 * @param settings Everything besides the start and target that affects the found path, e.g. the entity class, size and node processor settings
+	 */
+	public PathSearch(PathPoint start, PathPoint target, float maxDistance, List<Object> settings) {
+		this.start = start;
+		this.target = target;
+		this.maxDistance = maxDistance;
+		this.settings = settings;
+	}
+
+	public PathPoint getStart() {
+		return this.start;
+	}
+
+	public PathPoint getTarget() {
+		return this.target;
+	}
+
+	public float getMaxDistance() {
+		return this.maxDistance;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof PathSearch)) {
+			return false;
+		}
+		PathSearch other = (PathSearch) obj;
+		return this.start.x == other.start.x && this.start.y == other.start.y && this.start.z == other.start.z &&
+				this.target.x == other.target.x && this.target.y == other.target.y && this.target.z == other.target.z &&
+				Float.floatToIntBits(this.maxDistance) == Float.floatToIntBits(other.maxDistance) && this.settings.equals(other.settings);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = this.start.hashCode();
+		hash = 31 * hash + this.target.hashCode();
+		hash = 31 * hash + Float.floatToIntBits(this.maxDistance);
+		hash = 31 * hash + this.settings.hashCode();
+		return hash;
+	}
+}
@@ -0,0 +1,193 @@
+package thebetweenlands.common.entity.movement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+/**
+ * Copies of chunk sections that are shared by the {@link BlockAccessSnapshot}s of all path searches in a world,
+ * so that mobs pathing in the same area don't need to copy the same sections again.
+ * A copy is reused until a block in its section is changed, its chunk is unloaded or it is older than {@link #MAX_AGE} ticks.
+ * The age limit covers changes that aren't passed to the world event listeners, e.g. blocks set without the client update flag.
+ * Must only be used on the server thread.
+ */
+public final class SectionSnapshotCache {
+	/**
+	 * Maximum age of a section copy in ticks
+	 */
+	public static final int MAX_AGE = 60;
+
+	private static final Map<World, SectionSnapshotCache> CACHES = new HashMap<>();
+
+	private static class ChunkSnapshot {
+		private final IBlockState[][] sections = new IBlockState[16][];
+		private final long[] sectionTimes = new long[16];
+		private final byte[] biomes;
+
+		private ChunkSnapshot(Chunk chunk) {
+			this.biomes = chunk.getBiomeArray().clone();
+			for(int i = 0; i < 16; i++) {
+				this.sectionTimes[i] = Long.MIN_VALUE;
+			}
+		}
+	}
+
+	private class Listener extends BlockChangeListener {
+		@Override
+		protected void onBlocksChanged(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+			for(int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+				for(int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+					for(int sy = minY >> 4; sy <= maxY >> 4; sy++) {
+						SectionSnapshotCache.this.invalidate(cx, sy, cz);
+					}
+				}
+			}
+		}
+	}
+
+	private final World world;
+	private final Listener listener = new Listener();
+	private final Long2ObjectMap<ChunkSnapshot> chunks = new Long2ObjectOpenHashMap<>();
+
+	private SectionSnapshotCache(World world) {
+		this.world = world;
+	}
+
+	/**
+	 * Returns the cache of the specified world
+	 * @param world
+	 * @return
+	 */
+	public static SectionSnapshotCache forWorld(World world) {
+		SectionSnapshotCache cache = CACHES.get(world);
+		if(cache == null) {
+			CACHES.put(world, cache = new SectionSnapshotCache(world));
+			world.addEventListener(cache.listener);
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the copy of the block states of the specified chunk section, indexed by <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>.
+	 * The returned array must not be modified
+	 * @param chunk
+	 * @param sectionY
+	 * @return The copy, or null if the section is empty
+	 */
+	@Nullable
+	public IBlockState[] getSection(Chunk chunk, int sectionY) {
+		ChunkSnapshot snapshot = this.getChunk(chunk);
+
+		long time = this.world.getTotalWorldTime();
+
+		if(!isValid(snapshot.sectionTimes[sectionY], time)) {
+			ExtendedBlockStorage storage = chunk.getBlockStorageArray()[sectionY];
+
+			IBlockState[] states = null;
+
+			if(storage != Chunk.NULL_BLOCK_STORAGE && !storage.isEmpty()) {
+				states = new IBlockState[4096];
+				for(int y = 0; y < 16; y++) {
+					for(int z = 0; z < 16; z++) {
+						for(int x = 0; x < 16; x++) {
+							states[y << 8 | z << 4 | x] = storage.get(x, y, z);
+						}
+					}
+				}
+			}
+
+			snapshot.sections[sectionY] = states;
+			snapshot.sectionTimes[sectionY] = time;
+		}
+
+		return snapshot.sections[sectionY];
+	}
+
+	/**
+	 * Returns the copy of the biome IDs of the specified chunk. The returned array must not be modified
+	 * @param chunk
+	 * @return
+	 */
+	public byte[] getBiomes(Chunk chunk) {
+		return this.getChunk(chunk).biomes;
+	}
+
+	private ChunkSnapshot getChunk(Chunk chunk) {
+		long key = ChunkPos.asLong(chunk.x, chunk.z);
+		ChunkSnapshot snapshot = this.chunks.get(key);
+		if(snapshot == null) {
+			this.chunks.put(key, snapshot = new ChunkSnapshot(chunk));
+		}
+		return snapshot;
+	}
+
+	private static boolean isValid(long sectionTime, long time) {
+		return sectionTime != Long.MIN_VALUE && time >= sectionTime && time - sectionTime <= MAX_AGE;
+	}
+
+	private void invalidate(int chunkX, int sectionY, int chunkZ) {
+		if(sectionY >= 0 && sectionY < 16) {
+			ChunkSnapshot snapshot = this.chunks.get(ChunkPos.asLong(chunkX, chunkZ));
+			if(snapshot != null) {
+				snapshot.sections[sectionY] = null;
+				snapshot.sectionTimes[sectionY] = Long.MIN_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * Removes the chunks whose section copies have all expired
+	 */
+	public void removeExpired() {
+		long time = this.world.getTotalWorldTime();
+
+		ObjectIterator<ChunkSnapshot> it = this.chunks.values().iterator();
+		chunks: while(it.hasNext()) {
+			ChunkSnapshot snapshot = it.next();
+			for(long sectionTime : snapshot.sectionTimes) {
+				if(isValid(sectionTime, time)) {
+					continue chunks;
+				}
+			}
+			it.remove();
+		}
+	}
+
+	/**
+	 * Removes the expired chunks of all worlds
+	 */
+	public static void removeAllExpired() {
+		for(SectionSnapshotCache cache : CACHES.values()) {
+			cache.removeExpired();
+		}
+	}
+
+	@SubscribeEvent
+	public static void onChunkUnload(ChunkEvent.Unload event) {
+		SectionSnapshotCache cache = CACHES.get(event.getWorld());
+		if(cache != null) {
+			cache.chunks.remove(ChunkPos.asLong(event.getChunk().x, event.getChunk().z));
+		}
+	}
+
+	@SubscribeEvent
+	public static void onWorldUnload(WorldEvent.Unload event) {
+		SectionSnapshotCache cache = CACHES.remove(event.getWorld());
+		if(cache != null) {
+			event.getWorld().removeEventListener(cache.listener);
+		}
+	}
+}
@@ -3,8 +3,11 @@ package thebetweenlands.common.entity.movement;
 import java.util.EnumSet;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import net.minecraft.block.BlockRailBase;
 import net.minecraft.entity.EntityLiving;
+import net.minecraft.entity.SharedMonsterAttributes;
 import net.minecraft.pathfinding.PathNodeType;
 import net.minecraft.pathfinding.WalkNodeProcessor;
 import net.minecraft.util.EnumFacing;
@@ -17,13 +20,71 @@ import thebetweenlands.common.world.storage.location.LocationGuarded;
 import thebetweenlands.common.world.storage.location.LocationSludgeWormDungeon;
 
 public class WalkNodeProcessorBarrishee extends WalkNodeProcessor {
+	/**
+	 * The node type of a block depends on the guard of the block's horizontal neighbors and the block below
+	 */
+	private static final int NODE_TYPE_RANGE = 2;
+
 	protected EntityBarrishee barrishee;
 
+	/**
+	 * Region around the barrishee in which the guarded dungeons are known
+	 */
+	@Nullable
+	private PathNodeTypeCache.BlockRegion locationsRegion;
+
+	/**
+	 * The guarded dungeons that intersect {@link #locationsRegion}
+	 */
+	@Nullable
+	private List<LocationSludgeWormDungeon> locations;
+
+	private final PathNodeTypeCache.Resolver nodeTypeResolver = (blockAccess, x, y, z) -> super.getPathNodeType(blockAccess, x, y, z);
+
+	@Nullable
+	private PathNodeTypeCache.View nodeTypeCache;
+
 	@Override
 	public void init(IBlockAccess sourceIn, EntityLiving mob) {
 		this.barrishee = (EntityBarrishee) mob;
 
 		super.init(sourceIn, mob);
+
+		//Covers the chunk cache of the navigator and the blocks checked around it
+		BlockPos pos = new BlockPos(mob);
+		int range = (int) mob.getEntityAttribute(SharedMonsterAttributes.FOLLOW_RANGE).getAttributeValue() + 16;
+		BlockPos min = pos.add(-range, -range, -range);
+		BlockPos max = pos.add(range, range, range);
+
+		this.locationsRegion = new PathNodeTypeCache.BlockRegion(min, max);
+		this.locations = BetweenlandsWorldStorage.forWorld(mob.world).getLocalStorageHandler().getLocalStorages(LocationSludgeWormDungeon.class, new AxisAlignedBB(min, max.add(1, 1, 1)), location -> location.getGuard() != null);
+
+		if(this.nodeTypeCache != null) {
+			this.nodeTypeCache.release();
+		}
+
+		this.nodeTypeCache = PathNodeTypeCache.createView(mob.world, this.getClass(), NODE_TYPE_RANGE, sourceIn, this.nodeTypeResolver, this.locationsRegion);
+	}
+
+	@Override
+	public void postProcess() {
+		if(this.nodeTypeCache != null) {
+			this.nodeTypeCache.release();
+			this.nodeTypeCache = null;
+		}
+
+		this.locationsRegion = null;
+		this.locations = null;
+
+		super.postProcess();
+	}
+
+	@Override
+	public PathNodeType getPathNodeType(IBlockAccess blockaccessIn, int x, int y, int z) {
+		if(this.nodeTypeCache != null && blockaccessIn == this.blockaccess) {
+			return this.nodeTypeCache.getPathNodeType(blockaccessIn, x, y, z);
+		}
+		return super.getPathNodeType(blockaccessIn, x, y, z);
 	}
 
 	@Override
@@ -74,34 +135,49 @@ public class WalkNodeProcessorBarrishee extends WalkNodeProcessor {
 
 		BlockPos pos = new BlockPos(x, y, z);
 
-		List<LocationSludgeWormDungeon> locations = BetweenlandsWorldStorage.forWorld(this.barrishee.world).getLocalStorageHandler().getLocalStorages(LocationSludgeWormDungeon.class, new AxisAlignedBB(pos), location -> location.getGuard() != null);
+		AxisAlignedBB blockAabb = new AxisAlignedBB(pos);
+
+		List<LocationSludgeWormDungeon> locations;
+		if(this.locations != null && this.locationsRegion.contains(x, y, z)) {
+			locations = this.locations;
+		} else {
+			locations = BetweenlandsWorldStorage.forWorld(this.barrishee.world).getLocalStorageHandler().getLocalStorages(LocationSludgeWormDungeon.class, blockAabb, location -> location.getGuard() != null);
+		}
+
+		boolean inLocation = false;
+		boolean isWalkable = true;
 
-		if(!locations.isEmpty()) {
-			boolean isWalkable = true;
+		for(LocationGuarded location : locations) {
+			//Same check as the local storage query
+			if(!location.getBoundingBox().intersects(blockAabb)) {
+				continue;
+			}
 
-			for(LocationGuarded location : locations) {
-				if(location.getGuard().isGuarded(this.barrishee.world, barrishee, pos)) {
-					isWalkable = false;
-					break;
-				} else {
-					boolean allNeighborsProtected = true;
+			inLocation = true;
 
-					for(EnumFacing offset : EnumFacing.HORIZONTALS) {
-						if(!location.getGuard().isGuarded(this.barrishee.world, barrishee, pos.offset(offset))) {
-							allNeighborsProtected = false;
-							break;
-						}
-					}
+			if(location.getGuard().isGuarded(this.barrishee.world, barrishee, pos)) {
+				isWalkable = false;
+				break;
+			} else {
+				boolean allNeighborsProtected = true;
 
-					if(allNeighborsProtected) {
-						return type;
+				for(EnumFacing offset : EnumFacing.HORIZONTALS) {
+					if(!location.getGuard().isGuarded(this.barrishee.world, barrishee, pos.offset(offset))) {
+						allNeighborsProtected = false;
+						break;
 					}
 				}
+
+				if(allNeighborsProtected) {
+					return type;
+				}
 			}
+		}
 
+		if(inLocation) {
 			return isWalkable ? PathNodeType.OPEN : PathNodeType.BLOCKED;
 		}
 
 		return type;
 	}
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ package thebetweenlands.common.handler;
 import net.minecraft.client.Minecraft;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraftforge.event.entity.EntityJoinWorldEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
@@ -14,6 +15,7 @@ import thebetweenlands.api.environment.IEnvironmentEvent;
 import thebetweenlands.api.network.IGenericDataManagerAccess;
 import thebetweenlands.common.TheBetweenlands;
 import thebetweenlands.common.network.clientbound.MessageSyncEnvironmentEventData;
+import thebetweenlands.common.network.datamanager.GenericDataManagerSyncBatch;
 import thebetweenlands.common.registries.AdvancementCriterionRegistry;
 import thebetweenlands.common.world.event.BLEnvironmentEvent;
 import thebetweenlands.common.world.event.BLEnvironmentEventRegistry;
@@ -45,10 +47,14 @@ public class EnvironmentEventHandler {
 					if(dataManager != null) {
 						dataManager.update();
 						if(dataManager.isDirty()) {
-							TheBetweenlands.networkWrapper.sendToDimension(new MessageSyncEnvironmentEventData(eevent, false), event.world.provider.getDimension());
+							GenericDataManagerSyncBatch.queueEnvironmentEvent(eevent, false, event.world.playerEntities);
 						}
 					}
 				}
+
+				if(!reg.isDisabled() && event.world instanceof WorldServer) {
+					reg.getWeatherSurfaceScheduler().update((WorldServer) event.world, reg.getEvents().values());
+				}
 			}
 		}
 	}
@@ -6,6 +6,7 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.EntityPlayerSP;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.util.SoundCategory;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
@@ -27,7 +28,7 @@ import thebetweenlands.common.registries.CapabilityRegistry;
 import thebetweenlands.common.registries.SoundRegistry;
 import thebetweenlands.common.world.storage.BetweenlandsWorldStorage;
 import thebetweenlands.common.world.storage.location.LocationPortal;
-import thebetweenlands.common.world.teleporter.TeleporterHandler;
+import thebetweenlands.common.world.teleporter.PortalSearchScheduler;
 
 public class PlayerPortalHandler {
 	public static final int MAX_PORTAL_TIME = 120;
@@ -71,8 +72,8 @@ public class PlayerPortalHandler {
 									}
 									if(targetDim != player.dimension) {
 										WorldServer otherDim = ((WorldServer) player.world).getMinecraftServer().getWorld(targetDim);
-										if(otherDim != null) {
-											TeleporterHandler.transferToDim(player, otherDim);
+										if(otherDim != null && player instanceof EntityPlayerMP) {
+											PortalSearchScheduler.transferToDim((EntityPlayerMP) player, otherDim);
 										}
 									}
 								}
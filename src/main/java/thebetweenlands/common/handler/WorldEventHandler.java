@@ -27,6 +27,8 @@ import thebetweenlands.api.storage.IChunkStorage;
 import thebetweenlands.api.storage.ILocalStorage;
 import thebetweenlands.api.storage.IWorldStorage;
 import thebetweenlands.common.lib.ModInfo;
+import thebetweenlands.common.network.datamanager.GenericDataManagerSyncBatch;
+import thebetweenlands.common.world.storage.LocalStorageHandlerImpl;
 import thebetweenlands.common.world.storage.WorldStorageImpl;
 
 public final class WorldEventHandler {
@@ -113,6 +115,16 @@ public final class WorldEventHandler {
 		worldStorage.getLocalStorageHandler().saveAll();
 	}
 
+	@SubscribeEvent
+	public static void onWorldUnload(WorldEvent.Unload event) {
+		if(!event.getWorld().isRemote) {
+			IWorldStorage worldStorage = WorldStorageImpl.getCapability(event.getWorld());
+			if(worldStorage != null && worldStorage.getLocalStorageHandler() instanceof LocalStorageHandlerImpl) {
+				((LocalStorageHandlerImpl) worldStorage.getLocalStorageHandler()).saveAllAndClose();
+			}
+		}
+	}
+
 	@SubscribeEvent
 	public static void onServerTick(ServerTickEvent event) {
 		if(event.phase == Phase.END) {
@@ -124,6 +136,9 @@ public final class WorldEventHandler {
 				}
 			}
 			UNLOAD_QUEUE.clear();
+
+			//Send all data manager changes of this tick
+			GenericDataManagerSyncBatch.flush();
 		}
 	}
 
@@ -15,13 +15,11 @@ import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
-import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.storage.MapData;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
-import thebetweenlands.api.storage.ILocalStorageHandler;
 import thebetweenlands.client.tab.BLCreativeTabs;
 import thebetweenlands.common.TheBetweenlands;
 import thebetweenlands.common.config.BetweenlandsConfig;
@@ -30,6 +28,8 @@ import thebetweenlands.common.registries.BiomeRegistry;
 import thebetweenlands.common.registries.ItemRegistry;
 import thebetweenlands.common.registries.ItemRegistry.ICustomMeshCallback;
 import thebetweenlands.common.world.storage.AmateMapData;
+import thebetweenlands.common.world.storage.AmateMapLocationIndex;
+import thebetweenlands.common.world.storage.AmateMapTileCache;
 import thebetweenlands.common.world.storage.AmateMapData.BLMapDecoration.Location;
 import thebetweenlands.common.world.storage.BetweenlandsWorldStorage;
 import thebetweenlands.common.world.storage.location.LocationCragrockTower;
@@ -44,6 +44,11 @@ public class ItemAmateMap extends ItemMap implements ICustomMeshCallback {
     public static final String STR_ID = "amatemap";
     private static final Map<ResourceLocation, BiomeColor> BIOME_COLORS = new HashMap<>();
 
+    /**
+     * Bitset of the map pixels that were checked during the current update, reused by all updates
+     */
+    private final long[] checkedPixels = new long[128 * 128 / 64];
+
     public ItemAmateMap() {
         setCreativeTab(BLCreativeTabs.SPECIALS);
     }
@@ -92,7 +97,7 @@ public class ItemAmateMap extends ItemMap implements ICustomMeshCallback {
     @Override
     public void updateMapData(World world, Entity viewer, MapData data) {
         if (world.provider.getDimension() == BetweenlandsConfig.WORLD_AND_DIMENSION.dimensionId && world.provider.getDimension() == data.dimension && viewer instanceof EntityPlayer && viewer.ticksExisted % 20 == 0) {
-            int blocksPerPixel = 16;
+            int blocksPerPixel = AmateMapTileCache.BLOCKS_PER_PIXEL;
             int centerX = data.xCenter;
             int centerZ = data.zCenter;
             int viewerBlockX = MathHelper.floor((viewer.posX) / blocksPerPixel) * blocksPerPixel;
@@ -103,139 +108,115 @@ public class ItemAmateMap extends ItemMap implements ICustomMeshCallback {
             int viewerPixelZ = viewerOffsetZ / blocksPerPixel + 64;
             int viewRadiusPixels = 256 / blocksPerPixel;
 
+            //Position of the top left map pixel in the global pixel grid of the tile cache
+            int originPixelX = centerX / blocksPerPixel - 64;
+            int originPixelZ = centerZ / blocksPerPixel - 64;
+
             MapData.MapInfo mapInfo = data.getMapInfo((EntityPlayer)viewer);
             ++mapInfo.step;
-            
+
             boolean terrainChanged = false;
 
-            final int biomeViewRange = viewRadiusPixels * blocksPerPixel / 4 * 2 + 1;
-            
-            int updatedColumns = 0;
-            
-            int prevXPixel = 0;
-            
-            Biome[][] biomes = new Biome[2][];
-            biomes[0] = new Biome[biomeViewRange];
-            biomes[1] = new Biome[biomeViewRange];
-            
-            Map<Integer, List<Integer>> checkedChunks = new HashMap<>();
+            BetweenlandsWorldStorage worldStorage = BetweenlandsWorldStorage.forWorld(world);
+            AmateMapTileCache tileCache = worldStorage.getAmateMapTileCache();
+
+            long[] checkedPixels = this.checkedPixels;
+            Arrays.fill(checkedPixels, 0L);
+
             for (int xPixel = viewerPixelX - viewRadiusPixels + 1; xPixel < viewerPixelX + viewRadiusPixels; ++xPixel) {
                 if ((xPixel & 15) == (mapInfo.step & 15) || terrainChanged) {
                     terrainChanged = false;
-                    
-                    final int primaryBiomesArray = updatedColumns % 2;
-                    final int previousBiomesArray = (updatedColumns + 1) % 2;
-                    
-                    biomes[primaryBiomesArray] = world.getBiomeProvider().getBiomesForGeneration(biomes[primaryBiomesArray], (viewerBlockX + (xPixel - viewerPixelX) * blocksPerPixel) / 4, (viewerBlockZ - (viewRadiusPixels - 1) * blocksPerPixel) / 4, 1, biomeViewRange);
-                    
-                    if(updatedColumns == 0 || xPixel - prevXPixel != 1) {
-                    	biomes[previousBiomesArray] = world.getBiomeProvider().getBiomesForGeneration(biomes[previousBiomesArray], (viewerBlockX + (xPixel - viewerPixelX - 1) * blocksPerPixel) / 4, (viewerBlockZ - (viewRadiusPixels - 1) * blocksPerPixel) / 4, 1, biomeViewRange);
-                    }
-                    
+
                     for (int zPixel = viewerPixelZ - viewRadiusPixels - 1; zPixel < viewerPixelZ + viewRadiusPixels; ++zPixel) {
                         if (xPixel >= 0 && zPixel >= 0 && xPixel < 128 && zPixel < 128) {
                             int xPixelDist = xPixel - viewerPixelX;
                             int zPixelDist = zPixel - viewerPixelZ;
                             boolean shouldFuzz = xPixelDist * xPixelDist + zPixelDist * zPixelDist > (viewRadiusPixels - 2) * (viewRadiusPixels - 2);
 
-                            int biomeIndex = (zPixel - viewerPixelZ + viewRadiusPixels + 1) * blocksPerPixel / 4;
-                            Biome primaryBiome = biomes[primaryBiomesArray][biomeIndex];
-                            
-                            boolean isEdge = false;
-                            
-                            if(biomeIndex >= blocksPerPixel / 4) {
-                            	Biome biomeUp = biomes[primaryBiomesArray][biomeIndex - blocksPerPixel / 4];
-                                if(biomeUp != primaryBiome) {
-                              		isEdge = true;
-                                }
-                            }
-                            
-                        	Biome biomeLeft = biomes[previousBiomesArray][biomeIndex];
-                            if(biomeLeft != primaryBiome) {
-                          		isEdge = true;
-                            }
-                            
-                            BiomeColor colorBrightness = this.getMapColorPerBiome(world, primaryBiome);
-                            
-                            MapColor mapcolor = colorBrightness.color;
-                            int brightness = colorBrightness.brightness;
-
-                            if (zPixel >= 0 && xPixelDist * xPixelDist + zPixelDist * zPixelDist < viewRadiusPixels * viewRadiusPixels && (!shouldFuzz || (xPixel + zPixel & 1) != 0)) {
-                                byte oldPixel = data.colors[xPixel + zPixel * 128];
-                                byte newPixel = (byte) (mapcolor.colorIndex * 4 + brightness);
-
-                                if(isEdge) {
-                                	newPixel = (byte)(29 * 4);
-                                }
-                                
+                            if (xPixelDist * xPixelDist + zPixelDist * zPixelDist < viewRadiusPixels * viewRadiusPixels && (!shouldFuzz || (xPixel + zPixel & 1) != 0)) {
+                                int pixelIndex = xPixel + zPixel * 128;
+
+                                byte oldPixel = data.colors[pixelIndex];
+                                byte newPixel = tileCache.getPixel(originPixelX + xPixel, originPixelZ + zPixel);
+
                                 if (oldPixel != newPixel) {
-                                    data.colors[xPixel + zPixel * 128] = newPixel;
+                                    data.colors[pixelIndex] = newPixel;
                                     data.updateMapData(xPixel, zPixel);
                                     terrainChanged = true;
                                 }
 
-                                int worldX = (centerX / blocksPerPixel + xPixel - 64) * blocksPerPixel;
-                                int worldZ = (centerZ / blocksPerPixel + zPixel - 64) * blocksPerPixel;
-                                int chunkX = worldX >> 4;
-                                int chunkZ = worldZ >> 4;
-                                if (!checkedChunks.containsKey(chunkX) || (checkedChunks.containsKey(chunkX) && !checkedChunks.get(chunkX).contains(chunkZ))) {
-                                    checkedChunks.computeIfAbsent(chunkX, integer -> new ArrayList<>()).add(chunkZ);
-                                }
+                                //Each pixel covers exactly one chunk
+                                checkedPixels[pixelIndex >> 6] |= 1L << (pixelIndex & 63);
                             }
                         }
                     }
-                    
-                    updatedColumns++;
-                    prevXPixel = xPixel;
                 }
             }
-            
-            locateBLLocations(world, checkedChunks, centerX, centerZ, blocksPerPixel, data);
+
+            if (!worldStorage.getAmateMapLocationIndex().isEmpty()) {
+                locateBLLocations(world, worldStorage.getAmateMapLocationIndex(), checkedPixels, originPixelX, originPixelZ, centerX, centerZ, blocksPerPixel, (AmateMapData) data);
+            }
         }
     }
 
-    private void locateBLLocations(World world, Map<Integer, List<Integer>> posList, int centerX, int centerZ, int blocksPerPixel, MapData data) {
-        BetweenlandsWorldStorage worldStorage = BetweenlandsWorldStorage.forWorld(world);
-        ILocalStorageHandler handler = worldStorage.getLocalStorageHandler();
-        AmateMapData amateMapData = (AmateMapData) data;
-
-        for (Map.Entry<Integer, List<Integer>> chunkX: posList.entrySet()) {
-            for (Integer z : chunkX.getValue()) {
-                int x = chunkX.getKey();
-                List<LocationStorage> localStorages = handler.getLocalStorages(LocationStorage.class, x << 4, z << 4, input -> true);
-                if (localStorages.size() > 0) {
-                    for (LocationStorage storage : localStorages) {
-                    	AxisAlignedBB aabb = storage.getEnclosingBounds();
-                        Vec3d center = new Vec3d(aabb.minX + (aabb.maxX - aabb.minX) * 0.5D, aabb.minY + (aabb.maxY - aabb.minY) * 0.5D, aabb.minZ + (aabb.maxZ - aabb.minZ) * 0.5D);
-                        byte mapX = (byte) ((center.x - centerX) / (float) blocksPerPixel * 2F);
-                        byte mapZ = (byte) ((center.z - centerZ) / (float) blocksPerPixel * 2F);
-                        Location location = Location.getLocation(storage);
-                        if (location != Location.NONE) {
-                            amateMapData.addDecoration(new AmateMapData.BLMapDecoration(location, mapX, mapZ, (byte) 8));
-
-                            boolean done = false;
-                            if (location == Location.TOWER) {
-                                LocationCragrockTower tower = (LocationCragrockTower) storage;
-                                if (tower.isTopConquered()) {
-                                    done = true;
-                                }
-                            } else if (location == Location.FORTRESS || location == Location.SPIRIT_TREE || location == Location.SLUDGE_WORM_DUNGEON) {
-                                LocationGuarded guarded = (LocationGuarded) storage;
-                                if (guarded.getGuard().isClear(world)) {
-                                    done = true;
-                                }
+    private void locateBLLocations(World world, AmateMapLocationIndex index, long[] checkedPixels, int originPixelX, int originPixelZ, int centerX, int centerZ, int blocksPerPixel, AmateMapData amateMapData) {
+        int stamp = index.nextVisitStamp();
+
+        for (int i = 0; i < checkedPixels.length; i++) {
+            long bits = checkedPixels[i];
+
+            while (bits != 0) {
+                int pixelIndex = (i << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                List<AmateMapLocationIndex.Entry> entries = index.query(originPixelX + (pixelIndex & 127), originPixelZ + (pixelIndex >> 7));
+
+                for (int j = 0; j < entries.size(); j++) {
+                    AmateMapLocationIndex.Entry entry = entries.get(j);
+
+                    if (entry.visit(stamp)) {
+                        LocationStorage storage = entry.getStorage();
+                        Location location = entry.getLocation();
+
+                        AxisAlignedBB aabb = storage.getEnclosingBounds();
+                        byte mapX = (byte) ((aabb.minX + (aabb.maxX - aabb.minX) * 0.5D - centerX) / (float) blocksPerPixel * 2F);
+                        byte mapZ = (byte) ((aabb.minZ + (aabb.maxZ - aabb.minZ) * 0.5D - centerZ) / (float) blocksPerPixel * 2F);
+
+                        amateMapData.addDecoration(new AmateMapData.BLMapDecoration(location, mapX, mapZ, (byte) 8));
+
+                        boolean done = false;
+                        if (location == Location.TOWER) {
+                            LocationCragrockTower tower = (LocationCragrockTower) storage;
+                            if (tower.isTopConquered()) {
+                                done = true;
                             }
-                            if (done) {
-                                amateMapData.addDecoration(new AmateMapData.BLMapDecoration(Location.CHECK, mapX, mapZ, (byte) 8));
+                        } else if (location == Location.FORTRESS || location == Location.SPIRIT_TREE || location == Location.SLUDGE_WORM_DUNGEON) {
+                            LocationGuarded guarded = (LocationGuarded) storage;
+                            if (guarded.getGuard().isClear(world)) {
+                                done = true;
                             }
                         }
+                        if (done) {
+                            amateMapData.addDecoration(new AmateMapData.BLMapDecoration(Location.CHECK, mapX, mapZ, (byte) 8));
+                        }
                     }
                 }
             }
         }
     }
 
-    private BiomeColor getMapColorPerBiome(World world, Biome biome) {
+    /**
+     * Returns the map pixel color of the specified biome
+     * @param world
+     * @param biome
+     * @return
+     */
+    public static byte getBiomePixelColor(World world, Biome biome) {
+        BiomeColor colorBrightness = getMapColorPerBiome(world, biome);
+        return (byte) (colorBrightness.color.colorIndex * 4 + colorBrightness.brightness);
+    }
+
+    private static BiomeColor getMapColorPerBiome(World world, Biome biome) {
         if (BIOME_COLORS.isEmpty()) {
             setupBiomeColors();
         }
@@ -3,6 +3,8 @@ package thebetweenlands.common.item.misc;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import javax.annotation.Nullable;
@@ -57,10 +59,59 @@ public class ItemRingOfGathering extends ItemRing {
 		return null;
 	}
 
-	public boolean isRingEquipped(UUID playerUuid) {
+	/**
+	 * Returns the offline data of the player without waiting for it to be loaded from disk.
+	 * If it isn't loaded yet it is loaded in the background and available in a later tick
+	 * @param playerUuid
+	 * @return The future of the offline data, or null if there is no offline player data handler
+	 */
+	@Nullable
+	private static CompletableFuture<NBTTagCompound> getOfflinePlayerData(UUID playerUuid) {
+		IOfflinePlayerDataHandler handler = OfflinePlayerHandlerImpl.getHandler();
+		return handler != null ? handler.getOfflinePlayerDataAsync(playerUuid) : null;
+	}
+
+	private static boolean isLoaded(@Nullable CompletableFuture<NBTTagCompound> data) {
+		return data != null && data.isDone() && !data.isCompletedExceptionally();
+	}
+
+	/**
+	 * Modifies and saves the offline data of the player once it has been loaded
+	 * @param playerUuid
+	 * @param action
+	 * @return False if there is no offline player data handler
+	 */
+	private static boolean modifyOfflinePlayerData(UUID playerUuid, Consumer<NBTTagCompound> action) {
 		IOfflinePlayerDataHandler handler = OfflinePlayerHandlerImpl.getHandler();
 		if(handler != null) {
-			NBTTagCompound nbt = handler.getOfflinePlayerData(playerUuid);
+			handler.getOfflinePlayerDataAsync(playerUuid).thenRun(() -> {
+				//Requested again so that data created by an earlier modification isn't replaced
+				NBTTagCompound nbt = handler.getOfflinePlayerDataAsync(playerUuid).getNow(null);
+				if(nbt == null) {
+					nbt = new NBTTagCompound();
+				}
+				action.accept(nbt);
+				handler.setOfflinePlayerData(playerUuid, nbt);
+			});
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the offline data of the player has been loaded. If not, it is loaded
+	 * in the background and the ring entries are available in a later tick
+	 * @param playerUuid
+	 * @return
+	 */
+	public boolean isOfflinePlayerDataLoaded(UUID playerUuid) {
+		return isLoaded(getOfflinePlayerData(playerUuid));
+	}
+
+	public boolean isRingEquipped(UUID playerUuid) {
+		CompletableFuture<NBTTagCompound> data = getOfflinePlayerData(playerUuid);
+		if(isLoaded(data)) {
+			NBTTagCompound nbt = data.getNow(null);
 			if(nbt != null && nbt.hasKey(NBT_OFFLINE_PLAYER_DATA_EQUIPMENT_KEY, Constants.NBT.TAG_BYTE)) {
 				return nbt.getBoolean(NBT_OFFLINE_PLAYER_DATA_EQUIPMENT_KEY);
 			}
@@ -69,27 +120,27 @@ public class ItemRingOfGathering extends ItemRing {
 	}
 
 	public boolean setRingEquipped(UUID playerUuid, boolean equipped) {
-		IOfflinePlayerDataHandler handler = OfflinePlayerHandlerImpl.getHandler();
-		if(handler != null) {
-			NBTTagCompound nbt = handler.getOfflinePlayerData(playerUuid);
-			if(nbt == null) {
-				nbt = new NBTTagCompound();
-			}
-			nbt.setBoolean(NBT_OFFLINE_PLAYER_DATA_EQUIPMENT_KEY, equipped);
-			handler.setOfflinePlayerData(playerUuid, nbt);
-			return true;
-		}
-		return false;
+		return modifyOfflinePlayerData(playerUuid, nbt -> nbt.setBoolean(NBT_OFFLINE_PLAYER_DATA_EQUIPMENT_KEY, equipped));
 	}
 
 	public boolean hasSpace(UUID playerUuid) {
-		return this.getEntryCount(playerUuid) < this.getCapacity();
+		int count = this.getEntryCount(playerUuid);
+		return count >= 0 && count < this.getCapacity();
 	}
 
+	/**
+	 * Returns the number of entries in the ring of the player
+	 * @param playerUuid
+	 * @return The number of entries, or -1 if the offline data of the player hasn't been loaded yet
+	 */
 	public int getEntryCount(UUID playerUuid) {
-		IOfflinePlayerDataHandler handler = OfflinePlayerHandlerImpl.getHandler();
-		if(handler != null) {
-			NBTTagCompound nbt = handler.getOfflinePlayerData(playerUuid);
+		CompletableFuture<NBTTagCompound> data = getOfflinePlayerData(playerUuid);
+		if(data != null) {
+			if(!isLoaded(data)) {
+				return -1;
+			}
+
+			NBTTagCompound nbt = data.getNow(null);
 
 			if(nbt != null && nbt.hasKey(NBT_OFFLINE_PLAYER_DATA_LIST_KEY, Constants.NBT.TAG_LIST)) {
 				NBTTagList list = nbt.getTagList(NBT_OFFLINE_PLAYER_DATA_LIST_KEY, Constants.NBT.TAG_COMPOUND);
@@ -126,13 +177,7 @@ public class ItemRingOfGathering extends ItemRing {
 	}
 
 	public boolean addEntry(UUID playerUuid, RingEntityEntry entry) {
-		IOfflinePlayerDataHandler handler = OfflinePlayerHandlerImpl.getHandler();
-		if(handler != null) {
-			NBTTagCompound nbt = handler.getOfflinePlayerData(playerUuid);
-			if(nbt == null) {
-				nbt = new NBTTagCompound();
-			}
-
+		return modifyOfflinePlayerData(playerUuid, nbt -> {
 			NBTTagList list = nbt.getTagList(NBT_OFFLINE_PLAYER_DATA_LIST_KEY, Constants.NBT.TAG_COMPOUND);
 
 			NBTTagCompound entryNbt = new NBTTagCompound();
@@ -148,20 +193,24 @@ public class ItemRingOfGathering extends ItemRing {
 			list.appendTag(entryNbt);
 
 			nbt.setTag(NBT_OFFLINE_PLAYER_DATA_LIST_KEY, list);
-
-			handler.setOfflinePlayerData(playerUuid, nbt);
-
-			return true;
-		}
-
-		return false;
+		});
 	}
 
+	/**
+	 * Returns the first entry that matches the predicate. If the offline data of the player
+	 * hasn't been loaded yet no entry is returned and the data is loaded in the background
+	 * @param playerUuid
+	 * @param fromAnimator
+	 * @param predicate
+	 * @param remove
+	 * @return
+	 */
 	@Nullable
 	public RingEntityEntry getEntry(UUID playerUuid, boolean fromAnimator, Predicate<RingEntityEntry> predicate, boolean remove) {
 		IOfflinePlayerDataHandler handler = OfflinePlayerHandlerImpl.getHandler();
-		if(handler != null) {
-			NBTTagCompound nbt = handler.getOfflinePlayerData(playerUuid);
+		CompletableFuture<NBTTagCompound> data = getOfflinePlayerData(playerUuid);
+		if(handler != null && isLoaded(data)) {
+			NBTTagCompound nbt = data.getNow(null);
 
 			if(nbt != null && nbt.hasKey(NBT_OFFLINE_PLAYER_DATA_LIST_KEY, Constants.NBT.TAG_LIST)) {
 				NBTTagList list = nbt.getTagList(NBT_OFFLINE_PLAYER_DATA_LIST_KEY, Constants.NBT.TAG_COMPOUND);
@@ -325,6 +374,10 @@ public class ItemRingOfGathering extends ItemRing {
 	protected void updateStackEntryCount(World worldIn, ItemStack stack, Entity entityIn) {
 		if(!worldIn.isRemote && entityIn instanceof EntityPlayer) {
 			int count = this.getEntryCount(entityIn.getUniqueID());
+			if(count < 0) {
+				//Not loaded yet, try again next time
+				return;
+			}
 
 			NBTTagCompound nbt = stack.getTagCompound();
 			if(nbt == null) {
@@ -473,6 +526,15 @@ public class ItemRingOfGathering extends ItemRing {
 			if(id != null) {
 				UUID playerUuid = minion.getRingOwnerId();
 
+				if(playerUuid != null && !ItemRegistry.RING_OF_GATHERING.isOfflinePlayerDataLoaded(playerUuid)) {
+					//The minion can't wait for the data to be loaded in a later tick, so this is the only
+					//place that loads it synchronously. Minion deaths and unloads are rare enough
+					IOfflinePlayerDataHandler handler = OfflinePlayerHandlerImpl.getHandler();
+					if(handler != null) {
+						handler.getOfflinePlayerData(playerUuid);
+					}
+				}
+
 				if(playerUuid != null && ItemRegistry.RING_OF_GATHERING.isRingEquipped(playerUuid) && ItemRegistry.RING_OF_GATHERING.hasSpace(playerUuid)) {
 					NBTTagCompound entityNbt = minion.returnToRing(playerUuid);
 
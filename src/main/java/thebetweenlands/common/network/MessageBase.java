@@ -6,24 +6,48 @@ import io.netty.buffer.ByteBuf;
 import net.minecraft.network.PacketBuffer;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
 public abstract class MessageBase implements IMessage {
+	private static final ClassValue<ProfilerSection> SERIALIZE_SECTIONS = new ClassValue<ProfilerSection>() {
+		@Override
+		protected ProfilerSection computeValue(Class<?> type) {
+			return HotPathProfiler.section("network.serialize." + type.getSimpleName());
+		}
+	};
+
+	private static final ClassValue<ProfilerSection> DESERIALIZE_SECTIONS = new ClassValue<ProfilerSection>() {
+		@Override
+		protected ProfilerSection computeValue(Class<?> type) {
+			return HotPathProfiler.section("network.deserialize." + type.getSimpleName());
+		}
+	};
+
 	@Override
 	public final void toBytes(ByteBuf buf) {
+		long startTime = HotPathProfiler.start();
 		try {
 			serialize(new PacketBuffer(buf));
 		} catch(IOException ex) {
 			throw new RuntimeException(ex);
 		}
+		if(startTime != 0L) {
+			SERIALIZE_SECTIONS.get(this.getClass()).end(startTime);
+		}
 	}
 
 	@Override
 	public final void fromBytes(ByteBuf buf) {
+		long startTime = HotPathProfiler.start();
 		try {
 			deserialize(new PacketBuffer(buf));
 		} catch(IOException ex) {
 			throw new RuntimeException(ex);
 		}
+		if(startTime != 0L) {
+			DESERIALIZE_SECTIONS.get(this.getClass()).end(startTime);
+		}
 	}
 
 	public abstract void serialize(PacketBuffer buf) throws IOException;
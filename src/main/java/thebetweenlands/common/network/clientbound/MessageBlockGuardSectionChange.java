@@ -1,7 +1,12 @@
 package thebetweenlands.common.network.clientbound;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.annotation.Nullable;
 
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.bytes.ByteList;
 import net.minecraft.client.Minecraft;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.util.math.BlockPos;
@@ -18,44 +23,114 @@ import thebetweenlands.common.world.storage.location.LocationGuarded;
 import thebetweenlands.common.world.storage.location.guard.BlockLocationGuard.GuardChunkSection;
 
 public class MessageBlockGuardSectionChange extends MessageBase {
+	/**
+	 * Number of section data bytes after which a message is full
+	 */
+	private static final int MAX_PAYLOAD_BYTES = 32768;
+
+	/**
+	 * Upper bound of the number of sections a full message can contain, a section takes at least 9 bytes
+	 */
+	private static final int MAX_SECTIONS = MAX_PAYLOAD_BYTES / 9 + 1;
+
+	private static final byte FORMAT_EMPTY = 0;
+	private static final byte FORMAT_RLE = 1;
+	private static final byte FORMAT_RAW = 2;
+
 	private String id;
-	private BlockPos pos;
-	private byte[] data;
+	private final List<BlockPos> positions = new ArrayList<>();
+	private final ByteList formats = new ByteArrayList();
+	private final List<byte[]> data = new ArrayList<>();
+	private int payloadBytes = 0;
 
 	public MessageBlockGuardSectionChange() {}
 
-	public MessageBlockGuardSectionChange(LocationGuarded storage, BlockPos pos, @Nullable GuardChunkSection section) {
+	public MessageBlockGuardSectionChange(LocationGuarded storage) {
 		this.id = storage.getID().getStringID();
-		this.pos = pos;
+	}
+
+	public MessageBlockGuardSectionChange(LocationGuarded storage, BlockPos pos, @Nullable GuardChunkSection section) {
+		this(storage);
+		this.addSection(pos, section);
+	}
+
+	/**
+	 * Adds a changed section to this message
+	 * @param pos World position of the section
+	 * @param section The section, or null if it is empty
+	 */
+	public void addSection(BlockPos pos, @Nullable GuardChunkSection section) {
+		this.positions.add(pos);
 		if(section != null && section.getBlockRefCount() > 0) {
-			this.data = new byte[512];
-			section.writeData(this.data);
+			//Same as the NBT format, raw data is sent if run-length encoding doesn't make it smaller
+			byte[] compressed = section.writeCompressedData();
+			if(compressed.length < 512) {
+				this.formats.add(FORMAT_RLE);
+				this.data.add(compressed);
+			} else {
+				byte[] raw = new byte[512];
+				section.writeData(raw);
+				this.formats.add(FORMAT_RAW);
+				this.data.add(raw);
+			}
+			this.payloadBytes += 8 + 1 + 2 + this.data.get(this.data.size() - 1).length;
 		} else {
-			this.data = null;
+			this.formats.add(FORMAT_EMPTY);
+			this.data.add(null);
+			this.payloadBytes += 8 + 1;
 		}
 	}
 
+	/**
+	 * Returns whether no more sections should be added to this message
+	 * @return
+	 */
+	public boolean isFull() {
+		return this.payloadBytes >= MAX_PAYLOAD_BYTES;
+	}
+
 	@Override
 	public void deserialize(PacketBuffer buf) {
 		this.id = buf.readString(256);
-		this.pos = BlockPos.fromLong(buf.readLong());
-		if(!buf.readBoolean()) {
-			this.data = buf.readByteArray(512);
-			if(this.data.length != 512) {
+		int count = buf.readVarInt();
+		if(count < 0 || count > MAX_SECTIONS) {
+			throw new RuntimeException("Invalid block guard data");
+		}
+		for(int i = 0; i < count; i++) {
+			this.positions.add(BlockPos.fromLong(buf.readLong()));
+			byte format = buf.readByte();
+			this.formats.add(format);
+			switch(format) {
+			case FORMAT_EMPTY:
+				this.data.add(null);
+				break;
+			case FORMAT_RLE:
+				this.data.add(buf.readByteArray(511));
+				break;
+			case FORMAT_RAW:
+				byte[] raw = buf.readByteArray(512);
+				if(raw.length != 512) {
+					throw new RuntimeException("Invalid block guard data");
+				}
+				this.data.add(raw);
+				break;
+			default:
 				throw new RuntimeException("Invalid block guard data");
 			}
-		} else {
-			this.data = null;
 		}
 	}
 
 	@Override
 	public void serialize(PacketBuffer buf) {
 		buf.writeString(this.id);
-		buf.writeLong(this.pos.toLong());
-		buf.writeBoolean(this.data == null);
-		if(this.data != null) {
-			buf.writeByteArray(this.data);
+		buf.writeVarInt(this.positions.size());
+		for(int i = 0; i < this.positions.size(); i++) {
+			buf.writeLong(this.positions.get(i).toLong());
+			byte format = this.formats.getByte(i);
+			buf.writeByte(format);
+			if(format != FORMAT_EMPTY) {
+				buf.writeByteArray(this.data.get(i));
+			}
 		}
 	}
 
@@ -76,16 +151,24 @@ public class MessageBlockGuardSectionChange extends MessageBase {
 			if(storage != null && storage instanceof LocationGuarded) {
 				LocationGuarded location = (LocationGuarded) storage;
 				if(location.getGuard() != null) {
-					GuardChunkSection section = location.getGuard().getSection(this.pos);
-					if(this.data != null) {
-						//Make sure chunk and section are loaded and not null
-						location.getGuard().setGuarded(world, this.pos, true);
-						section = location.getGuard().getSection(this.pos);
-						if(section != null) {
-							section.loadData(this.data);
+					for(int i = 0; i < this.positions.size(); i++) {
+						BlockPos pos = this.positions.get(i);
+						byte format = this.formats.getByte(i);
+						GuardChunkSection section = location.getGuard().getSection(pos);
+						if(format != FORMAT_EMPTY) {
+							//Make sure chunk and section are loaded and not null
+							location.getGuard().setGuarded(world, pos, true);
+							section = location.getGuard().getSection(pos);
+							if(section != null) {
+								if(format == FORMAT_RAW) {
+									section.loadData(this.data.get(i));
+								} else {
+									section.loadCompressedData(this.data.get(i));
+								}
+							}
+						} else if(section != null) {
+							section.clear();
 						}
-					} else if(section != null) {
-						section.clear();
 					}
 				}
 			}
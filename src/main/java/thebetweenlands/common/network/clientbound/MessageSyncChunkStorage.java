@@ -15,22 +15,26 @@ import net.minecraftforge.fml.relauncher.SideOnly;
 import thebetweenlands.api.storage.IChunkStorage;
 import thebetweenlands.api.storage.IWorldStorage;
 import thebetweenlands.common.network.MessageBase;
+import thebetweenlands.common.world.storage.ChunkStorageImpl;
 import thebetweenlands.common.world.storage.WorldStorageImpl;
 
 public class MessageSyncChunkStorage extends MessageBase {
 	private NBTTagCompound nbt;
 	private ChunkPos pos;
+	private int referencesVersion;
 
 	public MessageSyncChunkStorage() {}
 
 	public MessageSyncChunkStorage(IChunkStorage storage) {
 		this.nbt = storage.writeToNBT(new NBTTagCompound(), true);
 		this.pos = storage.getChunk().getPos();
+		this.referencesVersion = storage instanceof ChunkStorageImpl ? ((ChunkStorageImpl) storage).getReferencesVersion() : 0;
 	}
 	
 	public MessageSyncChunkStorage(IChunkStorage storage, NBTTagCompound nbt) {
 		this.nbt = nbt;
 		this.pos = storage.getChunk().getPos();
+		this.referencesVersion = storage instanceof ChunkStorageImpl ? ((ChunkStorageImpl) storage).getReferencesVersion() : 0;
 	}
 
 	@Override
@@ -38,6 +42,7 @@ public class MessageSyncChunkStorage extends MessageBase {
 		try {
 			this.pos = new ChunkPos(buf.readInt(), buf.readInt());
 			this.nbt = buf.readCompoundTag();
+			this.referencesVersion = buf.readVarInt();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -48,6 +53,7 @@ public class MessageSyncChunkStorage extends MessageBase {
 		buf.writeInt(this.pos.x);
 		buf.writeInt(this.pos.z);
 		buf.writeCompoundTag(this.nbt);
+		buf.writeVarInt(this.referencesVersion);
 	}
 
 	@Override
@@ -67,6 +73,9 @@ public class MessageSyncChunkStorage extends MessageBase {
 				IWorldStorage worldStorage = WorldStorageImpl.getCapability(world);
 				IChunkStorage chunkStorage = worldStorage.getChunkStorage(chunk);
 				chunkStorage.readFromNBT(this.nbt, true);
+				if(chunkStorage instanceof ChunkStorageImpl) {
+					((ChunkStorageImpl) chunkStorage).setReferencesVersion(this.referencesVersion);
+				}
 			}
 		}
 	}
@@ -0,0 +1,102 @@
+package thebetweenlands.common.network.clientbound;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+import thebetweenlands.api.storage.IChunkStorage;
+import thebetweenlands.api.storage.IWorldStorage;
+import thebetweenlands.api.storage.LocalRegion;
+import thebetweenlands.api.storage.LocalStorageReference;
+import thebetweenlands.api.storage.StorageID;
+import thebetweenlands.common.network.MessageBase;
+import thebetweenlands.common.world.storage.ChunkStorageImpl;
+import thebetweenlands.common.world.storage.ChunkStorageImpl.ReferenceChange;
+import thebetweenlands.common.world.storage.ChunkStorageSyncBatch.ChunkDelta;
+import thebetweenlands.common.world.storage.WorldStorageImpl;
+
+public class MessageSyncChunkStorageDeltas extends MessageBase {
+	private List<ChunkDelta> deltas;
+
+	public MessageSyncChunkStorageDeltas() {}
+
+	public MessageSyncChunkStorageDeltas(List<ChunkDelta> deltas) {
+		this.deltas = deltas;
+	}
+
+	@Override
+	public void deserialize(PacketBuffer buf) {
+		int chunkCount = buf.readVarInt();
+		this.deltas = new ArrayList<>(chunkCount);
+		for(int i = 0; i < chunkCount; i++) {
+			ChunkPos pos = new ChunkPos(buf.readInt(), buf.readInt());
+			int version = buf.readVarInt();
+			int changeCount = buf.readVarInt();
+			List<ReferenceChange> changes = new ArrayList<>(changeCount);
+			for(int j = 0; j < changeCount; j++) {
+				boolean added = buf.readBoolean();
+				StorageID id = StorageID.fromString(buf.readString(256));
+				LocalRegion region = null;
+				if(buf.readBoolean()) {
+					region = LocalRegion.getFromBlockPos(buf.readInt() << 9, buf.readInt() << 9);
+				}
+				changes.add(new ReferenceChange(added, new LocalStorageReference(pos, id, region)));
+			}
+			this.deltas.add(new ChunkDelta(pos, version, changes));
+		}
+	}
+
+	@Override
+	public void serialize(PacketBuffer buf) {
+		buf.writeVarInt(this.deltas.size());
+		for(ChunkDelta delta : this.deltas) {
+			buf.writeInt(delta.pos.x);
+			buf.writeInt(delta.pos.z);
+			buf.writeVarInt(delta.version);
+			buf.writeVarInt(delta.changes.size());
+			for(ReferenceChange change : delta.changes) {
+				buf.writeBoolean(change.added);
+				buf.writeString(change.reference.getID().getStringID());
+				LocalRegion region = change.reference.getRegion();
+				buf.writeBoolean(region != null);
+				if(region != null) {
+					buf.writeInt(region.getX());
+					buf.writeInt(region.getZ());
+				}
+			}
+		}
+	}
+
+	@Override
+	public IMessage process(MessageContext ctx) {
+		if(ctx.side == Side.CLIENT) {
+			this.handle();
+		}
+		return null;
+	}
+
+	@SideOnly(Side.CLIENT)
+	private void handle() {
+		World world = Minecraft.getMinecraft().world;
+		if(world != null) {
+			IWorldStorage worldStorage = WorldStorageImpl.getCapability(world);
+			for(ChunkDelta delta : this.deltas) {
+				if(world.getChunkProvider().getLoadedChunk(delta.pos.x, delta.pos.z) != null) {
+					Chunk chunk = world.getChunk(delta.pos.x, delta.pos.z);
+					IChunkStorage chunkStorage = worldStorage.getChunkStorage(chunk);
+					if(chunkStorage instanceof ChunkStorageImpl) {
+						((ChunkStorageImpl) chunkStorage).applyReferenceChanges(delta.version, delta.changes);
+					}
+				}
+			}
+		}
+	}
+}
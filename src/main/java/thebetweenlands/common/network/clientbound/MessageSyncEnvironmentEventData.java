@@ -57,17 +57,27 @@ public class MessageSyncEnvironmentEventData extends MessageBase {
 
 	@SideOnly(Side.CLIENT)
 	private void handleMessage() {
-		if(this.eventName != null && this.dataManagerEntries != null) {
+		applyData(this.eventName, this.dataManagerEntries);
+	}
+
+	/**
+	 * Applies the received data manager entries to the specified environment event on the client side
+	 * @param eventName
+	 * @param dataManagerEntries
+	 */
+	@SideOnly(Side.CLIENT)
+	public static void applyData(ResourceLocation eventName, List<IGenericDataManagerAccess.IDataEntry<?>> dataManagerEntries) {
+		if(eventName != null && dataManagerEntries != null) {
 			World world = Minecraft.getMinecraft().world;
 			if(world != null) {
 				BetweenlandsWorldStorage storage = BetweenlandsWorldStorage.forWorld(world);
 				if(storage != null) {
 					BLEnvironmentEventRegistry eeRegistry = storage.getEnvironmentEventRegistry();
-					IEnvironmentEvent eevent = eeRegistry.forName(this.eventName);
+					IEnvironmentEvent eevent = eeRegistry.forName(eventName);
 					if(eevent != null) {
 						IGenericDataManagerAccess dataManager = eevent.getDataManager();
 						if(dataManager != null) {
-							dataManager.setValuesFromPacket(this.dataManagerEntries);
+							dataManager.setValuesFromPacket(dataManagerEntries);
 						}
 						if(!eevent.isLoaded()) {
 							eevent.setLoaded();
@@ -77,4 +87,4 @@ public class MessageSyncEnvironmentEventData extends MessageBase {
 			}
 		}
 	}
-}
+}
\ No newline at end of file
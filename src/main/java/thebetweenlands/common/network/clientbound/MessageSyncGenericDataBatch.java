@@ -0,0 +1,114 @@
+package thebetweenlands.common.network.clientbound;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+import thebetweenlands.api.network.IGenericDataManagerAccess;
+import thebetweenlands.common.network.MessageBase;
+import thebetweenlands.common.network.datamanager.GenericDataManager;
+import thebetweenlands.common.network.datamanager.GenericDataManagerSyncBatch;
+
+public class MessageSyncGenericDataBatch extends MessageBase {
+	private static class Frame {
+		private final byte type;
+		private final ResourceLocation name;
+		private final NBTTagCompound idNbt;
+		private final List<IGenericDataManagerAccess.IDataEntry<?>> dataManagerEntries;
+
+		private Frame(byte type, ResourceLocation name, NBTTagCompound idNbt, List<IGenericDataManagerAccess.IDataEntry<?>> dataManagerEntries) {
+			this.type = type;
+			this.name = name;
+			this.idNbt = idNbt;
+			this.dataManagerEntries = dataManagerEntries;
+		}
+	}
+
+	private List<byte[]> serializedFrames;
+	private List<Frame> frames;
+
+	public MessageSyncGenericDataBatch() {}
+
+	/**
+	 * @param serializedFrames Frames serialized by {@link GenericDataManagerSyncBatch}
+	 */
+	public MessageSyncGenericDataBatch(List<byte[]> serializedFrames) {
+		this.serializedFrames = serializedFrames;
+	}
+
+	/**
+	 * Returns the size of the serialized message
+	 * @return
+	 */
+	public int getPayloadSize() {
+		int size = PacketBuffer.getVarIntSize(this.serializedFrames.size());
+		for(byte[] frame : this.serializedFrames) {
+			size += frame.length;
+		}
+		return size;
+	}
+
+	@Override
+	public void serialize(PacketBuffer buf) throws IOException {
+		buf.writeVarInt(this.serializedFrames.size());
+		for(byte[] frame : this.serializedFrames) {
+			buf.writeBytes(frame);
+		}
+	}
+
+	@Override
+	public void deserialize(PacketBuffer buf) throws IOException {
+		int count = buf.readVarInt();
+		this.frames = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			byte type = buf.readByte();
+			switch(type) {
+			case GenericDataManagerSyncBatch.FRAME_LOCAL_STORAGE: {
+				ResourceLocation storageType = new ResourceLocation(buf.readString(128));
+				NBTTagCompound idNbt = buf.readCompoundTag();
+				this.frames.add(new Frame(type, storageType, idNbt, GenericDataManager.readEntries(buf)));
+				break;
+			}
+			case GenericDataManagerSyncBatch.FRAME_ENVIRONMENT_EVENT: {
+				ResourceLocation eventName = new ResourceLocation(buf.readString(128));
+				this.frames.add(new Frame(type, eventName, null, GenericDataManager.readEntries(buf)));
+				break;
+			}
+			default:
+				throw new IOException("Invalid data manager frame type " + type);
+			}
+		}
+	}
+
+	@Override
+	public IMessage process(MessageContext ctx) {
+		if(ctx.side == Side.CLIENT) {
+			this.handle();
+		}
+		return null;
+	}
+
+	@SideOnly(Side.CLIENT)
+	private void handle() {
+		for(Frame frame : this.frames) {
+			if(frame.dataManagerEntries == null) {
+				continue;
+			}
+			switch(frame.type) {
+			case GenericDataManagerSyncBatch.FRAME_LOCAL_STORAGE:
+				MessageSyncLocalStorageData.applyData(frame.name, frame.idNbt, frame.dataManagerEntries);
+				break;
+			case GenericDataManagerSyncBatch.FRAME_ENVIRONMENT_EVENT:
+				MessageSyncEnvironmentEventData.applyData(frame.name, frame.dataManagerEntries);
+				break;
+			}
+		}
+	}
+}
@@ -65,19 +65,30 @@ public class MessageSyncLocalStorageData extends MessageBase {
 
 	@SideOnly(Side.CLIENT)
 	private void handle() {
+		applyData(this.type, this.idNbt, this.dataManagerEntries);
+	}
+
+	/**
+	 * Applies the received data manager entries to the specified local storage on the client side
+	 * @param type
+	 * @param idNbt
+	 * @param dataManagerEntries
+	 */
+	@SideOnly(Side.CLIENT)
+	public static void applyData(ResourceLocation type, NBTTagCompound idNbt, List<IGenericDataManagerAccess.IDataEntry<?>> dataManagerEntries) {
 		World world = Minecraft.getMinecraft().world;
 		if(world != null) {
-			StorageID id = StorageID.readFromNBT(this.idNbt);
+			StorageID id = StorageID.readFromNBT(idNbt);
 
 			IWorldStorage worldStorage = WorldStorageImpl.getCapability(world);
 			ILocalStorageHandler storageHandler = worldStorage.getLocalStorageHandler();
 
 			ILocalStorage storage = storageHandler.getLocalStorage(id);
 
-			if(storage != null && storage.getClass() == StorageRegistry.getStorageType(this.type)) {
+			if(storage != null && storage.getClass() == StorageRegistry.getStorageType(type)) {
 				IGenericDataManagerAccess dataManager = storage.getDataManager();
 				if(dataManager != null) {
-					dataManager.setValuesFromPacket(this.dataManagerEntries);
+					dataManager.setValuesFromPacket(dataManagerEntries);
 				}
 			}
 		}
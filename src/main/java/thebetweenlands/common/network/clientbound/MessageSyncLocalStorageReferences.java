@@ -15,17 +15,20 @@ import net.minecraftforge.fml.relauncher.SideOnly;
 import thebetweenlands.api.storage.IChunkStorage;
 import thebetweenlands.api.storage.IWorldStorage;
 import thebetweenlands.common.network.MessageBase;
+import thebetweenlands.common.world.storage.ChunkStorageImpl;
 import thebetweenlands.common.world.storage.WorldStorageImpl;
 
 public class MessageSyncLocalStorageReferences extends MessageBase {
 	private NBTTagCompound nbt;
 	private ChunkPos pos;
+	private int referencesVersion;
 
 	public MessageSyncLocalStorageReferences() {}
 
 	public MessageSyncLocalStorageReferences(IChunkStorage storage) {
 		this.nbt = storage.writeLocalStorageReferences(new NBTTagCompound());
 		this.pos = storage.getChunk().getPos();
+		this.referencesVersion = storage instanceof ChunkStorageImpl ? ((ChunkStorageImpl) storage).getReferencesVersion() : 0;
 	}
 
 	@Override
@@ -33,6 +36,7 @@ public class MessageSyncLocalStorageReferences extends MessageBase {
 		try {
 			this.pos = new ChunkPos(buf.readInt(), buf.readInt());
 			this.nbt = buf.readCompoundTag();
+			this.referencesVersion = buf.readVarInt();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -43,6 +47,7 @@ public class MessageSyncLocalStorageReferences extends MessageBase {
 		buf.writeInt(this.pos.x);
 		buf.writeInt(this.pos.z);
 		buf.writeCompoundTag(this.nbt);
+		buf.writeVarInt(this.referencesVersion);
 	}
 
 	@Override
@@ -63,6 +68,9 @@ public class MessageSyncLocalStorageReferences extends MessageBase {
 				IChunkStorage chunkStorage = worldStorage.getChunkStorage(chunk);
 				if(chunkStorage != null) {
 					chunkStorage.readLocalStorageReferences(this.nbt);
+					if(chunkStorage instanceof ChunkStorageImpl) {
+						((ChunkStorageImpl) chunkStorage).setReferencesVersion(this.referencesVersion);
+					}
 				}
 			}
 		}
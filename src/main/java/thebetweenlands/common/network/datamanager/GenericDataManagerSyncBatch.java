@@ -0,0 +1,196 @@
+package thebetweenlands.common.network.datamanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.buffer.Unpooled;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import thebetweenlands.api.environment.IEnvironmentEvent;
+import thebetweenlands.api.network.IGenericDataManagerAccess;
+import thebetweenlands.api.network.IGenericDataManagerAccess.IDataEntry;
+import thebetweenlands.api.storage.ILocalStorage;
+import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.lib.ModInfo;
+import thebetweenlands.common.network.clientbound.MessageSyncGenericDataBatch;
+import thebetweenlands.common.registries.StorageRegistry;
+
+/**
+ * Collects the data manager changes of local storages and environment events during a server tick
+ * and sends them as one framed message per player at the end of the tick.
+ * Each frame is only serialized once, no matter how many players receive it.
+ */
+public final class GenericDataManagerSyncBatch {
+	private GenericDataManagerSyncBatch() { }
+
+	public static final byte FRAME_LOCAL_STORAGE = 0;
+	public static final byte FRAME_ENVIRONMENT_EVENT = 1;
+
+	/**
+	 * Estimated size of the custom payload packet header that is sent for every message:
+	 * packet ID, channel name, payload length and message discriminator
+	 */
+	private static final int PACKET_OVERHEAD = 1 + 1 + ModInfo.CHANNEL.length() + 3 + 1;
+
+	private static final Map<EntityPlayerMP, List<byte[]>> PENDING_FRAMES = new LinkedHashMap<>();
+
+	private static long queuedFrames;
+	private static long sentPackets;
+	private static long sentBytes;
+	private static long savedPackets;
+	private static long savedBytes;
+
+	/**
+	 * Queues the dirty (or all) data manager entries of the specified local storage to be sent to its watchers
+	 * @param storage
+	 * @param sendAll
+	 */
+	public static void queueLocalStorage(ILocalStorage storage, boolean sendAll) {
+		IGenericDataManagerAccess dataManager = storage.getDataManager();
+		List<IDataEntry<?>> entries = getEntries(dataManager, sendAll);
+
+		if(entries != null && !storage.getWatchers().isEmpty()) {
+			PacketBuffer buf = new PacketBuffer(Unpooled.buffer());
+			buf.writeByte(FRAME_LOCAL_STORAGE);
+			buf.writeString(StorageRegistry.getStorageId(storage.getClass()).toString());
+			buf.writeCompoundTag(storage.getID().writeToNBT(new NBTTagCompound()));
+
+			byte[] frame = writeFrame(buf, entries);
+			if(frame != null) {
+				for(EntityPlayerMP watcher : storage.getWatchers()) {
+					queueFrame(watcher, frame);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues the dirty (or all) data manager entries of the specified environment event to be sent to the specified players
+	 * @param event
+	 * @param sendAll
+	 * @param players
+	 */
+	public static void queueEnvironmentEvent(IEnvironmentEvent event, boolean sendAll, List<? extends EntityPlayer> players) {
+		IGenericDataManagerAccess dataManager = event.getDataManager();
+		List<IDataEntry<?>> entries = getEntries(dataManager, sendAll);
+
+		if(entries != null && !players.isEmpty()) {
+			PacketBuffer buf = new PacketBuffer(Unpooled.buffer());
+			buf.writeByte(FRAME_ENVIRONMENT_EVENT);
+			buf.writeString(event.getEventName().toString());
+
+			byte[] frame = writeFrame(buf, entries);
+			if(frame != null) {
+				for(EntityPlayer player : players) {
+					if(player instanceof EntityPlayerMP) {
+						queueFrame((EntityPlayerMP) player, frame);
+					}
+				}
+			}
+		}
+	}
+
+	private static List<IDataEntry<?>> getEntries(IGenericDataManagerAccess dataManager, boolean sendAll) {
+		if(sendAll) {
+			List<IDataEntry<?>> entries = dataManager.getAll();
+			dataManager.setClean();
+			return entries;
+		}
+		return dataManager.getDirty();
+	}
+
+	private static byte[] writeFrame(PacketBuffer buf, List<IDataEntry<?>> entries) {
+		try {
+			GenericDataManager.writeEntries(entries, buf);
+		} catch(IOException ex) {
+			TheBetweenlands.logger.error("Failed to serialize data manager entries", ex);
+			return null;
+		}
+
+		byte[] frame = new byte[buf.readableBytes()];
+		buf.readBytes(frame);
+		return frame;
+	}
+
+	private static void queueFrame(EntityPlayerMP player, byte[] frame) {
+		List<byte[]> frames = PENDING_FRAMES.get(player);
+		if(frames == null) {
+			PENDING_FRAMES.put(player, frames = new ArrayList<>());
+		}
+		frames.add(frame);
+		queuedFrames++;
+	}
+
+	/**
+	 * Sends all queued frames, one message per player
+	 */
+	public static void flush() {
+		if(!PENDING_FRAMES.isEmpty()) {
+			for(Map.Entry<EntityPlayerMP, List<byte[]>> entry : PENDING_FRAMES.entrySet()) {
+				List<byte[]> frames = entry.getValue();
+
+				MessageSyncGenericDataBatch message = new MessageSyncGenericDataBatch(frames);
+				TheBetweenlands.networkWrapper.sendTo(message, entry.getKey());
+
+				int size = PACKET_OVERHEAD + message.getPayloadSize();
+				sentPackets++;
+				sentBytes += size;
+
+				//Without batching every frame would have been its own message without the frame type
+				int unbatchedSize = 0;
+				for(byte[] frame : frames) {
+					unbatchedSize += PACKET_OVERHEAD + frame.length - 1;
+				}
+				savedPackets += frames.size() - 1;
+				savedBytes += unbatchedSize - size;
+			}
+
+			PENDING_FRAMES.clear();
+		}
+	}
+
+	/**
+	 * Returns the total number of queued frames
+	 * @return
+	 */
+	public static long getQueuedFrames() {
+		return queuedFrames;
+	}
+
+	/**
+	 * Returns the total number of sent batch messages
+	 * @return
+	 */
+	public static long getSentPackets() {
+		return sentPackets;
+	}
+
+	/**
+	 * Returns the estimated total number of bytes of all sent batch messages
+	 * @return
+	 */
+	public static long getSentBytes() {
+		return sentBytes;
+	}
+
+	/**
+	 * Returns the number of messages that were saved by batching
+	 * @return
+	 */
+	public static long getSavedPackets() {
+		return savedPackets;
+	}
+
+	/**
+	 * Returns the estimated number of bytes that were saved by batching
+	 * @return
+	 */
+	public static long getSavedBytes() {
+		return savedBytes;
+	}
+}
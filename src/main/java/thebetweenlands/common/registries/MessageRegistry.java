@@ -35,10 +35,12 @@ import thebetweenlands.common.network.clientbound.MessageShowFoodSicknessLine;
 import thebetweenlands.common.network.clientbound.MessageSoundRipple;
 import thebetweenlands.common.network.clientbound.MessageSummonPeatMummyParticles;
 import thebetweenlands.common.network.clientbound.MessageSyncChunkStorage;
+import thebetweenlands.common.network.clientbound.MessageSyncChunkStorageDeltas;
 import thebetweenlands.common.network.clientbound.MessageSyncDraetonLeakages;
 import thebetweenlands.common.network.clientbound.MessageSyncEntityCapabilities;
 import thebetweenlands.common.network.clientbound.MessageSyncEnvironmentEventData;
 import thebetweenlands.common.network.clientbound.MessageSyncGameRules;
+import thebetweenlands.common.network.clientbound.MessageSyncGenericDataBatch;
 import thebetweenlands.common.network.clientbound.MessageSyncLocalStorageData;
 import thebetweenlands.common.network.clientbound.MessageSyncLocalStorageReferences;
 import thebetweenlands.common.network.clientbound.MessageSyncStaticAspects;
@@ -88,6 +90,8 @@ public class MessageRegistry {
 		registerMessage(MessageSyncLocalStorageData.class, Side.CLIENT);
 		registerMessage(MessageSyncChunkStorage.class, Side.CLIENT);
 		registerMessage(MessageSyncLocalStorageReferences.class, Side.CLIENT);
+		registerMessage(MessageSyncChunkStorageDeltas.class, Side.CLIENT);
+		registerMessage(MessageSyncGenericDataBatch.class, Side.CLIENT);
 		registerMessage(MessageSummonPeatMummyParticles.class, Side.CLIENT);
 		registerMessage(MessageShowFoodSicknessLine.class, Side.CLIENT);
 		registerMessage(MessageDamageReductionParticle.class, Side.CLIENT);
@@ -24,6 +24,7 @@ import thebetweenlands.common.world.storage.location.LocationPortal;
 import thebetweenlands.common.world.storage.location.LocationSludgeWormDungeon;
 import thebetweenlands.common.world.storage.location.LocationSpiritTree;
 import thebetweenlands.common.world.storage.location.LocationStorage;
+import thebetweenlands.common.world.storage.operation.DeferredBlockPlacementOperation;
 import thebetweenlands.common.world.storage.operation.DeferredLinkOperation;
 
 public class StorageRegistry {
@@ -48,6 +49,7 @@ public class StorageRegistry {
 		register(new ResourceLocation(ModInfo.ID, "chiromaw_matriarch_nest"), LocationChiromawMatriarchNest.class, LocationChiromawMatriarchNest::new);
 		
 		register(new ResourceLocation(ModInfo.ID, "deferred_link"), DeferredLinkOperation.class, DeferredLinkOperation::new);
+		register(new ResourceLocation(ModInfo.ID, "deferred_block_placement"), DeferredBlockPlacementOperation.class, DeferredBlockPlacementOperation::new);
 	}
 
 	/**
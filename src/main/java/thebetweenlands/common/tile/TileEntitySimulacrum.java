@@ -65,8 +65,12 @@ import thebetweenlands.common.tile.spawner.MobSpawnerLogicBetweenlands;
 import thebetweenlands.common.world.gen.biome.decorator.SurfaceType;
 import thebetweenlands.common.world.storage.BetweenlandsWorldStorage;
 import thebetweenlands.util.PlayerUtil;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
 public class TileEntitySimulacrum extends TileEntityRepeller implements ITickable {
+	private static final ProfilerSection PROFILER_TICK = HotPathProfiler.section("tile.simulacrum");
+
 	public static enum Effect {
 		NONE("none", 0),
 		RANDOM("random", 1),
@@ -220,9 +224,11 @@ public class TileEntitySimulacrum extends TileEntityRepeller implements ITickabl
 	@Override
 	public void update() {
 		if(this.isActive()) {
+			long startTime = HotPathProfiler.start();
 			this.updateEffects(this.effect);
 			this.updateEffects(this.secondaryEffect);
-		}		
+			PROFILER_TICK.end(startTime);
+		}
 	}
 
 	@Override
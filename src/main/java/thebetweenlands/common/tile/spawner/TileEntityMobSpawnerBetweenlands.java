@@ -16,8 +16,12 @@ import net.minecraft.world.World;
 import thebetweenlands.client.render.particle.BLParticles;
 import thebetweenlands.client.render.particle.ParticleFactory;
 import thebetweenlands.common.registries.BlockRegistry;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
 public class TileEntityMobSpawnerBetweenlands extends TileEntity implements ITickable {
+	private static final ProfilerSection PROFILER_TICK = HotPathProfiler.section("tile.mob_spawner");
+
 	public float counter = 0.0F;
 	public float lastCounter = 0.0F;
 
@@ -126,7 +130,9 @@ public class TileEntityMobSpawnerBetweenlands extends TileEntity implements ITic
 
 	@Override
 	public void update() {
+		long startTime = HotPathProfiler.start();
 		this.spawnerLogic.updateSpawner();
+		PROFILER_TICK.end(startTime);
 		this.lastCounter = this.counter;
 		this.counter += 0.0085F;
 	}
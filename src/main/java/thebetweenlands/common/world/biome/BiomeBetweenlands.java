@@ -38,6 +38,7 @@ import thebetweenlands.common.world.storage.location.EnumLocationType;
 
 public class BiomeBetweenlands extends Biome implements IWeightProvider, ICustomSpawnEntriesProvider {
 	private final List<ICustomSpawnEntry> blSpawnEntries = new ArrayList<>();
+	private final List<ICustomSpawnEntry> blSpawnEntriesView = Collections.unmodifiableList(this.blSpawnEntries);
 	private int grassColor = -1, foliageColor = -1, secondaryGrassColor = -1, secondaryFoliageColor = -1;
 	private short biomeWeight;
 	private BiomeGenerator biomeGenerator;
@@ -128,7 +129,7 @@ public class BiomeBetweenlands extends Biome implements IWeightProvider, ICustom
 
 	@Override
 	public final List<ICustomSpawnEntry> getCustomSpawnEntries() {
-		return Collections.unmodifiableList(this.blSpawnEntries);
+		return this.blSpawnEntriesView;
 	}
 
 	/**
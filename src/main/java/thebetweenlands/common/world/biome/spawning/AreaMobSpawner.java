@@ -1,17 +1,19 @@
 package thebetweenlands.common.world.biome.spawning;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Deque;
 import java.util.List;
-import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
 import javax.annotation.Nullable;
 
+import gnu.trove.iterator.TLongIterator;
 import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityLiving;
@@ -35,7 +37,6 @@ import thebetweenlands.api.entity.spawning.ICustomSpawnEntriesProvider;
 import thebetweenlands.api.entity.spawning.ICustomSpawnEntry;
 import thebetweenlands.common.config.BetweenlandsConfig;
 import thebetweenlands.common.lib.ModInfo;
-import thebetweenlands.util.WeightedList;
 
 public abstract class AreaMobSpawner {
 	@Nullable
@@ -353,13 +354,23 @@ public abstract class AreaMobSpawner {
 		public void onSpawned(EntityLivingBase entity) { }
 	}
 
-	public void populate(WorldServer world, boolean spawnHostiles, boolean spawnAnimals) {
+	/**
+	 * Returns the number of living entities in the world
+	 * @param world
+	 * @return
+	 */
+	protected int getLivingEntityCount(WorldServer world) {
 		int totalWorldEntityCount = 0;
 		for(Entity entity : (List<Entity>)world.loadedEntityList) {
 			if(entity instanceof EntityLivingBase) {
 				totalWorldEntityCount++;
 			}
 		}
+		return totalWorldEntityCount;
+	}
+
+	public void populate(WorldServer world, boolean spawnHostiles, boolean spawnAnimals) {
+		int totalWorldEntityCount = this.getLivingEntityCount(world);
 
 		if(totalWorldEntityCount >= this.getHardEntityLimit()) {
 			//Hard limit reached, don't spawn any more entities
@@ -376,10 +387,14 @@ public abstract class AreaMobSpawner {
 		List<ChunkPos> spawnerChunks = new ArrayList<ChunkPos>(this.eligibleChunksForSpawning.size());
 
 		//Add valid chunks
-		for(ChunkPos chunkPos : this.eligibleChunksForSpawning) {
+		TLongIterator it = this.eligibleChunksForSpawning.iterator();
+		while(it.hasNext()) {
+			long chunk = it.next();
+			int chunkX = (int) chunk;
+			int chunkZ = (int) (chunk >> 32);
 			//Don't load chunks
-			if(world.isBlockLoaded(new BlockPos(chunkPos.x * 16, 64, chunkPos.z * 16))) {
-				spawnerChunks.add(chunkPos);
+			if(world.getChunkProvider().getLoadedChunk(chunkX, chunkZ) != null) {
+				spawnerChunks.add(new ChunkPos(chunkX, chunkZ));
 			}
 		}
 
@@ -407,57 +422,53 @@ public abstract class AreaMobSpawner {
 		}
 	}
 
+	private final Deque<SpawnContext> spawnContexts = new ArrayDeque<>();
+
 	public int populateChunk(World world, ChunkPos chunkPos, boolean spawnHostiles, boolean spawnAnimals, boolean loadChunks, boolean ignoreRestrictions,
 			int attemptsPerChunk, int maxSpawnsPerChunk, int attemptsPerGroup, int entityLimit, float loadedAreas) {
+		//Spawning can generate chunks which can populate chunks again, so each call needs its own context
+		SpawnContext context = this.spawnContexts.poll();
+		if(context == null) {
+			context = new SpawnContext();
+		}
+		try {
+			return this.populateChunk(context, world, chunkPos, spawnHostiles, spawnAnimals, loadChunks, ignoreRestrictions,
+					attemptsPerChunk, maxSpawnsPerChunk, attemptsPerGroup, entityLimit, loadedAreas);
+		} finally {
+			this.spawnContexts.push(context);
+		}
+	}
+
+	private int populateChunk(SpawnContext context, World world, ChunkPos chunkPos, boolean spawnHostiles, boolean spawnAnimals, boolean loadChunks, boolean ignoreRestrictions,
+			int attemptsPerChunk, int maxSpawnsPerChunk, int attemptsPerGroup, int entityLimit, float loadedAreas) {
 		loadedAreas = Math.max(1.0f, loadedAreas);
 
 		int attempts = 0, chunkSpawnedEntities = 0;
 
+		BlockPos.MutableBlockPos spawnPos = context.spawnPos;
+		BlockPos.MutableBlockPos entitySpawnPos = context.entitySpawnPos;
+
 		spawnLoop:
 			while(attempts < attemptsPerChunk && chunkSpawnedEntities < maxSpawnsPerChunk) {
 				attempts++;
-				BlockPos spawnPos = this.getRandomSpawnPosition(world, chunkPos);
+				this.getRandomSpawnPosition(world, chunkPos, spawnPos);
 
 				if(!this.isInsideSpawningArea(world, spawnPos, false)) {
 					continue;
 				}
 
 				Biome biome = world.getBiome(spawnPos);
+				ICustomSpawnEntriesProvider spawnEntriesProvider = biome instanceof ICustomSpawnEntriesProvider ? (ICustomSpawnEntriesProvider) biome : null;
 
-				int totalBaseWeight = 0;
-				int totalWeight = 0;
-
-				//Get possible spawn entries and update weights
-				List<ICustomSpawnEntry> possibleSpawns = new ArrayList<>();
-				possibleSpawns.addAll(this.getSpawnEntries(world, spawnPos, biome instanceof ICustomSpawnEntriesProvider ? (ICustomSpawnEntriesProvider) biome : null));
-
-				Iterator<ICustomSpawnEntry> spawnEntriesIT = possibleSpawns.iterator();
-				while(spawnEntriesIT.hasNext()) {
-					ICustomSpawnEntry spawnEntry = spawnEntriesIT.next();
-
-					if((spawnEntry.isHostile() && !spawnHostiles) || (!spawnEntry.isHostile() && !spawnAnimals)) {
-						spawnEntriesIT.remove();
-						continue;
-					}
-
-					spawnEntry.update(world, spawnPos);
-					totalBaseWeight += spawnEntry.getBaseWeight();
-					totalWeight += spawnEntry.getWeight();
-				}
-
-				if(possibleSpawns.isEmpty() || totalWeight == 0 || totalBaseWeight == 0) {
-					continue;
-				}
-
-				WeightedList<ICustomSpawnEntry> weightedPossibleSpawns = new WeightedList<>();
-				weightedPossibleSpawns.addAll(possibleSpawns);
-				weightedPossibleSpawns.recalculateWeight();
-
-				ICustomSpawnEntry spawnEntry = weightedPossibleSpawns.getRandomItem(world.rand);
+				//Update weights of the possible spawn entries and select one
+				ICustomSpawnEntry spawnEntry = context.selectSpawnEntry(world, spawnPos, this.getSpawnEntries(world, spawnPos, spawnEntriesProvider), spawnHostiles, spawnAnimals);
 				if(spawnEntry == null) {
 					continue;
 				}
 
+				int totalBaseWeight = context.getTotalBaseWeight();
+				int totalWeight = context.getTotalWeight();
+
 				int dynamicLimitBase = MathHelper.ceil((double)entityLimit / (double)totalBaseWeight * spawnEntry.getBaseWeight());
 				int dynamicLimit = MathHelper.ceil((double)entityLimit / (double)totalWeight * spawnEntry.getWeight());
 
@@ -503,7 +514,7 @@ public abstract class AreaMobSpawner {
 					int groupSpawnedEntities = 0, groupSpawnAttempts = 0;
 					int maxGroupSpawnAttempts = attemptsPerGroup + desiredGroupSize * 2;
 
-					IBiomeSpawnEntriesData spawnEntriesData = this.getSpawnEntriesData(world, spawnPos, biome instanceof ICustomSpawnEntriesProvider ? (ICustomSpawnEntriesProvider) biome : null);
+					IBiomeSpawnEntriesData spawnEntriesData = this.getSpawnEntriesData(world, spawnPos, spawnEntriesProvider);
 					long lastSpawn = spawnEntriesData != null ? spawnEntriesData.getLastSpawn(spawnEntry) : -1;
 
 					if(!ignoreRestrictions && lastSpawn >= 0) {
@@ -519,8 +530,11 @@ public abstract class AreaMobSpawner {
 
 					EntityLiving cachedEntity = null;
 
+					//Chunk and sub chunk entity counts are cached for the duration of the group
+					context.resetEntityCounts(spawnEntry.getEntityType());
+
 					while(groupSpawnAttempts++ < maxGroupSpawnAttempts && groupSpawnedEntities < desiredGroupSize) {
-						BlockPos entitySpawnPos = this.getRandomSpawnPosition(world, spawnPos, MathHelper.floor(groupSpawnRadius));
+						this.getRandomSpawnPosition(world, spawnPos, MathHelper.floor(groupSpawnRadius), entitySpawnPos);
 
 						boolean inChunk = (entitySpawnPos.getX() >> 4) == chunkPos.x && (entitySpawnPos.getZ() >> 4) == chunkPos.z;
 
@@ -534,27 +548,14 @@ public abstract class AreaMobSpawner {
 
 						IBlockState spawnBlockState = world.getBlockState(entitySpawnPos);
 
-						int spawnSegmentY = entitySpawnPos.getY() / 16;
 						Chunk spawnChunk = world.getChunk(entitySpawnPos);
-						ClassInheritanceMultiMap<Entity>[] entityLists = spawnChunk.getEntityLists();
-						int chunkEntityCount = 0;
-						for(int l = 0; l < entityLists.length; l++) {
-							int subChunkEntityCount = 0;
-							for(Entity entity : entityLists[l]) {
-								if(entity.getClass() == spawnEntry.getEntityType()) {
-									subChunkEntityCount++;
-									chunkEntityCount++;
-								}
-							}
-							if(l == spawnSegmentY) {
-								if(spawnEntry.getSubChunkLimit() >= 0 && subChunkEntityCount >= spawnEntry.getSubChunkLimit()) {
-									//Entity reached sub chunk limit
-									continue;
-								}
-							}
+
+						if(spawnEntry.getSubChunkLimit() >= 0 && context.getSectionEntityCount(spawnChunk, entitySpawnPos.getY() / 16) >= spawnEntry.getSubChunkLimit()) {
+							//Entity reached sub chunk limit
+							continue;
 						}
 
-						if(spawnEntry.getChunkLimit() >= 0 && chunkEntityCount >= spawnEntry.getChunkLimit()) {
+						if(spawnEntry.getChunkLimit() >= 0 && context.getChunkEntityCount(spawnChunk) >= spawnEntry.getChunkLimit()) {
 							//Entity reached chunk limit
 							continue;
 						}
@@ -595,6 +596,8 @@ public abstract class AreaMobSpawner {
 
 										world.spawnEntity(spawningEntity);
 
+										context.onEntitySpawned(spawnChunk, spawningEntity);
+
 										spawnEntry.onSpawned(spawningEntity);
 
 										if(this.isCountedEntity(world, spawningEntity)) {
@@ -633,14 +636,15 @@ public abstract class AreaMobSpawner {
 	 * Generates a random position to potentially spawn a mob at
 	 * @param world
 	 * @param chunkPos
+	 * @param pos The position to be set
 	 * @return
 	 */
-	protected BlockPos getRandomSpawnPosition(World world, ChunkPos chunkPos) {
+	protected BlockPos.MutableBlockPos getRandomSpawnPosition(World world, ChunkPos chunkPos, BlockPos.MutableBlockPos pos) {
 		Chunk chunk = world.getChunk(chunkPos.x, chunkPos.z);
 		int x = chunkPos.x * 16 + world.rand.nextInt(16);
 		int z = chunkPos.z * 16 + world.rand.nextInt(16);
 		int y = Math.min(world.rand.nextInt(chunk == null ? world.getActualHeight() : chunk.getTopFilledSegment() + 16 - 1), 256);
-		return new BlockPos(x, y, z);
+		return pos.setPos(x, y, z);
 	}
 
 	/**
@@ -648,23 +652,25 @@ public abstract class AreaMobSpawner {
 	 * @param world
 	 * @param centerPos
 	 * @param radius
+	 * @param pos The position to be set
 	 * @return
 	 */
-	protected BlockPos getRandomSpawnPosition(World world, BlockPos centerPos, int radius) {
-		return new BlockPos(
+	protected BlockPos.MutableBlockPos getRandomSpawnPosition(World world, BlockPos centerPos, int radius, BlockPos.MutableBlockPos pos) {
+		return pos.setPos(
 				centerPos.getX() + world.rand.nextInt(radius*2) - radius,
 				MathHelper.clamp(centerPos.getY() + world.rand.nextInt(4) - 2, 1, world.getHeight()),
 				centerPos.getZ() + world.rand.nextInt(radius*2) - radius);
 	}
 
-	private final Set<ChunkPos> eligibleChunksForSpawning = new HashSet<>();
+	private final TLongSet eligibleChunksForSpawning = new TLongHashSet();
 
 	/**
-	 * Finds all chunks that are eligible for mob spawning and updates the specified set accordingly
+	 * Finds all chunks that are eligible for mob spawning and updates the specified set accordingly.
+	 * Chunks are stored as {@link ChunkPos#asLong(int, int)}
 	 * @param world
 	 * @param spawnerChunks
 	 */
-	protected abstract void updateSpawnerChunks(WorldServer world, Set<ChunkPos> spawnerChunks);
+	protected abstract void updateSpawnerChunks(WorldServer world, TLongSet spawnerChunks);
 
 	private final TObjectIntHashMap<Class<? extends Entity>> entityCounts = new TObjectIntHashMap<Class<? extends Entity>>();
 
@@ -676,9 +682,11 @@ public abstract class AreaMobSpawner {
 	protected void updateEntityCounts(World world, TObjectIntHashMap<Class<? extends Entity>> entityCounts) {
 		entityCounts.clear();
 
-		for(ChunkPos chunkPos : this.eligibleChunksForSpawning) {
-			if(world.getChunkProvider().getLoadedChunk(chunkPos.x, chunkPos.z) != null) {
-				Chunk chunk = world.getChunk(chunkPos.x, chunkPos.z);
+		TLongIterator it = this.eligibleChunksForSpawning.iterator();
+		while(it.hasNext()) {
+			long chunkPos = it.next();
+			Chunk chunk = world.getChunkProvider().getLoadedChunk((int) chunkPos, (int) (chunkPos >> 32));
+			if(chunk != null) {
 				ClassInheritanceMultiMap<Entity>[] entityLists = chunk.getEntityLists();
 
 				for(ClassInheritanceMultiMap<Entity> entityList : entityLists) {
@@ -692,7 +700,13 @@ public abstract class AreaMobSpawner {
 		}
 	}
 
-	private boolean isCountedEntity(World world, Entity entity) {
+	/**
+	 * Returns whether the specified entity counts towards the entity counts
+	 * @param world
+	 * @param entity
+	 * @return
+	 */
+	protected boolean isCountedEntity(World world, Entity entity) {
 		return entity instanceof EntityLivingBase && this.isInsideSpawningArea(world, entity.getPosition(), true) && (this.entityCountFilter == null || this.entityCountFilter.test((EntityLivingBase) entity));
 	}
 }
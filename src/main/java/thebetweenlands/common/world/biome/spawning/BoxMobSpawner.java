@@ -2,10 +2,10 @@ package thebetweenlands.common.world.biome.spawning;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import gnu.trove.map.TObjectLongMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
+import gnu.trove.set.TLongSet;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
@@ -86,7 +86,7 @@ public class BoxMobSpawner extends AreaMobSpawner {
 	}
 
 	@Override
-	protected void updateSpawnerChunks(WorldServer world, Set<ChunkPos> spawnerChunks) {
+	protected void updateSpawnerChunks(WorldServer world, TLongSet spawnerChunks) {
 		spawnerChunks.clear();
 
 		for(AxisAlignedBB area : this.areas) {
@@ -97,7 +97,7 @@ public class BoxMobSpawner extends AreaMobSpawner {
 
 			for(int cx = sx; cx <= ex; cx++) {
 				for(int cz = sz; cz <= ez; cz++) {
-					spawnerChunks.add(new ChunkPos(cx, cz));
+					spawnerChunks.add(ChunkPos.asLong(cx, cz));
 				}
 			}
 		}
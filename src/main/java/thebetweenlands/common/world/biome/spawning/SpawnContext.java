@@ -0,0 +1,260 @@
+package thebetweenlands.common.world.biome.spawning;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.util.ClassInheritanceMultiMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import thebetweenlands.api.entity.spawning.ICustomSpawnEntry;
+import thebetweenlands.util.WeightedAliasTable;
+
+/**
+ * Reusable state of a {@link AreaMobSpawner#populateChunk} call, so that spawn attempts
+ * that are rejected early don't allocate anything.
+ * <p>
+ * Spawn entry weights depend on the spawn position (see {@link ICustomSpawnEntry#update(World, BlockPos)}),
+ * so the alias tables are cached per spawn entry list and weight distribution, e.g. one for the surface and one for caves.
+ */
+public class SpawnContext {
+	private static final int TABLE_VARIANTS = 4;
+	private static final int MAX_CACHED_LISTS = 64;
+	private static final int COUNTED_CHUNKS = 9;
+
+	private static class CachedTable {
+		private ICustomSpawnEntry[] entries = new ICustomSpawnEntry[0];
+		private int size;
+		private final WeightedAliasTable table = new WeightedAliasTable();
+	}
+
+	private static class CachedTables {
+		private final CachedTable[] variants = new CachedTable[TABLE_VARIANTS];
+		private int nextVariant;
+	}
+
+	final BlockPos.MutableBlockPos spawnPos = new BlockPos.MutableBlockPos();
+	final BlockPos.MutableBlockPos entitySpawnPos = new BlockPos.MutableBlockPos();
+
+	private final Map<List<ICustomSpawnEntry>, CachedTables> tables = new IdentityHashMap<>();
+
+	private ICustomSpawnEntry[] entries = new ICustomSpawnEntry[16];
+	private int[] weights = new int[16];
+	private int size;
+	private int totalWeight;
+	private int totalBaseWeight;
+
+	private Class<? extends Entity> countedType;
+	private final long[] countedChunks = new long[COUNTED_CHUNKS];
+	private final int[] chunkCounts = new int[COUNTED_CHUNKS];
+	private final int[][] sectionCounts = new int[COUNTED_CHUNKS][16];
+	private int countedChunksSize;
+	private int nextCountedChunk;
+
+	/**
+	 * Updates the weights of all spawn entries of the specified list that are allowed to spawn
+	 * and selects one of them randomly
+	 * @param world
+	 * @param pos
+	 * @param spawnEntries
+	 * @param spawnHostiles
+	 * @param spawnAnimals
+	 * @return The selected spawn entry, or null if the total weight or total base weight is 0
+	 */
+	@Nullable
+	ICustomSpawnEntry selectSpawnEntry(World world, BlockPos pos, List<ICustomSpawnEntry> spawnEntries, boolean spawnHostiles, boolean spawnAnimals) {
+		this.size = 0;
+		this.totalWeight = 0;
+		this.totalBaseWeight = 0;
+
+		int count = spawnEntries.size();
+		for(int i = 0; i < count; i++) {
+			ICustomSpawnEntry spawnEntry = spawnEntries.get(i);
+
+			if((spawnEntry.isHostile() && !spawnHostiles) || (!spawnEntry.isHostile() && !spawnAnimals)) {
+				continue;
+			}
+
+			spawnEntry.update(world, pos);
+
+			if(this.size == this.entries.length) {
+				this.entries = Arrays.copyOf(this.entries, this.size * 2);
+				this.weights = Arrays.copyOf(this.weights, this.size * 2);
+			}
+			this.entries[this.size] = spawnEntry;
+			this.weights[this.size] = spawnEntry.getWeight();
+			this.size++;
+
+			this.totalBaseWeight += spawnEntry.getBaseWeight();
+			this.totalWeight += spawnEntry.getWeight();
+		}
+
+		if(this.size == 0 || this.totalWeight <= 0 || this.totalBaseWeight <= 0) {
+			return null;
+		}
+
+		CachedTable table = this.getTable(spawnEntries);
+		int index = table.table.getRandomIndex(world.rand);
+		return index >= 0 ? table.entries[index] : null;
+	}
+
+	private CachedTable getTable(List<ICustomSpawnEntry> spawnEntries) {
+		CachedTables tables = this.tables.get(spawnEntries);
+		if(tables == null) {
+			if(this.tables.size() >= MAX_CACHED_LISTS) {
+				this.tables.clear();
+			}
+			this.tables.put(spawnEntries, tables = new CachedTables());
+		}
+
+		for(CachedTable variant : tables.variants) {
+			if(variant != null && this.matches(variant)) {
+				return variant;
+			}
+		}
+
+		CachedTable variant = tables.variants[tables.nextVariant];
+		if(variant == null) {
+			tables.variants[tables.nextVariant] = variant = new CachedTable();
+		}
+		tables.nextVariant = (tables.nextVariant + 1) % TABLE_VARIANTS;
+
+		if(variant.entries.length < this.size) {
+			variant.entries = new ICustomSpawnEntry[this.entries.length];
+		}
+		System.arraycopy(this.entries, 0, variant.entries, 0, this.size);
+		variant.size = this.size;
+		variant.table.build(this.weights, this.size);
+
+		return variant;
+	}
+
+	private boolean matches(CachedTable variant) {
+		if(variant.size != this.size) {
+			return false;
+		}
+		for(int i = 0; i < this.size; i++) {
+			if(variant.entries[i] != this.entries[i]) {
+				return false;
+			}
+		}
+		return variant.table.matches(this.weights, this.size);
+	}
+
+	/**
+	 * Returns the total weight of the entries of the last {@link #selectSpawnEntry} call
+	 * @return
+	 */
+	int getTotalWeight() {
+		return this.totalWeight;
+	}
+
+	/**
+	 * Returns the total base weight of the entries of the last {@link #selectSpawnEntry} call
+	 * @return
+	 */
+	int getTotalBaseWeight() {
+		return this.totalBaseWeight;
+	}
+
+	/**
+	 * Resets the cached entity counts and starts counting entities of the specified type.
+	 * Must be called at the start of every group
+	 * @param type
+	 */
+	void resetEntityCounts(Class<? extends Entity> type) {
+		this.countedType = type;
+		this.countedChunksSize = 0;
+		this.nextCountedChunk = 0;
+	}
+
+	private int findCountedChunkIndex(Chunk chunk) {
+		long key = ChunkPos.asLong(chunk.x, chunk.z);
+		for(int i = 0; i < this.countedChunksSize; i++) {
+			if(this.countedChunks[i] == key) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int getCountedChunkIndex(Chunk chunk) {
+		int index = this.findCountedChunkIndex(chunk);
+		if(index >= 0) {
+			return index;
+		}
+
+		if(this.countedChunksSize < COUNTED_CHUNKS) {
+			index = this.countedChunksSize++;
+		} else {
+			index = this.nextCountedChunk;
+			this.nextCountedChunk = (this.nextCountedChunk + 1) % COUNTED_CHUNKS;
+		}
+
+		this.countedChunks[index] = ChunkPos.asLong(chunk.x, chunk.z);
+
+		int[] sections = this.sectionCounts[index];
+		int total = 0;
+		ClassInheritanceMultiMap<Entity>[] entityLists = chunk.getEntityLists();
+		for(int l = 0; l < entityLists.length; l++) {
+			int sectionCount = 0;
+			for(Entity entity : entityLists[l]) {
+				if(entity.getClass() == this.countedType) {
+					sectionCount++;
+				}
+			}
+			sections[l] = sectionCount;
+			total += sectionCount;
+		}
+		this.chunkCounts[index] = total;
+
+		return index;
+	}
+
+	/**
+	 * Returns the number of entities of the counted type in the specified chunk
+	 * @param chunk
+	 * @return
+	 */
+	int getChunkEntityCount(Chunk chunk) {
+		return this.chunkCounts[this.getCountedChunkIndex(chunk)];
+	}
+
+	/**
+	 * Returns the number of entities of the counted type in the specified chunk section,
+	 * or 0 if the section is out of bounds
+	 * @param chunk
+	 * @param section
+	 * @return
+	 */
+	int getSectionEntityCount(Chunk chunk, int section) {
+		if(section < 0 || section >= 16) {
+			return 0;
+		}
+		return this.sectionCounts[this.getCountedChunkIndex(chunk)][section];
+	}
+
+	/**
+	 * Updates the cached entity counts after an entity was spawned.
+	 * Chunks that aren't cached yet already include the entity once they are counted
+	 * @param chunk
+	 * @param entity
+	 */
+	void onEntitySpawned(Chunk chunk, Entity entity) {
+		if(entity.getClass() == this.countedType && entity.addedToChunk && entity.chunkCoordX == chunk.x && entity.chunkCoordZ == chunk.z) {
+			int index = this.findCountedChunkIndex(chunk);
+			if(index >= 0) {
+				if(entity.chunkCoordY >= 0 && entity.chunkCoordY < 16) {
+					this.sectionCounts[index][entity.chunkCoordY]++;
+				}
+				this.chunkCounts[index]++;
+			}
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package thebetweenlands.common.world.biome.spawning;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import gnu.trove.iterator.TObjectLongIterator;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityLivingBase;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.ClassInheritanceMultiMap;
+import net.minecraft.util.SoundCategory;
+import net.minecraft.util.SoundEvent;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.IWorldEventListener;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.border.WorldBorder;
+import net.minecraft.world.chunk.Chunk;
+
+/**
+ * Incrementally tracks the chunks around players that are eligible for mob spawning
+ * and the number of counted entities per class inside these chunks.
+ * A chunk is eligible if it is within the maximum range of at least one player, outside the
+ * minimum range of all players and has been sent to at least one player.
+ * <p>
+ * Player movement is applied by {@link #updatePlayers(List)}, chunk watching by {@link #watchChunk(EntityPlayer, int, int)}
+ * and {@link #unwatchChunk(EntityPlayer, int, int)}, entity chunk changes by {@link #onEntityEnteringChunk(Entity, int, int)}
+ * and entities joining or leaving the world through the world event listener.
+ */
+public class SpawnerAreaTracker {
+	private class Listener implements IWorldEventListener {
+		@Override
+		public void notifyBlockUpdate(World worldIn, BlockPos pos, IBlockState oldState, IBlockState newState, int flags) { }
+
+		@Override
+		public void notifyLightSet(BlockPos pos) { }
+
+		@Override
+		public void markBlockRangeForRenderUpdate(int x1, int y1, int z1, int x2, int y2, int z2) { }
+
+		@Override
+		public void playSoundToAllNearExcept(EntityPlayer player, SoundEvent soundIn, SoundCategory category, double x,
+				double y, double z, float volume, float pitch) { }
+
+		@Override
+		public void playRecord(SoundEvent soundIn, BlockPos pos) { }
+
+		@Override
+		public void spawnParticle(int particleID, boolean ignoreRange, double xCoord, double yCoord, double zCoord,
+				double xSpeed, double ySpeed, double zSpeed, int... parameters) { }
+
+		@Override
+		public void spawnParticle(int id, boolean ignoreRange, boolean p_190570_3_, double x, double y, double z,
+				double xSpeed, double ySpeed, double zSpeed, int... parameters) { }
+
+		@Override
+		public void broadcastSound(int soundID, BlockPos pos, int data) { }
+
+		@Override
+		public void playEvent(EntityPlayer player, int type, BlockPos blockPosIn, int data) { }
+
+		@Override
+		public void sendBlockBreakProgress(int breakerId, BlockPos pos, int progress) { }
+
+		@Override
+		public void onEntityAdded(Entity entity) {
+			if(entity instanceof EntityLivingBase && SpawnerAreaTracker.this.livingEntities.add(entity)) {
+				SpawnerAreaTracker.this.updateEntity(entity, entity.chunkCoordX, entity.chunkCoordZ);
+			}
+		}
+
+		@Override
+		public void onEntityRemoved(Entity entity) {
+			if(SpawnerAreaTracker.this.livingEntities.remove(entity)) {
+				SpawnerAreaTracker.this.updateEntity(entity, entity.chunkCoordX, entity.chunkCoordZ);
+			}
+		}
+	}
+
+	private final WorldServer world;
+	private final int maxRange;
+	private final int minRange;
+	private final Predicate<Entity> countedEntityPredicate;
+
+	private final Listener listener = new Listener();
+
+	//Number of players whose maximum or minimum range covers a chunk
+	private final TLongIntMap outerCoverage = new TLongIntHashMap();
+	private final TLongIntMap innerCoverage = new TLongIntHashMap();
+	//Number of players a chunk has been sent to
+	private final TLongIntMap watchers = new TLongIntHashMap();
+	//Chunks that have been sent to each player. Unwatch events are also fired for chunks that were never sent
+	private final Map<EntityPlayer, TLongSet> watchedChunks = new IdentityHashMap<>();
+
+	private final TLongSet eligibleChunks = new TLongHashSet();
+
+	private TObjectLongHashMap<EntityPlayer> playerChunks = new TObjectLongHashMap<>();
+	private TObjectLongHashMap<EntityPlayer> updatedPlayerChunks = new TObjectLongHashMap<>();
+
+	private final Set<Entity> livingEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Set<Entity> countedEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final TObjectIntHashMap<Class<? extends Entity>> entityCounts = new TObjectIntHashMap<>();
+
+	private long eligibilityChanges;
+
+	/**
+	 * @param world
+	 * @param maxRange Maximum chunk distance from a player (inclusive)
+	 * @param minRange Minimum chunk distance from all players (exclusive)
+	 * @param countedEntityPredicate Determines which living entities are counted towards the entity counts
+	 */
+	public SpawnerAreaTracker(WorldServer world, int maxRange, int minRange, Predicate<Entity> countedEntityPredicate) {
+		this.world = world;
+		this.maxRange = maxRange;
+		this.minRange = minRange;
+		this.countedEntityPredicate = countedEntityPredicate;
+	}
+
+	public WorldServer getWorld() {
+		return this.world;
+	}
+
+	/**
+	 * Starts listening to entities joining and leaving the world
+	 */
+	public void register() {
+		for(Entity entity : this.world.loadedEntityList) {
+			this.listener.onEntityAdded(entity);
+		}
+		this.world.addEventListener(this.listener);
+	}
+
+	/**
+	 * Stops listening to entities joining and leaving the world
+	 */
+	public void unregister() {
+		this.world.removeEventListener(this.listener);
+	}
+
+	/**
+	 * Updates the coverage of all players that moved to a different chunk, left the world or became spectators
+	 * @param players
+	 */
+	public void updatePlayers(List<EntityPlayer> players) {
+		this.updatedPlayerChunks.clear();
+
+		for(EntityPlayer player : players) {
+			if(!player.isSpectator()) {
+				int cx = MathHelper.floor(player.posX / 16.0D);
+				int cz = MathHelper.floor(player.posZ / 16.0D);
+				long chunk = ChunkPos.asLong(cx, cz);
+
+				this.updatedPlayerChunks.put(player, chunk);
+
+				if(!this.playerChunks.containsKey(player)) {
+					this.addCoverage(cx, cz, 1);
+				} else {
+					long prevChunk = this.playerChunks.get(player);
+					if(prevChunk != chunk) {
+						this.addCoverage(getX(prevChunk), getZ(prevChunk), -1);
+						this.addCoverage(cx, cz, 1);
+					}
+				}
+			}
+		}
+
+		TObjectLongIterator<EntityPlayer> it = this.playerChunks.iterator();
+		while(it.hasNext()) {
+			it.advance();
+			if(!this.updatedPlayerChunks.containsKey(it.key())) {
+				this.addCoverage(getX(it.value()), getZ(it.value()), -1);
+			}
+		}
+
+		TObjectLongHashMap<EntityPlayer> swap = this.playerChunks;
+		this.playerChunks = this.updatedPlayerChunks;
+		this.updatedPlayerChunks = swap;
+	}
+
+	/**
+	 * Called when a chunk has been sent to a player
+	 * @param player
+	 * @param chunkX
+	 * @param chunkZ
+	 */
+	public void watchChunk(EntityPlayer player, int chunkX, int chunkZ) {
+		long chunk = ChunkPos.asLong(chunkX, chunkZ);
+		if(this.watchedChunks.computeIfAbsent(player, p -> new TLongHashSet()).add(chunk)) {
+			this.watchers.adjustOrPutValue(chunk, 1, 1);
+			this.updateEligibility(chunk, chunkX, chunkZ);
+		}
+	}
+
+	/**
+	 * Called when a player no longer watches a chunk. Does nothing if the chunk was never sent to the player
+	 * @param player
+	 * @param chunkX
+	 * @param chunkZ
+	 */
+	public void unwatchChunk(EntityPlayer player, int chunkX, int chunkZ) {
+		TLongSet playerChunks = this.watchedChunks.get(player);
+		long chunk = ChunkPos.asLong(chunkX, chunkZ);
+		if(playerChunks != null && playerChunks.remove(chunk)) {
+			if(playerChunks.isEmpty()) {
+				this.watchedChunks.remove(player);
+			}
+			if(this.watchers.adjustOrPutValue(chunk, -1, 0) <= 0) {
+				this.watchers.remove(chunk);
+			}
+			this.updateEligibility(chunk, chunkX, chunkZ);
+		}
+	}
+
+	/**
+	 * Called when an entity moves into a different chunk
+	 * @param entity
+	 * @param chunkX
+	 * @param chunkZ
+	 */
+	public void onEntityEnteringChunk(Entity entity, int chunkX, int chunkZ) {
+		if(this.livingEntities.contains(entity)) {
+			this.updateEntity(entity, chunkX, chunkZ);
+		}
+	}
+
+	private void addCoverage(int cx, int cz, int delta) {
+		for(int xo = -this.maxRange; xo <= this.maxRange; xo++) {
+			for(int zo = -this.maxRange; zo <= this.maxRange; zo++) {
+				int x = cx + xo;
+				int z = cz + zo;
+				long chunk = ChunkPos.asLong(x, z);
+
+				if(this.outerCoverage.adjustOrPutValue(chunk, delta, delta) <= 0) {
+					this.outerCoverage.remove(chunk);
+				}
+
+				if(Math.abs(xo) <= this.minRange && Math.abs(zo) <= this.minRange) {
+					if(this.innerCoverage.adjustOrPutValue(chunk, delta, delta) <= 0) {
+						this.innerCoverage.remove(chunk);
+					}
+				}
+
+				this.updateEligibility(chunk, x, z);
+			}
+		}
+	}
+
+	private void updateEligibility(long chunk, int chunkX, int chunkZ) {
+		WorldBorder border = this.world.getWorldBorder();
+		boolean eligible = this.outerCoverage.get(chunk) > 0 && this.innerCoverage.get(chunk) <= 0 && this.watchers.get(chunk) > 0
+				&& (chunkX << 4) + 15 > border.minX() && (chunkX << 4) < border.maxX() && (chunkZ << 4) + 15 > border.minZ() && (chunkZ << 4) < border.maxZ();
+
+		if(eligible ? this.eligibleChunks.add(chunk) : this.eligibleChunks.remove(chunk)) {
+			this.eligibilityChanges++;
+
+			Chunk loadedChunk = this.world.getChunkProvider().getLoadedChunk(chunkX, chunkZ);
+			if(loadedChunk != null) {
+				for(ClassInheritanceMultiMap<Entity> entityList : loadedChunk.getEntityLists()) {
+					for(EntityLivingBase entity : entityList.getByClass(EntityLivingBase.class)) {
+						if(this.livingEntities.contains(entity)) {
+							this.updateEntity(entity, chunkX, chunkZ);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void updateEntity(Entity entity, int chunkX, int chunkZ) {
+		boolean counted = this.livingEntities.contains(entity) && this.eligibleChunks.contains(ChunkPos.asLong(chunkX, chunkZ)) && this.countedEntityPredicate.test(entity);
+
+		if(counted) {
+			if(this.countedEntities.add(entity)) {
+				this.entityCounts.adjustOrPutValue(entity.getClass(), 1, 1);
+			}
+		} else if(this.countedEntities.remove(entity)) {
+			if(this.entityCounts.adjustOrPutValue(entity.getClass(), -1, 0) <= 0) {
+				this.entityCounts.remove(entity.getClass());
+			}
+		}
+	}
+
+	private static int getX(long chunk) {
+		return (int) chunk;
+	}
+
+	private static int getZ(long chunk) {
+		return (int) (chunk >> 32);
+	}
+
+	/**
+	 * Returns the chunks that are currently eligible for spawning, see {@link ChunkPos#asLong(int, int)}
+	 * @return
+	 */
+	public TLongSet getEligibleChunks() {
+		return this.eligibleChunks;
+	}
+
+	/**
+	 * Returns the number of counted entities per class in the eligible chunks
+	 * @return
+	 */
+	public TObjectIntHashMap<Class<? extends Entity>> getEntityCounts() {
+		return this.entityCounts;
+	}
+
+	/**
+	 * Returns the number of living entities in the world
+	 * @return
+	 */
+	public int getLivingEntityCount() {
+		return this.livingEntities.size();
+	}
+
+	/**
+	 * Returns the total number of times a chunk became eligible or ineligible
+	 * @return
+	 */
+	public long getEligibilityChanges() {
+		return this.eligibilityChanges;
+	}
+}
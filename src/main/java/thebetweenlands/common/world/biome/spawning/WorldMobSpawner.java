@@ -1,22 +1,20 @@
 package thebetweenlands.common.world.biome.spawning;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import javax.annotation.Nullable;
 
 import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.TLongSet;
 import net.minecraft.entity.Entity;
-import net.minecraft.entity.player.EntityPlayer;
-import net.minecraft.server.management.PlayerChunkMapEntry;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
-import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.DimensionManager;
+import net.minecraftforge.event.entity.EntityEvent;
+import net.minecraftforge.event.world.ChunkWatchEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent.Phase;
 import net.minecraftforge.fml.common.gameevent.TickEvent.ServerTickEvent;
@@ -25,8 +23,12 @@ import thebetweenlands.api.entity.spawning.ICustomSpawnEntriesProvider;
 import thebetweenlands.common.config.BetweenlandsConfig;
 import thebetweenlands.common.world.WorldProviderBetweenlands;
 import thebetweenlands.common.world.storage.BetweenlandsWorldStorage;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
 public class WorldMobSpawner extends AreaMobSpawner {
+	private static final ProfilerSection PROFILER_SPAWNING = HotPathProfiler.section("spawning.world");
+
 	public static final WorldMobSpawner INSTANCE = new WorldMobSpawner();
 
 	//How many times a chunk should be populated with mobs when it generates
@@ -41,6 +43,9 @@ public class WorldMobSpawner extends AreaMobSpawner {
 
 	private boolean firstSpawnPass = false;
 
+	@Nullable
+	private SpawnerAreaTracker tracker;
+
 	public WorldMobSpawner() {
 		this.setStrictDynamicLimit(false);
 	}
@@ -66,53 +71,48 @@ public class WorldMobSpawner extends AreaMobSpawner {
 		return null;
 	}
 
+	/**
+	 * Returns the spawner area tracker of the specified world, or null if the world is not tracked
+	 * @param world
+	 * @return
+	 */
+	@Nullable
+	public SpawnerAreaTracker getTracker(World world) {
+		return this.tracker != null && this.tracker.getWorld() == world ? this.tracker : null;
+	}
+
+	@Override
+	protected int getLivingEntityCount(WorldServer world) {
+		SpawnerAreaTracker tracker = this.getTracker(world);
+		if(tracker != null) {
+			return tracker.getLivingEntityCount();
+		}
+		return super.getLivingEntityCount(world);
+	}
+
 	@Override
-	protected void updateSpawnerChunks(WorldServer world, Set<ChunkPos> spawnerChunks) {
+	protected void updateSpawnerChunks(WorldServer world, TLongSet spawnerChunks) {
 		if(this.firstSpawnPass) {
-			spawnerChunks.clear();
-
-			Map<ChunkPos, Boolean> eligibleChunks = new HashMap<>();
-
-			for (EntityPlayer entityplayer : world.playerEntities) {
-				if (!entityplayer.isSpectator()) {
-					int cx = MathHelper.floor(entityplayer.posX / 16.0D);
-					int cz = MathHelper.floor(entityplayer.posZ / 16.0D);
-
-					for (int xo = -SPAWN_CHUNK_MAX_RANGE; xo <= SPAWN_CHUNK_MAX_RANGE; ++xo) {
-						for (int zo = -SPAWN_CHUNK_MAX_RANGE; zo <= SPAWN_CHUNK_MAX_RANGE; ++zo) {
-							boolean isBorder = Math.abs(xo) > SPAWN_CHUNK_MIN_RANGE || Math.abs(zo) > SPAWN_CHUNK_MIN_RANGE;
-							ChunkPos chunkpos = new ChunkPos(xo + cx, zo + cz);
-
-							if (world.getWorldBorder().contains(chunkpos)) {
-								PlayerChunkMapEntry playerchunkmapentry = world.getPlayerChunkMap().getEntry(chunkpos.x, chunkpos.z);
-
-								if (playerchunkmapentry != null && playerchunkmapentry.isSentToPlayers()) {
-									if(!isBorder) {
-										eligibleChunks.put(chunkpos, false);
-									} else {
-										if(!eligibleChunks.containsKey(chunkpos)) {
-											eligibleChunks.put(chunkpos, true);
-										}
-									}
-								}
-							}
-						}
-					}
-				}
-			}
+			SpawnerAreaTracker tracker = this.getTracker(world);
+			if(tracker != null) {
+				tracker.updatePlayers(world.playerEntities);
 
-			for(Entry<ChunkPos, Boolean> entry : eligibleChunks.entrySet()) {
-				if(entry.getValue()) {
-					spawnerChunks.add(entry.getKey());
-				}
-			}			
+				spawnerChunks.clear();
+				spawnerChunks.addAll(tracker.getEligibleChunks());
+			}
 		}
 	}
 
 	@Override
 	protected void updateEntityCounts(World world, TObjectIntHashMap<Class<? extends Entity>> entityCounts) {
 		if(this.firstSpawnPass) {
-			super.updateEntityCounts(world, entityCounts);
+			SpawnerAreaTracker tracker = this.getTracker(world);
+			if(tracker != null) {
+				entityCounts.clear();
+				entityCounts.putAll(tracker.getEntityCounts());
+			} else {
+				super.updateEntityCounts(world, entityCounts);
+			}
 		}
 	}
 
@@ -137,7 +137,7 @@ public class WorldMobSpawner extends AreaMobSpawner {
 	}
 
 	@Override
-	protected BlockPos getRandomSpawnPosition(World world, ChunkPos chunkPos) {
+	protected BlockPos.MutableBlockPos getRandomSpawnPosition(World world, ChunkPos chunkPos, BlockPos.MutableBlockPos pos) {
 		Chunk chunk = world.getChunk(chunkPos.x, chunkPos.z);
 		int x = chunkPos.x * 16 + world.rand.nextInt(16);
 		int z = chunkPos.z * 16 + world.rand.nextInt(16);
@@ -148,7 +148,51 @@ public class WorldMobSpawner extends AreaMobSpawner {
 		} else {
 			y = Math.min(world.rand.nextInt(chunk == null ? world.getActualHeight() : (chunk.getTopFilledSegment() + 16 - 1)), 256);
 		}
-		return new BlockPos(x, y, z);
+		return pos.setPos(x, y, z);
+	}
+
+	@SubscribeEvent
+	public void onWorldLoad(WorldEvent.Load event) {
+		World world = event.getWorld();
+		if(world instanceof WorldServer && world.provider.getDimension() == BetweenlandsConfig.WORLD_AND_DIMENSION.dimensionId) {
+			if(this.tracker != null) {
+				this.tracker.unregister();
+			}
+			this.tracker = new SpawnerAreaTracker((WorldServer) world, SPAWN_CHUNK_MAX_RANGE, SPAWN_CHUNK_MIN_RANGE, entity -> this.isCountedEntity(world, entity));
+			this.tracker.register();
+		}
+	}
+
+	@SubscribeEvent
+	public void onWorldUnload(WorldEvent.Unload event) {
+		if(this.tracker != null && this.tracker.getWorld() == event.getWorld()) {
+			this.tracker.unregister();
+			this.tracker = null;
+		}
+	}
+
+	@SubscribeEvent
+	public void onWatchChunk(ChunkWatchEvent.Watch event) {
+		SpawnerAreaTracker tracker = this.getTracker(event.getChunkInstance().getWorld());
+		if(tracker != null) {
+			tracker.watchChunk(event.getPlayer(), event.getChunkInstance().x, event.getChunkInstance().z);
+		}
+	}
+
+	@SubscribeEvent
+	public void onUnwatchChunk(ChunkWatchEvent.UnWatch event) {
+		SpawnerAreaTracker tracker = this.getTracker(event.getChunkInstance().getWorld());
+		if(tracker != null) {
+			tracker.unwatchChunk(event.getPlayer(), event.getChunkInstance().x, event.getChunkInstance().z);
+		}
+	}
+
+	@SubscribeEvent
+	public void onEntityEnteringChunk(EntityEvent.EnteringChunk event) {
+		SpawnerAreaTracker tracker = this.getTracker(event.getEntity().world);
+		if(tracker != null) {
+			tracker.onEntityEnteringChunk(event.getEntity(), event.getNewChunkX(), event.getNewChunkZ());
+		}
 	}
 
 	@SubscribeEvent
@@ -162,7 +206,7 @@ public class WorldMobSpawner extends AreaMobSpawner {
 				boolean spawnHostiles = ((WorldProviderBetweenlands)world.provider).getCanSpawnHostiles();
 				boolean spawnAnimals = ((WorldProviderBetweenlands)world.provider).getCanSpawnAnimals();
 
-				//long start = System.nanoTime();
+				long startTime = HotPathProfiler.start();
 				this.firstSpawnPass = true;
 				this.populate(world, spawnHostiles, spawnAnimals);
 				
@@ -170,7 +214,7 @@ public class WorldMobSpawner extends AreaMobSpawner {
 				this.populate(world, spawnHostiles, spawnAnimals);
 				
 				this.firstSpawnPass = false;
-				//System.out.println("Time: " + (System.nanoTime() - start) / 1000000.0F);
+				PROFILER_SPAWNING.end(startTime);
 			}
 		}
 	}
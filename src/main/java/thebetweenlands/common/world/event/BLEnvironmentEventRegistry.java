@@ -27,6 +27,8 @@ public class BLEnvironmentEventRegistry implements IEnvironmentEventRegistry {
 	
 	private World world;
 
+	private final WeatherSurfaceScheduler weatherSurfaceScheduler = new WeatherSurfaceScheduler();
+
 	public BLEnvironmentEventRegistry(World world) {
 		this.world = world;
 
@@ -46,6 +48,14 @@ public class BLEnvironmentEventRegistry implements IEnvironmentEventRegistry {
 		return this.world;
 	}
 
+	/**
+	 * Returns the scheduler that distributes the surface updates of weather events over the loaded chunks
+	 * @return
+	 */
+	public WeatherSurfaceScheduler getWeatherSurfaceScheduler() {
+		return this.weatherSurfaceScheduler;
+	}
+
 	public void init() {
 		//Only add events to the dimension
 		if(this.world.provider instanceof WorldProviderBetweenlands) {
@@ -1,6 +1,5 @@
 package thebetweenlands.common.world.event;
 
-import java.util.Iterator;
 import java.util.Random;
 
 import net.minecraft.block.material.Material;
@@ -35,7 +34,7 @@ import thebetweenlands.common.registries.SoundRegistry;
 import thebetweenlands.common.world.WorldProviderBetweenlands;
 import thebetweenlands.common.world.storage.BetweenlandsWorldStorage;
 
-public class EventHeavyRain extends TimedEnvironmentEvent {
+public class EventHeavyRain extends TimedEnvironmentEvent implements IWeatherSurfaceUpdater {
 	public static final ResourceLocation ID = new ResourceLocation(ModInfo.ID, "heavy_rain");
 
 	protected static final ResourceLocation[] VISION_TEXTURES = new ResourceLocation[] { new ResourceLocation("thebetweenlands:textures/events/heavy_rain.png") };
@@ -73,28 +72,24 @@ public class EventHeavyRain extends TimedEnvironmentEvent {
 			this.setActive(false);
 		}
 
-		if(this.isActive() && world.provider instanceof WorldProviderBetweenlands && world.rand.nextInt(20) == 0) {
-			if(!world.isRemote && world instanceof WorldServer) {
-				WorldServer worldServer = (WorldServer)world;
-				for (Iterator<Chunk> iterator = worldServer.getPersistentChunkIterable(worldServer.getPlayerChunkMap().getChunkIterator()); iterator.hasNext(); ) {
-					Chunk chunk = iterator.next();
-					if(world.rand.nextInt(4) == 0) {
-						int cbx = world.rand.nextInt(16);
-						int cbz = world.rand.nextInt(16);
-						BlockPos pos = chunk.getPrecipitationHeight(new BlockPos(chunk.getPos().getXStart() + cbx, -999, chunk.getPos().getZStart() + cbz));
-						if(world.getBlockState(pos.add(0, -1, 0)).getBlock() != BlockRegistry.PUDDLE && BlockRegistry.PUDDLE.canPlaceBlockAt(world, pos)) {
-							world.setBlockState(pos, BlockRegistry.PUDDLE.getDefaultState());
-						}
-					}
-				}
-			}
-		}
-
 		if(world.isRemote) {
 			this.updateWeather(world);
 		}
 	}
 
+	@Override
+	public float getSurfaceUpdateRate(WorldServer world) {
+		//On average one puddle placement attempt per chunk every 80 ticks
+		return this.isActive() && world.provider instanceof WorldProviderBetweenlands ? 1.0F / 80.0F : 0.0F;
+	}
+
+	@Override
+	public void updateSurface(WorldServer world, Chunk chunk, BlockPos pos, WeatherSurfaceScheduler.BlockChanges changes) {
+		if(world.getBlockState(pos.down()).getBlock() != BlockRegistry.PUDDLE && BlockRegistry.PUDDLE.canPlaceBlockAt(world, pos)) {
+			changes.setBlockState(pos, BlockRegistry.PUDDLE.getDefaultState());
+		}
+	}
+
 	private int rainSoundCounter = 0;
 
 	@SideOnly(Side.CLIENT)
@@ -1,6 +1,5 @@
 package thebetweenlands.common.world.event;
 
-import java.util.Iterator;
 import java.util.Random;
 
 import net.minecraft.block.state.IBlockState;
@@ -26,7 +25,7 @@ import thebetweenlands.common.registries.BlockRegistry;
 import thebetweenlands.common.registries.SoundRegistry;
 import thebetweenlands.common.world.WorldProviderBetweenlands;
 
-public class EventSnowfall extends TimedEnvironmentEvent {
+public class EventSnowfall extends TimedEnvironmentEvent implements IWeatherSurfaceUpdater {
 	public static final ResourceLocation ID = new ResourceLocation(ModInfo.ID, "snowfall");
 
 	protected static final ResourceLocation[] VISION_TEXTURES = new ResourceLocation[] { new ResourceLocation("thebetweenlands:textures/events/snowfall.png") };
@@ -92,45 +91,6 @@ public class EventSnowfall extends TimedEnvironmentEvent {
 			if(this.isActive() && !this.getRegistry().winter.isActive()) {
 				this.setActive(false);
 			}
-
-			if (this.isActive() && world.provider instanceof WorldProviderBetweenlands && world instanceof WorldServer && world.rand.nextInt(5) == 0) {
-				WorldServer worldServer = (WorldServer) world;
-				for (Iterator<Chunk> iterator = worldServer.getPersistentChunkIterable(worldServer.getPlayerChunkMap().getChunkIterator()); iterator.hasNext();) {
-					Chunk chunk = iterator.next();
-					int cbx = world.rand.nextInt(16);
-					int cbz = world.rand.nextInt(16);
-					BlockPos pos = chunk.getPrecipitationHeight(new BlockPos(chunk.getPos().getXStart() + cbx, -999, chunk.getPos().getZStart() + cbz)).down();
-					if (world.rand.nextInt(Math.max(20 - (int) (this.getSnowingStrength() / 8.0F * 18.0F), 2)) == 0) {
-						IBlockState stateAbove = world.getBlockState(pos.up());
-						if (stateAbove.getBlock() == Blocks.AIR && BlockRegistry.SNOW.canPlaceBlockAt(world, pos.up())) {
-							world.setBlockState(pos.up(), BlockRegistry.SNOW.getDefaultState());
-						} else if (stateAbove.getBlock() instanceof BlockSnowBetweenlands) {
-							int layers = stateAbove.getValue(BlockSnowBetweenlands.LAYERS);
-							if (layers < 5) {
-								boolean hasEnoughSnowAround = true;
-								PooledMutableBlockPos checkPos = PooledMutableBlockPos.retain();
-								for (EnumFacing dir : EnumFacing.HORIZONTALS) {
-									checkPos.setPos(pos.getX() + dir.getXOffset(), pos.getY() + 1, pos.getZ() + dir.getZOffset());
-									if (world.isBlockLoaded(checkPos)) {
-										IBlockState neighourState = world.getBlockState(checkPos);
-										if (BlockRegistry.SNOW.canPlaceBlockAt(world, checkPos)
-												&& (neighourState.getBlock() != BlockRegistry.SNOW || neighourState.getValue(BlockSnowBetweenlands.LAYERS) < layers)) {
-											hasEnoughSnowAround = false;
-										}
-									} else {
-										hasEnoughSnowAround = false;
-										break;
-									}
-								}
-								checkPos.release();
-								if (hasEnoughSnowAround) {
-									world.setBlockState(pos.up(), stateAbove.withProperty(BlockSnowBetweenlands.LAYERS, layers + 1));
-								}
-							}
-						}
-					}
-				}
-			}
 		} else {
 			this.updateSnowRenderer(world);
 		}
@@ -154,6 +114,46 @@ public class EventSnowfall extends TimedEnvironmentEvent {
 		}
 	}
 
+	@Override
+	public float getSurfaceUpdateRate(WorldServer world) {
+		//On average one surface update per chunk every 5 ticks
+		return this.isActive() && world.provider instanceof WorldProviderBetweenlands ? 1.0F / 5.0F : 0.0F;
+	}
+
+	@Override
+	public void updateSurface(WorldServer world, Chunk chunk, BlockPos surfacePos, WeatherSurfaceScheduler.BlockChanges changes) {
+		BlockPos pos = surfacePos.down();
+		if (world.rand.nextInt(Math.max(20 - (int) (this.getSnowingStrength() / 8.0F * 18.0F), 2)) == 0) {
+			IBlockState stateAbove = world.getBlockState(pos.up());
+			if (stateAbove.getBlock() == Blocks.AIR && BlockRegistry.SNOW.canPlaceBlockAt(world, pos.up())) {
+				changes.setBlockState(pos.up(), BlockRegistry.SNOW.getDefaultState());
+			} else if (stateAbove.getBlock() instanceof BlockSnowBetweenlands) {
+				int layers = stateAbove.getValue(BlockSnowBetweenlands.LAYERS);
+				if (layers < 5) {
+					boolean hasEnoughSnowAround = true;
+					PooledMutableBlockPos checkPos = PooledMutableBlockPos.retain();
+					for (EnumFacing dir : EnumFacing.HORIZONTALS) {
+						checkPos.setPos(pos.getX() + dir.getXOffset(), pos.getY() + 1, pos.getZ() + dir.getZOffset());
+						if (world.isBlockLoaded(checkPos)) {
+							IBlockState neighourState = world.getBlockState(checkPos);
+							if (BlockRegistry.SNOW.canPlaceBlockAt(world, checkPos)
+									&& (neighourState.getBlock() != BlockRegistry.SNOW || neighourState.getValue(BlockSnowBetweenlands.LAYERS) < layers)) {
+								hasEnoughSnowAround = false;
+							}
+						} else {
+							hasEnoughSnowAround = false;
+							break;
+						}
+					}
+					checkPos.release();
+					if (hasEnoughSnowAround) {
+						changes.setBlockState(pos.up(), stateAbove.withProperty(BlockSnowBetweenlands.LAYERS, layers + 1));
+					}
+				}
+			}
+		}
+	}
+
 	@SideOnly(Side.CLIENT)
 	protected void updateSnowRenderer(World world) {
 		BLSnowRenderer.INSTANCE.update(world);
@@ -2,7 +2,6 @@ package thebetweenlands.common.world.event;
 
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-import java.util.Iterator;
 
 import net.minecraft.block.state.BlockFaceShape;
 import net.minecraft.block.state.IBlockState;
@@ -39,7 +38,7 @@ import thebetweenlands.common.registries.ModelRegistry;
 import thebetweenlands.common.tile.TileEntityPresent;
 import thebetweenlands.common.world.WorldProviderBetweenlands;
 
-public class EventWinter extends SeasonalEnvironmentEvent {
+public class EventWinter extends SeasonalEnvironmentEvent implements IWeatherSurfaceUpdater {
 	public static final ResourceLocation ID = new ResourceLocation(ModInfo.ID, "winter");
 
 	private static final long WINTER_DATE = new GregorianCalendar(Calendar.getInstance().get(Calendar.YEAR), 11, 1, 0, 0).getTime().getTime();
@@ -90,74 +89,69 @@ public class EventWinter extends SeasonalEnvironmentEvent {
 	}
 
 	@Override
-	public void update(World world) {
-		super.update(world);
-
-		if(!world.isRemote && this.isActive()) {
-			if(world.provider instanceof WorldProviderBetweenlands && world instanceof WorldServer && world.rand.nextInt(10) == 0) {
-				WorldServer worldServer = (WorldServer)world;
-				for (Iterator<Chunk> iterator = worldServer.getPersistentChunkIterable(worldServer.getPlayerChunkMap().getChunkIterator()); iterator.hasNext(); ) {
-					Chunk chunk = iterator.next();
-					int cbx = world.rand.nextInt(16);
-					int cbz = world.rand.nextInt(16);
-					BlockPos pos = chunk.getPrecipitationHeight(new BlockPos(chunk.getPos().getXStart() + cbx, -999, chunk.getPos().getZStart() + cbz)).down();
-					if(world.isAirBlock(pos.up()) && world.getBlockState(pos).getBlock() == BlockRegistry.SWAMP_WATER) {
-						if(world.rand.nextInt(3) == 0) {
-							boolean hasSuitableNeighbourBlock = false;
-							PooledMutableBlockPos checkPos = PooledMutableBlockPos.retain();
-							for(EnumFacing dir : EnumFacing.HORIZONTALS) {
-								checkPos.setPos(pos.getX() + dir.getXOffset(), pos.getY(), pos.getZ() + dir.getZOffset());
-								if(world.isBlockLoaded(checkPos)) {
-									if(!hasSuitableNeighbourBlock) {
-										IBlockState neighourState = world.getBlockState(checkPos);
-										if(neighourState.getBlock() == BlockRegistry.BLACK_ICE || neighourState.isSideSolid(world, checkPos, dir.getOpposite())) {
-											hasSuitableNeighbourBlock = true;
-										}
-									}
-								} else {
-									hasSuitableNeighbourBlock = false;
-									break;
-								}
-							}
-							checkPos.release();
-							if(hasSuitableNeighbourBlock) {
-								world.setBlockState(pos, BlockRegistry.BLACK_ICE.getDefaultState());
+	public float getSurfaceUpdateRate(WorldServer world) {
+		//On average one surface update per chunk every 10 ticks
+		return this.isActive() && world.provider instanceof WorldProviderBetweenlands ? 1.0F / 10.0F : 0.0F;
+	}
+
+	@Override
+	public void updateSurface(WorldServer world, Chunk chunk, BlockPos surfacePos, WeatherSurfaceScheduler.BlockChanges changes) {
+		BlockPos pos = surfacePos.down();
+		if(world.isAirBlock(surfacePos) && world.getBlockState(pos).getBlock() == BlockRegistry.SWAMP_WATER) {
+			if(world.rand.nextInt(3) == 0) {
+				boolean hasSuitableNeighbourBlock = false;
+				PooledMutableBlockPos checkPos = PooledMutableBlockPos.retain();
+				for(EnumFacing dir : EnumFacing.HORIZONTALS) {
+					checkPos.setPos(pos.getX() + dir.getXOffset(), pos.getY(), pos.getZ() + dir.getZOffset());
+					if(world.isBlockLoaded(checkPos)) {
+						if(!hasSuitableNeighbourBlock) {
+							IBlockState neighourState = world.getBlockState(checkPos);
+							if(neighourState.getBlock() == BlockRegistry.BLACK_ICE || neighourState.isSideSolid(world, checkPos, dir.getOpposite())) {
+								hasSuitableNeighbourBlock = true;
 							}
 						}
-					} else if(world.rand.nextInt(3000) == 0) {
-						IBlockState state = world.getBlockState(pos);
-						if(state.getBlock().isLeaves(state, world, pos)) {
-							BlockPos offsetPos = pos;
-							
-							for(int i = 0; i < 6; i++) {
-								offsetPos = offsetPos.down();
-								state = world.getBlockState(offsetPos);
-								
-								if(!state.getBlock().isLeaves(state, world, offsetPos)) {
-									if(world.isAirBlock(offsetPos) && world.getLightFor(EnumSkyBlock.BLOCK, offsetPos) == 0 &&
-											(world.isSideSolid(offsetPos.up(), EnumFacing.DOWN) || world.getBlockState(offsetPos.up()).getBlockFaceShape(world, offsetPos.up(), EnumFacing.DOWN) != BlockFaceShape.UNDEFINED)) {
-										world.setBlockState(offsetPos, BlockRegistry.BAUBLE.getDefaultState().withProperty(BlockBauble.DIAGONAL, world.rand.nextBoolean()).withProperty(BlockBauble.COLOR, world.rand.nextInt(8)));
-									}
-									
-									break;
-								}
-							}
+					} else {
+						hasSuitableNeighbourBlock = false;
+						break;
+					}
+				}
+				checkPos.release();
+				if(hasSuitableNeighbourBlock) {
+					changes.setBlockState(pos, BlockRegistry.BLACK_ICE.getDefaultState());
+				}
+			}
+		} else if(world.rand.nextInt(3000) == 0) {
+			IBlockState state = world.getBlockState(pos);
+			if(state.getBlock().isLeaves(state, world, pos)) {
+				BlockPos offsetPos = pos;
+
+				for(int i = 0; i < 6; i++) {
+					offsetPos = offsetPos.down();
+					state = world.getBlockState(offsetPos);
+
+					if(!state.getBlock().isLeaves(state, world, offsetPos)) {
+						if(world.isAirBlock(offsetPos) && world.getLightFor(EnumSkyBlock.BLOCK, offsetPos) == 0 &&
+								(world.isSideSolid(offsetPos.up(), EnumFacing.DOWN) || world.getBlockState(offsetPos.up()).getBlockFaceShape(world, offsetPos.up(), EnumFacing.DOWN) != BlockFaceShape.UNDEFINED)) {
+							changes.setBlockState(offsetPos, BlockRegistry.BAUBLE.getDefaultState().withProperty(BlockBauble.DIAGONAL, world.rand.nextBoolean()).withProperty(BlockBauble.COLOR, world.rand.nextInt(8)));
 						}
+
+						break;
 					}
+				}
+			}
+		}
 
-					if(world.rand.nextInt(3000) == 0 && world.getClosestPlayer(pos.getX(), pos.getY(), pos.getZ(), 64.0D, false) == null) {
-						if(world.isSideSolid(pos, EnumFacing.UP)) {
-							IBlockState stateAbove = world.getBlockState(pos.up());
-							if(stateAbove.getBlock() == Blocks.AIR || (stateAbove.getBlock() instanceof BlockSnowBetweenlands && stateAbove.getValue(BlockSnowBetweenlands.LAYERS) <= 5)) {
-								world.setBlockState(pos.up(), BlockRegistry.PRESENT.getDefaultState().withProperty(BlockPresent.COLOR, EnumDyeColor.values()[world.rand.nextInt(EnumDyeColor.values().length)]));
-								TileEntityPresent tile = BlockPresent.getTileEntity(world, pos.up());
-								if (tile != null) {
-									tile.setLootTable(LootTableRegistry.PRESENT, world.rand.nextLong());
-									tile.markDirty();
-								}
-							}
+		if(world.rand.nextInt(3000) == 0 && world.getClosestPlayer(pos.getX(), pos.getY(), pos.getZ(), 64.0D, false) == null) {
+			if(world.isSideSolid(pos, EnumFacing.UP)) {
+				IBlockState stateAbove = world.getBlockState(surfacePos);
+				if(stateAbove.getBlock() == Blocks.AIR || (stateAbove.getBlock() instanceof BlockSnowBetweenlands && stateAbove.getValue(BlockSnowBetweenlands.LAYERS) <= 5)) {
+					changes.setBlockState(surfacePos, BlockRegistry.PRESENT.getDefaultState().withProperty(BlockPresent.COLOR, EnumDyeColor.values()[world.rand.nextInt(EnumDyeColor.values().length)]), (w, presentPos) -> {
+						TileEntityPresent tile = BlockPresent.getTileEntity(w, presentPos);
+						if (tile != null) {
+							tile.setLootTable(LootTableRegistry.PRESENT, w.rand.nextLong());
+							tile.markDirty();
 						}
-					}
+					});
 				}
 			}
 		}
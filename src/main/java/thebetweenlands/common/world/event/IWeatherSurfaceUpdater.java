@@ -0,0 +1,27 @@
+package thebetweenlands.common.world.event;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+
+/**
+ * Environment events that place weather blocks (puddles, snow, ice...) on the surface of loaded chunks.
+ * The surface updates of all events are distributed over the loaded chunks by the {@link WeatherSurfaceScheduler}.
+ */
+public interface IWeatherSurfaceUpdater {
+	/**
+	 * Returns the average number of surface updates per loaded chunk and tick, or 0 if no updates are required
+	 * @param world
+	 * @return
+	 */
+	public float getSurfaceUpdateRate(WorldServer world);
+
+	/**
+	 * Updates the surface at the specified position
+	 * @param world
+	 * @param chunk The chunk that contains the position
+	 * @param pos The precipitation height, i.e. the position above the surface block. Must not be modified or stored
+	 * @param changes Block changes should be queued here, they are applied after all events have updated the chunk
+	 */
+	public void updateSurface(WorldServer world, Chunk chunk, BlockPos pos, WeatherSurfaceScheduler.BlockChanges changes);
+}
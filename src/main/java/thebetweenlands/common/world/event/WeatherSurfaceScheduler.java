@@ -0,0 +1,231 @@
+package thebetweenlands.common.world.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import thebetweenlands.api.environment.IEnvironmentEvent;
+
+/**
+ * Distributes the surface updates of all active {@link IWeatherSurfaceUpdater}s round-robin over the loaded chunks.
+ * Each chunk is visited at most once per cycle of {@link #CYCLE_TICKS} ticks and at most {@link #MAX_CHUNKS_PER_TICK}
+ * chunks are visited per tick, so with many loaded chunks the cycle is stretched instead of the cost per tick growing.
+ * During a visit all events share the same surface columns, which are looked up from the chunk's precipitation height map,
+ * and the block changes of all events are applied together once the chunk has been updated.
+ */
+public class WeatherSurfaceScheduler {
+	public static final int CYCLE_TICKS = 20;
+	public static final int MAX_CHUNKS_PER_TICK = 64;
+
+	public static class BlockChanges {
+		private BlockPos[] positions = new BlockPos[8];
+		private IBlockState[] states = new IBlockState[8];
+		@SuppressWarnings("unchecked")
+		private BiConsumer<World, BlockPos>[] callbacks = new BiConsumer[8];
+		private int size;
+
+		/**
+		 * Queues a block change. A later change at the same position replaces the earlier one
+		 * @param pos
+		 * @param state
+		 */
+		public void setBlockState(BlockPos pos, IBlockState state) {
+			this.setBlockState(pos, state, null);
+		}
+
+		/**
+		 * Queues a block change. A later change at the same position replaces the earlier one
+		 * @param pos
+		 * @param state
+		 * @param onChanged Called after the block was changed successfully
+		 */
+		public void setBlockState(BlockPos pos, IBlockState state, @Nullable BiConsumer<World, BlockPos> onChanged) {
+			for(int i = 0; i < this.size; i++) {
+				if(this.positions[i].equals(pos)) {
+					this.states[i] = state;
+					this.callbacks[i] = onChanged;
+					return;
+				}
+			}
+			if(this.size == this.positions.length) {
+				this.positions = Arrays.copyOf(this.positions, this.size * 2);
+				this.states = Arrays.copyOf(this.states, this.size * 2);
+				this.callbacks = Arrays.copyOf(this.callbacks, this.size * 2);
+			}
+			this.positions[this.size] = pos.toImmutable();
+			this.states[this.size] = state;
+			this.callbacks[this.size] = onChanged;
+			this.size++;
+		}
+
+		/**
+		 * Returns the state that was queued for the specified position, or null if there is none
+		 * @param pos
+		 * @return
+		 */
+		@Nullable
+		public IBlockState getQueuedState(BlockPos pos) {
+			for(int i = 0; i < this.size; i++) {
+				if(this.positions[i].equals(pos)) {
+					return this.states[i];
+				}
+			}
+			return null;
+		}
+
+		private int apply(World world) {
+			int applied = 0;
+			for(int i = 0; i < this.size; i++) {
+				if(world.setBlockState(this.positions[i], this.states[i])) {
+					applied++;
+					if(this.callbacks[i] != null) {
+						this.callbacks[i].accept(world, this.positions[i]);
+					}
+				}
+				this.positions[i] = null;
+				this.states[i] = null;
+				this.callbacks[i] = null;
+			}
+			this.size = 0;
+			return applied;
+		}
+	}
+
+	private final List<IWeatherSurfaceUpdater> updaters = new ArrayList<>();
+	private float[] updatesPerVisit = new float[4];
+	private int[] updatesThisVisit = new int[4];
+
+	private final List<Chunk> chunks = new ArrayList<>();
+	private int cursor;
+	private int chunksPerTick;
+	private long cycleStart = Long.MIN_VALUE;
+
+	private final BlockPos.MutableBlockPos columnPos = new BlockPos.MutableBlockPos();
+	private final BlockChanges changes = new BlockChanges();
+
+	private long visitedChunks;
+	private long surfaceUpdates;
+	private long blockChanges;
+
+	/**
+	 * Continues the current cycle or starts a new one if the previous cycle has ended
+	 * @param world
+	 * @param events
+	 */
+	public void update(WorldServer world, Collection<IEnvironmentEvent> events) {
+		this.updaters.clear();
+
+		for(IEnvironmentEvent event : events) {
+			if(event instanceof IWeatherSurfaceUpdater && event.isLoaded()) {
+				IWeatherSurfaceUpdater updater = (IWeatherSurfaceUpdater) event;
+				float rate = updater.getSurfaceUpdateRate(world);
+				if(rate > 0) {
+					int index = this.updaters.size();
+					if(index == this.updatesPerVisit.length) {
+						this.updatesPerVisit = Arrays.copyOf(this.updatesPerVisit, index * 2);
+						this.updatesThisVisit = Arrays.copyOf(this.updatesThisVisit, index * 2);
+					}
+					this.updaters.add(updater);
+					this.updatesPerVisit[index] = rate * CYCLE_TICKS;
+				}
+			}
+		}
+
+		if(this.updaters.isEmpty()) {
+			this.chunks.clear();
+			this.cursor = 0;
+			return;
+		}
+
+		if(this.cursor >= this.chunks.size()) {
+			long time = world.getTotalWorldTime();
+			if(time - this.cycleStart < CYCLE_TICKS) {
+				return;
+			}
+
+			this.chunks.clear();
+			this.cursor = 0;
+			this.cycleStart = time;
+
+			for(Iterator<Chunk> it = world.getPersistentChunkIterable(world.getPlayerChunkMap().getChunkIterator()); it.hasNext(); ) {
+				this.chunks.add(it.next());
+			}
+
+			this.chunksPerTick = Math.max(1, Math.min(MAX_CHUNKS_PER_TICK, (this.chunks.size() + CYCLE_TICKS - 1) / CYCLE_TICKS));
+		}
+
+		int end = Math.min(this.chunks.size(), this.cursor + this.chunksPerTick);
+		for(; this.cursor < end; this.cursor++) {
+			Chunk chunk = this.chunks.set(this.cursor, null);
+			if(chunk.isLoaded()) {
+				this.visitChunk(world, chunk);
+			}
+		}
+	}
+
+	private void visitChunk(WorldServer world, Chunk chunk) {
+		int numUpdaters = this.updaters.size();
+
+		int maxUpdates = 0;
+		for(int i = 0; i < numUpdaters; i++) {
+			float updates = this.updatesPerVisit[i];
+			int guaranteedUpdates = (int) updates;
+			this.updatesThisVisit[i] = guaranteedUpdates + (world.rand.nextFloat() < updates - guaranteedUpdates ? 1 : 0);
+			maxUpdates = Math.max(maxUpdates, this.updatesThisVisit[i]);
+		}
+
+		if(maxUpdates == 0) {
+			return;
+		}
+
+		this.visitedChunks++;
+
+		for(int update = 0; update < maxUpdates; update++) {
+			this.columnPos.setPos(chunk.getPos().getXStart() + world.rand.nextInt(16), 0, chunk.getPos().getZStart() + world.rand.nextInt(16));
+			BlockPos surfacePos = chunk.getPrecipitationHeight(this.columnPos);
+
+			for(int i = 0; i < numUpdaters; i++) {
+				if(update < this.updatesThisVisit[i]) {
+					this.updaters.get(i).updateSurface(world, chunk, surfacePos, this.changes);
+					this.surfaceUpdates++;
+				}
+			}
+		}
+
+		this.blockChanges += this.changes.apply(world);
+	}
+
+	/**
+	 * Returns the total number of visited chunks
+	 * @return
+	 */
+	public long getVisitedChunks() {
+		return this.visitedChunks;
+	}
+
+	/**
+	 * Returns the total number of surface updates
+	 * @return
+	 */
+	public long getSurfaceUpdates() {
+		return this.surfaceUpdates;
+	}
+
+	/**
+	 * Returns the total number of applied block changes
+	 * @return
+	 */
+	public long getBlockChanges() {
+		return this.blockChanges;
+	}
+}
@@ -0,0 +1,282 @@
+package thebetweenlands.common.world.gen;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.ChunkPrimer;
+import net.minecraft.world.gen.NoiseGeneratorOctaves;
+
+/**
+ * Generates the base terrain of {@link ChunkGeneratorBetweenlands} from the density noise and the biomes
+ * at 1:4 scale. Holds no state of its own, all scratch buffers are in the {@link ChunkGenerationContext},
+ * so chunks can be generated on multiple threads as long as each thread uses its own context.
+ */
+public class BaseTerrainGenerator {
+	private final NoiseGeneratorOctaves minLimitPerlinNoise;
+	private final NoiseGeneratorOctaves maxLimitPerlinNoise;
+	private final NoiseGeneratorOctaves mainPerlinNoise;
+	private final NoiseGeneratorOctaves depthNoise;
+	private final IBlockState baseBlockState;
+	private final IBlockState layerBlockState;
+	private final int layerHeight;
+	private final float[] biomeWeights;
+
+	public BaseTerrainGenerator(NoiseGeneratorOctaves minLimitPerlinNoise, NoiseGeneratorOctaves maxLimitPerlinNoise, NoiseGeneratorOctaves mainPerlinNoise, NoiseGeneratorOctaves depthNoise,
+			IBlockState baseBlockState, IBlockState layerBlockState, int layerHeight) {
+		this.minLimitPerlinNoise = minLimitPerlinNoise;
+		this.maxLimitPerlinNoise = maxLimitPerlinNoise;
+		this.mainPerlinNoise = mainPerlinNoise;
+		this.depthNoise = depthNoise;
+		this.baseBlockState = baseBlockState;
+		this.layerBlockState = layerBlockState;
+		this.layerHeight = layerHeight;
+		this.biomeWeights = new float[25];
+		for (int i = -2; i <= 2; ++i) {
+			for (int j = -2; j <= 2; ++j) {
+				float f = 10.0F / MathHelper.sqrt((float)(i * i + j * j) + 0.2F);
+				this.biomeWeights[i + 2 + (j + 2) * 5] = f;
+			}
+		}
+	}
+
+	/**
+	 * Generates the base terrain from the specified biomes. Only uses the specified context
+	 * and the noise generators, so it can be called from any thread.
+	 * @param ctx
+	 * @param chunkX
+	 * @param chunkZ
+	 * @param biomesForGeneration 15x15 biomes at 1:4 scale around the chunk
+	 * @param primer
+	 */
+	public void generate(ChunkGenerationContext ctx, int chunkX, int chunkZ, Biome[] biomesForGeneration, ChunkPrimer primer) {
+		this.generateHeightmap(ctx, biomesForGeneration, chunkX * 4, 0, chunkZ * 4);
+
+		double[] heightMap = ctx.heightMap;
+
+		//X
+		for (int heightMapX = 0; heightMapX < 4; ++heightMapX) {
+			int indexXC = heightMapX * 5; //1
+			int indexXN = (heightMapX + 1) * 5; //2
+
+			/*
+			 * 1 2
+			 */
+
+			//Z
+			for (int heightMapZ = 0; heightMapZ < 4; ++heightMapZ) {
+				int indexXCZC = (indexXC + heightMapZ) * 33; //1
+				int indexXCZN = (indexXC + heightMapZ + 1) * 33; //2
+				int indexXNZC = (indexXN + heightMapZ) * 33; //3
+				int indexXNZN = (indexXN + heightMapZ + 1) * 33; //4
+
+				/*
+				 * 1 3
+				 * 2 4
+				 */
+
+				//Y
+				for (int heightMapY = 0; heightMapY < 32; ++heightMapY) {
+					//Values
+					double valXCZCYC = heightMap[indexXCZC + heightMapY]; //1
+					double valXCZNYC = heightMap[indexXCZN + heightMapY]; //2
+					double valXNZCYC = heightMap[indexXNZC + heightMapY]; //3
+					double valXNZNYC = heightMap[indexXNZN + heightMapY]; //4
+					double valXCZCYN = heightMap[indexXCZC + heightMapY + 1]; //5
+					double valXCZNYN = heightMap[indexXCZN + heightMapY + 1]; //6
+					double valXNZCYN = heightMap[indexXNZC + heightMapY + 1]; //7
+					double valXNZNYN = heightMap[indexXNZN + heightMapY + 1]; //8
+
+					//Step along Y axis (1/8 of the difference)
+					double stepYAxisXCZC = (valXCZCYN - valXCZCYC) * 0.125D;
+					double stepYAxisXCZN = (valXCZNYN - valXCZNYC) * 0.125D;
+					double stepYAxisXNZC = (valXNZCYN - valXNZCYC) * 0.125D;
+					double stepYAxisXNZN = (valXNZNYN - valXNZNYC) * 0.125D;
+
+					double currentValXCZCYC = valXCZCYC;
+					double currentValXCZNYC = valXCZNYC;
+					double currentValXNZCYC = valXNZCYC;
+					double currentValXNZNYC = valXNZNYC;
+
+					/*
+					 * At this point we have the values of a 2x2x2 cube and their difference along the Y axis (e.g. 5 - 1, 6 - 2, 7 - 3, 8 - 4)
+					 * 
+					 * Y:
+					 * 1 3
+					 * 2 4
+					 * 
+					 * Y+1:
+					 * 5 7
+					 * 6 8
+					 */
+
+					//Now it expands that cube into a 8x4x4 area and linearly interpolates the values
+
+					//Step Y axis
+					for (int blockY = 0; blockY < 8; ++blockY) {
+						double currentValXCZC = currentValXCZCYC;
+						double currentValXCZN = currentValXCZNYC;
+
+						//Step along X axis
+						double stepXAxisZC = (currentValXNZCYC - currentValXCZCYC) * 0.25D;
+						double stepXAxisZN = (currentValXNZNYC - currentValXCZNYC) * 0.25D;
+
+						//Step X axis
+						for (int blockX = 0; blockX < 4; ++blockX) {
+							//Step along Z axis
+							double stepZAxis = (currentValXCZN - currentValXCZC) * 0.25D;
+
+							double currentValZC = currentValXCZC - stepZAxis;
+
+							//Step Z axis
+							for (int blockZ = 0; blockZ < 4; ++blockZ) {
+								if ((currentValZC += stepZAxis) > 0.0D) {
+									primer.setBlockState(heightMapX * 4 + blockX, heightMapY * 8 + blockY, heightMapZ * 4 + blockZ, this.baseBlockState);
+								} else if (heightMapY * 8 + blockY <= this.layerHeight) {
+									primer.setBlockState(heightMapX * 4 + blockX, heightMapY * 8 + blockY, heightMapZ * 4 + blockZ, this.layerBlockState);
+								}
+							}
+
+							currentValXCZC += stepXAxisZC;
+							currentValXCZN += stepXAxisZN;
+						}
+
+						currentValXCZCYC += stepYAxisXCZC;
+						currentValXCZNYC += stepYAxisXCZN;
+						currentValXNZCYC += stepYAxisXNZC;
+						currentValXNZNYC += stepYAxisXNZN;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates a 33x5x5 (Y*X*Z) heightmap
+	 * @param ctx
+	 * @param biomesForGeneration
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	private void generateHeightmap(ChunkGenerationContext ctx, Biome[] biomesForGeneration, int x, int y, int z) {
+		ctx.depthRegion = this.depthNoise.generateNoiseOctaves(ctx.depthRegion, x, z, 5, 5, 200.0D, 200.0D, 0.5D);
+		float scaleXZ = 684.412F * 8;
+		float scaleY = 684.412F * 8;
+		ctx.mainNoiseRegion = this.mainPerlinNoise.generateNoiseOctaves(ctx.mainNoiseRegion, x, y, z, 5, 33, 5, (double)(scaleXZ / 80.0F), (double)(scaleY / 160.0F), (double)(scaleXZ / 80.0F));
+		ctx.minLimitRegion = this.minLimitPerlinNoise.generateNoiseOctaves(ctx.minLimitRegion, x, y, z, 5, 33, 5, (double)scaleXZ, (double)scaleY, (double)scaleXZ);
+		ctx.maxLimitRegion = this.maxLimitPerlinNoise.generateNoiseOctaves(ctx.maxLimitRegion, x, y, z, 5, 33, 5, (double)scaleXZ, (double)scaleY, (double)scaleXZ);
+
+		int noiseIndex = 0;
+		int heightMapIndex = 0;
+
+		for (int heightMapX = 0; heightMapX < 5; ++heightMapX) {
+			for (int heightMapZ = 0; heightMapZ < 5; ++heightMapZ) {
+				float biomeVariation = 0.0F;
+				float biomeDepth = 0.0F;
+				float totalBiomeWeight = 0.0F;
+				Biome centerBiome = biomesForGeneration[heightMapX + 5 + (heightMapZ + 5) * 15];
+
+				float nearestOtherBiomeSq = 50;
+
+				//Averages biome height and variation in a 5x5 area and calculates the biome terrain weight from an 11x11 area
+				for (int offsetX = -5; offsetX <= 5; ++offsetX) {
+					for (int offsetZ = -5; offsetZ <= 5; ++offsetZ) {
+						Biome nearbyBiome = biomesForGeneration[heightMapX + 5 + offsetX + (heightMapZ + 5 + offsetZ) * 15];
+						float nearbyBiomeDepth = nearbyBiome.getBaseHeight();
+						float nearbyBiomeVariation = nearbyBiome.getHeightVariation();
+
+						//No amplified terrain
+						/*if (this.terrainType == WorldType.AMPLIFIED && f5 > 0.0F)
+						{
+							f5 = 1.0F + f5 * 2.0F;
+							f6 = 1.0F + f6 * 4.0F;
+						}*/
+
+						if(offsetX >= -2 && offsetX <= 2 && offsetZ >= -2 && offsetZ <=2) {
+							float weight = this.biomeWeights[offsetX + 2 + (offsetZ + 2) * 5];
+
+							if (nearbyBiome.getBaseHeight() > centerBiome.getBaseHeight()) {
+								weight /= 2.0F;
+							}
+
+							biomeVariation += nearbyBiomeVariation * weight;
+							biomeDepth += nearbyBiomeDepth * weight;
+							totalBiomeWeight += weight;
+						}
+
+						float distWeighted = (offsetX*offsetX + offsetZ*offsetZ);
+						if(nearbyBiome != centerBiome && distWeighted < nearestOtherBiomeSq) {
+							nearestOtherBiomeSq = distWeighted;
+						}
+					}
+				}
+
+				//The 0 point is offset by some blocks so that the lerp doesn't cause problems later on
+				ctx.terrainBiomeWeights[heightMapIndex] = MathHelper.clamp(Math.max((nearestOtherBiomeSq - 2) / 46.0F, 0.0F), 0.0F, 1.0F);
+
+				biomeVariation = biomeVariation / totalBiomeWeight;
+				biomeDepth = biomeDepth / totalBiomeWeight;
+
+				//Small offset for biome depth?
+				double depthPerturbation = ctx.depthRegion[heightMapIndex] / 8000.0D;
+
+				//depthPerturbation = 0.0D;
+
+				if (depthPerturbation < 0.0D) {
+					depthPerturbation = -depthPerturbation * 0.3D;
+				}
+
+				depthPerturbation = depthPerturbation * 3.0D - 2.0D;
+
+				if (depthPerturbation < 0.0D) {
+					depthPerturbation = depthPerturbation / 2.0D;
+
+					if (depthPerturbation < -1.0D)
+					{
+						depthPerturbation = -1.0D;
+					}
+
+					depthPerturbation = depthPerturbation / 1.4D;
+					depthPerturbation = depthPerturbation / 2.0D;
+				} else {
+					if (depthPerturbation > 1.0D) {
+						depthPerturbation = 1.0D;
+					}
+
+					depthPerturbation = depthPerturbation / 8.0D;
+				}
+
+				++heightMapIndex;
+
+				//double depth = (biomeDepth * this.layerHeight) / 256.0D;
+
+				for (int heightMapY = 0; heightMapY < 33; ++heightMapY) {
+					double densityOffset = ((double)heightMapY * 8.0D - biomeDepth - (depthPerturbation * biomeVariation / 256.0D)) / 256.0D;
+
+					double maxGenDensity16 = 32767.0D;
+					/*double maxGenDensity16 = 0.0D;
+					for(int i = 0; i < 16 - 1; i++) {
+						maxGenDensity16 += 2 * Math.pow(2.0D, i);
+					}
+					maxGenDensity16 /= 2.0D;*/
+
+					double maxGenDensity8 = 127.0;
+					/*double maxGenDensity8 = 0.0D;
+					for(int i = 0; i < 8 - 1; i++) {
+						maxGenDensity8 += 2 * Math.pow(2.0D, i);
+					}
+					maxGenDensity8 /= 2.0D;*/
+
+					double minDensity = (ctx.minLimitRegion[noiseIndex] / maxGenDensity16) * biomeVariation / 256.0D;
+					double maxDensity = (ctx.maxLimitRegion[noiseIndex] / maxGenDensity16) * biomeVariation / 256.0D;
+					double mainDensity = (ctx.mainNoiseRegion[noiseIndex] / maxGenDensity8);
+
+					//TODO Not sure if clampedlerp is the right thing to use
+					ctx.heightMap[noiseIndex] = MathHelper.clampedLerp(minDensity, maxDensity, mainDensity) - densityOffset;
+
+					++noiseIndex;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package thebetweenlands.common.world.gen;
+
+import net.minecraft.world.biome.Biome;
+import thebetweenlands.common.world.gen.feature.MapGenCavesBetweenlands;
+
+/**
+ * Scratch buffers used while generating the terrain of a chunk.
+ * Contexts are confined to a single thread, see {@link ChunkGeneratorBetweenlands}.
+ */
+public class ChunkGenerationContext {
+	/**
+	 * Technically this isn't a heightmap, it's a 3D density map
+	 */
+	final double[] heightMap = new double[825];
+	double[] mainNoiseRegion;
+	double[] minLimitRegion;
+	double[] maxLimitRegion;
+	double[] depthRegion;
+
+	double[] surfaceNoiseBuffer = new double[256];
+	final float[] terrainBiomeWeights = new float[25];
+	final float[] interpolatedTerrainBiomeWeights = new float[256];
+
+	/**
+	 * 15x15 biomes at 1:4 scale used for the density map
+	 */
+	Biome[] biomesForGeneration;
+
+	/**
+	 * 16x16 biomes of the chunk
+	 */
+	Biome[] biomes;
+
+	final double[] caveNoiseField = new double[MapGenCavesBetweenlands.NOISE_FIELD_SIZE];
+	final double[] seaBreakNoiseField = new double[MapGenCavesBetweenlands.SEA_BREAK_NOISE_FIELD_SIZE];
+}
@@ -9,11 +9,19 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
@@ -29,7 +37,7 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldEntitySpawner;
 import net.minecraft.world.WorldServer;
@@ -55,8 +63,19 @@ import thebetweenlands.common.world.gen.feature.MapGenCavesBetweenlands;
 import thebetweenlands.common.world.gen.feature.MapGenFloatingIslands;
 import thebetweenlands.common.world.gen.feature.MapGenGiantRoots;
 import thebetweenlands.common.world.gen.feature.MapGenRavineBetweenlands;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
 public class ChunkGeneratorBetweenlands implements IChunkGenerator {
+	private static final ProfilerSection PROFILER_GENERATE = HotPathProfiler.section("worldgen.generate");
+	private static final ProfilerSection PROFILER_TERRAIN = HotPathProfiler.section("worldgen.generate.terrain");
+	private static final ProfilerSection PROFILER_TERRAIN_PRECOMPUTE = HotPathProfiler.section("worldgen.generate.terrain_precompute");
+	private static final ProfilerSection PROFILER_BIOME_BLOCKS = HotPathProfiler.section("worldgen.generate.biome_blocks");
+	private static final ProfilerSection PROFILER_CAVES = HotPathProfiler.section("worldgen.generate.caves");
+	private static final ProfilerSection PROFILER_FEATURES = HotPathProfiler.section("worldgen.generate.features");
+	private static final ProfilerSection PROFILER_POPULATE = HotPathProfiler.section("worldgen.populate");
+	private static final ProfilerSection PROFILER_POPULATE_SPAWNING = HotPathProfiler.section("worldgen.populate.spawning");
+
 	/**
 	 * Base block. Vanilla: stone
 	 */
@@ -81,21 +100,9 @@ public class ChunkGeneratorBetweenlands implements IChunkGenerator {
 	public NoiseGeneratorOctaves scaleNoise;
 	public NoiseGeneratorOctaves depthNoise;
 	private final World worldObj;
-	/**
-	 * Technically this isn't a heightmap, it's a 3D density map
-	 */
-	private final double[] heightMap;
-	private final float[] biomeWeights;
-	private double[] surfaceNoiseBuffer = new double[256];
-	private float[] terrainBiomeWeights = new float[25];
-	private float[] interpolatedTerrainBiomeWeights = new float[256];
-	private Biome[] biomesForGeneration;
-	private double[] mainNoiseRegion;
-	private double[] minLimitRegion;
-	private double[] maxLimitRegion;
-	private double[] depthRegion;
 	private final long seed;
-	private final int layerHeight;
+
+	private final BaseTerrainGenerator baseTerrainGenerator;
 
 	private MapGenCavesBetweenlands caveGenerator;
 	private MapGenBase ravineGenerator;
@@ -105,23 +112,59 @@ public class ChunkGeneratorBetweenlands implements IChunkGenerator {
 	private NoiseGeneratorSimplex treeNoise;
 	private NoiseGeneratorSimplex speleothemDensityNoise;
 
+	/**
+	 * Scratch buffers of each thread that generates terrain
+	 */
+	private final ThreadLocal<ChunkGenerationContext> contexts = ThreadLocal.withInitial(ChunkGenerationContext::new);
+
+	/**
+	 * Maximum number of chunks whose precomputed terrain has not been used yet. Further precomputations are refused until some are used or discarded
+	 */
+	private static final int MAX_PRECOMPUTED_CHUNKS = 256;
+
+	/**
+	 * Terrain that is being or has been precomputed, only accessed while holding the lock of the map
+	 */
+	private final Map<Long, PrecomputedTerrainTask> precomputedTerrain = new HashMap<>();
+
+	private static class PrecomputedTerrainTask {
+		private final CompletableFuture<PrecomputedTerrain> future;
+
+		/**
+		 * Everything that requested the precomputation. The terrain is only discarded once all owners have discarded it
+		 */
+		private final Set<Object> owners = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		private PrecomputedTerrainTask(CompletableFuture<PrecomputedTerrain> future) {
+			this.future = future;
+		}
+	}
+
+	/**
+	 * Base terrain and cave noise of a chunk that was generated in advance
+	 */
+	private static class PrecomputedTerrain {
+		private final ChunkPrimer primer;
+		private final float[] terrainBiomeWeights;
+		private final double[] caveNoiseField;
+		private final double[] seaBreakNoiseField;
+
+		private PrecomputedTerrain(ChunkPrimer primer, float[] terrainBiomeWeights, double[] caveNoiseField, double[] seaBreakNoiseField) {
+			this.primer = primer;
+			this.terrainBiomeWeights = terrainBiomeWeights;
+			this.caveNoiseField = caveNoiseField;
+			this.seaBreakNoiseField = seaBreakNoiseField;
+		}
+	}
+
 	public ChunkGeneratorBetweenlands(World world, long seed, Block baseBlock, Block layerBlock, int layerHeight) {
 		this.baseBlock = baseBlock;
 		this.baseBlockState = baseBlock.getDefaultState();
 		this.layerBlock = layerBlock;
 		this.layerBlockState = layerBlock.getDefaultState();
-		this.layerHeight = layerHeight;
 		this.worldObj = world;
 		this.seed = seed;
 		this.rand = new Random(seed);
-		this.heightMap = new double[825];
-		this.biomeWeights = new float[25];
-		for (int i = -2; i <= 2; ++i) {
-			for (int j = -2; j <= 2; ++j) {
-				float f = 10.0F / MathHelper.sqrt((float)(i * i + j * j) + 0.2F);
-				this.biomeWeights[i + 2 + (j + 2) * 5] = f;
-			}
-		}
 		this.minLimitPerlinNoise = new NoiseGeneratorOctaves(this.rand, 16);
 		this.maxLimitPerlinNoise = new NoiseGeneratorOctaves(this.rand, 16);
 		this.mainPerlinNoise = new NoiseGeneratorOctaves(this.rand, 8);
@@ -140,6 +183,7 @@ public class ChunkGeneratorBetweenlands implements IChunkGenerator {
 		this.depthNoise = ctx.getDepth();
 		this.treeNoise = ctx.getTreeNoise();
 		this.speleothemDensityNoise = ctx.getSpeleothemDensityNoise();
+		this.baseTerrainGenerator = new BaseTerrainGenerator(this.minLimitPerlinNoise, this.maxLimitPerlinNoise, this.mainPerlinNoise, this.depthNoise, this.baseBlockState, this.layerBlockState, layerHeight);
 		world.setSeaLevel(layerHeight);
 		this.caveGenerator = new MapGenCavesBetweenlands(seed);
 		this.ravineGenerator = new MapGenRavineBetweenlands();
@@ -154,10 +198,30 @@ public class ChunkGeneratorBetweenlands implements IChunkGenerator {
 		this.rand.setSeed((long)chunkX * 341873128712L + (long)chunkZ * 132897987541L);
 		debugProvideHandle(chunkX, chunkZ);
 
-		ChunkPrimer chunkprimer = new ChunkPrimer();
+		ChunkGenerationContext ctx = this.contexts.get();
+
+		long startTime = HotPathProfiler.start();
+		long sectionStartTime = startTime;
+		long generateStartTime = System.nanoTime();
 
+		ChunkPrimer chunkprimer;
+		double[] caveNoiseField;
+		double[] seaBreakNoiseField;
 
-		this.setBlocksInChunk(chunkX, chunkZ, chunkprimer);
+		PrecomputedTerrain precomputed = this.takePrecomputedTerrain(chunkX, chunkZ);
+		if(precomputed != null) {
+			chunkprimer = precomputed.primer;
+			System.arraycopy(precomputed.terrainBiomeWeights, 0, ctx.terrainBiomeWeights, 0, ctx.terrainBiomeWeights.length);
+			caveNoiseField = precomputed.caveNoiseField;
+			seaBreakNoiseField = precomputed.seaBreakNoiseField;
+		} else {
+			chunkprimer = new ChunkPrimer();
+			this.setBlocksInChunk(ctx, chunkX, chunkZ, chunkprimer);
+			caveNoiseField = ctx.caveNoiseField;
+			seaBreakNoiseField = ctx.seaBreakNoiseField;
+			this.caveGenerator.generateNoiseFields(chunkX, chunkZ, caveNoiseField, seaBreakNoiseField);
+			PROFILER_TERRAIN.end(sectionStartTime);
+		}
 
 		//Interpolate biome weights
 		for(int z = 0; z < 16; z++) {
@@ -167,40 +231,47 @@ public class ChunkGeneratorBetweenlands implements IChunkGenerator {
 				int biomeWeightZ = z / 4;
 				int biomeWeightX = x / 4;
 
-				float weightXCZC = this.terrainBiomeWeights[biomeWeightX + biomeWeightZ * 5];
-				float weightXNZC = this.terrainBiomeWeights[biomeWeightX+1 + biomeWeightZ * 5];
-				float weightXCZN = this.terrainBiomeWeights[biomeWeightX + (biomeWeightZ+1) * 5];
-				float weightXNZN = this.terrainBiomeWeights[biomeWeightX+1 + (biomeWeightZ+1) * 5];
+				float weightXCZC = ctx.terrainBiomeWeights[biomeWeightX + biomeWeightZ * 5];
+				float weightXNZC = ctx.terrainBiomeWeights[biomeWeightX+1 + biomeWeightZ * 5];
+				float weightXCZN = ctx.terrainBiomeWeights[biomeWeightX + (biomeWeightZ+1) * 5];
+				float weightXNZN = ctx.terrainBiomeWeights[biomeWeightX+1 + (biomeWeightZ+1) * 5];
 
 				float interpZAxisXC = weightXCZC + (weightXCZN - weightXCZC) * fractionZ;
 				float interpZAxisXN = weightXNZC + (weightXNZN - weightXNZC) * fractionZ;
 				float currentVal = interpZAxisXC + (interpZAxisXN - interpZAxisXC) * fractionX;
 
-				this.interpolatedTerrainBiomeWeights[x + z * 16] = currentVal;
+				ctx.interpolatedTerrainBiomeWeights[x + z * 16] = currentVal;
 			}
 		}
 
-		BiomeWeights biomeWeights = new BiomeWeights(this.interpolatedTerrainBiomeWeights);
+		BiomeWeights biomeWeights = new BiomeWeights(ctx.interpolatedTerrainBiomeWeights);
+
+		ctx.biomes = this.worldObj.getBiomeProvider().getBiomes(ctx.biomes, chunkX * 16, chunkZ * 16, 16, 16);
 
-		this.biomesForGeneration = this.worldObj.getBiomeProvider().getBiomes(this.biomesForGeneration, chunkX * 16, chunkZ * 16, 16, 16);
+		sectionStartTime = HotPathProfiler.start();
+		this.replaceBiomeBlocks(ctx, chunkX, chunkZ, chunkprimer, ctx.biomes, biomeWeights);
+		PROFILER_BIOME_BLOCKS.end(sectionStartTime);
 
-		this.replaceBiomeBlocks(chunkX, chunkZ, chunkprimer, this.biomesForGeneration, biomeWeights);
+		sectionStartTime = HotPathProfiler.start();
 
 		//Gen caves
-		this.caveGenerator.setBiomeTerrainWeights(biomeWeights);
-		this.caveGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
+		this.caveGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer, biomeWeights, caveNoiseField, seaBreakNoiseField);
 
 		//Gen ravines
 		this.ravineGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
+
+		PROFILER_CAVES.end(sectionStartTime);
+
+		sectionStartTime = HotPathProfiler.start();
 		
 		//Add biome features (post cave)
 		for(int z = 0; z < 16; z++) {
 			for(int x = 0; x < 16; x++) {
-				double baseBlockNoise = this.surfaceNoiseBuffer[z + x * 16];
-				Biome biome = this.biomesForGeneration[z + x * 16];
+				double baseBlockNoise = ctx.surfaceNoiseBuffer[z + x * 16];
+				Biome biome = ctx.biomes[z + x * 16];
 				if(biome instanceof BiomeBetweenlands) {
 					BiomeGenerator generator = ((BiomeBetweenlands)biome).getBiomeGenerator();
-					generator.runBiomeFeatures(chunkZ * 16 + z, chunkX * 16 + x, z, x, baseBlockNoise, chunkprimer, this, this.biomesForGeneration, biomeWeights, EnumGeneratorPass.POST_GEN_CAVES);
+					generator.runBiomeFeatures(chunkZ * 16 + z, chunkX * 16 + x, z, x, baseBlockNoise, chunkprimer, this, ctx.biomes, biomeWeights, EnumGeneratorPass.POST_GEN_CAVES);
 				}
 			}
 		}
@@ -211,253 +282,129 @@ public class ChunkGeneratorBetweenlands implements IChunkGenerator {
 		//Generate giant roots
 		this.giantRootGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
 
+		PROFILER_FEATURES.end(sectionStartTime);
+
 		Chunk chunk = new Chunk(this.worldObj, chunkprimer, chunkX, chunkZ);
 		byte[] biomeArray = chunk.getBiomeArray();
 
 		for (int i = 0; i < biomeArray.length; ++i) {
-			biomeArray[i] = (byte)Biome.getIdForBiome(this.biomesForGeneration[i]);
+			biomeArray[i] = (byte)Biome.getIdForBiome(ctx.biomes[i]);
 		}
 
 		chunk.generateSkylightMap();
+
+		PROFILER_GENERATE.end(startTime);
+
+		//Counts cascading world generation if this chunk is generated while another chunk is being populated
+		PopulateContext.onChunkGenerated(this.worldObj, chunkX, chunkZ, System.nanoTime() - generateStartTime);
+
 		return chunk;
 	}
 
 	/**
-	 * Generates the base terrain
+	 * Starts generating the base terrain and the cave noise of the specified chunk on the specified executor.
+	 * The result is used as soon as the chunk is generated through {@link #generateChunk(int, int)}, which
+	 * produces exactly the same chunk as without precomputation.
+	 * Must be called from the world's thread since the biome layers are not thread safe.
 	 * @param chunkX
 	 * @param chunkZ
-	 * @param primer
-	 */
-	public void setBlocksInChunk(int chunkX, int chunkZ, ChunkPrimer primer) {
-		this.biomesForGeneration = this.worldObj.getBiomeProvider().getBiomesForGeneration(this.biomesForGeneration, chunkX * 4 - 5, chunkZ * 4 - 5, 15, 15);
-
-		this.generateHeightmap(chunkX * 4, 0, chunkZ * 4);
-
-		//X
-		for (int heightMapX = 0; heightMapX < 4; ++heightMapX) {
-			int indexXC = heightMapX * 5; //1
-			int indexXN = (heightMapX + 1) * 5; //2
-
-			/*
-			 * 1 2
-			 */
-
-			//Z
-			for (int heightMapZ = 0; heightMapZ < 4; ++heightMapZ) {
-				int indexXCZC = (indexXC + heightMapZ) * 33; //1
-				int indexXCZN = (indexXC + heightMapZ + 1) * 33; //2
-				int indexXNZC = (indexXN + heightMapZ) * 33; //3
-				int indexXNZN = (indexXN + heightMapZ + 1) * 33; //4
-
-				/*
-				 * 1 3
-				 * 2 4
-				 */
-
-				//Y
-				for (int heightMapY = 0; heightMapY < 32; ++heightMapY) {
-					//Values
-					double valXCZCYC = this.heightMap[indexXCZC + heightMapY]; //1
-					double valXCZNYC = this.heightMap[indexXCZN + heightMapY]; //2
-					double valXNZCYC = this.heightMap[indexXNZC + heightMapY]; //3
-					double valXNZNYC = this.heightMap[indexXNZN + heightMapY]; //4
-					double valXCZCYN = this.heightMap[indexXCZC + heightMapY + 1]; //5
-					double valXCZNYN = this.heightMap[indexXCZN + heightMapY + 1]; //6
-					double valXNZCYN = this.heightMap[indexXNZC + heightMapY + 1]; //7
-					double valXNZNYN = this.heightMap[indexXNZN + heightMapY + 1]; //8
-
-					//Step along Y axis (1/8 of the difference)
-					double stepYAxisXCZC = (valXCZCYN - valXCZCYC) * 0.125D;
-					double stepYAxisXCZN = (valXCZNYN - valXCZNYC) * 0.125D;
-					double stepYAxisXNZC = (valXNZCYN - valXNZCYC) * 0.125D;
-					double stepYAxisXNZN = (valXNZNYN - valXNZNYC) * 0.125D;
-
-					double currentValXCZCYC = valXCZCYC;
-					double currentValXCZNYC = valXCZNYC;
-					double currentValXNZCYC = valXNZCYC;
-					double currentValXNZNYC = valXNZNYC;
-
-					/*
-					 * At this point we have the values of a 2x2x2 cube and their difference along the Y axis (e.g. 5 - 1, 6 - 2, 7 - 3, 8 - 4)
-					 * 
-					 * Y:
-					 * 1 3
-					 * 2 4
-					 * 
-					 * Y+1:
-					 * 5 7
-					 * 6 8
-					 */
-
-					//Now it expands that cube into a 8x4x4 area and linearly interpolates the values
-
-					//Step Y axis
-					for (int blockY = 0; blockY < 8; ++blockY) {
-						double currentValXCZC = currentValXCZCYC;
-						double currentValXCZN = currentValXCZNYC;
-
-						//Step along X axis
-						double stepXAxisZC = (currentValXNZCYC - currentValXCZCYC) * 0.25D;
-						double stepXAxisZN = (currentValXNZNYC - currentValXCZNYC) * 0.25D;
-
-						//Step X axis
-						for (int blockX = 0; blockX < 4; ++blockX) {
-							//Step along Z axis
-							double stepZAxis = (currentValXCZN - currentValXCZC) * 0.25D;
-
-							double currentValZC = currentValXCZC - stepZAxis;
-
-							//Step Z axis
-							for (int blockZ = 0; blockZ < 4; ++blockZ) {
-								if ((currentValZC += stepZAxis) > 0.0D) {
-									primer.setBlockState(heightMapX * 4 + blockX, heightMapY * 8 + blockY, heightMapZ * 4 + blockZ, this.baseBlockState);
-								} else if (heightMapY * 8 + blockY <= this.layerHeight) {
-									primer.setBlockState(heightMapX * 4 + blockX, heightMapY * 8 + blockY, heightMapZ * 4 + blockZ, this.layerBlockState);
-								}
-							}
-
-							currentValXCZC += stepXAxisZC;
-							currentValXCZN += stepXAxisZN;
-						}
-
-						currentValXCZCYC += stepYAxisXCZC;
-						currentValXCZNYC += stepYAxisXCZN;
-						currentValXNZCYC += stepYAxisXNZC;
-						currentValXNZNYC += stepYAxisXNZN;
-					}
-				}
-			}
-		}
-	}
-
-	/**
-	 * Generates a 33x5x5 (Y*X*Z) heightmap
-	 * @param x
-	 * @param y
-	 * @param z
+	 * @param owner The object that requested the precomputation and that discards it through {@link #discardPrecomputedTerrain(Object)}
+	 * @param executor
+	 * @return False if the precomputation was refused because too much precomputed terrain has not been used yet
 	 */
-	private void generateHeightmap(int x, int y, int z) {
-		this.depthRegion = this.depthNoise.generateNoiseOctaves(this.depthRegion, x, z, 5, 5, 200.0D, 200.0D, 0.5D);
-		float scaleXZ = 684.412F * 8;
-		float scaleY = 684.412F * 8;
-		this.mainNoiseRegion = this.mainPerlinNoise.generateNoiseOctaves(this.mainNoiseRegion, x, y, z, 5, 33, 5, (double)(scaleXZ / 80.0F), (double)(scaleY / 160.0F), (double)(scaleXZ / 80.0F));
-		this.minLimitRegion = this.minLimitPerlinNoise.generateNoiseOctaves(this.minLimitRegion, x, y, z, 5, 33, 5, (double)scaleXZ, (double)scaleY, (double)scaleXZ);
-		this.maxLimitRegion = this.maxLimitPerlinNoise.generateNoiseOctaves(this.maxLimitRegion, x, y, z, 5, 33, 5, (double)scaleXZ, (double)scaleY, (double)scaleXZ);
-
-		int noiseIndex = 0;
-		int heightMapIndex = 0;
-
-		for (int heightMapX = 0; heightMapX < 5; ++heightMapX) {
-			for (int heightMapZ = 0; heightMapZ < 5; ++heightMapZ) {
-				float biomeVariation = 0.0F;
-				float biomeDepth = 0.0F;
-				float totalBiomeWeight = 0.0F;
-				Biome centerBiome = this.biomesForGeneration[heightMapX + 5 + (heightMapZ + 5) * 15];
-
-				float nearestOtherBiomeSq = 50;
-
-				//Averages biome height and variation in a 5x5 area and calculates the biome terrain weight from an 11x11 area
-				for (int offsetX = -5; offsetX <= 5; ++offsetX) {
-					for (int offsetZ = -5; offsetZ <= 5; ++offsetZ) {
-						Biome nearbyBiome = this.biomesForGeneration[heightMapX + 5 + offsetX + (heightMapZ + 5 + offsetZ) * 15];
-						float nearbyBiomeDepth = nearbyBiome.getBaseHeight();
-						float nearbyBiomeVariation = nearbyBiome.getHeightVariation();
-
-						//No amplified terrain
-						/*if (this.terrainType == WorldType.AMPLIFIED && f5 > 0.0F)
-						{
-							f5 = 1.0F + f5 * 2.0F;
-							f6 = 1.0F + f6 * 4.0F;
-						}*/
-
-						if(offsetX >= -2 && offsetX <= 2 && offsetZ >= -2 && offsetZ <=2) {
-							float weight = this.biomeWeights[offsetX + 2 + (offsetZ + 2) * 5];
-
-							if (nearbyBiome.getBaseHeight() > centerBiome.getBaseHeight()) {
-								weight /= 2.0F;
-							}
-
-							biomeVariation += nearbyBiomeVariation * weight;
-							biomeDepth += nearbyBiomeDepth * weight;
-							totalBiomeWeight += weight;
-						}
-
-						float distWeighted = (offsetX*offsetX + offsetZ*offsetZ);
-						if(nearbyBiome != centerBiome && distWeighted < nearestOtherBiomeSq) {
-							nearestOtherBiomeSq = distWeighted;
-						}
-					}
-				}
+	public boolean precomputeTerrain(int chunkX, int chunkZ, Object owner, Executor executor) {
+		long key = ChunkPos.asLong(chunkX, chunkZ);
 
-				//The 0 point is offset by some blocks so that the lerp doesn't cause problems later on
-				this.terrainBiomeWeights[heightMapIndex] = MathHelper.clamp(Math.max((nearestOtherBiomeSq - 2) / 46.0F, 0.0F), 0.0F, 1.0F);
+		synchronized(this.precomputedTerrain) {
+			PrecomputedTerrainTask task = this.precomputedTerrain.get(key);
 
-				biomeVariation = biomeVariation / totalBiomeWeight;
-				biomeDepth = biomeDepth / totalBiomeWeight;
-
-				//Small offset for biome depth?
-				double depthPerturbation = this.depthRegion[heightMapIndex] / 8000.0D;
-
-				//depthPerturbation = 0.0D;
-
-				if (depthPerturbation < 0.0D) {
-					depthPerturbation = -depthPerturbation * 0.3D;
+			if(task == null) {
+				if(this.precomputedTerrain.size() >= MAX_PRECOMPUTED_CHUNKS) {
+					return false;
 				}
 
-				depthPerturbation = depthPerturbation * 3.0D - 2.0D;
-
-				if (depthPerturbation < 0.0D) {
-					depthPerturbation = depthPerturbation / 2.0D;
-
-					if (depthPerturbation < -1.0D)
-					{
-						depthPerturbation = -1.0D;
-					}
+				Biome[] biomesForGeneration = this.worldObj.getBiomeProvider().getBiomesForGeneration(null, chunkX * 4 - 5, chunkZ * 4 - 5, 15, 15);
 
-					depthPerturbation = depthPerturbation / 1.4D;
-					depthPerturbation = depthPerturbation / 2.0D;
-				} else {
-					if (depthPerturbation > 1.0D) {
-						depthPerturbation = 1.0D;
-					}
+				task = new PrecomputedTerrainTask(CompletableFuture.supplyAsync(() -> {
+					ChunkGenerationContext ctx = this.contexts.get();
 
-					depthPerturbation = depthPerturbation / 8.0D;
-				}
+					long startTime = HotPathProfiler.start();
 
-				++heightMapIndex;
+					ChunkPrimer primer = new ChunkPrimer();
+					this.baseTerrainGenerator.generate(ctx, chunkX, chunkZ, biomesForGeneration, primer);
 
-				//double depth = (biomeDepth * this.layerHeight) / 256.0D;
+					double[] caveNoiseField = new double[MapGenCavesBetweenlands.NOISE_FIELD_SIZE];
+					double[] seaBreakNoiseField = new double[MapGenCavesBetweenlands.SEA_BREAK_NOISE_FIELD_SIZE];
+					this.caveGenerator.generateNoiseFields(chunkX, chunkZ, caveNoiseField, seaBreakNoiseField);
 
-				for (int heightMapY = 0; heightMapY < 33; ++heightMapY) {
-					double densityOffset = ((double)heightMapY * 8.0D - biomeDepth - (depthPerturbation * biomeVariation / 256.0D)) / 256.0D;
+					PROFILER_TERRAIN_PRECOMPUTE.end(startTime);
 
-					double maxGenDensity16 = 32767.0D;
-					/*double maxGenDensity16 = 0.0D;
-					for(int i = 0; i < 16 - 1; i++) {
-						maxGenDensity16 += 2 * Math.pow(2.0D, i);
-					}
-					maxGenDensity16 /= 2.0D;*/
+					return new PrecomputedTerrain(primer, ctx.terrainBiomeWeights.clone(), caveNoiseField, seaBreakNoiseField);
+				}, executor));
 
-					double maxGenDensity8 = 127.0;
-					/*double maxGenDensity8 = 0.0D;
-					for(int i = 0; i < 8 - 1; i++) {
-						maxGenDensity8 += 2 * Math.pow(2.0D, i);
-					}
-					maxGenDensity8 /= 2.0D;*/
+				this.precomputedTerrain.put(key, task);
+			}
 
-					double minDensity = (this.minLimitRegion[noiseIndex] / maxGenDensity16) * biomeVariation / 256.0D;
-					double maxDensity = (this.maxLimitRegion[noiseIndex] / maxGenDensity16) * biomeVariation / 256.0D;
-					double mainDensity = (this.mainNoiseRegion[noiseIndex] / maxGenDensity8);
+			task.owners.add(owner);
+		}
 
-					//TODO Not sure if clampedlerp is the right thing to use
-					this.heightMap[noiseIndex] = MathHelper.clampedLerp(minDensity, maxDensity, mainDensity) - densityOffset;
+		return true;
+	}
 
-					++noiseIndex;
+	/**
+	 * Discards all precomputed terrain of the specified owner that has not been used yet,
+	 * unless it was also requested by another owner
+	 * @param owner
+	 */
+	public void discardPrecomputedTerrain(Object owner) {
+		synchronized(this.precomputedTerrain) {
+			Iterator<PrecomputedTerrainTask> it = this.precomputedTerrain.values().iterator();
+			while(it.hasNext()) {
+				PrecomputedTerrainTask task = it.next();
+				if(task.owners.remove(owner) && task.owners.isEmpty()) {
+					it.remove();
+					//Skips the computation if it hasn't started yet
+					task.future.cancel(false);
 				}
 			}
 		}
 	}
 
+	@Nullable
+	private PrecomputedTerrain takePrecomputedTerrain(int chunkX, int chunkZ) {
+		PrecomputedTerrainTask task;
+		synchronized(this.precomputedTerrain) {
+			if(this.precomputedTerrain.isEmpty()) {
+				return null;
+			}
+			task = this.precomputedTerrain.remove(ChunkPos.asLong(chunkX, chunkZ));
+		}
+		if(task != null) {
+			try {
+				return task.future.join();
+			} catch(CompletionException | CancellationException ex) {
+				TheBetweenlands.logger.error(String.format("Failed precomputing terrain at %s", "[x=" + chunkX + ", z=" + chunkZ + "]"), ex);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Generates the base terrain
+	 * @param chunkX
+	 * @param chunkZ
+	 * @param primer
+	 */
+	public void setBlocksInChunk(int chunkX, int chunkZ, ChunkPrimer primer) {
+		this.setBlocksInChunk(this.contexts.get(), chunkX, chunkZ, primer);
+	}
+
+	private void setBlocksInChunk(ChunkGenerationContext ctx, int chunkX, int chunkZ, ChunkPrimer primer) {
+		ctx.biomesForGeneration = this.worldObj.getBiomeProvider().getBiomesForGeneration(ctx.biomesForGeneration, chunkX * 4 - 5, chunkZ * 4 - 5, 15, 15);
+
+		this.baseTerrainGenerator.generate(ctx, chunkX, chunkZ, ctx.biomesForGeneration, primer);
+	}
+
 	/**
 	 * Modifies the terrain with biome specific features
 	 * @param chunkX
@@ -466,17 +413,21 @@ public class ChunkGeneratorBetweenlands implements IChunkGenerator {
 	 * @param biomesIn
 	 */
 	public void replaceBiomeBlocks(int chunkX, int chunkZ, ChunkPrimer primer, Biome[] biomesIn, BiomeWeights biomeWeights) {
+		this.replaceBiomeBlocks(this.contexts.get(), chunkX, chunkZ, primer, biomesIn, biomeWeights);
+	}
+
+	private void replaceBiomeBlocks(ChunkGenerationContext ctx, int chunkX, int chunkZ, ChunkPrimer primer, Biome[] biomesIn, BiomeWeights biomeWeights) {
 		if (!net.minecraftforge.event.ForgeEventFactory.onReplaceBiomeBlocks(this, chunkX, chunkZ, primer, this.worldObj))
 			return;
 
-		this.surfaceNoiseBuffer = this.surfaceNoise.getRegion(this.surfaceNoiseBuffer, (double)(chunkX * 16), (double)(chunkZ * 16), 16, 16, 0.0625D, 0.0625D, 1.0D);
+		ctx.surfaceNoiseBuffer = this.surfaceNoise.getRegion(ctx.surfaceNoiseBuffer, (double)(chunkX * 16), (double)(chunkZ * 16), 16, 16, 0.0625D, 0.0625D, 1.0D);
 
 
 		List<BiomeGenerator> foundGenerators = new ArrayList<BiomeGenerator>();
 
 		for(int z = 0; z < 16; z++) {
 			for(int x = 0; x < 16; x++) {
-				double baseBlockNoise = this.surfaceNoiseBuffer[z + x * 16];
+				double baseBlockNoise = ctx.surfaceNoiseBuffer[z + x * 16];
 				Biome biome = biomesIn[z + x * 16];
 				if(biome instanceof BiomeBetweenlands) {
 					BiomeGenerator generator = ((BiomeBetweenlands)biome).getBiomeGenerator();
@@ -504,6 +455,8 @@ public class ChunkGeneratorBetweenlands implements IChunkGenerator {
 
 	@Override
 	public void populate(int x, int z) {
+		long startTime = HotPathProfiler.start();
+
 		BlockFalling.fallInstantly = true;
 		int bx = x * 16;
 		int bz = z * 16;
@@ -516,27 +469,39 @@ public class ChunkGeneratorBetweenlands implements IChunkGenerator {
 
 		ForgeEventFactory.onChunkPopulate(true, this, this.worldObj, this.rand, x, z, false);
 
-		if(biome instanceof BiomeBetweenlands) {
-			BiomeDecoratorBetweenlands decorator = ((BiomeBetweenlands)biome).getBiomeGenerator().getDecorator();
-			if(decorator != null) {
-				decorator.decorate(this.worldObj, this, this.rand, bx, bz);
-			}
-			if(this.worldObj instanceof WorldServer) {
-				WorldMobSpawner.INSTANCE.populateChunk((WorldServer) this.worldObj, x, z);
-				WorldMobSpawner.INSTANCE.populateChunk((WorldServer) this.worldObj, x+1, z);
-				WorldMobSpawner.INSTANCE.populateChunk((WorldServer) this.worldObj, x+1, z+1);
-				WorldMobSpawner.INSTANCE.populateChunk((WorldServer) this.worldObj, x, z+1);
+		boolean populateTracked = PopulateContext.begin(this.worldObj, x, z);
+
+		try {
+			if(biome instanceof BiomeBetweenlands) {
+				BiomeDecoratorBetweenlands decorator = ((BiomeBetweenlands)biome).getBiomeGenerator().getDecorator();
+				if(decorator != null) {
+					decorator.decorate(this.worldObj, this, this.rand, bx, bz);
+				}
+				if(this.worldObj instanceof WorldServer) {
+					long spawningStartTime = HotPathProfiler.start();
+					WorldMobSpawner.INSTANCE.populateChunk((WorldServer) this.worldObj, x, z);
+					WorldMobSpawner.INSTANCE.populateChunk((WorldServer) this.worldObj, x+1, z);
+					WorldMobSpawner.INSTANCE.populateChunk((WorldServer) this.worldObj, x+1, z+1);
+					WorldMobSpawner.INSTANCE.populateChunk((WorldServer) this.worldObj, x, z+1);
+					PROFILER_POPULATE_SPAWNING.end(spawningStartTime);
+				}
+			} else {
+				biome.decorate(this.worldObj, this.rand, new BlockPos(bx, 0, bz));
+				if(net.minecraftforge.event.terraingen.TerrainGen.populate(this, this.worldObj, this.rand, x, z, false, net.minecraftforge.event.terraingen.PopulateChunkEvent.Populate.EventType.ANIMALS)) {
+					WorldEntitySpawner.performWorldGenSpawning(this.worldObj, biome, bx + 8, bz + 8, 16, 16, this.rand);
+				}
 			}
-		} else {
-			biome.decorate(this.worldObj, this.rand, new BlockPos(bx, 0, bz));
-			if(net.minecraftforge.event.terraingen.TerrainGen.populate(this, this.worldObj, this.rand, x, z, false, net.minecraftforge.event.terraingen.PopulateChunkEvent.Populate.EventType.ANIMALS)) {
-				WorldEntitySpawner.performWorldGenSpawning(this.worldObj, biome, bx + 8, bz + 8, 16, 16, this.rand);
+		} finally {
+			if(populateTracked) {
+				PopulateContext.end();
 			}
 		}
 
 		ForgeEventFactory.onChunkPopulate(false, this, this.worldObj, this.rand, x, z, false);
 
 		BlockFalling.fallInstantly = false;
+
+		PROFILER_POPULATE.end(startTime);
 	}
 
 	@Override
@@ -0,0 +1,200 @@
+package thebetweenlands.common.world.gen;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.world.gen.feature.StructureBuildBuffer;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
+
+/**
+ * Tracks the chunk that is currently being populated on the server thread. Populating a chunk may only write into the 2x2 chunk
+ * populate window starting at that chunk. Writes of features that spill out of the window are deferred with a {@link StructureBuildBuffer}
+ * and chunks that are generated while populating, i.e. cascading world generation, are counted per feature.
+ */
+public final class PopulateContext {
+	private PopulateContext() { }
+
+	private static class Window {
+		private final World world;
+		private final int chunkX, chunkZ;
+		private final Deque<String> features = new ArrayDeque<>();
+
+		@Nullable
+		private StructureBuildBuffer spillBuffer;
+
+		private Window(World world, int chunkX, int chunkZ) {
+			this.world = world;
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+	}
+
+	private static final Deque<Window> WINDOWS = new ArrayDeque<>();
+
+	private static final Map<String, long[]> CASCADES = new HashMap<>();
+	private static final Map<String, ProfilerSection> CASCADE_SECTIONS = new HashMap<>();
+
+	/**
+	 * Starts populating the specified chunk. If this returns true it must be followed by {@link #end()}
+	 * @param world
+	 * @param chunkX
+	 * @param chunkZ
+	 * @return False if the chunk isn't populated on the server thread and thus isn't tracked
+	 */
+	public static boolean begin(World world, int chunkX, int chunkZ) {
+		if(!world.isRemote && world.getMinecraftServer() != null && world.getMinecraftServer().isCallingFromMinecraftThread()) {
+			WINDOWS.push(new Window(world, chunkX, chunkZ));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Finishes populating the chunk started by {@link #begin(World, int, int)} and queues the writes that spilled out of the populate window
+	 */
+	public static void end() {
+		Window window = WINDOWS.peek();
+		if(window != null) {
+			try {
+				if(window.spillBuffer != null) {
+					window.spillBuffer.flush();
+				}
+			} finally {
+				WINDOWS.pop();
+			}
+		}
+	}
+
+	@Nullable
+	private static Window getWindow(World world) {
+		Window window = WINDOWS.peek();
+		return window != null && window.world == world ? window : null;
+	}
+
+	/**
+	 * Returns whether a chunk of the specified world is being populated
+	 * @param world
+	 * @return
+	 */
+	public static boolean isPopulating(World world) {
+		return getWindow(world) != null;
+	}
+
+	/**
+	 * Returns whether the specified position is inside the populate window of the chunk that is being populated.
+	 * Always returns true if no chunk is being populated
+	 * @param world
+	 * @param pos
+	 * @return
+	 */
+	public static boolean isInWindow(World world, BlockPos pos) {
+		Window window = getWindow(world);
+		if(window == null) {
+			return true;
+		}
+		int dx = (pos.getX() >> 4) - window.chunkX;
+		int dz = (pos.getZ() >> 4) - window.chunkZ;
+		return dx >= 0 && dx <= 1 && dz >= 0 && dz <= 1;
+	}
+
+	/**
+	 * Returns the build buffer that defers writes outside of the populate window, or null if no chunk is being populated
+	 * @param world
+	 * @return
+	 */
+	@Nullable
+	public static StructureBuildBuffer getSpillBuffer(World world) {
+		Window window = getWindow(world);
+		if(window == null || !(world instanceof WorldServer)) {
+			return null;
+		}
+		if(window.spillBuffer == null) {
+			window.spillBuffer = new StructureBuildBuffer((WorldServer) world);
+		}
+		return window.spillBuffer;
+	}
+
+	/**
+	 * Sets the feature that is currently being generated, used to attribute cascading world generation
+	 * @param name
+	 */
+	public static void pushFeature(String name) {
+		Window window = WINDOWS.peek();
+		if(window != null) {
+			window.features.push(name);
+		}
+	}
+
+	public static void popFeature() {
+		Window window = WINDOWS.peek();
+		if(window != null && !window.features.isEmpty()) {
+			window.features.pop();
+		}
+	}
+
+	/**
+	 * Called after a chunk has been generated. Counts the chunk as cascading world generation
+	 * if it was generated while another chunk was being populated
+	 * @param world
+	 * @param chunkX
+	 * @param chunkZ
+	 * @param nanos Time it took to generate the chunk
+	 */
+	public static void onChunkGenerated(World world, int chunkX, int chunkZ, long nanos) {
+		if(world.getMinecraftServer() == null || !world.getMinecraftServer().isCallingFromMinecraftThread()) {
+			return;
+		}
+
+		Window window = getWindow(world);
+		if(window == null) {
+			return;
+		}
+
+		String feature = window.features.isEmpty() ? "unknown" : window.features.peek();
+
+		long[] count = CASCADES.get(feature);
+		if(count == null) {
+			CASCADES.put(feature, count = new long[1]);
+			TheBetweenlands.logger.warn(String.format("Feature '%s' caused cascading world generation of chunk %d, %d while populating chunk %d, %d. Further occurrences are counted in '/blprofile cascades'", feature, chunkX, chunkZ, window.chunkX, window.chunkZ));
+		}
+		count[0]++;
+
+		ProfilerSection section = CASCADE_SECTIONS.get(feature);
+		if(section == null) {
+			CASCADE_SECTIONS.put(feature, section = HotPathProfiler.section("worldgen.cascade." + feature));
+		}
+		if(HotPathProfiler.isEnabled()) {
+			section.record(nanos);
+		}
+	}
+
+	/**
+	 * Returns the features that caused cascading world generation and their counts since the server started or
+	 * {@link #resetCascades()} was called, sorted by count
+	 * @return
+	 */
+	public static List<Map.Entry<String, Long>> getCascades() {
+		List<Map.Entry<String, Long>> cascades = new ArrayList<>();
+		for(Map.Entry<String, long[]> entry : CASCADES.entrySet()) {
+			cascades.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()[0]));
+		}
+		cascades.sort((e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+		return cascades;
+	}
+
+	public static void resetCascades() {
+		CASCADES.clear();
+	}
+}
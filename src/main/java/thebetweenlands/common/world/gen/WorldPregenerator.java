@@ -0,0 +1,511 @@
+package thebetweenlands.common.world.gen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.gen.ChunkProviderServer;
+import net.minecraftforge.common.DimensionManager;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent.Phase;
+import net.minecraftforge.fml.common.gameevent.TickEvent.ServerTickEvent;
+import thebetweenlands.common.TheBetweenlands;
+
+/**
+ * Pregenerates and populates a square area of chunks around a center chunk over multiple ticks.
+ * The number of chunks per tick is reduced while the server is lagging, the progress is saved to a
+ * checkpoint file in the dimension's save folder so that the task can be resumed after a restart,
+ * and chunks are queued for unloading as soon as they are populated. Each dimension can run its own pregeneration.
+ * <p>
+ * If the dimension uses {@link ChunkGeneratorBetweenlands} the base terrain of upcoming chunks is
+ * precomputed on a worker pool, see {@link ChunkGeneratorBetweenlands#precomputeTerrain(int, int, Object, java.util.concurrent.Executor)}.
+ */
+public class WorldPregenerator {
+	public static enum Shape {
+		SQUARE, SPIRAL;
+
+		public String getName() {
+			return this.name().toLowerCase();
+		}
+
+		@Nullable
+		public static Shape fromName(String name) {
+			for(Shape shape : values()) {
+				if(shape.getName().equals(name)) {
+					return shape;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final String CHECKPOINT_FILE = "betweenlands_pregen.dat";
+
+	private static final int CHECKPOINT_INTERVAL = 200;
+	private static final int REPORT_INTERVAL = 600;
+	private static final int BUDGET_ADJUST_INTERVAL = 20;
+
+	/**
+	 * The chunk budget is halved while the average tick takes longer than this
+	 */
+	private static final double TARGET_TICK_MILLIS = 45.0D;
+
+	/**
+	 * No more chunks are generated in a tick once this much time was spent on pregeneration, shared by all dimensions
+	 */
+	private static final long MAX_NANOS_PER_TICK = 40000000L;
+
+	/**
+	 * No chunks are generated while more chunks than this that were queued for unloading haven't been unloaded yet.
+	 * The server unloads at most 100 chunks per tick and dimension
+	 */
+	private static final int MAX_PENDING_UNLOADS = 400;
+
+	/**
+	 * How many targets per chunk of budget are precomputed in advance
+	 */
+	private static final int PRECOMPUTE_LOOKAHEAD = 8;
+
+	private static final AtomicInteger WORKER_THREAD_ID = new AtomicInteger(0);
+
+	private static ForkJoinPool workerPool;
+
+	private static final Map<WorldServer, WorldPregenerator> ACTIVE = new LinkedHashMap<>();
+
+	private final WorldServer world;
+	private final int centerX;
+	private final int centerZ;
+	private final int radius;
+	private final Shape shape;
+	private final int maxChunksPerTick;
+	private final long totalTargets;
+
+	private long index;
+	private long precomputeIndex;
+	private int budget;
+
+	private final long startIndex;
+	private final long startTime;
+	private long generatedTargets;
+	private long skippedTargets;
+	private int ticks;
+
+	/**
+	 * Chunks that were queued for unloading and haven't been unloaded yet
+	 */
+	private final List<Chunk> pendingUnloads = new ArrayList<>();
+
+	private WorldPregenerator(WorldServer world, int centerX, int centerZ, int radius, Shape shape, int maxChunksPerTick, long index) {
+		this.world = world;
+		this.centerX = centerX;
+		this.centerZ = centerZ;
+		this.radius = radius;
+		this.shape = shape;
+		this.maxChunksPerTick = maxChunksPerTick;
+		this.totalTargets = (2L * radius + 1) * (2L * radius + 1);
+		this.index = this.precomputeIndex = this.startIndex = index;
+		this.budget = maxChunksPerTick;
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Returns the currently running pregeneration of the specified world, if any
+	 * @param world
+	 * @return
+	 */
+	@Nullable
+	public static WorldPregenerator getActive(WorldServer world) {
+		return ACTIVE.get(world);
+	}
+
+	/**
+	 * Starts a new pregeneration. Only one pregeneration can run per world at a time.
+	 * @param world
+	 * @param centerX Center chunk X
+	 * @param centerZ Center chunk Z
+	 * @param radius Radius in chunks
+	 * @param shape
+	 * @param maxChunksPerTick
+	 * @return
+	 */
+	public static WorldPregenerator start(WorldServer world, int centerX, int centerZ, int radius, Shape shape, int maxChunksPerTick) {
+		stop(world);
+		WorldPregenerator active = new WorldPregenerator(world, centerX, centerZ, radius, shape, maxChunksPerTick, 0);
+		ACTIVE.put(world, active);
+		active.saveCheckpoint();
+		TheBetweenlands.logger.info(String.format("Started pregenerating %d chunks around %s in dimension %d", active.totalTargets, "[x=" + centerX + ", z=" + centerZ + "]", world.provider.getDimension()));
+		return active;
+	}
+
+	/**
+	 * Resumes the pregeneration from the checkpoint of the specified world
+	 * @param world
+	 * @return The resumed pregeneration, or null if there is no checkpoint
+	 */
+	@Nullable
+	public static WorldPregenerator resume(WorldServer world) {
+		File file = getCheckpointFile(world);
+
+		if(file.exists()) {
+			try {
+				NBTTagCompound nbt = CompressedStreamTools.read(file);
+
+				if(nbt != null) {
+					Shape shape = Shape.fromName(nbt.getString("shape"));
+
+					stop(world);
+					WorldPregenerator active = new WorldPregenerator(world, nbt.getInteger("centerX"), nbt.getInteger("centerZ"), nbt.getInteger("radius"),
+							shape != null ? shape : Shape.SPIRAL, Math.max(1, nbt.getInteger("chunksPerTick")), nbt.getLong("index"));
+					ACTIVE.put(world, active);
+					TheBetweenlands.logger.info(String.format("Resumed pregeneration in dimension %d at %d/%d", world.provider.getDimension(), active.index, active.totalTargets));
+					return active;
+				}
+			} catch(IOException ex) {
+				TheBetweenlands.logger.error("Failed reading pregeneration checkpoint: " + file.getAbsolutePath(), ex);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stops the running pregeneration of the specified world, if any. The checkpoint is kept so that it can be resumed.
+	 * @param world
+	 * @return True if a pregeneration was stopped
+	 */
+	public static boolean stop(WorldServer world) {
+		WorldPregenerator active = ACTIVE.remove(world);
+		if(active != null) {
+			active.saveCheckpoint();
+			active.discardPrecomputedTerrain();
+			return true;
+		}
+		return false;
+	}
+
+	private static File getCheckpointFile(WorldServer world) {
+		File dir = world.getChunkSaveLocation();
+		if(dir == null) {
+			dir = DimensionManager.getCurrentSaveRootDirectory();
+		}
+		return new File(dir, CHECKPOINT_FILE);
+	}
+
+	/**
+	 * Returns the shared daemon pool that world generation work is offloaded to
+	 * @return
+	 */
+	public static synchronized ForkJoinPool getWorkerPool() {
+		if(workerPool == null) {
+			workerPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("BL Worldgen Worker #" + WORKER_THREAD_ID.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}, null, false);
+		}
+		return workerPool;
+	}
+
+	@SubscribeEvent
+	public static void onServerTick(ServerTickEvent event) {
+		if(event.phase == Phase.END && !ACTIVE.isEmpty()) {
+			MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+			long tickStart = System.nanoTime();
+
+			Iterator<WorldPregenerator> it = ACTIVE.values().iterator();
+			while(it.hasNext()) {
+				WorldPregenerator pregenerator = it.next();
+				if(pregenerator.tick(server, tickStart)) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	@SubscribeEvent
+	public static void onWorldSave(WorldEvent.Save event) {
+		WorldPregenerator active = ACTIVE.get(event.getWorld());
+		if(active != null) {
+			active.saveCheckpoint();
+		}
+	}
+
+	@SubscribeEvent
+	public static void onWorldUnload(WorldEvent.Unload event) {
+		if(event.getWorld() instanceof WorldServer) {
+			stop((WorldServer) event.getWorld());
+		}
+	}
+
+	/**
+	 * Continues the pregeneration
+	 * @param server
+	 * @param tickStart Time at which the pregenerations started this tick
+	 * @return True if the pregeneration has finished
+	 */
+	private boolean tick(MinecraftServer server, long tickStart) {
+		this.ticks++;
+
+		if(this.ticks % BUDGET_ADJUST_INTERVAL == 0) {
+			double meanTickMillis = MathHelper.average(server.tickTimeArray) * 1.0E-6D;
+			if(meanTickMillis > TARGET_TICK_MILLIS) {
+				this.budget = Math.max(1, this.budget / 2);
+			} else if(this.budget < this.maxChunksPerTick) {
+				this.budget++;
+			}
+		}
+
+		this.updatePendingUnloads();
+
+		if(this.pendingUnloads.size() <= MAX_PENDING_UNLOADS) {
+			this.precomputeAhead();
+
+			int generated = 0;
+			while(generated < this.budget && this.index < this.totalTargets && System.nanoTime() - tickStart < MAX_NANOS_PER_TICK) {
+				if(this.generateTarget(this.getTarget(this.index++))) {
+					generated++;
+				}
+			}
+		}
+
+		if(this.index >= this.totalTargets) {
+			TheBetweenlands.logger.info(String.format("Finished pregeneration in dimension %d: %s", this.world.provider.getDimension(), this.getProgressReport()));
+			getCheckpointFile(this.world).delete();
+			this.discardPrecomputedTerrain();
+			return true;
+		}
+
+		if(this.ticks % CHECKPOINT_INTERVAL == 0) {
+			this.saveCheckpoint();
+		}
+
+		if(this.ticks % REPORT_INTERVAL == 0) {
+			TheBetweenlands.logger.info("Pregeneration: " + this.getProgressReport());
+		}
+
+		return false;
+	}
+
+	/**
+	 * Removes the chunks that have been unloaded, or that are no longer queued for unloading because they are in use again
+	 */
+	private void updatePendingUnloads() {
+		Iterator<Chunk> it = this.pendingUnloads.iterator();
+		while(it.hasNext()) {
+			Chunk chunk = it.next();
+			if(!chunk.isLoaded() || !chunk.unloadQueued) {
+				it.remove();
+			}
+		}
+	}
+
+	private void precomputeAhead() {
+		ChunkProviderServer provider = this.world.getChunkProvider();
+
+		if(provider.chunkGenerator instanceof ChunkGeneratorBetweenlands) {
+			ChunkGeneratorBetweenlands generator = (ChunkGeneratorBetweenlands) provider.chunkGenerator;
+
+			long end = Math.min(this.totalTargets, this.index + (long) Math.max(this.budget, 1) * PRECOMPUTE_LOOKAHEAD);
+
+			this.precomputeIndex = Math.max(this.precomputeIndex, this.index);
+
+			while(this.precomputeIndex < end) {
+				ChunkPos target = this.getTarget(this.precomputeIndex);
+
+				boolean precomputed = true;
+				for(int xo = 0; xo <= 1; xo++) {
+					for(int zo = 0; zo <= 1; zo++) {
+						if(!provider.isChunkGeneratedAt(target.x + xo, target.z + zo)) {
+							precomputed &= generator.precomputeTerrain(target.x + xo, target.z + zo, this, getWorkerPool());
+						}
+					}
+				}
+
+				if(!precomputed) {
+					//Too much precomputed terrain hasn't been used yet, try again next tick
+					break;
+				}
+
+				this.precomputeIndex++;
+			}
+		}
+	}
+
+	private void discardPrecomputedTerrain() {
+		ChunkProviderServer provider = this.world.getChunkProvider();
+		if(provider.chunkGenerator instanceof ChunkGeneratorBetweenlands) {
+			((ChunkGeneratorBetweenlands) provider.chunkGenerator).discardPrecomputedTerrain(this);
+		}
+	}
+
+	/**
+	 * Generates and populates the target chunk. A chunk is only populated once
+	 * its +X, +Z and +XZ neighbours are loaded, so those are loaded as well.
+	 * @param target
+	 * @return False if the target and its neighbours already existed
+	 */
+	private boolean generateTarget(ChunkPos target) {
+		ChunkProviderServer provider = this.world.getChunkProvider();
+
+		if(provider.isChunkGeneratedAt(target.x, target.z) && provider.isChunkGeneratedAt(target.x + 1, target.z)
+				&& provider.isChunkGeneratedAt(target.x, target.z + 1) && provider.isChunkGeneratedAt(target.x + 1, target.z + 1)) {
+			this.skippedTargets++;
+			return false;
+		}
+
+		Chunk[] chunks = new Chunk[4];
+		for(int i = 0; i < 4; i++) {
+			chunks[i] = provider.provideChunk(target.x + (i & 1), target.z + (i >> 1));
+		}
+
+		//Chunks are loaded again from disk if a later target needs them as neighbour
+		for(Chunk chunk : chunks) {
+			if(chunk != null && !this.world.getPlayerChunkMap().contains(chunk.x, chunk.z)) {
+				provider.queueUnload(chunk);
+				if(chunk.unloadQueued) {
+					this.pendingUnloads.add(chunk);
+				}
+			}
+		}
+
+		this.generatedTargets++;
+		return true;
+	}
+
+	/**
+	 * Returns the target chunk at the specified index
+	 * @param index
+	 * @return
+	 */
+	private ChunkPos getTarget(long index) {
+		if(this.shape == Shape.SQUARE) {
+			long side = 2L * this.radius + 1;
+			return new ChunkPos(this.centerX + (int) (index % side) - this.radius, this.centerZ + (int) (index / side) - this.radius);
+		}
+
+		//Square spiral starting at the center, ring k ends at index (2k+1)^2 - 1
+		long p = index + 1;
+		long k = (long) Math.ceil((Math.sqrt(p) - 1) / 2);
+		while((2 * k + 1) * (2 * k + 1) < p) {
+			k++;
+		}
+		while(k > 0 && (2 * k - 1) * (2 * k - 1) >= p) {
+			k--;
+		}
+		long t = 2 * k;
+		long m = (t + 1) * (t + 1);
+
+		long x, z;
+		if(p >= m - t) {
+			x = k - (m - p);
+			z = -k;
+		} else if(p >= (m -= t) - t) {
+			x = -k;
+			z = -k + (m - p);
+		} else if(p >= (m -= t) - t) {
+			x = -k + (m - p);
+			z = k;
+		} else {
+			x = k;
+			z = k - (m - p - t);
+		}
+
+		return new ChunkPos(this.centerX + (int) x, this.centerZ + (int) z);
+	}
+
+	private void saveCheckpoint() {
+		NBTTagCompound nbt = new NBTTagCompound();
+		nbt.setInteger("centerX", this.centerX);
+		nbt.setInteger("centerZ", this.centerZ);
+		nbt.setInteger("radius", this.radius);
+		nbt.setString("shape", this.shape.getName());
+		nbt.setInteger("chunksPerTick", this.maxChunksPerTick);
+		nbt.setLong("index", this.index);
+
+		File file = getCheckpointFile(this.world);
+		try {
+			file.getParentFile().mkdirs();
+			CompressedStreamTools.safeWrite(nbt, file);
+		} catch(IOException ex) {
+			TheBetweenlands.logger.error("Failed saving pregeneration checkpoint: " + file.getAbsolutePath(), ex);
+		}
+	}
+
+	public WorldServer getWorld() {
+		return this.world;
+	}
+
+	public long getProcessedTargets() {
+		return this.index;
+	}
+
+	public long getTotalTargets() {
+		return this.totalTargets;
+	}
+
+	public long getGeneratedTargets() {
+		return this.generatedTargets;
+	}
+
+	public long getSkippedTargets() {
+		return this.skippedTargets;
+	}
+
+	/**
+	 * Returns the current number of chunks per tick, which may be lower than the configured maximum while the server is lagging
+	 * @return
+	 */
+	public int getBudget() {
+		return this.budget;
+	}
+
+	/**
+	 * Returns the average number of processed targets per second since the pregeneration was started or resumed
+	 * @return
+	 */
+	public double getTargetsPerSecond() {
+		double seconds = (System.nanoTime() - this.startTime) / 1.0E9D;
+		return seconds > 0 ? (this.index - this.startIndex) / seconds : 0;
+	}
+
+	/**
+	 * Returns the estimated remaining time in seconds, or -1 if unknown
+	 * @return
+	 */
+	public long getEstimatedSecondsLeft() {
+		double rate = this.getTargetsPerSecond();
+		return rate > 0 ? (long) ((this.totalTargets - this.index) / rate) : -1;
+	}
+
+	public String getProgressReport() {
+		return String.format("%d/%d chunks (%.1f%%), %d generated, %d skipped, %.1f chunks/s, %d chunks/tick, ETA %s",
+				this.index, this.totalTargets, this.index * 100.0D / this.totalTargets, this.generatedTargets, this.skippedTargets,
+				this.getTargetsPerSecond(), this.budget, formatDuration(this.getEstimatedSecondsLeft()));
+	}
+
+	public static String formatDuration(long seconds) {
+		if(seconds < 0) {
+			return "?";
+		}
+		return String.format("%dh %02dm %02ds", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+	}
+}
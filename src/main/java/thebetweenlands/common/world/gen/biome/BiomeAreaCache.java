@@ -0,0 +1,125 @@
+package thebetweenlands.common.world.gen.biome;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.minecraft.world.biome.Biome;
+
+/**
+ * Bounded cache of biome areas, keyed by the scale and the area that was queried.
+ * Biome layers are deterministic for a given seed, so cached areas never become stale.
+ * <p>
+ * The cache is a lock-free, direct mapped slot array: each area can only be stored in one slot, which is
+ * determined by its key. Entries are immutable and replaced as a whole, so concurrent readers see either
+ * the old or the new entry of a slot and never a partially written one.
+ */
+public class BiomeAreaCache {
+	private static final class Entry {
+		private final int scale, x, z, width, height;
+		private final Biome[] biomes;
+
+		private Entry(int scale, int x, int z, int width, int height, Biome[] biomes) {
+			this.scale = scale;
+			this.x = x;
+			this.z = z;
+			this.width = width;
+			this.height = height;
+			this.biomes = biomes;
+		}
+
+		private boolean matches(int scale, int x, int z, int width, int height) {
+			return this.scale == scale && this.x == x && this.z == z && this.width == width && this.height == height;
+		}
+	}
+
+	private final int maxArea;
+
+	private final AtomicReferenceArray<Entry> slots;
+	private final int slotMask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param maxEntries Maximum number of cached areas, rounded up to the next power of two
+	 * @param maxArea Maximum size of a single area, larger areas are not cached
+	 */
+	public BiomeAreaCache(int maxEntries, int maxArea) {
+		int slotCount = Integer.highestOneBit(Math.max(1, maxEntries - 1)) << 1;
+		this.maxArea = maxArea;
+		this.slots = new AtomicReferenceArray<>(slotCount);
+		this.slotMask = slotCount - 1;
+	}
+
+	private int getSlot(int scale, int x, int z, int width, int height) {
+		int hash = scale;
+		hash = hash * 31 + x;
+		hash = hash * 31 + z;
+		hash = hash * 31 + width;
+		hash = hash * 31 + height;
+		hash *= 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & this.slotMask;
+	}
+
+	/**
+	 * Returns whether the specified area is small enough to be cached
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public boolean isCacheable(int width, int height) {
+		return width > 0 && height > 0 && width * height <= this.maxArea;
+	}
+
+	/**
+	 * Copies the cached biomes of the specified area into the destination array
+	 * @param scale
+	 * @param x
+	 * @param z
+	 * @param width
+	 * @param height
+	 * @param dst
+	 * @return Whether the area was cached
+	 */
+	public boolean get(int scale, int x, int z, int width, int height, Biome[] dst) {
+		Entry entry = this.slots.get(this.getSlot(scale, x, z, width, height));
+		if(entry != null && entry.matches(scale, x, z, width, height)) {
+			System.arraycopy(entry.biomes, 0, dst, 0, width * height);
+			this.hits.increment();
+			return true;
+		}
+		this.misses.increment();
+		return false;
+	}
+
+	/**
+	 * Caches a copy of the biomes of the specified area. Replaces the area that was cached in the same slot, if any
+	 * @param scale
+	 * @param x
+	 * @param z
+	 * @param width
+	 * @param height
+	 * @param src
+	 */
+	public void put(int scale, int x, int z, int width, int height, Biome[] src) {
+		Biome[] biomes = new Biome[width * height];
+		System.arraycopy(src, 0, biomes, 0, biomes.length);
+		this.slots.set(this.getSlot(scale, x, z, width, height), new Entry(scale, x, z, width, height, biomes));
+	}
+
+	/**
+	 * Returns the number of cache hits
+	 * @return
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Returns the number of cache misses
+	 * @return
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+}
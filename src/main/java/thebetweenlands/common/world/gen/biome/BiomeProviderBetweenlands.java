@@ -15,8 +15,13 @@ import thebetweenlands.common.world.gen.layer.GenLayerBetweenlands;
 public class BiomeProviderBetweenlands extends BiomeProvider {
 	public static final List<Biome> ALLOWED_SPAWN_BIOMES = Lists.newArrayList(/*TODO: Add biomes suitable for spawning*/);
 
+	private static final int SCALE_GENERATION = 0;
+	private static final int SCALE_INDEX = 1;
+
 	protected final WorldProviderBetweenlands provider;
-	
+
+	protected final BiomeAreaCache areaCache = new BiomeAreaCache(256, 1024);
+
 	public BiomeProviderBetweenlands(WorldProviderBetweenlands provider, WorldInfo worldInfo) {
 		super(worldInfo);
 		this.provider = provider;
@@ -28,6 +33,46 @@ public class BiomeProviderBetweenlands extends BiomeProvider {
 		return super.getModdedBiomeGenerators(worldType, seed, original);
 	}
 
+	@Override
+	public Biome[] getBiomesForGeneration(Biome[] biomes, int x, int z, int width, int height) {
+		if(!this.areaCache.isCacheable(width, height)) {
+			return super.getBiomesForGeneration(biomes, x, z, width, height);
+		}
+		if(biomes == null || biomes.length < width * height) {
+			biomes = new Biome[width * height];
+		}
+		if(!this.areaCache.get(SCALE_GENERATION, x, z, width, height, biomes)) {
+			biomes = super.getBiomesForGeneration(biomes, x, z, width, height);
+			this.areaCache.put(SCALE_GENERATION, x, z, width, height, biomes);
+		}
+		return biomes;
+	}
+
+	@Override
+	public Biome[] getBiomes(Biome[] biomes, int x, int z, int width, int depth, boolean cacheFlag) {
+		//Chunk aligned queries are already covered by the vanilla biome cache
+		boolean chunkAligned = cacheFlag && width == 16 && depth == 16 && (x & 15) == 0 && (z & 15) == 0;
+		if(chunkAligned || !this.areaCache.isCacheable(width, depth)) {
+			return super.getBiomes(biomes, x, z, width, depth, cacheFlag);
+		}
+		if(biomes == null || biomes.length < width * depth) {
+			biomes = new Biome[width * depth];
+		}
+		if(!this.areaCache.get(SCALE_INDEX, x, z, width, depth, biomes)) {
+			biomes = super.getBiomes(biomes, x, z, width, depth, false);
+			this.areaCache.put(SCALE_INDEX, x, z, width, depth, biomes);
+		}
+		return biomes;
+	}
+
+	/**
+	 * Returns the cache for biome areas that are not chunk aligned
+	 * @return
+	 */
+	public BiomeAreaCache getAreaCache() {
+		return this.areaCache;
+	}
+
 	@Override
 	public List<Biome> getBiomesToSpawnIn() {
 		return ALLOWED_SPAWN_BIOMES;
@@ -10,17 +10,38 @@ import thebetweenlands.common.config.BetweenlandsConfig;
 import thebetweenlands.common.registries.BlockRegistry;
 import thebetweenlands.common.world.WorldProviderBetweenlands;
 import thebetweenlands.common.world.gen.ChunkGeneratorBetweenlands;
+import thebetweenlands.common.world.gen.PopulateContext;
 import thebetweenlands.common.world.gen.feature.OreGens;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 public class BiomeDecoratorBetweenlands extends DecoratorPositionProvider {
     private static final List<String> profiledGenerators = new ArrayList<String>();
     private static boolean decorating;
+
+    private static final Map<String, ProfilerSection> hotPathSections = new ConcurrentHashMap<String, ProfilerSection>();
+
+    /**
+     * Hot path profiler sections of the features that are currently being generated. Decorators may run on
+     * multiple threads, so each thread has its own stack
+     */
+    private static class HotPathStack {
+        private final ProfilerSection[] sections = new ProfilerSection[16];
+        private final long[] startTimes = new long[16];
+        private int depth;
+    }
+
+    private static final ThreadLocal<HotPathStack> hotPathStack = ThreadLocal.withInitial(HotPathStack::new);
+
     private final Biome biome;
+    private ProfilerSection hotPathBiomeSection;
 
     public BiomeDecoratorBetweenlands(Biome biome) {
         this.biome = biome;
@@ -47,11 +68,19 @@ public class BiomeDecoratorBetweenlands extends DecoratorPositionProvider {
 
         if (!wasDecorating) {
             profiledGenerators.clear();
+            hotPathStack.get().depth = 0;
             this.getProfiler().startSection(this.getBiome().getRegistryName().getPath());
         }
 
+        if (this.hotPathBiomeSection == null) {
+            this.hotPathBiomeSection = HotPathProfiler.section("decorator." + this.getBiome().getRegistryName().getPath());
+        }
+        long startTime = HotPathProfiler.start();
+
         this.decorate();
 
+        this.hotPathBiomeSection.end(startTime);
+
         if (!wasDecorating) {
             this.getProfiler().endSection();
         }
@@ -221,6 +250,17 @@ public class BiomeDecoratorBetweenlands extends DecoratorPositionProvider {
      * @param name
      */
     public void startProfilerSection(String name) {
+        PopulateContext.pushFeature(name);
+
+        if (HotPathProfiler.isEnabled()) {
+            HotPathStack stack = hotPathStack.get();
+            if (stack.depth < stack.sections.length) {
+                stack.sections[stack.depth] = hotPathSections.computeIfAbsent(name, n -> HotPathProfiler.section("decorator.feature." + n));
+                stack.startTimes[stack.depth] = HotPathProfiler.start();
+            }
+            stack.depth++;
+        }
+
         if (this.isProfilingEnabled() && this.getProfiler().profilingEnabled && (this.isRecursiveProfilingEnabled() || !profiledGenerators.contains(this.getProfiler().getNameOfLastSection()))) {
             this.getProfiler().startSection(name);
 
@@ -235,6 +275,17 @@ public class BiomeDecoratorBetweenlands extends DecoratorPositionProvider {
      * Stops a profiler section if enabled
      */
     public void endProfilerSection() {
+        PopulateContext.popFeature();
+
+        HotPathStack stack = hotPathStack.get();
+        if (stack.depth > 0) {
+            stack.depth--;
+            if (stack.depth < stack.sections.length) {
+                stack.sections[stack.depth].end(stack.startTimes[stack.depth]);
+                stack.sections[stack.depth] = null;
+            }
+        }
+
         if (this.isProfilingEnabled() && this.getProfiler().profilingEnabled) {
             if (!this.isRecursiveProfilingEnabled()) {
                 String section = this.getProfiler().getNameOfLastSection();
@@ -31,6 +31,98 @@ public class FractalOpenSimplexNoise {
         return Math.max(-1, Math.min(eval, 1));
     }
 
+    /**
+     * Fills the specified array with 2D noise sampled at all combinations of the specified coordinates,
+     * see {@link OpenSimplexNoise#fill2D(double[], double[], double[], int, int, int)}.
+     * The samples are exactly equal to {@link #eval(double, double)}.
+     *
+     * @param xs      x coordinates
+     * @param ys      y coordinates
+     * @param out     The array to write the samples to
+     * @param scratch Temporary array of the same size as out
+     * @param offset  Index of the first sample
+     * @param strideX Index step between two x coordinates
+     * @param strideY Index step between two y coordinates
+     */
+    public void fill2D(double[] xs, double[] ys, double[] out, double[] scratch, int offset, int strideX, int strideY) {
+        double[] oxs = new double[xs.length];
+        double[] oys = new double[ys.length];
+        for (int i = 0; i < xs.length; i++)
+            for (int j = 0; j < ys.length; j++)
+                out[offset + i * strideX + j * strideY] = 0;
+        for (int o = 0; o < octaves.length; o++) {
+            for (int i = 0; i < xs.length; i++)
+                oxs[i] = xs[i] * (1 << o) * scale;
+            for (int j = 0; j < ys.length; j++)
+                oys[j] = ys[j] * (1 << o) * scale;
+            octaves[o].fill2D(oxs, oys, scratch, offset, strideX, strideY);
+            double weight = Math.pow(0.5, o);
+            for (int i = 0; i < xs.length; i++) {
+                for (int j = 0; j < ys.length; j++) {
+                    int index = offset + i * strideX + j * strideY;
+                    out[index] += scratch[index] * weight;
+                }
+            }
+        }
+        for (int i = 0; i < xs.length; i++) {
+            for (int j = 0; j < ys.length; j++) {
+                int index = offset + i * strideX + j * strideY;
+                out[index] = Math.max(-1, Math.min(out[index], 1));
+            }
+        }
+    }
+
+    /**
+     * Fills the specified array with 3D noise sampled at all combinations of the specified coordinates,
+     * see {@link OpenSimplexNoise#fill3D(double[], double[], double[], double[], int, int, int, int)}.
+     * The samples are exactly equal to {@link #eval(double, double, double)}.
+     *
+     * @param xs      x coordinates
+     * @param ys      y coordinates
+     * @param zs      z coordinates
+     * @param out     The array to write the samples to
+     * @param scratch Temporary array of the same size as out
+     * @param offset  Index of the first sample
+     * @param strideX Index step between two x coordinates
+     * @param strideY Index step between two y coordinates
+     * @param strideZ Index step between two z coordinates
+     */
+    public void fill3D(double[] xs, double[] ys, double[] zs, double[] out, double[] scratch, int offset, int strideX, int strideY, int strideZ) {
+        double[] oxs = new double[xs.length];
+        double[] oys = new double[ys.length];
+        double[] ozs = new double[zs.length];
+        for (int i = 0; i < xs.length; i++)
+            for (int j = 0; j < ys.length; j++)
+                for (int k = 0; k < zs.length; k++)
+                    out[offset + i * strideX + j * strideY + k * strideZ] = 0;
+        for (int o = 0; o < octaves.length; o++) {
+            for (int i = 0; i < xs.length; i++)
+                oxs[i] = xs[i] * (1 << o) * scale;
+            for (int j = 0; j < ys.length; j++)
+                oys[j] = ys[j] * (1 << o) * scale;
+            for (int k = 0; k < zs.length; k++)
+                ozs[k] = zs[k] * (1 << o) * scale;
+            octaves[o].fill3D(oxs, oys, ozs, scratch, offset, strideX, strideY, strideZ);
+            double weight = Math.pow(0.5, o);
+            for (int i = 0; i < xs.length; i++) {
+                for (int j = 0; j < ys.length; j++) {
+                    for (int k = 0; k < zs.length; k++) {
+                        int index = offset + i * strideX + j * strideY + k * strideZ;
+                        out[index] += scratch[index] * weight;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < xs.length; i++) {
+            for (int j = 0; j < ys.length; j++) {
+                for (int k = 0; k < zs.length; k++) {
+                    int index = offset + i * strideX + j * strideY + k * strideZ;
+                    out[index] = Math.max(-1, Math.min(out[index], 1));
+                }
+            }
+        }
+    }
+
     public double eval(double x, double y, double z, double w) {
         double eval = 0;
         for (int o = 0; o < octaves.length; o++)
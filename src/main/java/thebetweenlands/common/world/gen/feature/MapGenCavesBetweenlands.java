@@ -11,7 +11,6 @@ import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.ChunkPrimer;
-import net.minecraft.world.gen.MapGenBase;
 import thebetweenlands.common.registries.BiomeRegistry;
 import thebetweenlands.common.registries.BlockRegistry;
 import thebetweenlands.common.world.WorldProviderBetweenlands;
@@ -20,9 +19,18 @@ import thebetweenlands.common.world.gen.biome.BiomeWeights;
 import thebetweenlands.util.MathUtils;
 import thebetweenlands.util.OpenSimplexNoise;
 
-public class MapGenCavesBetweenlands extends MapGenBase {
+/**
+ * Generates the noise based caves. The noise fields only depend on the seed and the chunk
+ * position, so {@link #generateNoiseFields(int, int, double[], double[])} may be called from
+ * any thread. Carving the caves into the chunk must happen on the world's thread.
+ */
+public class MapGenCavesBetweenlands {
 	private static final int CHUNK_SIZE = 16;
 
+	public static final int NOISE_FIELD_SIZE = 9 * 9 * 129;
+
+	public static final int SEA_BREAK_NOISE_FIELD_SIZE = 16 * 16;
+
 	private static final double XZ_CAVE_SCALE = 0.08;
 
 	private static final double Y_CAVE_SCALE = 0.15;
@@ -53,6 +61,8 @@ public class MapGenCavesBetweenlands extends MapGenBase {
 
 	private final FractalOpenSimplexNoise form;
 
+	private final ThreadLocal<double[][]> scratch = ThreadLocal.withInitial(() -> new double[2][NOISE_FIELD_SIZE]);
+
 	private static final Set<BiomeBetweenlands> noBreakBiomes
 			= ImmutableSet.of(
 				BiomeRegistry.DEEP_WATERS,
@@ -65,46 +75,70 @@ public class MapGenCavesBetweenlands extends MapGenBase {
 				BiomeRegistry.SWAMPLANDS_CLEARING,
 				BiomeRegistry.SLUDGE_PLAINS_CLEARING);
 
-	private BiomeWeights biomeWeights;
-
-	private final double[] noiseField = new double[9 * 9 * 129];
-	private final double[] seaBreakNoiseField = new double[16 * 16];
-
 	public MapGenCavesBetweenlands(long seed) {
 		cave = new OpenSimplexNoise(seed);
 		seaLevelBreak = new OpenSimplexNoise(seed + 1);
 		form = new FractalOpenSimplexNoise(seed + 2, 4, 0.1);
 	}
 
-	public void setBiomeTerrainWeights(BiomeWeights biomeWeights) {
-		this.biomeWeights = biomeWeights;
-	}
-
-	@Override
-	public void generate(World world, int chunkX, int chunkZ, ChunkPrimer primer) {
+	/**
+	 * Generates the cave noise fields of the specified chunk. Thread safe.
+	 * @param chunkX
+	 * @param chunkZ
+	 * @param noiseField Cave noise field of size {@link #NOISE_FIELD_SIZE}
+	 * @param seaBreakNoiseField Sea break noise field of size {@link #SEA_BREAK_NOISE_FIELD_SIZE}
+	 */
+	public void generateNoiseFields(int chunkX, int chunkZ, double[] noiseField, double[] seaBreakNoiseField) {
 		int cx = chunkX * CHUNK_SIZE;
 		int cz = chunkZ * CHUNK_SIZE;
-		MutableBlockPos pos = new MutableBlockPos();
 
-		//Generate cave noise field (9x9x129)
-		for(int x = 0; x < 9; x++) {
-			for(int z = 0; z < 9; z++) {
-				for(int y = 0; y < 129; y++) {
-					int index = ((x * 9) + z) * 129 + y;
-					int bx = cx + x * 2;
-					int bz = cz + z * 2;
-					int by = y;
-					this.noiseField[index] = this.sampleNoise(bx, by, bz);
-				}
-			}
+		double[] caveXs = new double[9], caveYs = new double[129], caveZs = new double[9];
+		double[] formXs = new double[9], formYs = new double[129], formZs = new double[9];
+		for(int i = 0; i < 9; i++) {
+			int bx = cx + i * 2;
+			int bz = cz + i * 2;
+			caveXs[i] = bx * XZ_CAVE_SCALE;
+			caveZs[i] = bz * XZ_CAVE_SCALE;
+			formXs[i] = bx * XZ_FORM_SCALE;
+			formZs[i] = bz * XZ_FORM_SCALE;
+		}
+		for(int y = 0; y < 129; y++) {
+			caveYs[y] = y * Y_CAVE_SCALE;
+			formYs[y] = y * Y_FORM_SCALE;
+		}
+
+		//Generate cave noise field (9x9x129), indexed by ((x * 9) + z) * 129 + y
+		double[][] scratch = this.scratch.get();
+		double[] formNoiseField = scratch[0];
+		this.cave.fill3D(caveXs, caveYs, caveZs, noiseField, 0, 9 * 129, 1, 129);
+		this.form.fill3D(formXs, formYs, formZs, formNoiseField, scratch[1], 0, 9 * 129, 1, 129);
+		for(int i = 0; i < NOISE_FIELD_SIZE; i++) {
+			noiseField[i] += formNoiseField[i] * FORM_SCALE;
 		}
 
 		//Generate sea break noise field
-		for(int x = 0; x < 16; x++) {
-			for(int z = 0; z < 16; z++) {
-				this.seaBreakNoiseField[x * 16 + z] = seaLevelBreak.eval((cx+x) * XZ_BREAK_SCALE, (cz+z) * XZ_BREAK_SCALE);
-			}
+		double[] breakXs = new double[16], breakZs = new double[16];
+		for(int i = 0; i < 16; i++) {
+			breakXs[i] = (cx + i) * XZ_BREAK_SCALE;
+			breakZs[i] = (cz + i) * XZ_BREAK_SCALE;
 		}
+		this.seaLevelBreak.fill2D(breakXs, breakZs, seaBreakNoiseField, 0, 16, 1);
+	}
+
+	/**
+	 * Carves the caves into the specified chunk
+	 * @param world
+	 * @param chunkX
+	 * @param chunkZ
+	 * @param primer
+	 * @param biomeWeights
+	 * @param noiseField Cave noise field generated by {@link #generateNoiseFields(int, int, double[], double[])}
+	 * @param seaBreakNoiseField Sea break noise field generated by {@link #generateNoiseFields(int, int, double[], double[])}
+	 */
+	public void generate(World world, int chunkX, int chunkZ, ChunkPrimer primer, BiomeWeights biomeWeights, double[] noiseField, double[] seaBreakNoiseField) {
+		int cx = chunkX * CHUNK_SIZE;
+		int cz = chunkZ * CHUNK_SIZE;
+		MutableBlockPos pos = new MutableBlockPos();
 
 		for(int x = 0; x < 8; x++) {
 			int indexXC = x * 9; //1
@@ -118,14 +152,14 @@ public class MapGenCavesBetweenlands extends MapGenBase {
 
 				for(int y = 0; y < 128; y++) {
 					//Values
-					double valXCZCYC = this.noiseField[indexXCZC + y]; //1
-					double valXCZNYC = this.noiseField[indexXCZN + y]; //2
-					double valXNZCYC = this.noiseField[indexXNZC + y]; //3
-					double valXNZNYC = this.noiseField[indexXNZN + y]; //4
-					double valXCZCYN = this.noiseField[indexXCZC + y + 1]; //5
-					double valXCZNYN = this.noiseField[indexXCZN + y + 1]; //6
-					double valXNZCYN = this.noiseField[indexXNZC + y + 1]; //7
-					double valXNZNYN = this.noiseField[indexXNZN + y + 1]; //8
+					double valXCZCYC = noiseField[indexXCZC + y]; //1
+					double valXCZNYC = noiseField[indexXCZN + y]; //2
+					double valXNZCYC = noiseField[indexXNZC + y]; //3
+					double valXNZNYC = noiseField[indexXNZN + y]; //4
+					double valXCZCYN = noiseField[indexXCZC + y + 1]; //5
+					double valXCZNYN = noiseField[indexXCZN + y + 1]; //6
+					double valXNZCYN = noiseField[indexXNZC + y + 1]; //7
+					double valXNZNYN = noiseField[indexXNZN + y + 1]; //8
 
 					//Step along X axis
 					double stepXAxisYCZC = (valXNZCYC - valXCZCYC) * 0.5D;
@@ -161,7 +195,7 @@ public class MapGenCavesBetweenlands extends MapGenBase {
 							Biome biome = world.getBiome(pos.setPos(cx + bx, 0, cz + bz));
 
 							// Only break in correct biomes and don't generate in biome transitions
-							double shouldntBreak = noBreakBiomes.contains(biome) ? SHOULDNT_BREAK : (1 - this.biomeWeights.get(bx, bz)) * SHOULDNT_BREAK;
+							double shouldntBreak = noBreakBiomes.contains(biome) ? SHOULDNT_BREAK : (1 - biomeWeights.get(bx, bz)) * SHOULDNT_BREAK;
 
 							int level = 0;
 
@@ -196,7 +230,7 @@ public class MapGenCavesBetweenlands extends MapGenBase {
 								}
 								int surfaceDist = level - by;
 								if (surfaceDist <= UPPER_BOUND) {
-									noise += (shouldntBreak + MathUtils.linearTransformd(this.seaBreakNoiseField[bx * 16 + bz], -1, 1, 0, 1)) * BREAK_SCALE * (1 - surfaceDist / (float) UPPER_BOUND);
+									noise += (shouldntBreak + MathUtils.linearTransformd(seaBreakNoiseField[bx * 16 + bz], -1, 1, 0, 1)) * BREAK_SCALE * (1 - surfaceDist / (float) UPPER_BOUND);
 								}
 								//if (y == level) {   
 								//    primer.setBlockState(bx, 150, bz, Blocks.STAINED_GLASS.getDefaultState().withProperty(BlockStainedGlass.COLOR, EnumDyeColor.byMetadata((int) MathUtils.linearTransformd(noise, -0.5F, 1, 0, 15))));
@@ -222,8 +256,4 @@ public class MapGenCavesBetweenlands extends MapGenBase {
 			}
 		}
 	}
-
-	private double sampleNoise(int x, int y, int z) {
-		return this.cave.eval(x * XZ_CAVE_SCALE, y * Y_CAVE_SCALE, z * XZ_CAVE_SCALE) + form.eval(x * XZ_FORM_SCALE, y * Y_FORM_SCALE, z * XZ_FORM_SCALE) * FORM_SCALE;
-	}
 }
@@ -0,0 +1,377 @@
+package thebetweenlands.common.world.gen.feature;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.server.management.PlayerChunkMapEntry;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import thebetweenlands.api.storage.IWorldStorage;
+import thebetweenlands.common.world.storage.WorldStorageImpl;
+import thebetweenlands.common.world.storage.operation.DeferredBlockPlacementOperation;
+
+/**
+ * Places the blocks of a structure directly into the chunk sections instead of going through
+ * {@link net.minecraft.world.World#setBlockState(BlockPos, IBlockState, int)} for every block.
+ * <p>
+ * Blocks are written to the loaded chunks right away so that the structure generator can still read back
+ * what it has placed, but lighting, height maps, client updates and world listener notifications are only done once per chunk and section in {@link #flush()}.
+ * Like {@link Chunk#setBlockState(BlockPos, IBlockState)} the replaced block's {@link Block#breakBlock} and the placed block's
+ * {@link Block#onBlockAdded} are called.
+ * Blocks in chunks that aren't loaded are collected per chunk section and queued as {@link DeferredBlockPlacementOperation}
+ * so that they are placed once the chunk is loaded, instead of loading or generating the chunk. If the chunk is loaded before
+ * the buffer is flushed, e.g. because the structure generator reads a block there, the collected blocks are placed right away
+ * so that they can be read back.
+ * Placements that need block updates, tile entities or fluids are passed on to the world.
+ * <p>
+ * Build buffers may only be used on the server thread.
+ */
+public class StructureBuildBuffer {
+	private static final int MAX_TRACKED_CHANGES = 64;
+
+	/**
+	 * Changes made to a loaded chunk that still need to be relit and sent to clients
+	 */
+	private static class ChunkChanges {
+		private final Chunk chunk;
+		private final short[] changes = new short[MAX_TRACKED_CHANGES];
+		private int changeCount;
+		private int changedSections;
+		private final LongArrayList lightChanges = new LongArrayList();
+
+		private ChunkChanges(Chunk chunk) {
+			this.chunk = chunk;
+		}
+
+		private void add(int x, int y, int z) {
+			if(this.changeCount < MAX_TRACKED_CHANGES) {
+				this.changes[this.changeCount] = (short) ((x << 12) | (z << 8) | y);
+			}
+			this.changeCount++;
+			this.changedSections |= 1 << (y >> 4);
+		}
+	}
+
+	/**
+	 * Buffers that have collected blocks for chunks that aren't loaded
+	 */
+	private static final List<StructureBuildBuffer> DEFERRING_BUFFERS = new ArrayList<>();
+
+	private final WorldServer world;
+
+	private final Long2ObjectMap<ChunkChanges> changedChunks = new Long2ObjectOpenHashMap<>();
+	private final Long2ObjectMap<DeferredBlockPlacementOperation> deferredChunks = new Long2ObjectOpenHashMap<>();
+
+	private final BlockPos.MutableBlockPos mutablePos = new BlockPos.MutableBlockPos();
+
+	private int lastChunkX, lastChunkZ;
+	private ChunkChanges lastChunk;
+
+	private int placedBlocks;
+	private int deferredBlocks;
+
+	public StructureBuildBuffer(WorldServer world) {
+		this.world = world;
+	}
+
+	public WorldServer getWorld() {
+		return this.world;
+	}
+
+	/**
+	 * Sets the block state at the specified position
+	 * @param pos
+	 * @param state
+	 * @param flags Block update flags, see {@link net.minecraft.world.World#setBlockState(BlockPos, IBlockState, int)}.
+	 * If neighbours are to be notified the block is placed through the world
+	 */
+	public void setBlockState(BlockPos pos, IBlockState state, int flags) {
+		int y = pos.getY();
+		if(y < 0 || y >= 256) {
+			return;
+		}
+
+		int chunkX = pos.getX() >> 4;
+		int chunkZ = pos.getZ() >> 4;
+
+		ChunkChanges changes = this.getChunkChanges(chunkX, chunkZ);
+
+		if(changes == null) {
+			if((flags & 1) == 0 && !this.requiresWorld(state)) {
+				long key = ChunkPos.asLong(chunkX, chunkZ);
+				DeferredBlockPlacementOperation deferred = this.deferredChunks.get(key);
+				if(deferred == null) {
+					if(this.deferredChunks.isEmpty()) {
+						DEFERRING_BUFFERS.add(this);
+					}
+					this.deferredChunks.put(key, deferred = new DeferredBlockPlacementOperation());
+				}
+				deferred.add(pos.getX() & 15, y, pos.getZ() & 15, state);
+				this.deferredBlocks++;
+				return;
+			}
+
+			//Loads the chunk
+			this.world.setBlockState(pos, state, flags);
+			return;
+		}
+
+		if((flags & 1) != 0 || !this.setBlockStateInChunk(changes, pos.getX() & 15, y, pos.getZ() & 15, state)) {
+			this.world.setBlockState(pos, state, flags);
+		}
+	}
+
+	/**
+	 * Returns the changes of the specified chunk if it is loaded. If placements
+	 * were deferred while the chunk wasn't loaded they are applied first
+	 */
+	private ChunkChanges getChunkChanges(int chunkX, int chunkZ) {
+		if(this.lastChunk != null && this.lastChunkX == chunkX && this.lastChunkZ == chunkZ) {
+			return this.lastChunk;
+		}
+
+		long key = ChunkPos.asLong(chunkX, chunkZ);
+
+		ChunkChanges changes = this.changedChunks.get(key);
+
+		if(changes == null) {
+			Chunk chunk = this.world.getChunkProvider().getLoadedChunk(chunkX, chunkZ);
+			if(chunk == null) {
+				return null;
+			}
+
+			this.changedChunks.put(key, changes = new ChunkChanges(chunk));
+
+			//Chunk was loaded in the meantime, e.g. by the structure reading a block
+			DeferredBlockPlacementOperation deferred = this.deferredChunks.remove(key);
+			if(deferred != null) {
+				this.applyDeferred(changes, deferred);
+			}
+		}
+
+		this.lastChunkX = chunkX;
+		this.lastChunkZ = chunkZ;
+		this.lastChunk = changes;
+
+		return changes;
+	}
+
+	/**
+	 * Returns whether the block state must be placed through the world
+	 */
+	private boolean requiresWorld(IBlockState state) {
+		return state.getBlock().hasTileEntity(state) || state.getMaterial().isLiquid();
+	}
+
+	/**
+	 * Writes the block state directly into the chunk section
+	 * @return False if the block must be placed through the world instead
+	 */
+	private boolean setBlockStateInChunk(ChunkChanges changes, int x, int y, int z, IBlockState state) {
+		Chunk chunk = changes.chunk;
+
+		ExtendedBlockStorage[] storages = chunk.getBlockStorageArray();
+		ExtendedBlockStorage storage = storages[y >> 4];
+
+		IBlockState oldState;
+
+		if(storage == Chunk.NULL_BLOCK_STORAGE) {
+			if(state.getBlock().isAir(state, this.world, this.mutablePos.setPos((chunk.x << 4) + x, y, (chunk.z << 4) + z))) {
+				return true;
+			}
+			if(this.requiresWorld(state)) {
+				return false;
+			}
+			storages[y >> 4] = storage = new ExtendedBlockStorage(y >> 4 << 4, this.world.provider.hasSkyLight());
+			oldState = storage.get(x, y & 15, z);
+		} else {
+			oldState = storage.get(x, y & 15, z);
+			if(oldState == state) {
+				return true;
+			}
+			if(this.requiresWorld(state) || this.requiresWorld(oldState)) {
+				return false;
+			}
+		}
+
+		storage.set(x, y & 15, z, state);
+
+		Block oldBlock = oldState.getBlock();
+		Block block = state.getBlock();
+
+		BlockPos pos = null;
+		if(oldBlock != block) {
+			pos = new BlockPos((chunk.x << 4) + x, y, (chunk.z << 4) + z);
+			oldBlock.breakBlock(this.world, pos, oldState);
+		}
+
+		//Raise the height map right away so that height queries during generation stay correct,
+		//lowering it is handled by flush()
+		if(state.getLightOpacity() > 0) {
+			int[] heightMap = chunk.getHeightMap();
+			if(y + 1 > heightMap[z << 4 | x]) {
+				heightMap[z << 4 | x] = y + 1;
+			}
+		}
+
+		if(oldState.getLightValue() != state.getLightValue()) {
+			changes.lightChanges.add(BlockPos.toLong((chunk.x << 4) + x, y, (chunk.z << 4) + z));
+		}
+
+		changes.add(x, y, z);
+		this.placedBlocks++;
+
+		if(pos != null) {
+			block.onBlockAdded(this.world, pos, state);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Places the deferred placements in the specified loaded chunk. {@link #flush()} must be called afterwards
+	 * @param chunk
+	 * @param deferred
+	 */
+	public void applyDeferred(Chunk chunk, DeferredBlockPlacementOperation deferred) {
+		long key = ChunkPos.asLong(chunk.x, chunk.z);
+		ChunkChanges changes = this.changedChunks.get(key);
+		if(changes == null) {
+			this.changedChunks.put(key, changes = new ChunkChanges(chunk));
+		}
+		this.applyDeferred(changes, deferred);
+	}
+
+	private void applyDeferred(ChunkChanges changes, DeferredBlockPlacementOperation deferred) {
+		for(int sectionY = 0; sectionY < 16; sectionY++) {
+			IntArrayList section = deferred.getSection(sectionY);
+			if(section != null) {
+				for(int i = 0; i < section.size(); i++) {
+					int placement = section.getInt(i);
+					IBlockState state = deferred.getPaletteState(DeferredBlockPlacementOperation.getPaletteIndex(placement));
+					if(state != null) {
+						int index = DeferredBlockPlacementOperation.getSectionIndex(placement);
+						int x = index & 15;
+						int y = (sectionY << 4) | (index >> 8);
+						int z = (index >> 4) & 15;
+						if(!this.setBlockStateInChunk(changes, x, y, z, state)) {
+							this.world.setBlockState(new BlockPos((changes.chunk.x << 4) + x, y, (changes.chunk.z << 4) + z), state, 2 | 16);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Relights the changed chunks, sends the changes to the clients and queues
+	 * the placements in chunks that weren't loaded
+	 */
+	public void flush() {
+		for(ChunkChanges changes : this.changedChunks.values()) {
+			if(changes.changeCount == 0) {
+				continue;
+			}
+
+			Chunk chunk = changes.chunk;
+
+			//Recalculates the height map and sky light of each column, the remaining light
+			//is propagated in a single pass by the chunk's next light check
+			chunk.generateSkylightMap();
+			chunk.setLightPopulated(false);
+			chunk.markDirty();
+
+			for(int i = 0; i < changes.lightChanges.size(); i++) {
+				this.world.checkLightFor(EnumSkyBlock.BLOCK, this.mutablePos.setPos(BlockPos.fromLong(changes.lightChanges.getLong(i))));
+			}
+
+			//Notifies the world listeners, e.g. the path finding caches, once per changed section
+			//since the blocks were placed without going through the world
+			for(int sectionY = 0; sectionY < 16; sectionY++) {
+				if((changes.changedSections & (1 << sectionY)) != 0) {
+					this.world.markBlockRangeForRenderUpdate(chunk.x << 4, sectionY << 4, chunk.z << 4, (chunk.x << 4) + 15, (sectionY << 4) + 15, (chunk.z << 4) + 15);
+				}
+			}
+
+			PlayerChunkMapEntry entry = this.world.getPlayerChunkMap().getEntry(chunk.x, chunk.z);
+			if(entry != null) {
+				for(int i = 0; i < Math.min(changes.changeCount, MAX_TRACKED_CHANGES); i++) {
+					short change = changes.changes[i];
+					entry.blockChanged((change >> 12) & 15, change & 255, (change >> 8) & 15);
+				}
+				if(changes.changeCount > MAX_TRACKED_CHANGES) {
+					//The entry resends the entire changed sections once it has more than 64 changes
+					for(int sectionY = 0; sectionY < 16; sectionY++) {
+						if((changes.changedSections & (1 << sectionY)) != 0) {
+							entry.blockChanged(0, sectionY << 4, 0);
+						}
+					}
+				}
+			}
+		}
+		this.changedChunks.clear();
+		this.lastChunk = null;
+
+		if(!this.deferredChunks.isEmpty()) {
+			IWorldStorage worldStorage = WorldStorageImpl.getCapability(this.world);
+			for(Long2ObjectMap.Entry<DeferredBlockPlacementOperation> entry : this.deferredChunks.long2ObjectEntrySet()) {
+				long key = entry.getLongKey();
+				ChunkPos chunk = new ChunkPos((int) key, (int) (key >> 32));
+				if(worldStorage != null) {
+					//Applied immediately if the chunk was loaded in the meantime
+					worldStorage.getLocalStorageHandler().queueDeferredOperation(chunk, entry.getValue());
+				}
+			}
+			this.deferredChunks.clear();
+		}
+		DEFERRING_BUFFERS.remove(this);
+	}
+
+	@SubscribeEvent
+	public static void onChunkLoad(ChunkEvent.Load event) {
+		if(!DEFERRING_BUFFERS.isEmpty() && !event.getWorld().isRemote) {
+			Chunk chunk = event.getChunk();
+			long key = ChunkPos.asLong(chunk.x, chunk.z);
+
+			for(int i = 0; i < DEFERRING_BUFFERS.size(); i++) {
+				StructureBuildBuffer buffer = DEFERRING_BUFFERS.get(i);
+
+				if(buffer.world == event.getWorld()) {
+					//Place the collected blocks now so that they can be read back before the buffer is flushed
+					DeferredBlockPlacementOperation deferred = buffer.deferredChunks.remove(key);
+					if(deferred != null) {
+						buffer.applyDeferred(chunk, deferred);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of blocks that were placed directly into loaded chunks
+	 * @return
+	 */
+	public int getPlacedBlocks() {
+		return this.placedBlocks;
+	}
+
+	/**
+	 * Returns the number of blocks that were deferred because their chunk wasn't loaded
+	 * @return
+	 */
+	public int getDeferredBlocks() {
+		return this.deferredBlocks;
+	}
+}
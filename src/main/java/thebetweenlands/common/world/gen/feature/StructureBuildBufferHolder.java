@@ -0,0 +1,64 @@
+package thebetweenlands.common.world.gen.feature;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import thebetweenlands.common.config.BetweenlandsConfig;
+
+/**
+ * Holds the {@link StructureBuildBuffer} of a structure generator while it generates a structure.
+ * Usage:
+ * <pre>
+ * this.buildBuffer.begin(world);
+ * try {
+ *     ...
+ * } finally {
+ *     this.buildBuffer.end();
+ * }
+ * </pre>
+ */
+public class StructureBuildBufferHolder {
+	@Nullable
+	private StructureBuildBuffer buffer;
+
+	/**
+	 * Starts batching the block placements of the structure, see {@link StructureBuildBuffer}, unless disabled in the config.
+	 * {@link #end()} must be called once the structure has been generated
+	 * @param world
+	 */
+	public void begin(World world) {
+		if(world instanceof WorldServer && BetweenlandsConfig.PERFORMANCE.structureBuildBuffer) {
+			this.buffer = new StructureBuildBuffer((WorldServer) world);
+		}
+	}
+
+	/**
+	 * Relights and syncs the blocks placed since {@link #begin(World)} and stops batching
+	 */
+	public void end() {
+		if(this.buffer != null) {
+			StructureBuildBuffer buffer = this.buffer;
+			this.buffer = null;
+			buffer.flush();
+		}
+	}
+
+	/**
+	 * Places the block state through the build buffer if a structure is being generated in the specified world
+	 * @param world
+	 * @param pos
+	 * @param state
+	 * @param flags Block update flags, see {@link World#setBlockState(BlockPos, IBlockState, int)}
+	 * @return False if no structure is being generated in the world and the block must be placed by the caller
+	 */
+	public boolean setBlockState(World world, BlockPos pos, IBlockState state, int flags) {
+		if(this.buffer != null && this.buffer.getWorld() == world) {
+			this.buffer.setBlockState(pos, state, flags);
+			return true;
+		}
+		return false;
+	}
+}
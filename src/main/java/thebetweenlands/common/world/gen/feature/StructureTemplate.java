@@ -0,0 +1,246 @@
+package thebetweenlands.common.world.gen.feature;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Compiled block placements of a deterministic part of a structure for one rotation.
+ * Blocks are stored relative to the structure's origin as palette indices in runs along the X axis.
+ * Later placements at the same position replace earlier ones, so only the final state of each position is kept.
+ */
+public class StructureTemplate {
+	/**
+	 * Consumer for the blocks of a template
+	 */
+	public static interface BlockConsumer {
+		public void accept(BlockPos pos, IBlockState state);
+	}
+
+	private final IBlockState[] palette;
+	private final int minX, minY, minZ;
+	private final int sizeX, sizeZ;
+
+	/**
+	 * Runs packed as <code>start, length, paletteIndex</code> where start is the index within the bounds
+	 */
+	private final int[] runs;
+
+	private StructureTemplate(IBlockState[] palette, int minX, int minY, int minZ, int sizeX, int sizeZ, int[] runs) {
+		this.palette = palette;
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.sizeX = sizeX;
+		this.sizeZ = sizeZ;
+		this.runs = runs;
+	}
+
+	/**
+	 * Returns the number of runs of equal blocks along the X axis
+	 * @return
+	 */
+	public int getRunCount() {
+		return this.runs.length / 3;
+	}
+
+	/**
+	 * Passes all blocks of the template at the specified origin to the consumer,
+	 * ordered by Y, Z and X
+	 * @param originX
+	 * @param originY
+	 * @param originZ
+	 * @param consumer
+	 */
+	public void forEachBlock(int originX, int originY, int originZ, BlockConsumer consumer) {
+		int layerSize = this.sizeX * this.sizeZ;
+		for(int i = 0; i < this.runs.length; i += 3) {
+			int start = this.runs[i];
+			int length = this.runs[i + 1];
+			IBlockState state = this.palette[this.runs[i + 2]];
+
+			int y = originY + this.minY + start / layerSize;
+			int z = originZ + this.minZ + (start % layerSize) / this.sizeX;
+			int x = originX + this.minX + start % this.sizeX;
+
+			for(int j = 0; j < length; j++) {
+				consumer.accept(new BlockPos(x + j, y, z), state);
+			}
+		}
+	}
+
+	/**
+	 * Returns whether all block states of the palette can be stored by their block and meta
+	 * and thus whether the template can be written to disk
+	 * @return
+	 */
+	@SuppressWarnings("deprecation")
+	public boolean isSerializable() {
+		for(IBlockState state : this.palette) {
+			Block block = state.getBlock();
+			if(block.getRegistryName() == null || block.getStateFromMeta(block.getMetaFromState(state)) != state) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeShort(this.palette.length);
+		for(IBlockState state : this.palette) {
+			out.writeUTF(state.getBlock().getRegistryName().toString());
+			out.writeByte(state.getBlock().getMetaFromState(state));
+		}
+		out.writeInt(this.minX);
+		out.writeInt(this.minY);
+		out.writeInt(this.minZ);
+		out.writeInt(this.sizeX);
+		out.writeInt(this.sizeZ);
+		out.writeInt(this.runs.length);
+		for(int value : this.runs) {
+			out.writeInt(value);
+		}
+	}
+
+	/**
+	 * Reads a template written by {@link #write(DataOutput)}
+	 * @param in
+	 * @return The template, or null if a block of the palette no longer exists
+	 * @throws IOException
+	 */
+	@SuppressWarnings("deprecation")
+	@Nullable
+	public static StructureTemplate read(DataInput in) throws IOException {
+		IBlockState[] palette = new IBlockState[in.readUnsignedShort()];
+		boolean valid = true;
+		for(int i = 0; i < palette.length; i++) {
+			ResourceLocation id = new ResourceLocation(in.readUTF());
+			int meta = in.readUnsignedByte();
+			Block block = Block.REGISTRY.containsKey(id) ? Block.REGISTRY.getObject(id) : null;
+			if(block != null) {
+				palette[i] = block.getStateFromMeta(meta);
+			} else {
+				valid = false;
+			}
+		}
+		int minX = in.readInt();
+		int minY = in.readInt();
+		int minZ = in.readInt();
+		int sizeX = in.readInt();
+		int sizeZ = in.readInt();
+		int[] runs = new int[in.readInt()];
+		if(runs.length % 3 != 0 || sizeX <= 0 || sizeZ <= 0) {
+			throw new IOException("Malformed structure template");
+		}
+		for(int i = 0; i < runs.length; i++) {
+			runs[i] = in.readInt();
+			if(i % 3 == 2 && (runs[i] < 0 || runs[i] >= palette.length)) {
+				throw new IOException("Malformed structure template");
+			}
+		}
+		return valid ? new StructureTemplate(palette, minX, minY, minZ, sizeX, sizeZ, runs) : null;
+	}
+
+	/**
+	 * Records block placements relative to the structure's origin
+	 */
+	public static class Builder {
+		private final int originX, originY, originZ;
+		private final Long2ObjectMap<IBlockState> placements = new Long2ObjectLinkedOpenHashMap<>();
+
+		public Builder(int originX, int originY, int originZ) {
+			this.originX = originX;
+			this.originY = originY;
+			this.originZ = originZ;
+		}
+
+		/**
+		 * Records a placement at the specified world position
+		 * @param pos
+		 * @param state
+		 */
+		public void add(BlockPos pos, IBlockState state) {
+			this.placements.put(BlockPos.toLong(pos.getX() - this.originX, pos.getY() - this.originY, pos.getZ() - this.originZ), state);
+		}
+
+		public StructureTemplate build() {
+			if(this.placements.isEmpty()) {
+				return new StructureTemplate(new IBlockState[0], 0, 0, 0, 1, 1, new int[0]);
+			}
+
+			int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+			int maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+			for(long key : this.placements.keySet()) {
+				BlockPos pos = BlockPos.fromLong(key);
+				minX = Math.min(minX, pos.getX());
+				minY = Math.min(minY, pos.getY());
+				minZ = Math.min(minZ, pos.getZ());
+				maxX = Math.max(maxX, pos.getX());
+				maxZ = Math.max(maxZ, pos.getZ());
+			}
+
+			int sizeX = maxX - minX + 1;
+			int sizeZ = maxZ - minZ + 1;
+
+			List<IBlockState> palette = new ArrayList<>();
+			Reference2IntMap<IBlockState> paletteIndices = new Reference2IntOpenHashMap<>();
+			paletteIndices.defaultReturnValue(-1);
+
+			//Sort by index within the bounds, i.e. by Y, Z and X
+			long[] entries = new long[this.placements.size()];
+			int count = 0;
+			for(Long2ObjectMap.Entry<IBlockState> entry : this.placements.long2ObjectEntrySet()) {
+				IBlockState state = entry.getValue();
+				int paletteIndex = paletteIndices.getInt(state);
+				if(paletteIndex < 0) {
+					paletteIndex = palette.size();
+					palette.add(state);
+					paletteIndices.put(state, paletteIndex);
+				}
+				BlockPos pos = BlockPos.fromLong(entry.getLongKey());
+				long index = ((long) (pos.getY() - minY) * sizeZ + (pos.getZ() - minZ)) * sizeX + (pos.getX() - minX);
+				entries[count++] = index << 16 | paletteIndex;
+			}
+			Arrays.sort(entries);
+
+			IntArrayList runs = new IntArrayList();
+			int runStart = -1, runLength = 0, runPalette = -1;
+			for(long entry : entries) {
+				int index = (int) (entry >>> 16);
+				int paletteIndex = (int) (entry & 0xFFFF);
+				if(runLength > 0 && paletteIndex == runPalette && index == runStart + runLength && index % sizeX != 0) {
+					runLength++;
+				} else {
+					if(runLength > 0) {
+						runs.add(runStart);
+						runs.add(runLength);
+						runs.add(runPalette);
+					}
+					runStart = index;
+					runLength = 1;
+					runPalette = paletteIndex;
+				}
+			}
+			runs.add(runStart);
+			runs.add(runLength);
+			runs.add(runPalette);
+
+			return new StructureTemplate(palette.toArray(new IBlockState[0]), minX, minY, minZ, sizeX, sizeZ, runs.toIntArray());
+		}
+	}
+}
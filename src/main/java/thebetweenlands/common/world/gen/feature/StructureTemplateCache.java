@@ -0,0 +1,133 @@
+package thebetweenlands.common.world.gen.feature;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.config.BetweenlandsConfig;
+import thebetweenlands.common.lib.ModInfo;
+
+/**
+ * Keeps the compiled {@link StructureTemplate}s in memory and caches them in the config folder.
+ * Cached files are only used if they were written by the same mod version.
+ */
+public final class StructureTemplateCache {
+	private StructureTemplateCache() { }
+
+	private static final int MAGIC = 0x424C5354;
+	private static final int FORMAT_VERSION = 1;
+
+	private static final Map<String, StructureTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the cached template with the specified name and rotation, or null if it hasn't been compiled yet
+	 * @param name
+	 * @param rotation
+	 * @return
+	 */
+	@Nullable
+	public static StructureTemplate get(String name, int rotation) {
+		String key = getKey(name, rotation);
+
+		StructureTemplate template = TEMPLATES.get(key);
+
+		if(template == null && BetweenlandsConfig.configDir != null && BetweenlandsConfig.PERFORMANCE.structureTemplateDiskCache) {
+			template = load(key);
+			if(template != null) {
+				TEMPLATES.put(key, template);
+			}
+		}
+
+		return template;
+	}
+
+	/**
+	 * Caches the template with the specified name and rotation
+	 * @param name
+	 * @param rotation
+	 * @param template
+	 */
+	public static void put(String name, int rotation, StructureTemplate template) {
+		String key = getKey(name, rotation);
+
+		TEMPLATES.put(key, template);
+
+		if(BetweenlandsConfig.configDir != null && BetweenlandsConfig.PERFORMANCE.structureTemplateDiskCache && template.isSerializable()) {
+			save(key, template);
+		}
+	}
+
+	/**
+	 * Removes all templates from memory
+	 */
+	public static void clear() {
+		TEMPLATES.clear();
+	}
+
+	private static String getKey(String name, int rotation) {
+		return name.replace('/', '.') + "_" + rotation;
+	}
+
+	private static File getFile(String key) {
+		return new File(new File(BetweenlandsConfig.configDir, "structure_templates"), key + ".bin");
+	}
+
+	@Nullable
+	private static StructureTemplate load(String key) {
+		File file = getFile(key);
+
+		if(!file.exists()) {
+			return null;
+		}
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file.toPath()))))) {
+			if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !ModInfo.VERSION.equals(in.readUTF()) || !key.equals(in.readUTF())) {
+				//Outdated, will be compiled and written again
+				return null;
+			}
+			return StructureTemplate.read(in);
+		} catch(IOException ex) {
+			TheBetweenlands.logger.error(String.format("Failed reading structure template %s", file), ex);
+		}
+
+		return null;
+	}
+
+	private static void save(String key, StructureTemplate template) {
+		File file = getFile(key);
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+		try {
+			Files.createDirectories(file.getParentFile().toPath());
+
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmpFile.toPath()))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(ModInfo.VERSION);
+				out.writeUTF(key);
+				template.write(out);
+			}
+
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException ex) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException ex) {
+			TheBetweenlands.logger.error(String.format("Failed writing structure template %s", file), ex);
+		}
+	}
+}
@@ -25,6 +25,7 @@ import thebetweenlands.common.registries.BlockRegistry;
 import thebetweenlands.common.tile.TileEntityLootPot;
 import thebetweenlands.common.tile.TileEntityLootUrn;
 import thebetweenlands.common.tile.spawner.MobSpawnerLogicBetweenlands;
+import thebetweenlands.common.world.gen.PopulateContext;
 import thebetweenlands.common.world.gen.biome.decorator.SurfaceType;
 
 public abstract class WorldGenHelper extends WorldGenerator {
@@ -58,6 +59,16 @@ public abstract class WorldGenHelper extends WorldGenerator {
 
 	private MutableBlockPos checkPos = new MutableBlockPos();
 
+	private final StructureBuildBufferHolder buildBuffer = new StructureBuildBufferHolder();
+
+	@Nullable
+	private StructureTemplate.Builder templateBuilder;
+	@Nullable
+	private StructureTemplate template;
+	private String templateName;
+	private int templateRotation;
+	private int templateX, templateY, templateZ;
+
 	protected MutableBlockPos getCheckPos(int x, int y, int z) {
 		this.checkPos.setPos(x, y, z);
 		return this.checkPos;
@@ -138,6 +149,9 @@ public abstract class WorldGenHelper extends WorldGenerator {
 	 */
 	@SafeVarargs
 	public final void rotatedCubeVolume(World world, @Nullable Predicate<BlockPos> pred, int x, int y, int z, int offsetX, int offsetY, int offsetZ, IBlockState blockState, int sizeWidth, int sizeHeight, int sizeDepth, int rotation, Consumer<BlockPos>... callbacks) {
+		if(this.templateBuilder != null && (pred != null || callbacks.length > 0)) {
+			throw new IllegalStateException("Structure templates cannot contain volumes with predicates or callbacks");
+		}
 		x -= width / 2;
 		z -= depth / 2;
 		switch (rotation) {
@@ -147,7 +161,7 @@ public abstract class WorldGenHelper extends WorldGenerator {
 					for (int zz = z + offsetZ; zz < z + offsetZ + sizeDepth; zz++) {
 						BlockPos pos = new BlockPos(xx, yy, zz);
 						if(pred == null || pred.test(pos)) {
-							this.setBlockAndNotifyAdequately(world, pos, blockState);
+							this.placeBlock(world, pos, blockState);
 							for(Consumer<BlockPos> callback : callbacks) {
 								callback.accept(pos);
 							}
@@ -160,7 +174,7 @@ public abstract class WorldGenHelper extends WorldGenerator {
 					for (int xx = x + offsetZ; xx < x + offsetZ + sizeDepth; xx++) {
 						BlockPos pos = new BlockPos(xx, yy, zz);
 						if(pred == null || pred.test(pos)) {
-							this.setBlockAndNotifyAdequately(world, pos, blockState);
+							this.placeBlock(world, pos, blockState);
 							for(Consumer<BlockPos> callback : callbacks) {
 								callback.accept(pos);
 							}
@@ -173,7 +187,7 @@ public abstract class WorldGenHelper extends WorldGenerator {
 					for (int zz = z + depth - offsetZ - 1; zz > z + depth - offsetZ - sizeDepth - 1; zz--) {
 						BlockPos pos = new BlockPos(xx, yy, zz);
 						if(pred == null || pred.test(pos)) {
-							this.setBlockAndNotifyAdequately(world, pos, blockState);
+							this.placeBlock(world, pos, blockState);
 							for(Consumer<BlockPos> callback : callbacks) {
 								callback.accept(pos);
 							}
@@ -186,7 +200,7 @@ public abstract class WorldGenHelper extends WorldGenerator {
 					for (int xx = x + width - offsetZ - 1; xx > x + width - offsetZ - sizeDepth - 1; xx--) {
 						BlockPos pos = new BlockPos(xx, yy, zz);
 						if(pred == null || pred.test(pos)) {
-							this.setBlockAndNotifyAdequately(world, pos, blockState);
+							this.placeBlock(world, pos, blockState);
 							for(Consumer<BlockPos> callback : callbacks) {
 								callback.accept(pos);
 							}
@@ -750,12 +764,97 @@ public abstract class WorldGenHelper extends WorldGenerator {
 		}
 	}
 	
+	/**
+	 * Starts batching the block placements of this generator, see {@link StructureBuildBuffer}.
+	 * {@link #endBuildBuffer()} must be called once the structure has been generated
+	 * @param world
+	 */
+	protected void beginBuildBuffer(World world) {
+		this.buildBuffer.begin(world);
+	}
+
+	/**
+	 * Relights and syncs the blocks placed since {@link #beginBuildBuffer(World)} and stops batching
+	 */
+	protected void endBuildBuffer() {
+		//Discard templates that weren't finished because generation failed
+		this.templateBuilder = null;
+		this.template = null;
+
+		this.buildBuffer.end();
+	}
+
+	/**
+	 * Starts a deterministic part of the structure that only consists of {@link #rotatedCubeVolume(World, int, int, int, int, int, int, IBlockState, int, int, int, int, Consumer...)}
+	 * calls without predicates or callbacks and whose blocks only depend on the rotation. The part is compiled into a {@link StructureTemplate} the first time
+	 * and is then pasted from the {@link StructureTemplateCache}. Usage:
+	 * <pre>
+	 * if(this.beginTemplate("name", rotation, x, y, z)) {
+	 *     this.rotatedCubeVolume(...);
+	 * }
+	 * this.endTemplate(world);
+	 * </pre>
+	 * @param name Unique name of the structure part
+	 * @param rotation
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return True if the template needs to be compiled and thus the part must be run
+	 */
+	protected boolean beginTemplate(String name, int rotation, int x, int y, int z) {
+		this.templateName = name;
+		this.templateRotation = rotation;
+		this.templateX = x;
+		this.templateY = y;
+		this.templateZ = z;
+		this.template = StructureTemplateCache.get(name, rotation);
+		if(this.template == null) {
+			this.templateBuilder = new StructureTemplate.Builder(x, y, z);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Compiles the template started by {@link #beginTemplate(String, int, int, int, int)} if necessary and places its blocks
+	 * @param world
+	 */
+	protected void endTemplate(World world) {
+		StructureTemplate template = this.template;
+		if(this.templateBuilder != null) {
+			template = this.templateBuilder.build();
+			this.templateBuilder = null;
+			StructureTemplateCache.put(this.templateName, this.templateRotation, template);
+		}
+		this.template = null;
+		if(template != null) {
+			template.forEachBlock(this.templateX, this.templateY, this.templateZ, (pos, state) -> this.setBlockAndNotifyAdequately(world, pos, state));
+		}
+	}
+
+	private void placeBlock(World world, BlockPos pos, IBlockState state) {
+		if(this.templateBuilder != null) {
+			this.templateBuilder.add(pos, state);
+		} else {
+			this.setBlockAndNotifyAdequately(world, pos, state);
+		}
+	}
+
 	@Override
 	protected void setBlockAndNotifyAdequately(World worldIn, BlockPos pos, IBlockState state) {
-		if (this.doBlockNotify) {
-			worldIn.setBlockState(pos, state, 3 | 16);
-		} else {
-			worldIn.setBlockState(pos, state, 2 | 16);
+		int flags = this.doBlockNotify ? 3 | 16 : 2 | 16;
+		if (this.buildBuffer.setBlockState(worldIn, pos, state, flags)) {
+			return;
+		}
+		if (!PopulateContext.isInWindow(worldIn, pos)) {
+			StructureBuildBuffer spillBuffer = PopulateContext.getSpillBuffer(worldIn);
+			if (spillBuffer != null) {
+				//Defer writes that spill out of the populate window instead of generating the chunk.
+				//Neighbours aren't notified since that would require the chunk
+				spillBuffer.setBlockState(pos, state, flags & ~1);
+				return;
+			}
 		}
+		worldIn.setBlockState(pos, state, flags);
 	}
 }
@@ -34,7 +34,9 @@ import thebetweenlands.common.world.gen.feature.WorldGenHelper;
 import thebetweenlands.common.world.storage.BetweenlandsWorldStorage;
 import thebetweenlands.common.world.storage.SharedLootPoolStorage;
 import thebetweenlands.common.world.storage.location.LocationCragrockTower;
-import thebetweenlands.common.world.storage.location.guard.ILocationGuard;
+import thebetweenlands.common.world.storage.location.guard.BlockLocationGuard;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
 public class WorldGenCragrockTower extends WorldGenHelper {
 	private static IBlockState CRAGROCK;
@@ -59,10 +61,12 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 
 	private Random lootRng;
 	private SharedLootPoolStorage lootStorage;
-	private ILocationGuard guard;
+	private BlockLocationGuard guard;
 	private LocationCragrockTower towerLocation;
 	private BetweenlandsWorldStorage worldStorage;
 
+	private static final ProfilerSection PROFILER_SECTION = HotPathProfiler.section("structure.cragrock_tower");
+
 	private static final ThreadLocal<Boolean> CASCADING_GEN_MUTEX = new ThreadLocal<Boolean>() {
 		@Override
 		protected Boolean initialValue() {
@@ -93,7 +97,8 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 		
 		super.setBlockAndNotifyAdequately(worldIn, pos, state);
 		
-		TileEntity tile = worldIn.getTileEntity(pos);
+		//Only look up tile entities where one can exist so that the build buffer doesn't load chunks
+		TileEntity tile = state.getBlock().hasTileEntity(state) ? worldIn.getTileEntity(pos) : null;
 		
 		if(tile instanceof ISharedLootContainer) {
 			ResourceLocation lootTable = this.getLootTableForBlock(worldIn, pos, state);
@@ -125,6 +130,10 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 		
 		CASCADING_GEN_MUTEX.set(true);
 		
+		long startTime = HotPathProfiler.start();
+		
+		this.beginBuildBuffer(worldIn);
+		
 		try {
 			CRAGROCK = BlockRegistry.CRAGROCK.getDefaultState();
 			MOSSY_CRAGROCK_TOP = BlockRegistry.CRAGROCK.getDefaultState().withProperty(BlockCragrock.VARIANT, BlockCragrock.EnumCragrockType.MOSSY_1);
@@ -159,9 +168,17 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 			this.lootStorage = new SharedLootPoolStorage(this.worldStorage, new StorageUUID(UUID.randomUUID()), LocalRegion.getFromBlockPos(pos), rand.nextLong());
 			this.worldStorage.getLocalStorageHandler().addLocalStorage(this.lootStorage);
 			
-			return tower(worldIn, rand, pos.getX(), pos.getY(), pos.getZ());
+			//Guard changes are only applied once the whole tower has been placed
+			this.guard.beginBatch();
+			try {
+				return tower(worldIn, rand, pos.getX(), pos.getY(), pos.getZ());
+			} finally {
+				this.guard.endBatch();
+			}
 		} finally {
+			this.endBuildBuffer();
 			CASCADING_GEN_MUTEX.set(false);
+			PROFILER_SECTION.end(startTime);
 		}
 	}
 
@@ -269,97 +286,109 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 		rotatedCubeVolumeExtendedDown(world, x, y, z, 7, 0, 15, CRAGROCK, 1, 5, 1, direction);
 		rotatedCubeVolumeExtendedDown(world, x, y, z, 8, 0, 15, CRAGROCK, 1, 5, 1, direction);
 		rotatedCubeVolumeExtendedDown(world, x, y, z, 9, 0, 15, CRAGROCK, 1, 5, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 3, 5, CRAGROCK_BRICKS, 3, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 3, 6, CRAGROCK_BRICKS, 2, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 3, 6, CRAGROCK_BRICKS, 2, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 3, 7, CRAGROCK_BRICKS, 1, 2, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 3, 7, CRAGROCK_BRICKS, 1, 2, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 3, 9, CRAGROCK_BRICKS, 1, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 3, 9, CRAGROCK_BRICKS, 1, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 3, 10, CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 3, 10, CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 4, 10, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 4, 10, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 3, 11, CRAGROCK, 1, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 3, 11, CRAGROCK, 1, 2, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_0", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 7, 3, 5, CRAGROCK_BRICKS, 3, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 3, 6, CRAGROCK_BRICKS, 2, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 3, 6, CRAGROCK_BRICKS, 2, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 3, 7, CRAGROCK_BRICKS, 1, 2, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 3, 7, CRAGROCK_BRICKS, 1, 2, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 3, 9, CRAGROCK_BRICKS, 1, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 3, 9, CRAGROCK_BRICKS, 1, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 3, 10, CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 3, 10, CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 4, 10, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 4, 10, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 3, 11, CRAGROCK, 1, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 3, 11, CRAGROCK, 1, 2, 1, direction);
+		}
+		this.endTemplate(world);
 
 		//FLOOR
-		rotatedCubeVolume(world, x, y, z, 7, 0, 6, SMOOTH_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 0, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 0, 7, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 0, 7, SMOOTH_CRAGROCK, 1, 1, 8, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 0, 7, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 0, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 0, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 0, 8, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 0, 8, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 0, 8, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 0, 8, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 0, 8, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 0, 9, SMOOTH_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 0, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 0, 9, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 0, 9, SMOOTH_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 0, 9, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 0, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 0, 9, SMOOTH_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 0, 10, SMOOTH_CRAGROCK, 7, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 0, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 0, 11, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 0, 11, SMOOTH_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 0, 11, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 0, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 0, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 0, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 0, 12, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 0, 12, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 0, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 0, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 0, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 0, 13, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 0, 13, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 0, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 0, 14, SMOOTH_CRAGROCK, 3, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_1", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 7, 0, 6, SMOOTH_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 0, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 0, 7, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 0, 7, SMOOTH_CRAGROCK, 1, 1, 8, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 0, 7, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 0, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 0, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 0, 8, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 0, 8, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 0, 8, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 0, 8, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 0, 8, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 0, 9, SMOOTH_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 0, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 0, 9, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 0, 9, SMOOTH_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 0, 9, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 0, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 0, 9, SMOOTH_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 0, 10, SMOOTH_CRAGROCK, 7, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 0, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 0, 11, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 0, 11, SMOOTH_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 0, 11, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 0, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 0, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 0, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 0, 12, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 0, 12, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 0, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 0, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 0, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 0, 13, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 0, 13, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 0, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 0, 14, SMOOTH_CRAGROCK, 3, 1, 1, direction);
+		}
+		this.endTemplate(world);
 
 		//CEILING
-		rotatedCubeVolume(world, x, y, z, 7, 4, 6, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 4, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 4, 7, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 4, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 4, 7, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 4, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 4, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 4, 8, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 5, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 4, 8, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 5, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 4, 8, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 4, 9, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 4, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 4, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 4, 9, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 4, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 4, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 4, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 4, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 4, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 4, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 4, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 4, 13, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 4, 13, SMOOTH_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 4, 13, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 4, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 4, 14, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 4, 14, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_2", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 7, 4, 6, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 4, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 4, 7, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 4, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 4, 7, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 4, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 4, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 4, 8, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 5, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 4, 8, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 5, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 4, 8, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 4, 9, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 4, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 4, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 4, 9, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 4, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 4, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 4, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 4, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 4, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 4, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 4, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 4, 13, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 4, 13, SMOOTH_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 4, 13, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 4, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 4, 14, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 4, 14, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
 
 		//INTERIOR
-		rotatedCubeVolume(world, x, y, z, 8, 1, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 2, 10, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 3, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 4, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 1, 10, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 1, 11, SMOOTH_CRAGROCK, 1, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 3, 12, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 3, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 1, 14, SMOOTH_CRAGROCK, 1, 3, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_3", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 8, 1, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 2, 10, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 3, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 4, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 1, 10, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 1, 11, SMOOTH_CRAGROCK, 1, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 3, 12, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 3, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 1, 14, SMOOTH_CRAGROCK, 1, 3, 1, direction);
+		}
+		this.endTemplate(world);
 		rotatedSpawner(world, x, y, z, 8, 2, 13, direction, "thebetweenlands:termite").setMaxEntities(6).setDelayRange(120, 300).setSpawnInAir(false);
 		rotatedCubeVolume(world, x, y, z, 9, 1, 11, ROOT, 1, 2 + random.nextInt(2), 1, direction);
 		rotatedCubeVolume(world, x, y, z, 4, 1, 10, ROOT, 1, 2 + random.nextInt(2), 1, direction);
@@ -371,89 +400,98 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 
 		//FLOOR 1
 		//WALLS
-		rotatedCubeVolume(world, x, y, z, 7, 5, 5, CRAGROCK_BRICKS, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 5, 6, CRAGROCK_BRICKS, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 5, 6, CRAGROCK_BRICKS, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 5, 7, CRAGROCK_BRICKS, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 5, 7, CRAGROCK_BRICKS, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 5, 9, CRAGROCK_BRICKS, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 5, 9, CRAGROCK_BRICKS, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 5, 12, CRAGROCK_BRICKS, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 5, 12, CRAGROCK_BRICKS, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 5, 14, CRAGROCK_BRICKS, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 5, 14, CRAGROCK_BRICKS, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 5, 15, CRAGROCK_BRICKS, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 6, 5, CHISELED_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 6, 6, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 6, 6, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 6, 7, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 6, 7, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 6, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 6, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 6, 12, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 6, 12, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 6, 14, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 6, 14, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 6, 15, CHISELED_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 7, 5, CRAGROCK_BRICKS, 3, 6, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 7, 6, CRAGROCK_BRICKS, 2, 6, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 7, 6, CRAGROCK_BRICKS, 2, 6, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 7, 7, CRAGROCK_BRICKS, 1, 6, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 7, 7, CRAGROCK_BRICKS, 1, 6, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 7, 9, CRAGROCK_BRICKS, 1, 6, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 7, 9, CRAGROCK_BRICKS, 1, 6, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 7, 12, CRAGROCK_BRICKS, 1, 6, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 7, 12, CRAGROCK_BRICKS, 1, 6, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 7, 14, CRAGROCK_BRICKS, 2, 6, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 7, 14, CRAGROCK_BRICKS, 2, 6, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 7, 15, CRAGROCK_BRICKS, 3, 6, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_4", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 7, 5, 5, CRAGROCK_BRICKS, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 5, 6, CRAGROCK_BRICKS, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 5, 6, CRAGROCK_BRICKS, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 5, 7, CRAGROCK_BRICKS, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 5, 7, CRAGROCK_BRICKS, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 5, 9, CRAGROCK_BRICKS, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 5, 9, CRAGROCK_BRICKS, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 5, 12, CRAGROCK_BRICKS, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 5, 12, CRAGROCK_BRICKS, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 5, 14, CRAGROCK_BRICKS, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 5, 14, CRAGROCK_BRICKS, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 5, 15, CRAGROCK_BRICKS, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 6, 5, CHISELED_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 6, 6, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 6, 6, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 6, 7, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 6, 7, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 6, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 6, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 6, 12, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 6, 12, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 6, 14, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 6, 14, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 6, 15, CHISELED_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 7, 5, CRAGROCK_BRICKS, 3, 6, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 7, 6, CRAGROCK_BRICKS, 2, 6, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 7, 6, CRAGROCK_BRICKS, 2, 6, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 7, 7, CRAGROCK_BRICKS, 1, 6, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 7, 7, CRAGROCK_BRICKS, 1, 6, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 7, 9, CRAGROCK_BRICKS, 1, 6, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 7, 9, CRAGROCK_BRICKS, 1, 6, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 7, 12, CRAGROCK_BRICKS, 1, 6, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 7, 12, CRAGROCK_BRICKS, 1, 6, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 7, 14, CRAGROCK_BRICKS, 2, 6, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 7, 14, CRAGROCK_BRICKS, 2, 6, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 7, 15, CRAGROCK_BRICKS, 3, 6, 1, direction);
+		}
+		this.endTemplate(world);
 
 		//CEILING
-		rotatedCubeVolume(world, x, y, z, 7, 9, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 9, 7, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 9, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 9, 7, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 9, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 9, 7, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 9, 8, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 9, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 5, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 9, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 5, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 9, 8, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 9, 9, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 9, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 9, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 9, 9, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 9, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 9, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 9, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 9, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 9, 12, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 9, 12, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 9, 13, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 9, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 9, 13, CRAGROCK_BRICKS, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 9, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 9, 13, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 9, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 9, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_5", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 7, 9, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 9, 7, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 9, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 9, 7, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 9, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 9, 7, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 9, 8, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 9, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 5, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 9, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 5, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 9, 8, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 9, 9, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 9, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 9, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 9, 9, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 9, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 9, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 9, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 9, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 9, 12, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 9, 12, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 9, 13, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 9, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 9, 13, CRAGROCK_BRICKS, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 9, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 9, 13, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 9, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 9, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
 
 		//INTERIOR
-		rotatedCubeVolume(world, x, y, z, 8, 5, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 6, 9, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 7, 10, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 8, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 9, 12, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 5, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 6, 10, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 7, 11, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 8, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 8, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 7, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 5, 15, Blocks.AIR.getDefaultState(), 1, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 5, 7, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 5, 7, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 5, 13, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 5, 13, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_6", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 8, 5, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 6, 9, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 7, 10, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 8, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 9, 12, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 5, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 6, 10, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 7, 11, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 8, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 8, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 7, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 5, 15, Blocks.AIR.getDefaultState(), 1, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 5, 7, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 5, 7, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 5, 13, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 5, 13, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
+		}
+		this.endTemplate(world);
 		rotatedCubeVolume(world, x, y, z, 5, 5, 11, ROOT, 1, 2 + random.nextInt(2), 1, direction);
 		rotatedCubeVolume(world, x, y, z, 9, 5, 6, ROOT, 1, 2 + random.nextInt(2), 1, direction);
 		rotatedCubeVolume(world, x, y, z, 7, 5, 14, ROOT, 1, 2 + random.nextInt(2), 1, direction);
@@ -462,53 +500,56 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 
 		//FLOOR 2
 		//CEILING/WALLS
-		rotatedCubeVolume(world, x, y, z, 7, 12, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 12, 7, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 12, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 12, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 12, 7, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 12, 8, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 12, 8, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 12, 9, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 12, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 12, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 12, 9, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 12, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 12, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 12, 12, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 12, 12, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 12, 13, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 12, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 12, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 12, 13, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 12, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 12, 13, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 12, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 12, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 12, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 13, 13, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 13, 10, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 13, 7, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 13, 10, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 14, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 14, 10, SMOOTH_CRAGROCK, 7, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 14, 7, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 14, 8, SMOOTH_CRAGROCK, 5, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 14, 9, SMOOTH_CRAGROCK, 5, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 14, 11, SMOOTH_CRAGROCK, 4, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 14, 11, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 13, 6, CRAGROCK_BRICKS, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 13, 7, CRAGROCK_BRICKS, 2, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 13, 7, CRAGROCK_BRICKS, 2, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 13, 8, CRAGROCK_BRICKS, 1, 3, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 13, 8, CRAGROCK_BRICKS, 1, 3, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 13, 10, CRAGROCK_BRICKS, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 13, 10, CRAGROCK_BRICKS, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 13, 11, CRAGROCK_BRICKS, 1, 3, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 13, 11, CRAGROCK_BRICKS, 1, 3, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 13, 13, CRAGROCK_BRICKS, 2, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 13, 13, CRAGROCK_BRICKS, 2, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 13, 14, CRAGROCK_BRICKS, 1, 3, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_7", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 7, 12, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 12, 7, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 12, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 12, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 12, 7, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 12, 8, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 12, 8, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 12, 9, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 12, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 12, 9, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 12, 9, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 12, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 12, 11, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 12, 12, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 12, 12, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 12, 13, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 12, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 12, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 12, 13, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 12, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 12, 13, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 12, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 12, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 12, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 13, 13, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 13, 10, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 13, 7, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 13, 10, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 14, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 14, 10, SMOOTH_CRAGROCK, 7, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 14, 7, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 14, 8, SMOOTH_CRAGROCK, 5, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 14, 9, SMOOTH_CRAGROCK, 5, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 14, 11, SMOOTH_CRAGROCK, 4, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 14, 11, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 13, 6, CRAGROCK_BRICKS, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 13, 7, CRAGROCK_BRICKS, 2, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 13, 7, CRAGROCK_BRICKS, 2, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 13, 8, CRAGROCK_BRICKS, 1, 3, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 13, 8, CRAGROCK_BRICKS, 1, 3, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 13, 10, CRAGROCK_BRICKS, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 13, 10, CRAGROCK_BRICKS, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 13, 11, CRAGROCK_BRICKS, 1, 3, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 13, 11, CRAGROCK_BRICKS, 1, 3, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 13, 13, CRAGROCK_BRICKS, 2, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 13, 13, CRAGROCK_BRICKS, 2, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 13, 14, CRAGROCK_BRICKS, 1, 3, 1, direction);
+		}
+		this.endTemplate(world);
 
 		//BLOCKADE 1
 		blockades.clear();
@@ -516,26 +557,29 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 		levelBlockades[0] = blockades.toArray(new BlockPos[0]);
 
 		//INTERIOR
-		rotatedCubeVolume(world, x, y, z, 5, 10, 7, SMOOTH_BETWEENSTONE_WALL, 1, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 10, 7, SMOOTH_BETWEENSTONE_WALL, 1, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 10, 13, SMOOTH_BETWEENSTONE_WALL, 1, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 10, 13, SMOOTH_BETWEENSTONE_WALL, 1, 2, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 10, 8, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 10, 12, SMOOTH_BETWEENSTONE_WALL, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 10, 12, SMOOTH_BETWEENSTONE_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 10, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 10, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 10, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 11, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 11, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 11, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 12, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 12, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 12, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 13, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 13, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 13, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 14, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_8", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 5, 10, 7, SMOOTH_BETWEENSTONE_WALL, 1, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 10, 7, SMOOTH_BETWEENSTONE_WALL, 1, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 10, 13, SMOOTH_BETWEENSTONE_WALL, 1, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 10, 13, SMOOTH_BETWEENSTONE_WALL, 1, 2, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 10, 8, SMOOTH_BETWEENSTONE_WALL, 1, 4, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 10, 12, SMOOTH_BETWEENSTONE_WALL, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 10, 12, SMOOTH_BETWEENSTONE_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 10, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 10, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 10, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 11, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 11, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 11, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 12, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 12, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 12, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 13, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 13, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 13, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 14, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
 		rotatedCubeVolume(world, x, y, z, 7, 10, 9, ROOT, 1, 1 + random.nextInt(2), 1, direction);
 		rotatedCubeVolume(world, x, y, z, 4, 10, 11, ROOT, 1, 1 + random.nextInt(2), 1, direction);
 		rotatedCubeVolume(world, x, y, z, 9, 10, 13, ROOT, 1, 1 + random.nextInt(2), 1, direction);
@@ -548,83 +592,89 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 
 		//FLOOR 3
 		//WALLS
-		rotatedCubeVolume(world, x, y, z, 8, 16, 6, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 16, 7, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 16, 7, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 16, 8, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 16, 8, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 16, 10, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 16, 10, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 16, 11, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 16, 11, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 16, 13, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 16, 13, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 16, 14, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 17, 6, SMOOTH_CRAGROCK, 1, 7, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 17, 7, SMOOTH_CRAGROCK, 2, 7, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 17, 7, SMOOTH_CRAGROCK, 2, 7, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 17, 8, SMOOTH_CRAGROCK, 1, 7, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 17, 8, SMOOTH_CRAGROCK, 1, 7, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 17, 10, SMOOTH_CRAGROCK, 1, 7, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 17, 10, SMOOTH_CRAGROCK, 1, 7, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 17, 11, SMOOTH_CRAGROCK, 1, 7, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 17, 11, SMOOTH_CRAGROCK, 1, 7, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 17, 13, SMOOTH_CRAGROCK, 2, 7, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 17, 13, SMOOTH_CRAGROCK, 2, 7, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 17, 14, SMOOTH_CRAGROCK, 1, 7, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 15, 7, SMOOTH_CRAGROCK_WALL, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 15, 13, CRAGROCK_BRICK_WALL, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 15, 10, CRAGROCK_BRICK_WALL, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 17, 7, CRAGROCK_BRICK_WALL, 1, 6, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 15, 10, CRAGROCK_BRICK_WALL, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 16, 7, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 18, 10, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 20, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 22, 10, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 24, 6, CHISELED_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 24, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 24, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 24, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 24, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 24, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 24, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 24, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 24, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 24, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 24, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 24, 14, CHISELED_CRAGROCK, 3, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_9", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 8, 16, 6, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 16, 7, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 16, 7, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 16, 8, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 16, 8, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 16, 10, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 16, 10, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 16, 11, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 16, 11, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 16, 13, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 16, 13, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 16, 14, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 17, 6, SMOOTH_CRAGROCK, 1, 7, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 17, 7, SMOOTH_CRAGROCK, 2, 7, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 17, 7, SMOOTH_CRAGROCK, 2, 7, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 17, 8, SMOOTH_CRAGROCK, 1, 7, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 17, 8, SMOOTH_CRAGROCK, 1, 7, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 17, 10, SMOOTH_CRAGROCK, 1, 7, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 17, 10, SMOOTH_CRAGROCK, 1, 7, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 17, 11, SMOOTH_CRAGROCK, 1, 7, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 17, 11, SMOOTH_CRAGROCK, 1, 7, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 17, 13, SMOOTH_CRAGROCK, 2, 7, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 17, 13, SMOOTH_CRAGROCK, 2, 7, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 17, 14, SMOOTH_CRAGROCK, 1, 7, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 15, 7, SMOOTH_CRAGROCK_WALL, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 15, 13, CRAGROCK_BRICK_WALL, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 15, 10, CRAGROCK_BRICK_WALL, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 17, 7, CRAGROCK_BRICK_WALL, 1, 6, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 15, 10, CRAGROCK_BRICK_WALL, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 16, 7, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 18, 10, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 20, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 22, 10, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 24, 6, CHISELED_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 24, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 24, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 24, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 24, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 24, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 24, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 24, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 24, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 24, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 24, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 24, 14, CHISELED_CRAGROCK, 3, 1, 1, direction);
+		}
+		this.endTemplate(world);
 
 		//INTERIOR
 		rotatedCubeVolume(world, x, y, z, 8, 15, 10, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
 		rotatedCubeVolume(world, x, y, z, 8, 16, 10, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
 		rotatedSpawner(world, x, y, z, 8, 17, 10, direction, "thebetweenlands:chiromaw").setMaxEntities(4).setCheckRange(16.0D).setSpawnRange(3).setDelayRange(180, 500);
-		rotatedCubeVolume(world, x, y, z, 6, 15, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 15, 8, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 15, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 16, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 16, 8, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 16, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 17, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 17, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 17, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 18, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 18, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 18, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 19, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 19, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 19, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 20, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 20, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 20, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 21, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 21, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 21, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 22, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 22, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 22, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 23, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 22, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 4, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 22, 9, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 4, direction);
+		if(this.beginTemplate("cragrock_tower/part_10", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 6, 15, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 15, 8, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 15, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 16, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 16, 8, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 16, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 17, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 17, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 17, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 18, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 18, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 18, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 19, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 19, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 19, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 20, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 20, 12, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 20, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 21, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 21, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 21, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 22, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 22, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 22, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 23, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 22, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 4, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 22, 9, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 4, direction);
+		}
+		this.endTemplate(world);
 		rotatedLootPot(world, random, x, y, z, 10, 15, 8, direction, 2, 3, 3, null);
 		rotatedLootPot(world, random, x, y, z, 9, 15, 8, direction, 2, 3, 3, null);
 
@@ -642,109 +692,115 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 
 
 		//WALLS FLOOR 4/5/6
-		rotatedCubeVolume(world, x, y, z, 7, 25, 6, SMOOTH_CRAGROCK, 3, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 25, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 25, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 25, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 25, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 25, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 25, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 25, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 25, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 25, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 25, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 25, 14, SMOOTH_CRAGROCK, 3, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 33, 6, CHISELED_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 33, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 33, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 33, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 33, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 33, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 33, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 33, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 33, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 33, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 33, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 33, 14, CHISELED_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 34, 6, SMOOTH_CRAGROCK, 3, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 34, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 34, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 34, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 34, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 34, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 34, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 34, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 34, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 34, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 34, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 34, 14, SMOOTH_CRAGROCK, 3, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 42, 6, CHISELED_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 42, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 42, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 42, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 42, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 42, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 42, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 42, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 42, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 42, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 42, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 42, 14, CHISELED_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 43, 6, SMOOTH_CRAGROCK, 3, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 43, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 43, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 43, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 43, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 43, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 43, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 43, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 43, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 43, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 43, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 43, 14, SMOOTH_CRAGROCK, 3, 8, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_11", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 7, 25, 6, SMOOTH_CRAGROCK, 3, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 25, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 25, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 25, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 25, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 25, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 25, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 25, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 25, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 25, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 25, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 25, 14, SMOOTH_CRAGROCK, 3, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 33, 6, CHISELED_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 33, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 33, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 33, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 33, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 33, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 33, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 33, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 33, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 33, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 33, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 33, 14, CHISELED_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 34, 6, SMOOTH_CRAGROCK, 3, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 34, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 34, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 34, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 34, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 34, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 34, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 34, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 34, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 34, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 34, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 34, 14, SMOOTH_CRAGROCK, 3, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 42, 6, CHISELED_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 42, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 42, 7, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 42, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 42, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 42, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 42, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 42, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 42, 12, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 42, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 42, 13, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 42, 14, CHISELED_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 43, 6, SMOOTH_CRAGROCK, 3, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 43, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 43, 7, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 43, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 43, 8, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 43, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 43, 9, SMOOTH_CRAGROCK, 1, 8, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 43, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 43, 12, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 43, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 43, 13, SMOOTH_CRAGROCK, 1, 8, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 43, 14, SMOOTH_CRAGROCK, 3, 8, 1, direction);
+		}
+		this.endTemplate(world);
 
 		//FLOOR 4
 		//INTERIOR
 		rotatedCubeVolume(world, x, y, z, 8, 24, 10, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
 		rotatedCubeVolume(world, x, y, z, 8, 25, 10, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
 		rotatedSpawner(world, x, y, z, 8, 26, 10, direction, "thebetweenlands:swamp_hag").setMaxEntities(3).setCheckRange(16.0D).setDelayRange(180, 500).setSpawnInAir(false);
-		rotatedCubeVolume(world, x, y, z, 10, 24, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 24, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 24, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 25, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 25, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 25, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 26, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 26, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 26, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 27, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 27, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 27, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 28, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 28, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 28, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 29, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 29, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 29, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 30, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 30, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 30, 7, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 31, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 31, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 31, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 32, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 31, 9, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 31, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 31, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 31, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 31, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 31, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 31, 13, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 31, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 31, 13, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 31, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 31, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 31, 10, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_12", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 10, 24, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 24, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 24, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 25, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 25, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 25, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 26, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 26, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 26, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 27, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 27, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 27, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 28, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 28, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 28, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 29, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 29, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 29, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 30, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 30, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 30, 7, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 31, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 31, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 31, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 32, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 31, 9, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 31, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 31, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 31, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 31, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 31, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 31, 13, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 31, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 31, 13, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 31, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 31, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 31, 10, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
 		rotatedCubeVolume(world, x, y, z, 11, 30, 10, INACTIVE_GLOWING_SMOOTH_CRAGROCK, 1, 1, 1, direction, pos -> inactiveGlowingCragrockBlocks.add(pos));
 		rotatedCubeVolume(world, x, y, z, 11, 29, 10, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
 		rotatedLootPot(world, random, x, y, z, 8, 24, 13, direction, 2, 3, 4, null);
@@ -783,42 +839,45 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 		.setSpawnInAir(false)
 		.setNextEntity(new WeightedSpawnerEntity(nbt));
 
-		rotatedCubeVolume(world, x, y, z, 10, 33, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 33, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 33, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 34, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 34, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 34, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 35, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 35, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 35, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 36, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 36, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 36, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 37, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 37, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 37, 7, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 38, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 38, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 38, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 39, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 39, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 39, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 40, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 40, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 40, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 41, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 40, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 40, 13, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 40, 13, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 40, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 40, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 40, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 40, 10, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 40, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 40, 9, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 40, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 40, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_13", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 10, 33, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 33, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 33, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 34, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 34, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 34, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 35, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 35, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 35, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 36, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 36, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 36, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 37, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 37, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 37, 7, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 38, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 38, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 38, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 39, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 39, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 39, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 40, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 40, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 40, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 41, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 40, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 40, 13, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 40, 13, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 40, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 40, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 40, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 40, 10, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 40, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 40, 9, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 40, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 40, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
 		rotatedCubeVolume(world, x, y, z, 8, 39, 13, INACTIVE_GLOWING_SMOOTH_CRAGROCK, 1, 1, 1, direction, pos -> inactiveGlowingCragrockBlocks.add(pos));
 		rotatedCubeVolume(world, x, y, z, 8, 38, 13, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
 		rotatedLootPot(world, random, x, y, z, 7, 33, 12, direction, 2, 5, 3, null);
@@ -843,43 +902,46 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 		rotatedCubeVolume(world, x, y, z, 8, 42, 10, CRAGROCK_BRICK_WALL, 1, 1, 1, direction);
 		rotatedCubeVolume(world, x, y, z, 8, 43, 10, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
 		rotatedSpawner(world, x, y, z, 8, 44, 10, direction, "thebetweenlands:wight").setMaxEntities(2).setCheckRange(24.0D).setDelayRange(300, 600).setSpawnInAir(false);
-		rotatedCubeVolume(world, x, y, z, 6, 42, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 42, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 42, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 43, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 43, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 43, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 44, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 44, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 44, 7, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 45, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 45, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 45, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 46, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 46, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 46, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 47, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 47, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 47, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 48, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 48, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 48, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 49, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 49, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 49, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 50, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 49, 11, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 49, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 49, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 49, 9, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 49, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 49, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 49, 7, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 49, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 49, 7, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 49, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 49, 8, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 49, 10, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_14", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 6, 42, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 42, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 42, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 43, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 43, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 43, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 44, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 44, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 44, 7, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 45, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 45, 7, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 45, 8, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 46, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 46, 9, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 46, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 47, 10, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 47, 11, SMOOTH_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 47, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 48, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 48, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 48, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 49, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 49, 12, SMOOTH_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 49, 12, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 50, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 49, 11, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 49, 11, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 49, 9, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 49, 9, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 49, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 49, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 49, 7, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 49, 7, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 49, 7, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 49, 8, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 49, 8, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 49, 10, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
 		rotatedCubeVolume(world, x, y, z, 5, 48, 10, INACTIVE_GLOWING_SMOOTH_CRAGROCK, 1, 1, 1, direction, pos -> inactiveGlowingCragrockBlocks.add(pos));
 		rotatedCubeVolume(world, x, y, z, 5, 47, 10, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
 		rotatedLootPot(world, random, x, y, z, 8, 42, 7, direction, 3, 7, 4, null);
@@ -900,100 +962,103 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 		levelBlockades[4] = blockades.toArray(new BlockPos[0]);
 
 		//TOP FLOOR
-		rotatedCubeVolume(world, x, y, z, 7, 51, 6, SMOOTH_CRAGROCK_SLAB, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 51, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 51, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 51, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 51, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 51, 9, SMOOTH_CRAGROCK_SLAB, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 51, 9, SMOOTH_CRAGROCK_SLAB, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 51, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 51, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 51, 13, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 51, 13, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 51, 14, SMOOTH_CRAGROCK_SLAB, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 51, 5, CHISELED_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 51, 6, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 51, 6, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 51, 7, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 51, 7, CHISELED_CRAGROCK, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 51, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 51, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 51, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 51, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 51, 12, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 51, 12, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 51, 13, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 51, 13, CHISELED_CRAGROCK, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 51, 14, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 51, 14, CHISELED_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 51, 15, CHISELED_CRAGROCK, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 51, 4, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 51, 5, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 51, 5, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 51, 6, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 51, 6, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 51, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 51, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 51, 9, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 51, 9, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 51, 12, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 51, 12, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 3, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 51, 14, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 51, 14, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 51, 15, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 51, 15, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 51, 16, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 52, 4, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 52, 4, CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 52, 4, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 52, 5, MOSSY_CRAGROCK_TOP, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 52, 5, MOSSY_CRAGROCK_TOP, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 52, 6, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 52, 6, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 52, 7, MOSSY_CRAGROCK_TOP, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 52, 7, MOSSY_CRAGROCK_TOP, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 52, 9, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 52, 10, CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 52, 11, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 52, 9, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 52, 10, CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 52, 11, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 52, 12, MOSSY_CRAGROCK_TOP, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 52, 14, CRAGROCK_PILLAR, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 52, 12, MOSSY_CRAGROCK_TOP, 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 52, 14, CRAGROCK_PILLAR, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 52, 14, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 52, 14, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 52, 15, MOSSY_CRAGROCK_TOP, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 52, 15, MOSSY_CRAGROCK_TOP, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 52, 16, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 52, 16, CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 52, 16, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 53, 4, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 53, 4, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 53, 4, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 53, 6, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 53, 6, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 53, 9, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 53, 10, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 53, 11, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 53, 9, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 53, 10, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 53, 11, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 53, 14, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 53, 14, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 53, 16, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 53, 16, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 53, 16, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 54, 4, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 54, 10, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 54, 10, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 54, 16, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 53, 14, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 53, 14, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 54, 14, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 54, 14, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_15", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 7, 51, 6, SMOOTH_CRAGROCK_SLAB, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 51, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 51, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 51, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 51, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 51, 9, SMOOTH_CRAGROCK_SLAB, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 51, 9, SMOOTH_CRAGROCK_SLAB, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 51, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 51, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 51, 13, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 51, 13, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 51, 14, SMOOTH_CRAGROCK_SLAB, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 51, 5, CHISELED_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 51, 6, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 51, 6, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 51, 7, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 51, 7, CHISELED_CRAGROCK, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 51, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 51, 8, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 51, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 51, 9, CHISELED_CRAGROCK, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 51, 12, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 51, 12, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 51, 13, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 51, 13, CHISELED_CRAGROCK, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 51, 14, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 51, 14, CHISELED_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 51, 15, CHISELED_CRAGROCK, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 51, 4, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 51, 5, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 51, 5, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 51, 6, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 51, 6, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 51, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 51, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 51, 9, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 51, 9, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 51, 12, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 51, 12, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 3, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 51, 14, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 51, 14, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 51, 15, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 51, 15, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 51, 16, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 52, 4, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 52, 4, CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 52, 4, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 52, 5, MOSSY_CRAGROCK_TOP, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 52, 5, MOSSY_CRAGROCK_TOP, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 52, 6, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 52, 6, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 52, 7, MOSSY_CRAGROCK_TOP, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 52, 7, MOSSY_CRAGROCK_TOP, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 52, 9, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 52, 10, CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 52, 11, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 52, 9, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 52, 10, CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 52, 11, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 52, 12, MOSSY_CRAGROCK_TOP, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 52, 14, CRAGROCK_PILLAR, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 52, 12, MOSSY_CRAGROCK_TOP, 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 52, 14, CRAGROCK_PILLAR, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 52, 14, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 52, 14, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 52, 15, MOSSY_CRAGROCK_TOP, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 52, 15, MOSSY_CRAGROCK_TOP, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 52, 16, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 52, 16, CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 52, 16, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 53, 4, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 53, 4, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 53, 4, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 53, 6, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 53, 6, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 53, 9, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 53, 10, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 53, 11, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 53, 9, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 53, 10, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 53, 11, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 53, 14, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 53, 14, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 53, 16, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 53, 16, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 53, 16, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 54, 4, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 54, 10, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 54, 10, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 54, 16, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 53, 14, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 53, 14, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 54, 14, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 54, 14, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
 		rotatedCubeVolume(world, x, y, z, 3, 55, 14, AIR, 1, 1, 1, direction, pos -> inactiveWisps.add(pos));
 		rotatedCubeVolume(world, x, y, z, 13, 55, 14, AIR, 1, 1, 1, direction, pos -> inactiveWisps.add(pos));
 		rotatedCubeVolume(world, x, y, z, 3, 52, 11, CRAGROCK_PILLAR, 1, 3, 1, direction);
@@ -1236,264 +1301,273 @@ public class WorldGenCragrockTower extends WorldGenHelper {
 
 		stairsAABB = stairsAABB.grow(4, 0, 4);
 
-		rotatedCubeVolume(world, x, y, z, 1, 0, 8, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 1, 0, 9, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 1, 0, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 1, 1, 10, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 1, 1, 11, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 1, 1, 12, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 1, 2, 12, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 2, 13, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 2, 14, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 3, 14, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 2, 15, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 3, 15, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 3, 16, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 3, 16, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 4, 16, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 4, 17, CRAGROCK_BRICKS, 5, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 15, 0, 8, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 15, 0, 9, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 15, 0, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 15, 1, 10, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 15, 1, 11, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 15, 1, 12, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 15, 2, 12, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 2, 13, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 2, 14, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 3, 14, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 2, 15, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 3, 15, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 3, 16, CRAGROCK_BRICKS, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 3, 16, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 4, 16, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-
-		rotatedCubeVolume(world, x, y, z, 2, 0, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 0, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 0, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 1, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 1, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 1, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 2, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 1, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 2, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 2, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 2, 14, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 3, 14, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 3, 15, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 3, 15, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 4, 15, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 4, 15, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 4, 16, SMOOTH_CRAGROCK, 5, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 4, 15, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 0, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 0, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 0, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 1, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 1, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 1, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 2, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 1, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 2, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 2, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 2, 14, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 3, 14, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 3, 15, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 3, 15, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 4, 15, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-
-		rotatedCubeVolume(world, x, y, z, 7, 13, 5, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 3, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 13, 6, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 13, 6, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 13, 6, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 13, 6, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 13, 6, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 13, 7, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 13, 6, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 13, 7, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 13, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 13, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 13, 8, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 13, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 13, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 13, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 13, 10, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 13, 10, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 2, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 13, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 13, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 13, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 13, 13, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 13, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 13, 13, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 13, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 13, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 13, 14, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 13, 14, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 13, 14, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 13, 14, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 13, 15, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 13, 15, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 13, 15, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 23, 6, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 23, 6, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 7, 23, 14, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 9, 23, 14, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 23, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 23, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 23, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 23, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 14, 7, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 14, 7, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 14, 13, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 14, 13, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 15, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 15, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 15, 13, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 15, 13, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 7, 4, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 8, 4, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 9, 4, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 10, 4, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 13, 4, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 14, 4, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 15, 4, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 14, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 15, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 7, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 8, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 9, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 10, 5, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 13, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 14, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 15, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 14, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 15, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 7, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 8, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 9, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 10, 5, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 13, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 14, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 15, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 14, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 15, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 7, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 8, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 9, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 10, 7, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 13, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 14, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 15, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 14, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 15, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 7, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 8, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 9, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 10, 10, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 13, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 14, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 14, 15, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 14, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 15, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 7, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 8, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 9, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 10, 13, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 13, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 14, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 15, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 14, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 15, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 7, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 8, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 9, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 10, 7, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 13, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 14, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 15, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 14, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 15, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 7, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 8, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 9, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 10, 10, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 13, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 14, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 2, 15, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 14, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 15, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 7, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 8, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 9, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 10, 13, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 13, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 14, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 15, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 14, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 15, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 7, 16, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 8, 16, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 9, 16, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 10, 16, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 13, 16, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 14, 16, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 15, 16, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 14, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 15, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 7, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 8, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 9, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 10, 15, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 13, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 14, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 15, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 14, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 11, 15, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 7, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 8, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 9, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 10, 15, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 13, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 14, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 15, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 14, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 5, 15, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 48, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 49, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 50, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 48, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 49, 8, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 50, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 48, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 49, 8, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 50, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 48, 6, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 49, 6, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 50, 6, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 48, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 49, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 3, 50, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 48, 14, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 49, 14, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 6, 50, 14, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 48, 6, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 49, 6, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 50, 6, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 48, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 49, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 13, 50, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 48, 14, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 49, 14, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 10, 50, 14, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 48, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 49, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 8, 50, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 48, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 49, 12, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 4, 50, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 48, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 49, 12, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
-		rotatedCubeVolume(world, x, y, z, 12, 50, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+		if(this.beginTemplate("cragrock_tower/part_16", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 1, 0, 8, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 1, 0, 9, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 1, 0, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 1, 1, 10, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 1, 1, 11, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 1, 1, 12, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 1, 2, 12, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 2, 13, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 2, 14, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 3, 14, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 2, 15, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 3, 15, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 3, 16, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 3, 16, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 4, 16, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 4, 17, CRAGROCK_BRICKS, 5, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 15, 0, 8, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 15, 0, 9, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 15, 0, 10, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 15, 1, 10, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 15, 1, 11, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 15, 1, 12, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 15, 2, 12, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 2, 13, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 2, 14, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 3, 14, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 2, 15, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 3, 15, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 3, 16, CRAGROCK_BRICKS, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 3, 16, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 4, 16, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
+
+		if(this.beginTemplate("cragrock_tower/part_17", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 2, 0, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 0, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 0, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 1, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 1, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 1, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 2, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 1, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 2, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 2, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 2, 14, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 3, 14, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 3, 15, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 3, 15, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 4, 15, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 4, 15, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 4, 16, SMOOTH_CRAGROCK, 5, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 4, 15, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 0, 8, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 0, 9, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 0, 10, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 1, 10, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 1, 11, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 1, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 2, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 1, 12, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 2, 12, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 2, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 2, 14, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 3, 14, SMOOTH_CRAGROCK_SLAB, 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 3, 15, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 3, 15, SMOOTH_CRAGROCK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 4, 15, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
+
+		if(this.beginTemplate("cragrock_tower/part_18", direction, x, y, z)) {
+			rotatedCubeVolume(world, x, y, z, 7, 13, 5, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 3, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 13, 6, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 13, 6, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 13, 6, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 13, 6, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 13, 6, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 13, 7, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 13, 6, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 13, 7, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 13, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 13, 7, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 13, 8, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 13, 8, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 13, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 13, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 13, 10, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 13, 10, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 2, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 13, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 13, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 13, 12, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 13, 13, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 13, 12, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 13, 13, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 13, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 13, 13, SMOOTH_CRAGROCK, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 13, 14, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 13, 14, SMOOTH_CRAGROCK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 13, 14, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 13, 14, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 2, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 13, 15, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 13, 15, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 13, 15, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 23, 6, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 23, 6, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 7, 23, 14, getStateFromRotation(0, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 9, 23, 14, getStateFromRotation(2, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 23, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 23, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 23, 9, getStateFromRotation(3, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 23, 11, getStateFromRotation(1, direction, SMOOTH_CRAGROCK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 14, 7, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 14, 7, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 14, 13, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 14, 13, CRAGROCK_BRICK_SLAB, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 15, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 15, 7, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 15, 13, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 15, 13, CRAGROCK_BRICK_SLAB_UPSIDEDOWN, 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 7, 4, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 8, 4, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 9, 4, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 10, 4, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 13, 4, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 14, 4, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 15, 4, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 14, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 15, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 7, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 8, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 9, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 10, 5, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 13, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 14, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 15, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 14, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 15, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 7, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 8, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 9, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 10, 5, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 13, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 14, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 15, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 14, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 15, 6, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 7, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 8, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 9, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 10, 7, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 13, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 14, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 15, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 14, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 15, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 7, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 8, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 9, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 10, 10, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 13, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 14, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 14, 15, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 14, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 15, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 7, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 8, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 9, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 10, 13, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 13, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 14, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 15, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 14, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 15, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 7, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 8, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 9, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 10, 7, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 13, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 14, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 15, 7, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 14, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 15, 7, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 7, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 8, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 9, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 10, 10, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 13, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 14, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 2, 15, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 14, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 15, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 7, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 8, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 9, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 10, 13, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 13, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 14, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 15, 13, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 14, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 15, 13, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 7, 16, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 8, 16, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 9, 16, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 10, 16, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 13, 16, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 14, 16, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 15, 16, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 14, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 15, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 7, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 8, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 9, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 10, 15, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 13, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 14, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 15, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 14, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 11, 15, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 7, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 8, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 9, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 10, 15, SMOOTH_CRAGROCK_WALL, 1, 3, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 13, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 14, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 15, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 14, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 5, 15, 14, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 48, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 49, 5, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 50, 5, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 48, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 49, 8, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 50, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 48, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 49, 8, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 50, 8, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 48, 6, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 49, 6, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 50, 6, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 48, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 49, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 3, 50, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 48, 14, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 49, 14, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 6, 50, 14, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 48, 6, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 49, 6, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 50, 6, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 48, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 49, 10, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 13, 50, 10, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 48, 14, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 49, 14, getStateFromRotation(0, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 10, 50, 14, getStateFromRotation(2, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 48, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 49, 15, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 8, 50, 15, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 48, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 49, 12, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 4, 50, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 48, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 49, 12, getStateFromRotation(3, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+			rotatedCubeVolume(world, x, y, z, 12, 50, 12, getStateFromRotation(1, direction, CRAGROCK_BRICK_STAIRS, EnumRotationSequence.UPSIDE_DOWN_STAIR), 1, 1, 1, direction);
+		}
+		this.endTemplate(world);
 		rotatedCubeVolumeExtendedDown(world, x, y, z, 7, 0, 4, CRAGROCK, 1, 1, 1, direction);
 		rotatedCubeVolume(world, x, y, z, 7, 1, 4, MOSSY_CRAGROCK_BOTTOM, 1, 1, 1, direction);
 		rotatedCubeVolume(world, x, y, z, 7, 2, 4, MOSSY_CRAGROCK_TOP, 1, 1, 1, direction);
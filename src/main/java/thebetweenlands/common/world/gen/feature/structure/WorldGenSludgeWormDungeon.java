@@ -46,6 +46,7 @@ import thebetweenlands.common.tile.TileEntityItemShelf;
 import thebetweenlands.common.tile.TileEntityLootInventory;
 import thebetweenlands.common.tile.TileEntityMudBrickAlcove;
 import thebetweenlands.common.world.biome.BiomeSludgePlainsClearing;
+import thebetweenlands.common.world.gen.feature.StructureBuildBufferHolder;
 import thebetweenlands.common.world.gen.feature.structure.utils.MazeGenerator;
 import thebetweenlands.common.world.gen.feature.structure.utils.PerfectMazeGenerator;
 import thebetweenlands.common.world.gen.feature.structure.utils.SludgeWormMazeBlockHelper;
@@ -56,7 +57,9 @@ import thebetweenlands.common.world.storage.location.LocationAmbience;
 import thebetweenlands.common.world.storage.location.LocationAmbience.EnumLocationAmbience;
 import thebetweenlands.common.world.storage.location.LocationSludgeWormDungeon;
 import thebetweenlands.common.world.storage.location.LocationStorage;
-import thebetweenlands.util.TimeMeasurement;
+import thebetweenlands.common.world.storage.location.guard.BlockLocationGuard;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
 public class WorldGenSludgeWormDungeon extends WorldGenerator {
 	private SludgeWormMazeBlockHelper blockHelper;
@@ -70,6 +73,12 @@ public class WorldGenSludgeWormDungeon extends WorldGenerator {
 	private LocationStorage locationCrypt;
 	private Random lootRng;
 
+	private final boolean doBlockNotify;
+
+	private final StructureBuildBufferHolder buildBuffer = new StructureBuildBufferHolder();
+
+	private static final ProfilerSection PROFILER_SECTION = HotPathProfiler.section("structure.sludge_worm_dungeon");
+
 	private static final ThreadLocal<Boolean> CASCADING_GEN_MUTEX = new ThreadLocal<Boolean>() {
 		@Override
 		protected Boolean initialValue() {
@@ -78,7 +87,12 @@ public class WorldGenSludgeWormDungeon extends WorldGenerator {
 	};
 	
 	public WorldGenSludgeWormDungeon() {
-		super(false);
+		this(false);
+	}
+
+	public WorldGenSludgeWormDungeon(boolean notify) {
+		super(notify);
+		this.doBlockNotify = notify;
 		this.blockHelper = new SludgeWormMazeBlockHelper(this);
 		this.microBuild = new SludgeWormMazeMicroBuilds(this);
 		this.lightTowerBuild = new LightTowerBuildParts(this);
@@ -93,6 +107,8 @@ public class WorldGenSludgeWormDungeon extends WorldGenerator {
 		
 		CASCADING_GEN_MUTEX.set(true);
 		
+		long startTime = HotPathProfiler.start();
+		
 		try {
 			//If in sludge plains clearinig use biome base height as gen Y pos
 			Biome biome = world.getBiome(pos);
@@ -109,38 +125,28 @@ public class WorldGenSludgeWormDungeon extends WorldGenerator {
 			this.lootRng = new Random(rand.nextLong());
 	
 			//conditions blah, blah...
-			//TimeMeasurement.start("Full_Mudgeon");
+			this.buildBuffer.begin(world);
 	
 			//Locations must be generated first such that location guard can be used
-			//TimeMeasurement.start("World_Locations");
 			this.generateLocations(world, rand, pos);
-			//TimeMeasurement.finish("World_Locations");
 	
-			//TimeMeasurement.start("Maze");
 			makeMaze(world, rand, pos);
-			//TimeMeasurement.finish("Maze");
 	
-			//TimeMeasurement.start("Tower");
 			generateTower(world, rand, pos.down().add(12, 0, 12));
-			//TimeMeasurement.finish("Tower");
 	
-			//TimeMeasurement.start("Crypt");
 			generateCryptCrawlerDungeon(world, rand, pos.down(25).add(-3, 0, -3));
-			//TimeMeasurement.finish("Crypt");
 	
-			//TimeMeasurement.start("Pit");
 			generateDecayPit(world, rand, pos.down(44).add(14, 0, 14));
-			//TimeMeasurement.finish("Pit");
 	
 			generateDecayPitEntrance(world, rand, pos.down(59).add(-3, 0, -3));
 			
 			protectTowerInside(world, rand, pos.down().add(12, 0, 12));
-			
-			//TimeMeasurement.finish("Full_Mudgeon");
 
 			return true;
 		} finally {
+			this.buildBuffer.end();
 			CASCADING_GEN_MUTEX.set(false);
+			PROFILER_SECTION.end(startTime);
 		}
 	}
 
@@ -267,16 +273,20 @@ public class WorldGenSludgeWormDungeon extends WorldGenerator {
 		int height = 16;
 		int radius = 9;
 
-		for (int yy = y; y + height >= yy; yy++) {
+		BlockLocationGuard guard = this.location.getGuard();
+		guard.beginBatch();
+		try {
 			for (int i = radius * -1; i <= radius; ++i) {
 				for (int j = radius * -1; j <= radius; ++j) {
 					double dSq = i * i + j * j;
 
 					if (Math.round(Math.sqrt(dSq)) <= radius) {
-						this.location.getGuard().setGuarded(world, new BlockPos(x + i, yy, z + j), true);
+						guard.setGuarded(world, new BlockPos(x + i, y, z + j), new BlockPos(x + i, y + height, z + j), true);
 					}
 				}
 			}
+		} finally {
+			guard.endBatch();
 		}
 	}
 	
@@ -1324,9 +1334,12 @@ public class WorldGenSludgeWormDungeon extends WorldGenerator {
 			this.location.getGuard().setGuarded(worldIn, pos, false);
 		}
 
-		super.setBlockAndNotifyAdequately(worldIn, pos, state);
+		if(!this.buildBuffer.setBlockState(worldIn, pos, state, this.doBlockNotify ? 3 : 2)) {
+			super.setBlockAndNotifyAdequately(worldIn, pos, state);
+		}
 		
-		TileEntity tile = worldIn.getTileEntity(pos);
+		//Only look up tile entities where one can exist so that the build buffer doesn't load chunks
+		TileEntity tile = state.getBlock().hasTileEntity(state) ? worldIn.getTileEntity(pos) : null;
 		
 		if(tile instanceof ISharedLootContainer) {
 			ResourceLocation lootTable = this.getLootTableForBlock(worldIn, pos, state);
@@ -46,6 +46,7 @@ import thebetweenlands.common.registries.LootTableRegistry;
 import thebetweenlands.common.tile.TileEntityItemCage;
 import thebetweenlands.common.tile.TileEntityLootPot;
 import thebetweenlands.common.tile.TileEntityWeedwoodSign;
+import thebetweenlands.common.world.gen.feature.StructureBuildBufferHolder;
 import thebetweenlands.common.world.storage.BetweenlandsWorldStorage;
 import thebetweenlands.common.world.storage.SharedLootPoolStorage;
 import thebetweenlands.common.world.storage.location.EnumLocationType;
@@ -53,7 +54,9 @@ import thebetweenlands.common.world.storage.location.LocationAmbience;
 import thebetweenlands.common.world.storage.location.LocationAmbience.EnumLocationAmbience;
 import thebetweenlands.common.world.storage.location.LocationGuarded;
 import thebetweenlands.common.world.storage.location.LocationStorage;
-import thebetweenlands.common.world.storage.location.guard.ILocationGuard;
+import thebetweenlands.common.world.storage.location.guard.BlockLocationGuard;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
 public class WorldGenWightFortress extends WorldGenerator {
 
@@ -108,10 +111,16 @@ public class WorldGenWightFortress extends WorldGenerator {
 	private IBlockState mushroomflatHead = BlockRegistry.FLAT_HEAD_MUSHROOM.getDefaultState();
 	private IBlockState energyBarrier = BlockRegistry.ENERGY_BARRIER.getDefaultState();
 
-	private ILocationGuard guard;
+	private BlockLocationGuard guard;
 	private Random lootRng;
 	private SharedLootPoolStorage lootStorage;
 
+	private final boolean doBlockNotify;
+
+	private final StructureBuildBufferHolder buildBuffer = new StructureBuildBufferHolder();
+
+	private static final ProfilerSection PROFILER_SECTION = HotPathProfiler.section("structure.wight_fortress");
+
 	private static final ThreadLocal<Boolean> CASCADING_GEN_MUTEX = new ThreadLocal<Boolean>() {
 		@Override
 		protected Boolean initialValue() {
@@ -120,6 +129,12 @@ public class WorldGenWightFortress extends WorldGenerator {
 	};
 	
 	public WorldGenWightFortress() {
+		this(false);
+	}
+
+	public WorldGenWightFortress(boolean notify) {
+		super(notify);
+		this.doBlockNotify = notify;
 		//these sizes are subject to change
 		length = 13;
 		width = 13;
@@ -146,9 +161,12 @@ public class WorldGenWightFortress extends WorldGenerator {
 			this.guard.setGuarded(worldIn, pos, false);
 		}
 		
-		super.setBlockAndNotifyAdequately(worldIn, pos, state);
+		if(!this.buildBuffer.setBlockState(worldIn, pos, state, this.doBlockNotify ? 3 : 2)) {
+			super.setBlockAndNotifyAdequately(worldIn, pos, state);
+		}
 		
-		TileEntity tile = worldIn.getTileEntity(pos);
+		//Only look up tile entities where one can exist so that the build buffer doesn't load chunks
+		TileEntity tile = state.getBlock().hasTileEntity(state) ? worldIn.getTileEntity(pos) : null;
 		
 		if(tile instanceof ISharedLootContainer) {
 			ResourceLocation lootTable = this.getLootTableForBlock(worldIn, pos, state);
@@ -220,6 +238,8 @@ public class WorldGenWightFortress extends WorldGenerator {
 		
 		CASCADING_GEN_MUTEX.set(true);
 		
+		long startTime = HotPathProfiler.start();
+		
 		try {
 			if(!this.canGenerateAt(world, rand, pos)) {
 				return false;
@@ -264,7 +284,18 @@ public class WorldGenWightFortress extends WorldGenerator {
 			bossLocation.setDirty(true);
 			bossLocation.setSeed(locationSeed);
 	
-			if(generateStructure(world, rand, pos)) {
+			//Guard changes are only applied once the whole fortress has been placed
+			boolean generated;
+			this.guard.beginBatch();
+			this.buildBuffer.begin(world);
+			try {
+				generated = generateStructure(world, rand, pos);
+			} finally {
+				this.buildBuffer.end();
+				this.guard.endBatch();
+			}
+
+			if(generated) {
 				worldStorage.getLocalStorageHandler().addLocalStorage(fortressLocation);
 				worldStorage.getLocalStorageHandler().addLocalStorage(puzzleLocation);
 				worldStorage.getLocalStorageHandler().addLocalStorage(teleporterLocation);
@@ -275,6 +306,7 @@ public class WorldGenWightFortress extends WorldGenerator {
 			return false;
 		} finally {
 			CASCADING_GEN_MUTEX.set(false);
+			PROFILER_SECTION.end(startTime);
 		}
 	}
 
@@ -1,57 +1,78 @@
 package thebetweenlands.common.world.gen.layer;
 
-import java.util.List;
-
-import com.google.common.collect.Lists;
+import java.util.Arrays;
 
+/**
+ * Int buffer allocator for the layer stack. Each thread gets its own arena, so no locking is required.
+ * Buffers handed out by {@link #getIntCache(int)} stay valid until the next {@link #resetIntCache()}
+ * of the same thread, after which they are reused without being reallocated.
+ */
 public class InstancedIntCache {
-	private int intCacheSize = 256;
-	private final List<int[]> freeSmallArrays = Lists.<int[]>newArrayList();
-	private final List<int[]> inUseSmallArrays = Lists.<int[]>newArrayList();
-	private final List<int[]> freeLargeArrays = Lists.<int[]>newArrayList();
-	private final List<int[]> inUseLargeArrays = Lists.<int[]>newArrayList();
-
-	public synchronized int[] getIntCache(int size) {
-		if (size <= 256) {
-			if (freeSmallArrays.isEmpty()) {
-				int[] aint4 = new int[256];
-				inUseSmallArrays.add(aint4);
-				return aint4;
-			} else {
-				int[] aint3 = freeSmallArrays.remove(freeSmallArrays.size() - 1);
-				inUseSmallArrays.add(aint3);
-				return aint3;
+	private static final int SMALL_ARRAY_SIZE = 256;
+
+	private static class Arena {
+		private int[][] smallArrays = new int[16][];
+		private int usedSmallArrays;
+
+		private int largeArraySize = SMALL_ARRAY_SIZE;
+		private int[][] largeArrays = new int[16][];
+		private int usedLargeArrays;
+
+		private int[] nextSmallArray() {
+			if(this.usedSmallArrays == this.smallArrays.length) {
+				this.smallArrays = Arrays.copyOf(this.smallArrays, this.smallArrays.length * 2);
 			}
-		} else if (size > intCacheSize) {
-			intCacheSize = size;
-			freeLargeArrays.clear();
-			inUseLargeArrays.clear();
-			int[] aint2 = new int[intCacheSize];
-			inUseLargeArrays.add(aint2);
-			return aint2;
-		} else if (freeLargeArrays.isEmpty()) {
-			int[] aint1 = new int[intCacheSize];
-			inUseLargeArrays.add(aint1);
-			return aint1;
-		} else {
-			int[] aint = freeLargeArrays.remove(freeLargeArrays.size() - 1);
-			inUseLargeArrays.add(aint);
-			return aint;
+			int[] array = this.smallArrays[this.usedSmallArrays];
+			if(array == null) {
+				this.smallArrays[this.usedSmallArrays] = array = new int[SMALL_ARRAY_SIZE];
+			}
+			this.usedSmallArrays++;
+			return array;
+		}
+
+		private int[] nextLargeArray(int size) {
+			if(size > this.largeArraySize) {
+				//Buffers that are still in use remain referenced by their callers, all others are reallocated lazily with the new size
+				this.largeArraySize = size;
+				Arrays.fill(this.largeArrays, null);
+			}
+			if(this.usedLargeArrays == this.largeArrays.length) {
+				this.largeArrays = Arrays.copyOf(this.largeArrays, this.largeArrays.length * 2);
+			}
+			int[] array = this.largeArrays[this.usedLargeArrays];
+			if(array == null) {
+				this.largeArrays[this.usedLargeArrays] = array = new int[this.largeArraySize];
+			}
+			this.usedLargeArrays++;
+			return array;
 		}
-	}
 
-	public synchronized void resetIntCache() {
-		if (!freeLargeArrays.isEmpty()) {
-			freeLargeArrays.remove(freeLargeArrays.size() - 1);
+		private void reset() {
+			this.usedSmallArrays = 0;
+			this.usedLargeArrays = 0;
 		}
+	}
+
+	private final ThreadLocal<Arena> arenas = ThreadLocal.withInitial(Arena::new);
 
-		if (!freeSmallArrays.isEmpty()) {
-			freeSmallArrays.remove(freeSmallArrays.size() - 1);
+	/**
+	 * Returns a buffer with at least the specified size from the arena of the current thread.
+	 * The contents of the buffer are undefined
+	 * @param size
+	 * @return
+	 */
+	public int[] getIntCache(int size) {
+		Arena arena = this.arenas.get();
+		if(size <= SMALL_ARRAY_SIZE) {
+			return arena.nextSmallArray();
 		}
+		return arena.nextLargeArray(size);
+	}
 
-		freeLargeArrays.addAll(inUseLargeArrays);
-		freeSmallArrays.addAll(inUseSmallArrays);
-		inUseLargeArrays.clear();
-		inUseSmallArrays.clear();
+	/**
+	 * Releases all buffers of the current thread's arena for reuse
+	 */
+	public void resetIntCache() {
+		this.arenas.get().reset();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,220 @@
+package thebetweenlands.common.world.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import thebetweenlands.api.storage.StorageID;
+import thebetweenlands.common.world.storage.AmateMapData.BLMapDecoration.Location;
+import thebetweenlands.common.world.storage.location.LocationStorage;
+
+/**
+ * Chunk keyed index of all loaded locations that are shown on the amate map.
+ * Locations add and remove themselves when they are loaded, unloaded or their bounds change,
+ * so the map decorations don't need to query the local storages of every chunk in view.
+ */
+public class AmateMapLocationIndex {
+	/**
+	 * Locations that would cover more chunks than this are not put into
+	 * the grid and are instead checked for every chunk
+	 */
+	private static final int MAX_INDEXED_CHUNKS = 1024;
+
+	public static class Entry {
+		private final LocationStorage storage;
+		private final Location location;
+
+		private int minChunkX, minChunkZ, maxChunkX, maxChunkZ;
+		private boolean oversized;
+
+		private int visitStamp;
+
+		private Entry(LocationStorage storage, Location location) {
+			this.storage = storage;
+			this.location = location;
+		}
+
+		public LocationStorage getStorage() {
+			return this.storage;
+		}
+
+		public Location getLocation() {
+			return this.location;
+		}
+
+		/**
+		 * Marks this entry as visited by the query with the specified stamp
+		 * @param stamp See {@link AmateMapLocationIndex#nextVisitStamp()}
+		 * @return True if the entry was not visited by that query yet
+		 */
+		public boolean visit(int stamp) {
+			if(this.visitStamp != stamp) {
+				this.visitStamp = stamp;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private final Map<StorageID, Entry> entries = new HashMap<>();
+	private final Long2ObjectMap<List<Entry>> grid = new Long2ObjectOpenHashMap<>();
+	private final List<Entry> oversizedEntries = new ArrayList<>();
+
+	private final List<Entry> queryResult = new ArrayList<>();
+
+	private int visitStamp;
+
+	private long modifications;
+
+	/**
+	 * Adds the specified location if it is shown on the map
+	 * @param storage
+	 */
+	public void add(LocationStorage storage) {
+		if(!this.entries.containsKey(storage.getID())) {
+			Location location = Location.getLocation(storage);
+			if(location != Location.NONE) {
+				Entry entry = new Entry(storage, location);
+				if(this.insert(entry, storage.getEnclosingBounds())) {
+					this.entries.put(storage.getID(), entry);
+					this.modifications++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the specified location
+	 * @param storage
+	 */
+	public void remove(LocationStorage storage) {
+		Entry entry = this.entries.remove(storage.getID());
+		if(entry != null) {
+			this.erase(entry);
+			this.modifications++;
+		}
+	}
+
+	/**
+	 * Re-indexes the specified location after its bounds have changed
+	 * @param storage
+	 */
+	public void update(LocationStorage storage) {
+		this.remove(storage);
+		this.add(storage);
+	}
+
+	private boolean insert(Entry entry, @Nullable AxisAlignedBB box) {
+		if(box == null) {
+			return false;
+		}
+
+		entry.minChunkX = MathHelper.floor(box.minX) >> 4;
+		entry.minChunkZ = MathHelper.floor(box.minZ) >> 4;
+		entry.maxChunkX = MathHelper.floor(box.maxX) >> 4;
+		entry.maxChunkZ = MathHelper.floor(box.maxZ) >> 4;
+
+		if((long) (entry.maxChunkX - entry.minChunkX + 1) * (long) (entry.maxChunkZ - entry.minChunkZ + 1) > MAX_INDEXED_CHUNKS) {
+			entry.oversized = true;
+			this.oversizedEntries.add(entry);
+			return true;
+		}
+
+		for(int cx = entry.minChunkX; cx <= entry.maxChunkX; cx++) {
+			for(int cz = entry.minChunkZ; cz <= entry.maxChunkZ; cz++) {
+				long key = ChunkPos.asLong(cx, cz);
+				List<Entry> cell = this.grid.get(key);
+				if(cell == null) {
+					this.grid.put(key, cell = new ArrayList<>(2));
+				}
+				cell.add(entry);
+			}
+		}
+
+		return true;
+	}
+
+	private void erase(Entry entry) {
+		if(entry.oversized) {
+			this.oversizedEntries.remove(entry);
+			return;
+		}
+
+		for(int cx = entry.minChunkX; cx <= entry.maxChunkX; cx++) {
+			for(int cz = entry.minChunkZ; cz <= entry.maxChunkZ; cz++) {
+				long key = ChunkPos.asLong(cx, cz);
+				List<Entry> cell = this.grid.get(key);
+				if(cell != null) {
+					cell.remove(entry);
+					if(cell.isEmpty()) {
+						this.grid.remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a new stamp for {@link Entry#visit(int)}, so that locations covering multiple chunks are only handled once per query
+	 * @return
+	 */
+	public int nextVisitStamp() {
+		return ++this.visitStamp;
+	}
+
+	/**
+	 * Returns all indexed locations whose bounds cover the specified chunk.
+	 * The returned list is reused by the next call and must not be modified
+	 * @param chunkX
+	 * @param chunkZ
+	 * @return
+	 */
+	public List<Entry> query(int chunkX, int chunkZ) {
+		List<Entry> cell = this.grid.get(ChunkPos.asLong(chunkX, chunkZ));
+
+		if(this.oversizedEntries.isEmpty()) {
+			return cell != null ? cell : Collections.emptyList();
+		}
+
+		this.queryResult.clear();
+		if(cell != null) {
+			this.queryResult.addAll(cell);
+		}
+		for(int i = 0; i < this.oversizedEntries.size(); i++) {
+			Entry entry = this.oversizedEntries.get(i);
+			if(chunkX >= entry.minChunkX && chunkX <= entry.maxChunkX && chunkZ >= entry.minChunkZ && chunkZ <= entry.maxChunkZ) {
+				this.queryResult.add(entry);
+			}
+		}
+		return this.queryResult;
+	}
+
+	/**
+	 * Returns whether no locations are indexed
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return this.entries.isEmpty();
+	}
+
+	public int getSize() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the number of times a location was added or removed
+	 * @return
+	 */
+	public long getModifications() {
+		return this.modifications;
+	}
+}
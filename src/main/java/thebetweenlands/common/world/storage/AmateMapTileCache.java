@@ -0,0 +1,163 @@
+package thebetweenlands.common.world.storage;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import thebetweenlands.common.item.misc.ItemAmateMap;
+
+/**
+ * Caches the biome colors of the amate map per dimension, so that they are sampled only once
+ * and shared by all maps and viewers instead of being sampled again every time a map is updated.
+ * <p>
+ * The colors are stored in tiles of {@link #TILE_SIZE}x{@link #TILE_SIZE} pixels in a global pixel grid
+ * where each pixel covers {@link #BLOCKS_PER_PIXEL} blocks, i.e. one chunk. The least recently used tiles are evicted
+ * once more than {@link #MAX_TILES} tiles are cached.
+ */
+public class AmateMapTileCache {
+	public static final int BLOCKS_PER_PIXEL = 16;
+	public static final int TILE_SIZE = 32;
+	public static final int MAX_TILES = 256;
+
+	/**
+	 * Pixel color of biome edges
+	 */
+	public static final byte EDGE_COLOR = (byte) (29 * 4);
+
+	private static final int SAMPLES_PER_PIXEL = BLOCKS_PER_PIXEL / 4;
+
+	/**
+	 * Biomes are sampled 32 blocks south of the pixel, same as the map always did
+	 */
+	private static final int SAMPLE_OFFSET_Z = 8;
+
+	private final World world;
+
+	private final Map<Long, byte[]> tiles = new LinkedHashMap<Long, byte[]>(16, 0.75F, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+			return this.size() > MAX_TILES;
+		}
+	};
+
+	private final Map<Biome, Byte> biomeColors = new IdentityHashMap<>();
+
+	private Biome[] column = new Biome[(TILE_SIZE + 1) * SAMPLES_PER_PIXEL + 1];
+	private Biome[] previousColumn = new Biome[(TILE_SIZE + 1) * SAMPLES_PER_PIXEL + 1];
+
+	private long lastTileKey;
+	private byte[] lastTile;
+
+	private long hits;
+	private long misses;
+
+	public AmateMapTileCache(World world) {
+		this.world = world;
+	}
+
+	/**
+	 * Returns the color of the specified pixel of the global pixel grid
+	 * @param pixelX
+	 * @param pixelZ
+	 * @return
+	 */
+	public byte getPixel(int pixelX, int pixelZ) {
+		return this.getTile(Math.floorDiv(pixelX, TILE_SIZE), Math.floorDiv(pixelZ, TILE_SIZE))[Math.floorMod(pixelX, TILE_SIZE) + Math.floorMod(pixelZ, TILE_SIZE) * TILE_SIZE];
+	}
+
+	/**
+	 * Returns the pixel colors of the specified tile, see {@link #TILE_SIZE}.
+	 * The returned array must not be modified
+	 * @param tileX
+	 * @param tileZ
+	 * @return
+	 */
+	public byte[] getTile(int tileX, int tileZ) {
+		long key = ChunkPos.asLong(tileX, tileZ);
+
+		if(this.lastTile != null && this.lastTileKey == key) {
+			this.hits++;
+			return this.lastTile;
+		}
+
+		byte[] tile = this.tiles.get(key);
+
+		if(tile == null) {
+			this.misses++;
+			this.tiles.put(key, tile = this.computeTile(tileX, tileZ));
+		} else {
+			this.hits++;
+		}
+
+		this.lastTileKey = key;
+		this.lastTile = tile;
+
+		return tile;
+	}
+
+	private byte[] computeTile(int tileX, int tileZ) {
+		byte[] tile = new byte[TILE_SIZE * TILE_SIZE];
+
+		int startPixelX = tileX * TILE_SIZE;
+		int startPixelZ = tileZ * TILE_SIZE;
+
+		//Includes the row above the tile for the edge detection
+		int sampleStartZ = (startPixelZ - 1) * SAMPLES_PER_PIXEL + SAMPLE_OFFSET_Z;
+
+		for(int x = -1; x < TILE_SIZE; x++) {
+			Biome[] swap = this.previousColumn;
+			this.previousColumn = this.column;
+			this.column = swap;
+
+			this.column = this.world.getBiomeProvider().getBiomesForGeneration(this.column, (startPixelX + x) * SAMPLES_PER_PIXEL, sampleStartZ, 1, this.column.length);
+
+			if(x >= 0) {
+				for(int z = 0; z < TILE_SIZE; z++) {
+					int index = (z + 1) * SAMPLES_PER_PIXEL;
+					Biome biome = this.column[index];
+
+					if(biome != this.column[index - SAMPLES_PER_PIXEL] || biome != this.previousColumn[index]) {
+						tile[x + z * TILE_SIZE] = EDGE_COLOR;
+					} else {
+						tile[x + z * TILE_SIZE] = this.getBiomeColor(biome);
+					}
+				}
+			}
+		}
+
+		return tile;
+	}
+
+	private byte getBiomeColor(Biome biome) {
+		Byte color = this.biomeColors.get(biome);
+		if(color == null) {
+			this.biomeColors.put(biome, color = ItemAmateMap.getBiomePixelColor(this.world, biome));
+		}
+		return color;
+	}
+
+	/**
+	 * Removes all cached tiles
+	 */
+	public void clear() {
+		this.tiles.clear();
+		this.lastTile = null;
+	}
+
+	public int getCachedTiles() {
+		return this.tiles.size();
+	}
+
+	public long getHits() {
+		return this.hits;
+	}
+
+	public long getMisses() {
+		return this.misses;
+	}
+}
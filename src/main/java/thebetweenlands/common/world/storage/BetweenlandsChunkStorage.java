@@ -1,18 +1,14 @@
 package thebetweenlands.common.world.storage;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import javax.annotation.Nullable;
 
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.ints.IntArraySet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
-import it.unimi.dsi.fastutil.ints.IntSets;
-import net.minecraft.block.state.IBlockState;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagIntArray;
 import net.minecraft.nbt.NBTTagList;
@@ -21,6 +17,7 @@ import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.util.Constants;
 import thebetweenlands.api.storage.IWorldStorage;
+import thebetweenlands.common.TheBetweenlands;
 import thebetweenlands.common.config.BetweenlandsConfig;
 import thebetweenlands.common.item.misc.ItemGemSinger;
 import thebetweenlands.common.world.WorldProviderBetweenlands;
@@ -28,10 +25,19 @@ import thebetweenlands.common.world.WorldProviderBetweenlands;
 
 public class BetweenlandsChunkStorage extends ChunkStorageImpl {
 	private IntSet savedGemTargets = new IntOpenHashSet();
-	private Int2ObjectMap<IntSet> gemToPositions = new Int2ObjectOpenHashMap<>();
+	private GemSingerIndex gemIndex = new GemSingerIndex();
 
 	private boolean rescanGemSingerTargets = false;
 
+	@Nullable
+	private CompletableFuture<GemSingerIndex> gemSingerScan;
+
+	/**
+	 * Gems that were marked or unmarked while the rescan was running.
+	 * They are replayed onto the result of the rescan
+	 */
+	private final IntList gemChangesDuringScan = new IntArrayList();
+
 	public BetweenlandsChunkStorage(IWorldStorage worldStorage, Chunk chunk) {
 		super(worldStorage, chunk);
 	}
@@ -63,14 +69,7 @@ public class BetweenlandsChunkStorage extends ChunkStorageImpl {
 		if(!packet) {
 			nbt.setTag("gemTargetTypes", new NBTTagIntArray(this.savedGemTargets.toArray(new int[0])));
 
-			NBTTagList gemToPositionsNbt = new NBTTagList();
-			for(Int2ObjectMap.Entry<IntSet> entry : this.gemToPositions.int2ObjectEntrySet()) {
-				NBTTagCompound targetNbt = new NBTTagCompound();
-				targetNbt.setInteger("id", entry.getIntKey());
-				targetNbt.setTag("positions", new NBTTagIntArray(entry.getValue().toIntArray()));
-				gemToPositionsNbt.appendTag(targetNbt);
-			}
-			nbt.setTag("gemToPositions", gemToPositionsNbt);
+			nbt.setTag("gemIndex", this.gemIndex.writeToNBT());
 		}
 
 		return nbt;
@@ -97,13 +96,21 @@ public class BetweenlandsChunkStorage extends ChunkStorageImpl {
 				}
 			}
 
-			this.gemToPositions.clear();
-			NBTTagList gemToPositionsNbt = nbt.getTagList("gemToPositions", Constants.NBT.TAG_COMPOUND);
-			for(int i = 0; i < gemToPositionsNbt.tagCount(); i++) {
-				NBTTagCompound targetNbt = gemToPositionsNbt.getCompoundTagAt(i);
-				int id = targetNbt.getInteger("id");
-				int[] positions = targetNbt.getIntArray("positions");
-				this.gemToPositions.put(id, new IntArraySet(positions));
+			if(nbt.hasKey("gemIndex", Constants.NBT.TAG_LIST)) {
+				this.gemIndex.readFromNBT(nbt.getTagList("gemIndex", Constants.NBT.TAG_COMPOUND));
+			} else {
+				//Old format that stored all positions as int array
+				this.gemIndex.clear();
+				NBTTagList gemToPositionsNbt = nbt.getTagList("gemToPositions", Constants.NBT.TAG_COMPOUND);
+				for(int i = 0; i < gemToPositionsNbt.tagCount(); i++) {
+					NBTTagCompound targetNbt = gemToPositionsNbt.getCompoundTagAt(i);
+					ItemGemSinger.GemSingerTarget target = ItemGemSinger.GemSingerTarget.byId(targetNbt.getInteger("id"));
+					if(target != null) {
+						for(int index : targetNbt.getIntArray("positions")) {
+							this.gemIndex.add(target, index);
+						}
+					}
+				}
 			}
 		}
 	}
@@ -112,43 +119,65 @@ public class BetweenlandsChunkStorage extends ChunkStorageImpl {
 	public void update() {
 		super.update();
 
-		if(!this.world.isRemote && this.rescanGemSingerTargets) {
-			this.rescanGemSingerTargets = false;
-			this.gemToPositions.clear();
-
-			Chunk chunk = this.getChunk();
+		if(!this.world.isRemote) {
+			if(this.gemSingerScan != null) {
+				if(this.gemSingerScan.isDone()) {
+					this.applyGemSingerScan();
+				}
+			} else if(this.rescanGemSingerTargets) {
+				this.rescanGemSingerTargets = false;
+				this.gemChangesDuringScan.clear();
 
-			int maxCheckY = Math.min(WorldProviderBetweenlands.LAYER_HEIGHT + 16, 255);
+				int maxCheckY = Math.min(WorldProviderBetweenlands.LAYER_HEIGHT + 16, 255);
 
-			for(int y = 0; y < maxCheckY; y++) {
-				for(int x = 0; x < 16; x++) {
-					for(int z = 0; z < 16; z++) {
-						IBlockState state = chunk.getBlockState(x, y, z);
+				this.gemSingerScan = BetweenlandsWorldStorage.forWorld(this.world).getGemSingerScanner().scan(this.getChunk(), maxCheckY);
+			}
+		}
+	}
 
-						for(ItemGemSinger.GemSingerTarget target : ItemGemSinger.GemSingerTarget.values()) {
-							if(target.test(state)) {
-								IntSet indices = this.gemToPositions.get(target.getId());
-								if(indices == null) {
-									this.gemToPositions.put(target.getId(), indices = new IntArraySet());
-								}
-								indices.add(getGemSingerTargetIndex(x, y, z));
-								break;
-							}
-						}
-					}
+	private void applyGemSingerScan() {
+		GemSingerIndex result;
+		try {
+			result = this.gemSingerScan.join();
+		} catch(Exception ex) {
+			TheBetweenlands.logger.error(String.format("Failed scanning chunk %d, %d for gem singer targets", this.getChunk().x, this.getChunk().z), ex);
+			result = null;
+		}
+		this.gemSingerScan = null;
+
+		if(result != null) {
+			ItemGemSinger.GemSingerTarget[] targets = ItemGemSinger.GemSingerTarget.values();
+
+			for(int i = 0; i < this.gemChangesDuringScan.size(); i++) {
+				int change = this.gemChangesDuringScan.getInt(i);
+				ItemGemSinger.GemSingerTarget target = targets[change >>> 17];
+				if((change & (1 << 16)) != 0) {
+					result.add(target, change & 0xFFFF);
+				} else {
+					result.remove(target, change & 0xFFFF);
 				}
 			}
 
-			for(ItemGemSinger.GemSingerTarget target : ItemGemSinger.GemSingerTarget.values()) {
+			this.gemIndex = result;
+
+			for(ItemGemSinger.GemSingerTarget target : targets) {
 				this.savedGemTargets.add(target.getId());
 			}
 
 			this.markDirty();
 		}
+
+		this.gemChangesDuringScan.clear();
+	}
+
+	private void recordGemChange(int index, ItemGemSinger.GemSingerTarget target, boolean marked) {
+		if(this.gemSingerScan != null) {
+			this.gemChangesDuringScan.add(target.ordinal() << 17 | (marked ? 1 << 16 : 0) | index);
+		}
 	}
 
 	/**
-	 * Encodes a position into an index that might be contained in {@link #findGems(thebetweenlands.common.item.misc.ItemGemSinger.GemSingerTarget)}
+	 * Encodes a position into an index as used by {@link #hasGem(int, int, int, thebetweenlands.common.item.misc.ItemGemSinger.GemSingerTarget)}
 	 * @param x X
 	 * @param y Y
 	 * @param z Z
@@ -159,7 +188,7 @@ public class BetweenlandsChunkStorage extends ChunkStorageImpl {
 	}
 
 	/**
-	 * Decodes a position index retrieved from {@link #findGems(thebetweenlands.common.item.misc.ItemGemSinger.GemSingerTarget)}
+	 * Decodes a position index encoded by {@link #getGemSingerTargetIndex(int, int, int)}
 	 * into a block position <b>relative to the chunk it was retrieved from</b>
 	 * @param index index to decode
 	 * @return block position <b>relative to the chunk it was retrieved from</b>
@@ -177,12 +206,9 @@ public class BetweenlandsChunkStorage extends ChunkStorageImpl {
 	 * @return true if successfully marked
 	 */
 	public boolean markGem(int x, int y, int z, ItemGemSinger.GemSingerTarget target) {
-		IntSet indices = this.gemToPositions.get(target.getId());
-		if(indices == null) {
-			this.gemToPositions.put(target.getId(), indices = new IntArraySet());
-		}
 		int index = getGemSingerTargetIndex(x & 15, y, z & 15);
-		return indices.add(index);
+		this.recordGemChange(index, target, true);
+		return this.gemIndex.add(target, index);
 	}
 
 	/**
@@ -194,29 +220,30 @@ public class BetweenlandsChunkStorage extends ChunkStorageImpl {
 	 * @return true if successfully unmarked
 	 */
 	public boolean unmarkGem(int x, int y, int z, ItemGemSinger.GemSingerTarget target) {
-		IntSet indices = this.gemToPositions.get(target.getId());
-		if(indices != null) {
-			if(indices.rem(getGemSingerTargetIndex(x & 15, y, z & 15))) {
-				if(indices.isEmpty()) {
-					this.gemToPositions.remove(target.getId());
-				}
-				return true;
-			}
-		}
-		return false;
+		int index = getGemSingerTargetIndex(x & 15, y, z & 15);
+		this.recordGemChange(index, target, false);
+		return this.gemIndex.remove(target, index);
 	}
 
 	/**
-	 * Tries to find all gems of the specified target type
+	 * Returns whether a gem of the specified target type is marked at the specified position
+	 * @param x X
+	 * @param y Y
+	 * @param z Z
 	 * @param target Gem target type
-	 * @return an unmodifiable set of all gem positions which can be decoded by {@link #getGemSingerTargetPosition(int)}
+	 * @return
 	 */
-	public IntSet findGems(ItemGemSinger.GemSingerTarget target) {
-		IntSet indices = this.gemToPositions.get(target.getId());
-		if(indices != null) {
-			return IntSets.unmodifiable(indices);
-		}
-		return IntSets.EMPTY_SET;
+	public boolean hasGem(int x, int y, int z, ItemGemSinger.GemSingerTarget target) {
+		return this.gemIndex.contains(target, getGemSingerTargetIndex(x & 15, y, z & 15));
+	}
+
+	/**
+	 * Returns the number of marked gems of the specified target type
+	 * @param target Gem target type
+	 * @return
+	 */
+	public int getGemCount(ItemGemSinger.GemSingerTarget target) {
+		return this.gemIndex.size(target);
 	}
 
 	/**
@@ -229,19 +256,9 @@ public class BetweenlandsChunkStorage extends ChunkStorageImpl {
 	 */
 	@Nullable
 	public BlockPos findRandomGem(ItemGemSinger.GemSingerTarget target, Random rand, BlockPos pos, float range) {
-		BlockPos relPos = pos.add(-this.getChunk().x * 16, 0, -this.getChunk().z * 16);
-		IntSet indices = this.gemToPositions.get(target.getId());
-		if(indices != null) {
-			List<BlockPos> found = new ArrayList<>();
-			for(int index : indices) {
-				BlockPos gem = getGemSingerTargetPosition(index);
-				if(gem.distanceSq(relPos) <= range * range) {
-					found.add(gem);
-				}
-			}
-			if(!found.isEmpty()) {
-				return found.get(rand.nextInt(found.size())).add(this.getChunk().x * 16, 0, this.getChunk().z * 16);
-			}
+		int index = this.gemIndex.findRandom(target, rand, pos.getX() - this.getChunk().x * 16, pos.getY(), pos.getZ() - this.getChunk().z * 16, range * range);
+		if(index >= 0) {
+			return new BlockPos(this.getChunk().x * 16 + (index & 15), (index >> 8) & 255, this.getChunk().z * 16 + ((index >> 4) & 15));
 		}
 		return null;
 	}
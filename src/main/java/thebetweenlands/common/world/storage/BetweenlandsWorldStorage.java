@@ -47,6 +47,11 @@ public class BetweenlandsWorldStorage extends WorldStorageImpl {
 
 	protected List<SpiritTreeKillToken> spiritTreeKillTokens = new ArrayList<>();
 
+	private AmateMapTileCache amateMapTileCache;
+	private final AmateMapLocationIndex amateMapLocationIndex = new AmateMapLocationIndex();
+
+	private final GemSingerScanner gemSingerScanner = new GemSingerScanner();
+
 	public BLEnvironmentEventRegistry getEnvironmentEventRegistry() {
 		return this.environmentEventRegistry;
 	}
@@ -55,6 +60,33 @@ public class BetweenlandsWorldStorage extends WorldStorageImpl {
 		return this.aspectManager;
 	}
 
+	/**
+	 * Returns the biome color tiles of the amate map that are shared by all maps of this world
+	 * @return
+	 */
+	public AmateMapTileCache getAmateMapTileCache() {
+		if(this.amateMapTileCache == null) {
+			this.amateMapTileCache = new AmateMapTileCache(this.getWorld());
+		}
+		return this.amateMapTileCache;
+	}
+
+	/**
+	 * Returns the index of all loaded locations that are shown on the amate map
+	 * @return
+	 */
+	public AmateMapLocationIndex getAmateMapLocationIndex() {
+		return this.amateMapLocationIndex;
+	}
+
+	/**
+	 * Returns the scanner that rescans chunks for gem singer targets off the server thread
+	 * @return
+	 */
+	public GemSingerScanner getGemSingerScanner() {
+		return this.gemSingerScanner;
+	}
+
 	@Override
 	public BiomeSpawnEntriesData getBiomeSpawnEntriesData(Biome biome) {
 		if(biome instanceof ICustomSpawnEntriesProvider) {
@@ -8,6 +8,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
@@ -44,6 +48,26 @@ public abstract class ChunkStorageImpl implements IChunkStorage, ITickable {
 
 	protected boolean syncStorageLinks = false;
 
+	/**
+	 * Incremented for every change of the local storage references
+	 */
+	private int referencesVersion = 0;
+	private final List<ReferenceChange> pendingReferenceChanges = new ArrayList<>();
+	private final Object2IntMap<EntityPlayerMP> watcherReferenceVersions = new Object2IntOpenHashMap<>();
+
+	/**
+	 * A single added or removed local storage reference
+	 */
+	public static class ReferenceChange {
+		public final boolean added;
+		public final LocalStorageReference reference;
+
+		public ReferenceChange(boolean added, LocalStorageReference reference) {
+			this.added = added;
+			this.reference = reference;
+		}
+	}
+
 	public ChunkStorageImpl(IWorldStorage worldStorage, Chunk chunk) {
 		this.worldStorage = worldStorage;
 		this.world = worldStorage.getWorld();
@@ -115,6 +139,10 @@ public abstract class ChunkStorageImpl implements IChunkStorage, ITickable {
 			this.localStorageReferences.add(LocalStorageReference.readFromNBT((NBTTagCompound)localReferenceList.get(i)));
 		}
 
+		if(this.worldStorage.getLocalStorageHandler() instanceof LocalStorageHandlerImpl) {
+			((LocalStorageHandlerImpl) this.worldStorage.getLocalStorageHandler()).prefetchRegions(this.localStorageReferences);
+		}
+
 		Iterator<LocalStorageReference> refIT = this.localStorageReferences.iterator();
 		while(refIT.hasNext()) {
 			LocalStorageReference ref = refIT.next();
@@ -181,7 +209,15 @@ public abstract class ChunkStorageImpl implements IChunkStorage, ITickable {
 			}
 		}
 
-		TheBetweenlands.networkWrapper.sendTo(new MessageSyncChunkStorage(this), player);
+		this.watcherReferenceVersions.put(player, this.referencesVersion);
+
+		NBTTagCompound nbt = this.writeToNBT(new NBTTagCompound(), true);
+
+		//Freshly watched chunks start out empty on the client, so
+		//only chunks that actually have data need to be sent
+		if(nbt.getSize() > 0) {
+			TheBetweenlands.networkWrapper.sendTo(new MessageSyncChunkStorage(this, nbt), player);
+		}
 	}
 
 	@Override
@@ -198,6 +234,8 @@ public abstract class ChunkStorageImpl implements IChunkStorage, ITickable {
 	 * @param player
 	 */
 	protected void onUnwatched(EntityPlayerMP player) {
+		this.watcherReferenceVersions.removeInt(player);
+
 		for(LocalStorageReference ref : this.localStorageReferences) {
 			ILocalStorage localStorage = this.getWorldStorage().getLocalStorageHandler().getLocalStorage(ref.getID());
 			if(localStorage != null) {
@@ -267,7 +305,9 @@ public abstract class ChunkStorageImpl implements IChunkStorage, ITickable {
 				storage.removeWatcher(this, watcher);
 			}
 
-			this.syncStorageLinks = true;
+			for(LocalStorageReference ref : unlinkedReferences) {
+				this.queueReferenceChange(false, ref);
+			}
 			return true;
 		}
 		return false;
@@ -294,7 +334,7 @@ public abstract class ChunkStorageImpl implements IChunkStorage, ITickable {
 				storage.addWatcher(this, watcher);
 			}
 
-			this.syncStorageLinks = true;
+			this.queueReferenceChange(true, ref);
 			return true;
 		}
 
@@ -306,15 +346,104 @@ public abstract class ChunkStorageImpl implements IChunkStorage, ITickable {
 		return Collections.unmodifiableCollection(this.localStorageReferences);
 	}
 
+	private void queueReferenceChange(boolean added, LocalStorageReference ref) {
+		this.referencesVersion++;
+		if(!this.world.isRemote && !this.watchers.isEmpty()) {
+			this.pendingReferenceChanges.add(new ReferenceChange(added, ref));
+		}
+	}
+
+	/**
+	 * Returns the current version of the local storage references
+	 * @return
+	 */
+	public int getReferencesVersion() {
+		return this.referencesVersion;
+	}
+
+	/**
+	 * Applies the specified reference changes received from the server. Changes
+	 * that are not newer than the current version are skipped.
+	 * @param version Version after the last change
+	 * @param changes
+	 */
+	public void applyReferenceChanges(int version, List<ReferenceChange> changes) {
+		int changeVersion = version - changes.size();
+
+		for(ReferenceChange change : changes) {
+			changeVersion++;
+
+			if(changeVersion <= this.referencesVersion) {
+				continue;
+			}
+
+			ILocalStorage localStorage = this.getWorldStorage().getLocalStorageHandler().getLocalStorage(change.reference.getID());
+
+			if(change.added) {
+				if(!this.localStorageReferences.contains(change.reference)) {
+					this.localStorageReferences.add(change.reference);
+				}
+				if(localStorage != null && localStorage.getLinkedChunks().contains(this.chunk.getPos())) {
+					localStorage.loadReference(change.reference);
+				}
+			} else {
+				this.localStorageReferences.remove(change.reference);
+				if(localStorage != null) {
+					localStorage.unloadReference(change.reference);
+				}
+			}
+		}
+
+		this.referencesVersion = Math.max(this.referencesVersion, version);
+	}
+
+	/**
+	 * Sets the reference version after a full sync received from the server
+	 * @param version
+	 */
+	public void setReferencesVersion(int version) {
+		this.referencesVersion = version;
+	}
+
 	@Override
 	public void update() {
 		if(this.syncStorageLinks) {
 			this.syncStorageLinks = false;
+			this.pendingReferenceChanges.clear();
 
 			MessageSyncLocalStorageReferences message = new MessageSyncLocalStorageReferences(this);
 			for(EntityPlayerMP watcher : this.watchers) {
 				TheBetweenlands.networkWrapper.sendTo(message, watcher);
+				this.watcherReferenceVersions.put(watcher, this.referencesVersion);
 			}
+		} else if(!this.pendingReferenceChanges.isEmpty()) {
+			ChunkStorageSyncBatch batch = this.getSyncBatch();
+
+			if(batch != null) {
+				for(EntityPlayerMP watcher : this.watchers) {
+					int watcherVersion = this.watcherReferenceVersions.getInt(watcher);
+					int unsent = Math.min(this.referencesVersion - watcherVersion, this.pendingReferenceChanges.size());
+
+					if(unsent > 0) {
+						batch.add(watcher, this.chunk.getPos(), this.referencesVersion, this.pendingReferenceChanges.subList(this.pendingReferenceChanges.size() - unsent, this.pendingReferenceChanges.size()));
+					}
+
+					this.watcherReferenceVersions.put(watcher, this.referencesVersion);
+				}
+			} else {
+				//Fall back to a full sync next tick
+				this.syncStorageLinks = true;
+			}
+
+			this.pendingReferenceChanges.clear();
+		}
+	}
+
+	@Nullable
+	private ChunkStorageSyncBatch getSyncBatch() {
+		if(this.worldStorage instanceof WorldStorageImpl) {
+			return ((WorldStorageImpl) this.worldStorage).getChunkStorageSyncBatch();
 		}
+		return null;
 	}
 }
@@ -0,0 +1,89 @@
+package thebetweenlands.common.world.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.ChunkPos;
+import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.network.clientbound.MessageSyncChunkStorageDeltas;
+import thebetweenlands.common.world.storage.ChunkStorageImpl.ReferenceChange;
+
+/**
+ * Collects the local storage reference changes of all chunk storages during a tick
+ * and sends them as one message per player at the end of the tick
+ */
+public class ChunkStorageSyncBatch {
+	/**
+	 * Reference changes of a single chunk
+	 */
+	public static class ChunkDelta {
+		public final ChunkPos pos;
+		public final int version;
+		public final List<ReferenceChange> changes;
+
+		public ChunkDelta(ChunkPos pos, int version, List<ReferenceChange> changes) {
+			this.pos = pos;
+			this.version = version;
+			this.changes = changes;
+		}
+	}
+
+	private final Map<EntityPlayerMP, List<ChunkDelta>> pendingDeltas = new LinkedHashMap<>();
+
+	private long sentMessages;
+	private long sentChanges;
+
+	/**
+	 * Adds the reference changes of a chunk to the batch of the specified player
+	 * @param player
+	 * @param pos
+	 * @param version Version of the chunk after the last change
+	 * @param changes
+	 */
+	public void add(EntityPlayerMP player, ChunkPos pos, int version, List<ReferenceChange> changes) {
+		List<ChunkDelta> deltas = this.pendingDeltas.get(player);
+		if(deltas == null) {
+			this.pendingDeltas.put(player, deltas = new ArrayList<>());
+		}
+		deltas.add(new ChunkDelta(pos, version, new ArrayList<>(changes)));
+	}
+
+	/**
+	 * Sends all batched changes
+	 */
+	public void flush() {
+		if(!this.pendingDeltas.isEmpty()) {
+			for(Map.Entry<EntityPlayerMP, List<ChunkDelta>> entry : this.pendingDeltas.entrySet()) {
+				List<ChunkDelta> deltas = entry.getValue();
+
+				TheBetweenlands.networkWrapper.sendTo(new MessageSyncChunkStorageDeltas(deltas), entry.getKey());
+
+				this.sentMessages++;
+				for(ChunkDelta delta : deltas) {
+					this.sentChanges += delta.changes.size();
+				}
+			}
+
+			this.pendingDeltas.clear();
+		}
+	}
+
+	/**
+	 * Returns the total number of sent delta messages
+	 * @return
+	 */
+	public long getSentMessages() {
+		return this.sentMessages;
+	}
+
+	/**
+	 * Returns the total number of sent reference changes
+	 * @return
+	 */
+	public long getSentChanges() {
+		return this.sentChanges;
+	}
+}
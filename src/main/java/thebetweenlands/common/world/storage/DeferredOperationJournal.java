@@ -0,0 +1,642 @@
+package thebetweenlands.common.world.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraftforge.common.util.Constants;
+import thebetweenlands.api.storage.IChunkStorage;
+import thebetweenlands.api.storage.IDeferredStorageOperation;
+import thebetweenlands.api.storage.LocalRegion;
+import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.registries.StorageRegistry;
+
+/**
+ * Append-only journal of the deferred storage operations queued for unloaded chunks, one file per local region.
+ * Queuing an operation adds a record to the region's journal in memory and the new records of each journal are
+ * appended to its file by a single task on the writer threads once per tick, so the region itself doesn't need to be loaded or rewritten. The records of a region are kept in memory once its journal has
+ * been read and the operations of a chunk are replayed together when the chunk is loaded. Journals are
+ * rewritten without the replayed records in the background once enough of them have been replayed and the
+ * chunks they were replayed to have been saved.
+ * <p>
+ * Record layout: chunk X (int), chunk Z (int), payload length (int), CRC32 of the payload (int), followed by
+ * the payload, which is the uncompressed NBT of the operation type and data.
+ */
+public class DeferredOperationJournal {
+	public static final String EXTENSION = ".blj";
+
+	private static final int MAGIC = 0x424C4A31; //BLJ1
+
+	/**
+	 * File that lists the regions whose legacy deferred operations have already been moved to the journal
+	 */
+	private static final String MIGRATED_REGIONS_FILE = "migrated_regions.dat";
+
+	/**
+	 * Journals are only compacted once they contain at least this many replayed records
+	 */
+	private static final int MIN_COMPACTION_RECORDS = 64;
+
+	/**
+	 * Journals that were not accessed for this long are removed from memory
+	 */
+	private static final long IDLE_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+	private static final class Record {
+		private final int chunkX, chunkZ;
+		private final byte[] payload;
+
+		/**
+		 * Whether the record has not been appended to the journal file yet
+		 */
+		private boolean unwritten;
+
+		private Record(int chunkX, int chunkZ, byte[] payload) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			this.payload = payload;
+		}
+	}
+
+	private static final class RegionJournal {
+		private final File file;
+		private final Long2ObjectMap<List<Record>> records = new Long2ObjectOpenHashMap<>();
+		private int liveRecords;
+		private int deadRecords;
+
+		/**
+		 * Number of written records per chunk that have been replayed but whose chunk has not been saved since.
+		 * They only become dead records once the chunk is saved, until then they must stay in the journal file
+		 */
+		private final Long2IntMap replayedRecords = new Long2IntOpenHashMap();
+		private long lastAccess;
+
+		/**
+		 * Records that have not been appended to the journal file yet, in the order they were added
+		 */
+		private final List<Record> unwrittenRecords = new ArrayList<>();
+
+		/**
+		 * Number of appends and compactions of this journal that have not been written yet
+		 */
+		private final AtomicInteger pendingWrites = new AtomicInteger();
+
+		private RegionJournal(File file) {
+			this.file = file;
+		}
+
+		private void add(Record record) {
+			List<Record> chunkRecords = this.records.get(ChunkPos.asLong(record.chunkX, record.chunkZ));
+			if(chunkRecords == null) {
+				this.records.put(ChunkPos.asLong(record.chunkX, record.chunkZ), chunkRecords = new ArrayList<>(2));
+			}
+			chunkRecords.add(record);
+			this.liveRecords++;
+		}
+	}
+
+	private final LocalStorageSaveHandler saveHandler;
+	private final File dir;
+
+	private final Map<LocalRegion, RegionJournal> journals = new HashMap<>();
+
+	/**
+	 * Journals that have records which have not been appended to their file yet
+	 */
+	private final Set<RegionJournal> unwrittenJournals = new HashSet<>();
+
+	/**
+	 * File names of the regions whose legacy deferred operations have already been moved to the journal.
+	 * Read from {@link #MIGRATED_REGIONS_FILE} when first needed
+	 */
+	private Set<String> migratedRegions;
+	private boolean migratedRegionsDirty;
+
+	private long queuedOperations;
+	private long appliedOperations;
+	private long failedOperations;
+	private long migratedOperations;
+	private long compactions;
+
+	public DeferredOperationJournal(LocalStorageSaveHandler saveHandler, File dir) {
+		this.saveHandler = saveHandler;
+		this.dir = dir;
+	}
+
+	/**
+	 * Returns the journal file of the specified region
+	 * @param region
+	 * @return
+	 */
+	public File getJournalFile(LocalRegion region) {
+		return new File(this.dir, region.getFileName() + EXTENSION);
+	}
+
+	/**
+	 * Marks the legacy deferred operations of the specified region as migrated. The mark is
+	 * saved with {@link #saveMigratedRegions()} so that each region is only checked once
+	 * @param region
+	 * @return True if the region was not marked yet and its legacy operations still need to be migrated
+	 */
+	public boolean markMigrated(LocalRegion region) {
+		if(this.migratedRegions == null) {
+			this.migratedRegions = this.readMigratedRegions();
+		}
+
+		if(this.migratedRegions.add(region.getFileName())) {
+			this.migratedRegionsDirty = true;
+			return true;
+		}
+
+		return false;
+	}
+
+	private Set<String> readMigratedRegions() {
+		Set<String> regions = new HashSet<>();
+
+		File file = new File(this.dir, MIGRATED_REGIONS_FILE);
+
+		if(file.exists()) {
+			try {
+				NBTTagCompound nbt = this.saveHandler.readFile(file, CompressedStreamTools::read);
+
+				if(nbt != null) {
+					NBTTagList regionsNbt = nbt.getTagList("regions", Constants.NBT.TAG_STRING);
+					for(int i = 0; i < regionsNbt.tagCount(); i++) {
+						regions.add(regionsNbt.getStringTagAt(i));
+					}
+				}
+			} catch(IOException ex) {
+				//Regions are checked again, which is safe because migrated operations are removed from the region
+				TheBetweenlands.logger.error(String.format("Failed reading migrated regions %s", file.getAbsolutePath()), ex);
+			}
+		}
+
+		return regions;
+	}
+
+	/**
+	 * Queues the regions marked as migrated to be saved if any were marked since the last save.
+	 * Called when the world is saved, after the regions have been saved
+	 */
+	public void saveMigratedRegions() {
+		if(this.migratedRegionsDirty) {
+			this.migratedRegionsDirty = false;
+
+			NBTTagList regionsNbt = new NBTTagList();
+			for(String region : this.migratedRegions) {
+				regionsNbt.appendTag(new NBTTagString(region));
+			}
+
+			NBTTagCompound nbt = new NBTTagCompound();
+			nbt.setTag("regions", regionsNbt);
+
+			this.saveHandler.queueFileTask(new File(this.dir, MIGRATED_REGIONS_FILE), file -> {
+				file.getParentFile().mkdirs();
+				CompressedStreamTools.safeWrite(nbt, file);
+			});
+		}
+	}
+
+	/**
+	 * Appends the specified operation to the journal of the region that contains the chunk
+	 * @param chunk
+	 * @param operation
+	 */
+	public void append(ChunkPos chunk, IDeferredStorageOperation operation) {
+		ResourceLocation type = StorageRegistry.getDeferredOperationId(operation.getClass());
+		if (type == null) {
+			throw new RuntimeException("Deferred storage operation type not mapped: " + operation);
+		}
+
+		NBTTagCompound nbt = new NBTTagCompound();
+		nbt.setString("type", type.toString());
+		nbt.setTag("data", operation.writeToNBT(new NBTTagCompound()));
+
+		this.appendNBT(chunk, nbt);
+		this.queuedOperations++;
+	}
+
+	/**
+	 * Moves an operation that was saved in the old region chunk data to the journal
+	 * @param chunk
+	 * @param nbt The operation type and data
+	 */
+	public void migrate(ChunkPos chunk, NBTTagCompound nbt) {
+		this.appendNBT(chunk, nbt);
+		this.migratedOperations++;
+	}
+
+	private void appendNBT(ChunkPos chunk, NBTTagCompound nbt) {
+		byte[] payload;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			try(DataOutputStream out = new DataOutputStream(bytes)) {
+				CompressedStreamTools.write(nbt, out);
+			}
+			payload = bytes.toByteArray();
+		} catch(IOException ex) {
+			//Can't happen when writing to memory
+			throw new RuntimeException(ex);
+		}
+
+		LocalRegion region = LocalRegion.getFromBlockPos(chunk.x * 16, chunk.z * 16);
+		RegionJournal journal = this.getJournal(region);
+
+		Record record = new Record(chunk.x, chunk.z, payload);
+		journal.add(record);
+
+		record.unwritten = true;
+		journal.unwrittenRecords.add(record);
+		this.unwrittenJournals.add(journal);
+	}
+
+	/**
+	 * Queues the records that were added since the last call to be appended to their journal files,
+	 * one task per journal. Called every tick and when the world is saved
+	 */
+	public void flushAppends() {
+		if(this.unwrittenJournals.isEmpty()) {
+			return;
+		}
+
+		for(RegionJournal journal : this.unwrittenJournals) {
+			List<Record> records = new ArrayList<>(journal.unwrittenRecords.size());
+			for(Record record : journal.unwrittenRecords) {
+				//Records that were already replayed don't need to be written at all
+				if(record.unwritten) {
+					record.unwritten = false;
+					records.add(record);
+				}
+			}
+			journal.unwrittenRecords.clear();
+
+			if(!records.isEmpty()) {
+				this.queueWrite(journal, file -> {
+					boolean isNew = !file.exists() || file.length() == 0;
+					if(isNew) {
+						file.getParentFile().mkdirs();
+					}
+					try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+						if(isNew) {
+							out.writeInt(MAGIC);
+						}
+						for(Record record : records) {
+							writeRecord(out, record);
+						}
+					}
+				});
+			}
+		}
+
+		this.unwrittenJournals.clear();
+	}
+
+	/**
+	 * Replays all journaled operations of the specified chunk
+	 * @param storage
+	 */
+	public void apply(IChunkStorage storage) {
+		ChunkPos chunk = storage.getChunk().getPos();
+
+		RegionJournal journal = this.getJournal(LocalRegion.getFromBlockPos(chunk.x * 16, chunk.z * 16));
+
+		List<Record> records = journal.records.remove(ChunkPos.asLong(chunk.x, chunk.z));
+
+		if(records != null) {
+			for(Record record : records) {
+				NBTTagCompound nbt;
+				try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.payload))) {
+					nbt = CompressedStreamTools.read(in, NBTSizeTracker.INFINITE);
+				} catch(IOException ex) {
+					this.failedOperations++;
+					TheBetweenlands.logger.error(String.format("Failed reading deferred storage operation of chunk %d, %d", chunk.x, chunk.z), ex);
+					continue;
+				}
+
+				ResourceLocation type = new ResourceLocation(nbt.getString("type"));
+
+				Supplier<? extends IDeferredStorageOperation> factory = StorageRegistry.getDeferredOperationFactory(type);
+				if (factory == null) {
+					this.failedOperations++;
+					TheBetweenlands.logger.error("Deferred storage operation type not mapped: " + type + ". Skipping...");
+					continue;
+				}
+
+				IDeferredStorageOperation operation = factory.get();
+
+				operation.readFromNBT(nbt.getCompoundTag("data"));
+
+				operation.apply(storage);
+
+				this.appliedOperations++;
+			}
+
+			journal.liveRecords -= records.size();
+
+			int replayed = 0;
+			for(Record record : records) {
+				if(record.unwritten) {
+					//Not in the journal file yet and now no longer needs to be appended
+					record.unwritten = false;
+				} else {
+					replayed++;
+				}
+			}
+
+			if(replayed > 0) {
+				//Only removed from the journal file once the chunk has been saved with the applied operations
+				journal.replayedRecords.put(ChunkPos.asLong(chunk.x, chunk.z), journal.replayedRecords.get(ChunkPos.asLong(chunk.x, chunk.z)) + replayed);
+			}
+		}
+	}
+
+	/**
+	 * Called when a chunk has been saved. The operations replayed to the chunk since it was loaded
+	 * are now part of the chunk data, so they can be removed from the journal file
+	 * @param chunk
+	 */
+	public void onChunkSaved(ChunkPos chunk) {
+		RegionJournal journal = this.journals.get(LocalRegion.getFromBlockPos(chunk.x * 16, chunk.z * 16));
+
+		if(journal != null) {
+			int replayed = journal.replayedRecords.remove(ChunkPos.asLong(chunk.x, chunk.z));
+
+			if(replayed > 0) {
+				journal.deadRecords += replayed;
+
+				if(journal.liveRecords == 0 || (journal.deadRecords >= MIN_COMPACTION_RECORDS && journal.deadRecords >= journal.liveRecords)) {
+					this.compact(journal);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the journal file with only the records that have not been replayed yet, or deletes it if there are none
+	 * @param journal
+	 */
+	private void compact(RegionJournal journal) {
+		List<Record> liveRecords = new ArrayList<>(journal.liveRecords);
+		for(List<Record> chunkRecords : journal.records.values()) {
+			liveRecords.addAll(chunkRecords);
+		}
+
+		journal.deadRecords = 0;
+
+		//The compacted file contains all live records, including the ones not appended yet
+		for(Record record : journal.unwrittenRecords) {
+			record.unwritten = false;
+		}
+		journal.unwrittenRecords.clear();
+		this.unwrittenJournals.remove(journal);
+
+		this.compactions++;
+
+		this.queueWrite(journal, file -> {
+			if(liveRecords.isEmpty()) {
+				Files.deleteIfExists(file.toPath());
+			} else {
+				File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+
+				try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+					out.writeInt(MAGIC);
+					for(Record record : liveRecords) {
+						writeRecord(out, record);
+					}
+				}
+
+				try {
+					Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch(AtomicMoveNotSupportedException ex) {
+					Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		});
+	}
+
+	private void queueWrite(RegionJournal journal, LocalStorageSaveHandler.FileTask task) {
+		journal.pendingWrites.incrementAndGet();
+		this.saveHandler.queueFileTask(journal.file, file -> {
+			try {
+				task.run(file);
+			} finally {
+				journal.pendingWrites.decrementAndGet();
+			}
+		});
+	}
+
+	private RegionJournal getJournal(LocalRegion region) {
+		RegionJournal journal = this.journals.get(region);
+
+		if(journal == null) {
+			journal = new RegionJournal(this.getJournalFile(region));
+
+			if(journal.file.exists()) {
+				RegionJournal readJournal = journal;
+				boolean[] truncated = new boolean[1];
+
+				try {
+					this.saveHandler.readFile(journal.file, file -> {
+						truncated[0] = readRecords(file, readJournal);
+						return null;
+					});
+				} catch(IOException ex) {
+					TheBetweenlands.logger.error(String.format("Failed reading deferred storage operation journal %s", journal.file.getAbsolutePath()), ex);
+					truncated[0] = true;
+				}
+
+				if(truncated[0]) {
+					//Remove the incomplete tail so that new records aren't appended after it
+					TheBetweenlands.logger.warn(String.format("Deferred storage operation journal %s is incomplete, recovered %d operations", journal.file.getAbsolutePath(), journal.liveRecords));
+					this.compact(journal);
+				}
+			}
+
+			this.journals.put(region, journal);
+		}
+
+		journal.lastAccess = System.nanoTime();
+
+		return journal;
+	}
+
+	/**
+	 * Reads all complete records of the journal file
+	 * @return True if the file ended with an incomplete or corrupted record
+	 * @throws IOException
+	 */
+	private static boolean readRecords(File file, RegionJournal journal) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(file.length() < 4 || in.readInt() != MAGIC) {
+				return true;
+			}
+
+			long remaining = file.length() - 4;
+			CRC32 crc = new CRC32();
+
+			while(remaining > 0) {
+				if(remaining < 16) {
+					return true;
+				}
+
+				int chunkX = in.readInt();
+				int chunkZ = in.readInt();
+				int length = in.readInt();
+				int checksum = in.readInt();
+				remaining -= 16;
+
+				if(length < 0 || length > remaining) {
+					return true;
+				}
+
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				remaining -= length;
+
+				crc.reset();
+				crc.update(payload);
+				if((int) crc.getValue() != checksum) {
+					return true;
+				}
+
+				journal.add(new Record(chunkX, chunkZ, payload));
+			}
+		} catch(EOFException ex) {
+			return true;
+		}
+
+		return false;
+	}
+
+	private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(record.payload);
+
+		out.writeInt(record.chunkX);
+		out.writeInt(record.chunkZ);
+		out.writeInt(record.payload.length);
+		out.writeInt((int) crc.getValue());
+		out.write(record.payload);
+	}
+
+	/**
+	 * Removes journals from memory that were not accessed recently and have been written completely.
+	 * Their records are read again from the journal file when needed. Journals that still contain
+	 * replayed records are compacted first and only removed once the compaction has been written,
+	 * otherwise the replayed records would be read and applied again. Journals with records replayed
+	 * to chunks that have not been saved yet are kept until those chunks are saved
+	 */
+	public void removeIdleJournals() {
+		long now = System.nanoTime();
+
+		Iterator<RegionJournal> it = this.journals.values().iterator();
+		while(it.hasNext()) {
+			RegionJournal journal = it.next();
+			if(now - journal.lastAccess > IDLE_EXPIRY_NANOS) {
+				if(journal.deadRecords > 0) {
+					this.compact(journal);
+				} else if(journal.unwrittenRecords.isEmpty() && journal.replayedRecords.isEmpty() && journal.pendingWrites.get() == 0) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compacts all journals in memory that contain records replayed to chunks that have been saved.
+	 * Called when the world is saved, after the chunks have been saved
+	 */
+	public void compactAll() {
+		for(RegionJournal journal : this.journals.values()) {
+			if(journal.deadRecords > 0) {
+				this.compact(journal);
+			}
+		}
+	}
+
+	/**
+	 * Returns the total number of queued deferred operations
+	 * @return
+	 */
+	public long getQueuedOperations() {
+		return this.queuedOperations;
+	}
+
+	/**
+	 * Returns the total number of replayed deferred operations
+	 * @return
+	 */
+	public long getAppliedOperations() {
+		return this.appliedOperations;
+	}
+
+	/**
+	 * Returns the number of deferred operations that could not be read or whose type is unknown
+	 * @return
+	 */
+	public long getFailedOperations() {
+		return this.failedOperations;
+	}
+
+	/**
+	 * Returns the number of deferred operations that were moved from the old region chunk data to the journal
+	 * @return
+	 */
+	public long getMigratedOperations() {
+		return this.migratedOperations;
+	}
+
+	/**
+	 * Returns the number of journal compactions
+	 * @return
+	 */
+	public long getCompactions() {
+		return this.compactions;
+	}
+
+	/**
+	 * Returns the number of operations in the journals that are currently in memory and have not been replayed yet
+	 * @return
+	 */
+	public int getPendingOperations() {
+		int pending = 0;
+		for(RegionJournal journal : this.journals.values()) {
+			pending += journal.liveRecords;
+		}
+		return pending;
+	}
+}
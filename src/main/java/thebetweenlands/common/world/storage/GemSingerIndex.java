@@ -0,0 +1,373 @@
+package thebetweenlands.common.world.storage;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraftforge.common.util.Constants;
+import thebetweenlands.common.item.misc.ItemGemSinger;
+
+/**
+ * Compact index of the gem singer targets in a chunk.
+ * The positions are stored per target and per 16x16x16 chunk section. Sections with few
+ * positions store them as a sorted array of packed 12 bit section indices, sections with many positions
+ * are switched to a 4096 bit bitset, so a section never needs more than 512 bytes.
+ * <p>
+ * Positions are encoded as in {@link BetweenlandsChunkStorage#getGemSingerTargetIndex(int, int, int)}.
+ */
+public class GemSingerIndex {
+	private static final int SECTIONS = 16;
+
+	/**
+	 * Sections with more positions than this are stored as bitset
+	 */
+	private static final int MAX_SPARSE_SIZE = 256;
+
+	private static final class Section {
+		private short[] sparse = new short[4];
+		private long[] bits;
+		private int size;
+
+		private int find(int index) {
+			return Arrays.binarySearch(this.sparse, 0, this.size, (short) index);
+		}
+
+		private boolean contains(int index) {
+			if(this.bits != null) {
+				return (this.bits[index >> 6] & (1L << (index & 63))) != 0;
+			}
+			return this.find(index) >= 0;
+		}
+
+		private boolean add(int index) {
+			if(this.bits != null) {
+				long mask = 1L << (index & 63);
+				if((this.bits[index >> 6] & mask) == 0) {
+					this.bits[index >> 6] |= mask;
+					this.size++;
+					return true;
+				}
+				return false;
+			}
+
+			int pos = this.find(index);
+			if(pos >= 0) {
+				return false;
+			}
+			pos = -pos - 1;
+
+			if(this.size == MAX_SPARSE_SIZE) {
+				this.bits = new long[64];
+				for(int i = 0; i < this.size; i++) {
+					this.bits[this.sparse[i] >> 6] |= 1L << (this.sparse[i] & 63);
+				}
+				this.sparse = null;
+				this.bits[index >> 6] |= 1L << (index & 63);
+				this.size++;
+				return true;
+			}
+
+			if(this.size == this.sparse.length) {
+				this.sparse = Arrays.copyOf(this.sparse, Math.min(MAX_SPARSE_SIZE, this.size * 2));
+			}
+			System.arraycopy(this.sparse, pos, this.sparse, pos + 1, this.size - pos);
+			this.sparse[pos] = (short) index;
+			this.size++;
+			return true;
+		}
+
+		private boolean remove(int index) {
+			if(this.bits != null) {
+				long mask = 1L << (index & 63);
+				if((this.bits[index >> 6] & mask) != 0) {
+					this.bits[index >> 6] &= ~mask;
+					this.size--;
+					return true;
+				}
+				return false;
+			}
+
+			int pos = this.find(index);
+			if(pos < 0) {
+				return false;
+			}
+			System.arraycopy(this.sparse, pos + 1, this.sparse, pos, this.size - pos - 1);
+			this.size--;
+			return true;
+		}
+
+		/**
+		 * Counts the positions within range and returns the section index of the nth one if n is not negative
+		 * @return The section index of the nth position if it was found, otherwise <code>-1 - count</code>
+		 */
+		private int select(int sectionY, int x, int y, int z, double rangeSq, int n) {
+			int count = 0;
+			if(this.bits != null) {
+				for(int word = 0; word < 64; word++) {
+					long remaining = this.bits[word];
+					while(remaining != 0) {
+						int index = (word << 6) | Long.numberOfTrailingZeros(remaining);
+						remaining &= remaining - 1;
+						if(isInRange(index, sectionY, x, y, z, rangeSq)) {
+							if(count++ == n) {
+								return index;
+							}
+						}
+					}
+				}
+			} else {
+				for(int i = 0; i < this.size; i++) {
+					int index = this.sparse[i];
+					if(isInRange(index, sectionY, x, y, z, rangeSq)) {
+						if(count++ == n) {
+							return index;
+						}
+					}
+				}
+			}
+			return -1 - count;
+		}
+
+		private void forEach(int sectionY, IntConsumer consumer) {
+			int offset = sectionY << 12;
+			if(this.bits != null) {
+				for(int word = 0; word < 64; word++) {
+					long remaining = this.bits[word];
+					while(remaining != 0) {
+						consumer.accept(offset | (word << 6) | Long.numberOfTrailingZeros(remaining));
+						remaining &= remaining - 1;
+					}
+				}
+			} else {
+				for(int i = 0; i < this.size; i++) {
+					consumer.accept(offset | this.sparse[i]);
+				}
+			}
+		}
+
+		private NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+			int[] data;
+			if(this.bits != null) {
+				data = new int[128];
+				for(int i = 0; i < 64; i++) {
+					data[i * 2] = (int) this.bits[i];
+					data[i * 2 + 1] = (int) (this.bits[i] >>> 32);
+				}
+				nbt.setIntArray("bits", data);
+			} else {
+				//Two section indices per int
+				data = new int[(this.size + 1) / 2];
+				for(int i = 0; i < this.size; i++) {
+					data[i >> 1] |= (this.sparse[i] & 0xFFFF) << ((i & 1) << 4);
+				}
+				nbt.setIntArray("positions", data);
+				nbt.setShort("size", (short) this.size);
+			}
+			return nbt;
+		}
+
+		private void readFromNBT(NBTTagCompound nbt) {
+			if(nbt.hasKey("bits", Constants.NBT.TAG_INT_ARRAY)) {
+				int[] data = nbt.getIntArray("bits");
+				if(data.length == 128) {
+					this.bits = new long[64];
+					this.sparse = null;
+					this.size = 0;
+					for(int i = 0; i < 64; i++) {
+						this.bits[i] = (data[i * 2] & 0xFFFFFFFFL) | ((long) data[i * 2 + 1] << 32);
+						this.size += Long.bitCount(this.bits[i]);
+					}
+				}
+			} else {
+				int[] data = nbt.getIntArray("positions");
+				int size = Math.min(nbt.getShort("size"), data.length * 2);
+				for(int i = 0; i < size; i++) {
+					this.add((data[i >> 1] >>> ((i & 1) << 4)) & 0xFFF);
+				}
+			}
+		}
+	}
+
+	private final Section[][] targets = new Section[ItemGemSinger.GemSingerTarget.values().length][];
+	private final int[] sizes = new int[ItemGemSinger.GemSingerTarget.values().length];
+
+	private static boolean isInRange(int sectionIndex, int sectionY, int x, int y, int z, double rangeSq) {
+		int dx = (sectionIndex & 15) - x;
+		int dy = ((sectionY << 4) | (sectionIndex >> 8)) - y;
+		int dz = ((sectionIndex >> 4) & 15) - z;
+		return (double) (dx * dx + dy * dy + dz * dz) <= rangeSq;
+	}
+
+	private Section getSection(ItemGemSinger.GemSingerTarget target, int index, boolean create) {
+		Section[] sections = this.targets[target.ordinal()];
+		if(sections == null) {
+			if(!create) {
+				return null;
+			}
+			this.targets[target.ordinal()] = sections = new Section[SECTIONS];
+		}
+		Section section = sections[(index >> 12) & 15];
+		if(section == null && create) {
+			sections[(index >> 12) & 15] = section = new Section();
+		}
+		return section;
+	}
+
+	/**
+	 * Adds a position
+	 * @param target Gem target type
+	 * @param index Encoded position
+	 * @return true if the position was not contained yet
+	 */
+	public boolean add(ItemGemSinger.GemSingerTarget target, int index) {
+		if(this.getSection(target, index, true).add(index & 4095)) {
+			this.sizes[target.ordinal()]++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes a position
+	 * @param target Gem target type
+	 * @param index Encoded position
+	 * @return true if the position was contained
+	 */
+	public boolean remove(ItemGemSinger.GemSingerTarget target, int index) {
+		Section section = this.getSection(target, index, false);
+		if(section != null && section.remove(index & 4095)) {
+			if(section.size == 0) {
+				this.targets[target.ordinal()][(index >> 12) & 15] = null;
+			}
+			if(--this.sizes[target.ordinal()] == 0) {
+				this.targets[target.ordinal()] = null;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether a position is contained
+	 * @param target Gem target type
+	 * @param index Encoded position
+	 * @return
+	 */
+	public boolean contains(ItemGemSinger.GemSingerTarget target, int index) {
+		Section section = this.getSection(target, index, false);
+		return section != null && section.contains(index & 4095);
+	}
+
+	/**
+	 * Returns the number of positions of the specified target type
+	 * @param target
+	 * @return
+	 */
+	public int size(ItemGemSinger.GemSingerTarget target) {
+		return this.sizes[target.ordinal()];
+	}
+
+	/**
+	 * Calls the consumer for each position of the specified target type
+	 * @param target Gem target type
+	 * @param consumer Receives the encoded positions
+	 */
+	public void forEach(ItemGemSinger.GemSingerTarget target, IntConsumer consumer) {
+		Section[] sections = this.targets[target.ordinal()];
+		if(sections != null) {
+			for(int sectionY = 0; sectionY < SECTIONS; sectionY++) {
+				if(sections[sectionY] != null) {
+					sections[sectionY].forEach(sectionY, consumer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks a uniformly random position of the specified target type within range without allocating
+	 * @param target Gem target type
+	 * @param rand RNG to pick the position
+	 * @param x Chunk relative X of the range center
+	 * @param y Y of the range center
+	 * @param z Chunk relative Z of the range center
+	 * @param rangeSq Squared maximum distance
+	 * @return The encoded position, or -1 if none was found
+	 */
+	public int findRandom(ItemGemSinger.GemSingerTarget target, Random rand, int x, int y, int z, double rangeSq) {
+		Section[] sections = this.targets[target.ordinal()];
+		if(sections == null) {
+			return -1;
+		}
+
+		int count = 0;
+		for(int sectionY = 0; sectionY < SECTIONS; sectionY++) {
+			if(sections[sectionY] != null) {
+				count += -1 - sections[sectionY].select(sectionY, x, y, z, rangeSq, -1);
+			}
+		}
+
+		if(count == 0) {
+			return -1;
+		}
+
+		int n = rand.nextInt(count);
+		for(int sectionY = 0; sectionY < SECTIONS; sectionY++) {
+			if(sections[sectionY] != null) {
+				int result = sections[sectionY].select(sectionY, x, y, z, rangeSq, n);
+				if(result >= 0) {
+					return (sectionY << 12) | result;
+				}
+				n -= -1 - result;
+			}
+		}
+
+		return -1;
+	}
+
+	public void clear() {
+		Arrays.fill(this.targets, null);
+		Arrays.fill(this.sizes, 0);
+	}
+
+	public NBTTagList writeToNBT() {
+		NBTTagList list = new NBTTagList();
+		for(ItemGemSinger.GemSingerTarget target : ItemGemSinger.GemSingerTarget.values()) {
+			Section[] sections = this.targets[target.ordinal()];
+			if(sections != null) {
+				NBTTagCompound targetNbt = new NBTTagCompound();
+				targetNbt.setInteger("id", target.getId());
+				NBTTagList sectionsNbt = new NBTTagList();
+				for(int sectionY = 0; sectionY < SECTIONS; sectionY++) {
+					if(sections[sectionY] != null) {
+						NBTTagCompound sectionNbt = sections[sectionY].writeToNBT(new NBTTagCompound());
+						sectionNbt.setByte("y", (byte) sectionY);
+						sectionsNbt.appendTag(sectionNbt);
+					}
+				}
+				targetNbt.setTag("sections", sectionsNbt);
+				list.appendTag(targetNbt);
+			}
+		}
+		return list;
+	}
+
+	public void readFromNBT(NBTTagList list) {
+		this.clear();
+		for(int i = 0; i < list.tagCount(); i++) {
+			NBTTagCompound targetNbt = list.getCompoundTagAt(i);
+			ItemGemSinger.GemSingerTarget target = ItemGemSinger.GemSingerTarget.byId(targetNbt.getInteger("id"));
+			if(target != null) {
+				NBTTagList sectionsNbt = targetNbt.getTagList("sections", Constants.NBT.TAG_COMPOUND);
+				for(int j = 0; j < sectionsNbt.tagCount(); j++) {
+					NBTTagCompound sectionNbt = sectionsNbt.getCompoundTagAt(j);
+					int sectionY = sectionNbt.getByte("y") & 15;
+					Section section = this.getSection(target, sectionY << 12, true);
+					section.readFromNBT(sectionNbt);
+					this.sizes[target.ordinal()] += section.size;
+				}
+			}
+		}
+	}
+}
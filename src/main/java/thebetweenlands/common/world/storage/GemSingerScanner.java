@@ -0,0 +1,128 @@
+package thebetweenlands.common.world.storage;
+
+import java.util.concurrent.CompletableFuture;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import thebetweenlands.common.item.misc.ItemGemSinger;
+import thebetweenlands.common.world.gen.WorldPregenerator;
+
+/**
+ * Rescans chunks for gem singer targets on the world generation worker pool.
+ * The chunk sections are copied as block state ids on the server thread and the copies are then
+ * scanned by the worker, so the server thread doesn't need to test every block against every target.
+ */
+public class GemSingerScanner {
+	/**
+	 * Copy of the block state ids of the scanned chunk sections
+	 */
+	private static final class Snapshot {
+		private final byte[][] blockIds;
+		private final NibbleArray[] metadata;
+		private final NibbleArray[] extendedIds;
+		private final int maxY;
+
+		private Snapshot(int sections, int maxY) {
+			this.blockIds = new byte[sections][];
+			this.metadata = new NibbleArray[sections];
+			this.extendedIds = new NibbleArray[sections];
+			this.maxY = maxY;
+		}
+	}
+
+	/**
+	 * Maps block state ids to the gem singer target ordinal + 1, or 0 if the state isn't a target
+	 */
+	private byte[] stateTargets;
+
+	/**
+	 * Builds the lookup table from block state ids to targets. Must be called on the server thread
+	 */
+	private byte[] getStateTargets() {
+		if(this.stateTargets == null) {
+			int maxId = 0;
+			for(IBlockState state : Block.BLOCK_STATE_IDS) {
+				if(state != null) {
+					maxId = Math.max(maxId, Block.BLOCK_STATE_IDS.get(state));
+				}
+			}
+
+			byte[] stateTargets = new byte[maxId + 1];
+			for(IBlockState state : Block.BLOCK_STATE_IDS) {
+				if(state != null) {
+					for(ItemGemSinger.GemSingerTarget target : ItemGemSinger.GemSingerTarget.values()) {
+						if(target.test(state)) {
+							stateTargets[Block.BLOCK_STATE_IDS.get(state)] = (byte) (target.ordinal() + 1);
+							break;
+						}
+					}
+				}
+			}
+
+			this.stateTargets = stateTargets;
+		}
+		return this.stateTargets;
+	}
+
+	/**
+	 * Copies the sections of the chunk below maxY and scans the copy on the worker pool.
+	 * Must be called on the server thread
+	 * @param chunk Chunk to scan
+	 * @param maxY Blocks at and above this height are not scanned
+	 * @return
+	 */
+	public CompletableFuture<GemSingerIndex> scan(Chunk chunk, int maxY) {
+		byte[] stateTargets = this.getStateTargets();
+
+		ExtendedBlockStorage[] storages = chunk.getBlockStorageArray();
+		int sections = Math.min(storages.length, (maxY + 15) >> 4);
+
+		Snapshot snapshot = new Snapshot(sections, maxY);
+		for(int i = 0; i < sections; i++) {
+			ExtendedBlockStorage storage = storages[i];
+			if(storage != Chunk.NULL_BLOCK_STORAGE && !storage.isEmpty()) {
+				byte[] blockIds = new byte[4096];
+				NibbleArray metadata = new NibbleArray();
+				snapshot.extendedIds[i] = storage.getData().getDataForNBT(blockIds, metadata);
+				snapshot.blockIds[i] = blockIds;
+				snapshot.metadata[i] = metadata;
+			}
+		}
+
+		return CompletableFuture.supplyAsync(() -> scan(snapshot, stateTargets), WorldPregenerator.getWorkerPool());
+	}
+
+	private static GemSingerIndex scan(Snapshot snapshot, byte[] stateTargets) {
+		ItemGemSinger.GemSingerTarget[] targets = ItemGemSinger.GemSingerTarget.values();
+
+		GemSingerIndex index = new GemSingerIndex();
+
+		for(int section = 0; section < snapshot.blockIds.length; section++) {
+			byte[] blockIds = snapshot.blockIds[section];
+			if(blockIds == null) {
+				continue;
+			}
+
+			NibbleArray metadata = snapshot.metadata[section];
+			NibbleArray extendedIds = snapshot.extendedIds[section];
+
+			int maxIndex = Math.min(4096, (snapshot.maxY - (section << 4)) << 8);
+
+			for(int i = 0; i < maxIndex; i++) {
+				int stateId = ((blockIds[i] & 255) << 4) | metadata.getFromIndex(i);
+				if(extendedIds != null) {
+					stateId |= extendedIds.getFromIndex(i) << 12;
+				}
+
+				if(stateId < stateTargets.length && stateTargets[stateId] != 0) {
+					index.add(targets[stateTargets[stateId] - 1], (section << 12) | i);
+				}
+			}
+		}
+
+		return index;
+	}
+}
@@ -4,17 +4,70 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
+import net.minecraft.nbt.NBTTagCompound;
 import thebetweenlands.api.storage.LocalRegion;
 import thebetweenlands.common.TheBetweenlands;
 
 public class LocalRegionCache {
+	private static final ExecutorService REGION_LOADER = Executors.newFixedThreadPool(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r);
+			thread.setName("BL Local Region Loader #" + REGION_LOADER_THREAD_ID.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final AtomicInteger REGION_LOADER_THREAD_ID = new AtomicInteger(0);
+
+	/**
+	 * Maximum number of prefetched regions that are waiting to be used. Once reached
+	 * the least recently requested prefetched region is discarded for a new one
+	 */
+	private static final int MAX_PENDING_READS = 64;
+
+	/**
+	 * Number of ticks after which an unused prefetched region is discarded
+	 */
+	private static final int PENDING_READ_EXPIRY = 1200;
+
+	private static class PendingRead {
+		private final CompletableFuture<NBTTagCompound> future;
+		private final long queueTime;
+
+		private PendingRead(CompletableFuture<NBTTagCompound> future, long queueTime) {
+			this.future = future;
+			this.queueTime = queueTime;
+		}
+	}
+
 	private final Map<LocalRegion, LocalRegionData> regionData = new HashMap<LocalRegion, LocalRegionData>();
 
+	/**
+	 * Prefetched regions in the order they were last requested
+	 */
+	private final Map<LocalRegion, PendingRead> pendingReads = new LinkedHashMap<LocalRegion, PendingRead>(16, 0.75F, true);
+
+	private long prefetchHits;
+	private long prefetchStalls;
+	private long prefetchMisses;
+	private long prefetchEvictions;
+	private long stallNanos;
+
 	private final File dir;
 
 	private final LocalStorageHandlerImpl handler;
@@ -55,7 +108,42 @@ public class LocalRegionCache {
 	public LocalRegionData getOrCreateRegion(LocalRegion region, boolean create) {
 		LocalRegionData data = this.regionData.get(region);
 		if(data == null) {
-			data = LocalRegionData.getOrCreateRegion(this, this.dir, region, create);
+			PendingRead pendingRead = this.pendingReads.remove(region);
+
+			if(pendingRead != null) {
+				NBTTagCompound regionNbt = null;
+				boolean loaded = false;
+
+				if(pendingRead.future.isDone()) {
+					this.prefetchHits++;
+				} else {
+					this.prefetchStalls++;
+				}
+
+				long startTime = System.nanoTime();
+				try {
+					regionNbt = pendingRead.future.get();
+					loaded = true;
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} catch(ExecutionException ex) {
+					//Fall back to synchronous loading which takes care of corrupted files
+				}
+				this.stallNanos += System.nanoTime() - startTime;
+
+				if(loaded) {
+					data = LocalRegionData.createRegion(this, region, regionNbt, create);
+				} else {
+					data = LocalRegionData.getOrCreateRegion(this, this.dir, region, create);
+				}
+			} else {
+				this.prefetchMisses++;
+
+				long startTime = System.nanoTime();
+				data = LocalRegionData.getOrCreateRegion(this, this.dir, region, create);
+				this.stallNanos += System.nanoTime() - startTime;
+			}
+
 			if(data != null) {
 				this.regionData.put(region, data);
 			}
@@ -63,6 +151,113 @@ public class LocalRegionCache {
 		return data;
 	}
 
+	/**
+	 * Starts reading the specified region on the region loader thread so that
+	 * {@link #getOrCreateRegion(LocalRegion, boolean)} does not need to block once the region is needed.
+	 * Does nothing if the region is already cached, being read or has never been saved.
+	 * If too many prefetched regions are waiting to be used the least recently requested one is discarded.
+	 * @param region
+	 * @param worldTime
+	 * @return True if a new read was queued
+	 */
+	public boolean prefetchRegion(LocalRegion region, long worldTime) {
+		if(this.regionData.containsKey(region)) {
+			return false;
+		}
+
+		if(this.pendingReads.get(region) != null) {
+			//Only marks the read as recently requested
+			return false;
+		}
+
+		final File file = LocalRegionData.getRegionFile(this.dir, region);
+		final File legacyFile = LocalRegionData.getLegacyRegionFile(this.dir, region);
+		final LocalStorageSaveHandler saveHandler = this.handler.getSaveHandler();
+
+		if(!file.exists() && !legacyFile.exists()) {
+			return false;
+		}
+
+		if(this.pendingReads.size() >= MAX_PENDING_READS) {
+			Iterator<PendingRead> it = this.pendingReads.values().iterator();
+			PendingRead eldest = it.next();
+			it.remove();
+
+			//Skips the read if it hasn't started yet
+			eldest.future.cancel(false);
+
+			this.prefetchEvictions++;
+		}
+
+		//The save handler returns the pending write if there is one, so the read
+		//always sees the latest data of a region that is no longer cached
+		CompletableFuture<NBTTagCompound> future = CompletableFuture.supplyAsync(() -> {
+			try {
+				return saveHandler.loadRegionNbt(file, legacyFile);
+			} catch(Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}, REGION_LOADER);
+
+		this.pendingReads.put(region, new PendingRead(future, worldTime));
+
+		return true;
+	}
+
+	/**
+	 * Discards prefetched regions that have not been used for a while
+	 * @param worldTime
+	 */
+	public void updatePrefetchedRegions(long worldTime) {
+		Iterator<PendingRead> it = this.pendingReads.values().iterator();
+		while(it.hasNext()) {
+			PendingRead pendingRead = it.next();
+			if(worldTime - pendingRead.queueTime > PENDING_READ_EXPIRY && pendingRead.future.isDone()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns how many regions were requested after they had already been prefetched
+	 * @return
+	 */
+	public long getPrefetchHits() {
+		return this.prefetchHits;
+	}
+
+	/**
+	 * Returns how many regions were requested while they were still being prefetched
+	 * @return
+	 */
+	public long getPrefetchStalls() {
+		return this.prefetchStalls;
+	}
+
+	/**
+	 * Returns how many regions had to be read synchronously because they were not prefetched
+	 * @return
+	 */
+	public long getPrefetchMisses() {
+		return this.prefetchMisses;
+	}
+
+	/**
+	 * Returns how many prefetched regions were discarded before they were used to make room for newer ones
+	 * @return
+	 */
+	public long getPrefetchEvictions() {
+		return this.prefetchEvictions;
+	}
+
+	/**
+	 * Returns the total time in nanoseconds the server thread was blocked by reading regions
+	 * @return
+	 */
+	public long getStallNanos() {
+		return this.stallNanos;
+	}
+
 	/**
 	 * Returns the cached region data of the specified region, or null if that region is not cached
 	 * @param region
@@ -83,13 +278,15 @@ public class LocalRegionCache {
 
 	/**
 	 * Saves all regions
+	 * @param mustQueue Whether all regions must be queued even if the writer threads are busy. Otherwise
+	 * the regions that couldn't be queued stay dirty and are saved next time
 	 */
-	public void saveAllRegions() {
+	public void saveAllRegions(boolean mustQueue) {
 		List<LocalRegionData> unloadRegions = new ArrayList<>();
 
 		for(LocalRegionData data : this.regionData.values()) {
 			if(data.isDirty()) {
-				data.saveRegion(this.dir);
+				data.saveRegion(this.dir, mustQueue || !data.hasReferences());
 			}
 
 			//Unload dangling regions that for some reason haven't been unloaded properly (should be none)
@@ -109,6 +306,7 @@ public class LocalRegionCache {
 	 */
 	public void clearCache() {
 		this.regionData.clear();
+		this.pendingReads.clear();
 	}
 
 	/**
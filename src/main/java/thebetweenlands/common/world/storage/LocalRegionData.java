@@ -1,12 +1,15 @@
 package thebetweenlands.common.world.storage;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
-import org.apache.commons.io.FileUtils;
-
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraftforge.common.util.Constants;
@@ -20,6 +23,8 @@ public class LocalRegionData {
 	private int refCounter;
 	private boolean dirty;
 
+	private final Set<String> dirtyEntries = new HashSet<>();
+
 	private final LocalRegionCache cache;
 
 	private LocalRegionData(LocalRegionCache cache, LocalRegion region, NBTTagCompound nbt) {
@@ -41,33 +46,57 @@ public class LocalRegionData {
 	@Nullable
 	public static LocalRegionData getOrCreateRegion(LocalRegionCache cache, File dir, LocalRegion region, boolean create) {
 		NBTTagCompound regionNbt = null;
-		File file = new File(dir, region.getFileName() + ".dat");
+		File file = getRegionFile(dir, region);
 		try {
-			regionNbt = cache.getLocalStorageHandler().getSaveHandler().loadFileNbt(file);
+			regionNbt = cache.getLocalStorageHandler().getSaveHandler().loadRegionNbt(file, getLegacyRegionFile(dir, region));
 		} catch(Exception ex) {
 			TheBetweenlands.logger.error("Failed loading local region cache", ex);
-			File backup = new File(file.getAbsolutePath() + ".backup");
-			try {
-				FileUtils.copyFile(file, backup);
-				TheBetweenlands.logger.info(String.format("Created a backup of local region cache at %s", backup.getAbsolutePath()));
-			} catch (IOException e) {
-				TheBetweenlands.logger.error("Failed creating backup of local region cache", e);
-			}
-			try {
-				file.delete();
-			} catch(Exception e) {}
+			cache.getLocalStorageHandler().getSaveHandler().deleteCorruptedRegion(file, getLegacyRegionFile(dir, region));
 			regionNbt = null;
 		}
+		return createRegion(cache, region, regionNbt, create);
+	}
+
+	/**
+	 * Creates the region from already loaded NBT. If the NBT is null and {@code create} is true a new region is created
+	 * @param cache
+	 * @param region
+	 * @param regionNbt
+	 * @param create
+	 * @return
+	 */
+	@Nullable
+	public static LocalRegionData createRegion(LocalRegionCache cache, LocalRegion region, @Nullable NBTTagCompound regionNbt, boolean create) {
 		if(regionNbt == null) {
 			if(!create) {
 				return null;
 			}
-			
+
 			regionNbt = new NBTTagCompound();
 		}
 		return new LocalRegionData(cache, region, regionNbt);
 	}
 
+	/**
+	 * Returns the file the specified region is saved to
+	 * @param dir
+	 * @param region
+	 * @return
+	 */
+	public static File getRegionFile(File dir, LocalRegion region) {
+		return new File(dir, region.getFileName() + LocalRegionFile.EXTENSION);
+	}
+
+	/**
+	 * Returns the file the specified region was saved to before regions were split into individual entries
+	 * @param dir
+	 * @param region
+	 * @return
+	 */
+	public static File getLegacyRegionFile(File dir, LocalRegion region) {
+		return new File(dir, region.getFileName() + ".dat");
+	}
+
 	/**
 	 * Returns the region ID
 	 * @return
@@ -121,7 +150,7 @@ public class LocalRegionData {
 	 */
 	public void setLocalStorageNBT(StorageID id, NBTTagCompound nbt) {
 		this.nbt.setTag(id.getStringID(), nbt);
-		this.dirty = true;
+		this.markEntryDirty(id.getStringID());
 	}
 
 	/**
@@ -132,7 +161,7 @@ public class LocalRegionData {
 	 */
 	public boolean deleteLocalStorage(File dir, StorageID id) {
 		if(this.nbt.hasKey(id.getStringID(), Constants.NBT.TAG_COMPOUND)) {
-			this.dirty = true;
+			this.markEntryDirty(id.getStringID());
 			this.nbt.removeTag(id.getStringID());
 			if(this.nbt.getSize() == 0) {
 				this.deleteRegionFile(dir);
@@ -144,9 +173,35 @@ public class LocalRegionData {
 
 	public void setChunkNBT(ChunkPos chunk, NBTTagCompound nbt) {
 		this.nbt.setTag("ChunkData." + chunk.x + "." + chunk.z, nbt);
+		this.markEntryDirty("ChunkData." + chunk.x + "." + chunk.z);
+	}
+
+	private void markEntryDirty(String key) {
+		this.dirtyEntries.add(key);
 		this.dirty = true;
 	}
 
+	/**
+	 * Returns the positions of all chunks that have chunk data in this region
+	 * @return
+	 */
+	public List<ChunkPos> getChunkPositions() {
+		List<ChunkPos> chunks = new ArrayList<>();
+		for(String key : this.nbt.getKeySet()) {
+			if(key.startsWith("ChunkData.")) {
+				String[] coords = key.split("\\.");
+				if(coords.length == 3) {
+					try {
+						chunks.add(new ChunkPos(Integer.parseInt(coords[1]), Integer.parseInt(coords[2])));
+					} catch(NumberFormatException ex) {
+						//Not a chunk entry
+					}
+				}
+			}
+		}
+		return chunks;
+	}
+
 	@Nullable
 	public NBTTagCompound getChunkNBT(ChunkPos chunk) {
 		if(this.nbt.hasKey("ChunkData." + chunk.x + "." + chunk.z, Constants.NBT.TAG_COMPOUND)) {
@@ -164,17 +219,29 @@ public class LocalRegionData {
 	}
 
 	/**
-	 * Saves the region to a file
+	 * Saves the changed entries of the region to its file
 	 * @param dir
+	 * @param mustQueue Whether the changes must be queued even if the writer threads are busy, e.g. because the region is about to be unloaded
+	 * @return False if the changes weren't queued because the writer threads are busy, in which case the region stays dirty
 	 */
-	public void saveRegion(File dir) {
+	public boolean saveRegion(File dir, boolean mustQueue) {
 		if(this.nbt.getSize() > 0) {
-			File file = new File(dir, this.getID() + ".dat");
-			this.cache.getLocalStorageHandler().getSaveHandler().queueRegion(file, this.nbt.copy());
+			if(!this.dirtyEntries.isEmpty()) {
+				//Only the changed entries are copied and written
+				Map<String, NBTTagCompound> entries = new LinkedHashMap<>();
+				for(String key : this.dirtyEntries) {
+					entries.put(key, this.nbt.hasKey(key, Constants.NBT.TAG_COMPOUND) ? this.nbt.getCompoundTag(key).copy() : null);
+				}
+				if(!this.cache.getLocalStorageHandler().getSaveHandler().queueRegionEntries(getRegionFile(dir, this.region), entries, mustQueue)) {
+					return false;
+				}
+			}
 		} else {
 			this.deleteRegionFile(dir);
 		}
+		this.dirtyEntries.clear();
 		this.dirty = false;
+		return true;
 	}
 
 	/**
@@ -182,7 +249,6 @@ public class LocalRegionData {
 	 * @param dir
 	 */
 	public void deleteRegionFile(File dir) {
-		File file = new File(dir, this.getID() + ".dat");
-		this.cache.getLocalStorageHandler().getSaveHandler().queueRegion(file, null);
+		this.cache.getLocalStorageHandler().getSaveHandler().queueRegionDeletion(getRegionFile(dir, this.region), true);
 	}
 }
@@ -0,0 +1,300 @@
+package thebetweenlands.common.world.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+
+/**
+ * Sectorised local storage region file. Every entry (a local storage or the data of a chunk) is compressed
+ * individually and stored in its own run of sectors, so that single entries can be read and rewritten
+ * without touching the rest of the region.
+ * <p>
+ * Layout: sector 0 is the header containing the location of the entry table. The entry table and the entries
+ * are stored in the remaining sectors. New data is always written to free sectors and synced to disk before
+ * the header is updated, so an interrupted write leaves the previous state of the file intact.
+ * <p>
+ * The entry table is only read when the file is opened, so an instance should be kept open while the
+ * region is in use, and the file must not be changed by anything else in the meantime.
+ */
+public class LocalRegionFile {
+	public static final String EXTENSION = ".blr";
+
+	private static final int SECTOR_SIZE = 4096;
+	private static final int MAGIC = 0x424C5247; //BLRG
+	private static final int VERSION = 1;
+
+	private static class Slot {
+		private final int sector;
+		private final int sectorCount;
+		private final int length;
+
+		private Slot(int sector, int sectorCount, int length) {
+			this.sector = sector;
+			this.sectorCount = sectorCount;
+			this.length = length;
+		}
+	}
+
+	private final File file;
+	private final RandomAccessFile dataFile;
+
+	private final Map<String, Slot> entries = new LinkedHashMap<>();
+	private final BitSet usedSectors = new BitSet();
+
+	private Slot indexSlot;
+
+	public LocalRegionFile(File file) throws IOException {
+		this.file = file;
+
+		file.getParentFile().mkdirs();
+
+		this.dataFile = new RandomAccessFile(file, "rw");
+
+		try {
+			if(this.dataFile.length() < SECTOR_SIZE) {
+				this.indexSlot = null;
+				this.writeHeader();
+			} else {
+				this.readHeaderAndIndex();
+			}
+		} catch(IOException ex) {
+			this.dataFile.close();
+			throw ex;
+		}
+
+		this.usedSectors.set(0);
+	}
+
+	/**
+	 * Returns the file of this region
+	 * @return
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	private void readHeaderAndIndex() throws IOException {
+		this.dataFile.seek(0);
+
+		int magic = this.dataFile.readInt();
+		if(magic != MAGIC) {
+			throw new IOException(String.format("Invalid local region file header in %s", this.file.getAbsolutePath()));
+		}
+
+		int version = this.dataFile.readInt();
+		if(version > VERSION) {
+			throw new IOException(String.format("Unsupported local region file version %d in %s", version, this.file.getAbsolutePath()));
+		}
+
+		int indexSector = this.dataFile.readInt();
+		int indexSectorCount = this.dataFile.readInt();
+		int indexLength = this.dataFile.readInt();
+
+		if(indexSectorCount > 0) {
+			this.indexSlot = new Slot(indexSector, indexSectorCount, indexLength);
+			this.usedSectors.set(indexSector, indexSector + indexSectorCount);
+
+			byte[] indexData = this.readSlot(this.indexSlot);
+
+			try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(indexData))) {
+				int entryCount = in.readInt();
+				for(int i = 0; i < entryCount; i++) {
+					String key = in.readUTF();
+					Slot slot = new Slot(in.readInt(), in.readInt(), in.readInt());
+					this.entries.put(key, slot);
+					this.usedSectors.set(slot.sector, slot.sector + slot.sectorCount);
+				}
+			}
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream(SECTOR_SIZE);
+		try(DataOutputStream out = new DataOutputStream(header)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.indexSlot != null ? this.indexSlot.sector : 0);
+			out.writeInt(this.indexSlot != null ? this.indexSlot.sectorCount : 0);
+			out.writeInt(this.indexSlot != null ? this.indexSlot.length : 0);
+		}
+		this.dataFile.seek(0);
+		this.dataFile.write(header.toByteArray());
+		this.dataFile.write(new byte[SECTOR_SIZE - header.size()]);
+	}
+
+	private byte[] readSlot(Slot slot) throws IOException {
+		if((long) slot.sector * SECTOR_SIZE + slot.length > this.dataFile.length()) {
+			throw new IOException(String.format("Truncated local region file %s", this.file.getAbsolutePath()));
+		}
+		byte[] data = new byte[slot.length];
+		this.dataFile.seek((long) slot.sector * SECTOR_SIZE);
+		this.dataFile.readFully(data);
+		return data;
+	}
+
+	private Slot writeSlot(byte[] data) throws IOException {
+		int sectorCount = (data.length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+		int sector = this.allocate(sectorCount);
+
+		this.dataFile.seek((long) sector * SECTOR_SIZE);
+		this.dataFile.write(data);
+
+		int padding = sectorCount * SECTOR_SIZE - data.length;
+		if(padding > 0) {
+			this.dataFile.write(new byte[padding]);
+		}
+
+		this.usedSectors.set(sector, sector + sectorCount);
+
+		return new Slot(sector, sectorCount, data.length);
+	}
+
+	private int allocate(int sectorCount) {
+		int start = this.usedSectors.nextClearBit(1);
+		while(true) {
+			int end = this.usedSectors.nextSetBit(start);
+			if(end < 0 || end - start >= sectorCount) {
+				return start;
+			}
+			start = this.usedSectors.nextClearBit(end);
+		}
+	}
+
+	/**
+	 * Returns the keys of all entries in this region
+	 * @return
+	 */
+	public synchronized Set<String> getKeys() {
+		return Collections.unmodifiableSet(this.entries.keySet());
+	}
+
+	/**
+	 * Returns whether this region contains no entries
+	 * @return
+	 */
+	public synchronized boolean isEmpty() {
+		return this.entries.isEmpty();
+	}
+
+	/**
+	 * Reads the entry with the specified key
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	@Nullable
+	public synchronized NBTTagCompound read(String key) throws IOException {
+		Slot slot = this.entries.get(key);
+		if(slot == null) {
+			return null;
+		}
+		byte[] data = this.readSlot(slot);
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(data))))) {
+			return CompressedStreamTools.read(in, NBTSizeTracker.INFINITE);
+		}
+	}
+
+	/**
+	 * Reads all entries of this region into one compound
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized NBTTagCompound readAll() throws IOException {
+		NBTTagCompound nbt = new NBTTagCompound();
+		for(String key : this.entries.keySet()) {
+			nbt.setTag(key, this.read(key));
+		}
+		return nbt;
+	}
+
+	/**
+	 * Writes the specified entries. A null value removes the entry.
+	 * All new data is written before the header is updated and the old sectors are released.
+	 * @param changes
+	 * @throws IOException
+	 */
+	public synchronized void write(Map<String, NBTTagCompound> changes) throws IOException {
+		if(changes.isEmpty()) {
+			return;
+		}
+
+		BitSet releasedSectors = new BitSet();
+
+		for(Map.Entry<String, NBTTagCompound> change : changes.entrySet()) {
+			NBTTagCompound nbt = change.getValue();
+
+			Slot newSlot = null;
+			if(nbt != null) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(bytes)))) {
+					CompressedStreamTools.write(nbt, out);
+				}
+				newSlot = this.writeSlot(bytes.toByteArray());
+			}
+
+			Slot oldSlot = newSlot != null ? this.entries.put(change.getKey(), newSlot) : this.entries.remove(change.getKey());
+			if(oldSlot != null) {
+				releasedSectors.set(oldSlot.sector, oldSlot.sector + oldSlot.sectorCount);
+			}
+		}
+
+		if(this.indexSlot != null) {
+			releasedSectors.set(this.indexSlot.sector, this.indexSlot.sector + this.indexSlot.sectorCount);
+		}
+
+		ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+		try(DataOutputStream out = new DataOutputStream(indexBytes)) {
+			out.writeInt(this.entries.size());
+			for(Map.Entry<String, Slot> entry : this.entries.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().sector);
+				out.writeInt(entry.getValue().sectorCount);
+				out.writeInt(entry.getValue().length);
+			}
+		}
+		this.indexSlot = this.writeSlot(indexBytes.toByteArray());
+
+		//The new entries and entry table must be on disk before the header points to them,
+		//otherwise a crash could leave a header that references unwritten sectors
+		this.dataFile.getChannel().force(false);
+
+		this.writeHeader();
+
+		this.dataFile.getChannel().force(false);
+
+		this.usedSectors.andNot(releasedSectors);
+
+		//Trim unused sectors at the end of the file
+		int usedLength = this.usedSectors.length();
+		if((long) usedLength * SECTOR_SIZE < this.dataFile.length()) {
+			this.dataFile.setLength((long) usedLength * SECTOR_SIZE);
+		}
+	}
+
+	/**
+	 * Closes the file
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		this.dataFile.close();
+	}
+}
@@ -8,7 +8,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 
@@ -17,7 +16,7 @@ import com.google.common.base.Predicate;
 import gnu.trove.iterator.TObjectLongIterator;
 import gnu.trove.map.TObjectLongMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
-import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.util.ITickable;
@@ -26,6 +25,7 @@ import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.util.Constants;
 import thebetweenlands.api.network.IGenericDataManagerAccess;
@@ -39,10 +39,13 @@ import thebetweenlands.api.storage.LocalRegion;
 import thebetweenlands.api.storage.LocalStorageReference;
 import thebetweenlands.api.storage.StorageID;
 import thebetweenlands.common.TheBetweenlands;
-import thebetweenlands.common.network.clientbound.MessageSyncLocalStorageData;
+import thebetweenlands.common.network.datamanager.GenericDataManagerSyncBatch;
 import thebetweenlands.common.registries.StorageRegistry;
 
 public class LocalStorageHandlerImpl implements ILocalStorageHandler {
+	private static final int REGION_PREFETCH_INTERVAL = 10;
+	private static final int JOURNAL_EXPIRY_INTERVAL = 200;
+
 	private final IWorldStorage worldStorage;
 	private final World world;
 	private final File localStorageDir;
@@ -55,14 +58,19 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 
 	private final LocalRegionCache regionCache;
 
+	private final LocalStorageIndex storageIndex = new LocalStorageIndex();
+
 	private final LocalStorageSaveHandler saveHandler = new LocalStorageSaveHandler();
 
+	private final DeferredOperationJournal deferredOperationJournal;
+
 	public LocalStorageHandlerImpl(IWorldStorage worldStorage) {
 		this.worldStorage = worldStorage;
 		this.world = worldStorage.getWorld();
 		String dimFolder = this.world.provider.getSaveFolder();
 		this.localStorageDir = new File(this.world.getSaveHandler().getWorldDirectory(), (dimFolder != null && dimFolder.length() > 0 ? dimFolder + File.separator : "") + "data" + File.separator + "local_storage" + File.separator);
 		this.regionCache = new LocalRegionCache(this, new File(this.localStorageDir, "region"));
+		this.deferredOperationJournal = new DeferredOperationJournal(this.saveHandler, new File(this.localStorageDir, "journal"));
 	}
 
 	@Override
@@ -89,6 +97,8 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 
 			storage.onLoaded();
 
+			this.storageIndex.add(storage);
+
 			boolean isReferenced = false;
 
 			//Add already loaded references
@@ -131,6 +141,7 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 			}
 
 			this.localStorage.remove(storage.getID());
+			this.storageIndex.remove(storage);
 
 			Iterator<ILocalStorage> tickableIt = this.tickableLocalStorage.iterator();
 			while(tickableIt.hasNext()) {
@@ -174,59 +185,27 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 		return false;
 	}
 
+	/**
+	 * Re-indexes the specified local storage after its bounding box has changed
+	 * @param storage
+	 */
+	public void updateLocalStorageBounds(ILocalStorage storage) {
+		this.storageIndex.update(storage);
+	}
+
 	@Override
 	public ILocalStorage getLocalStorage(StorageID id) {
 		return this.localStorage.get(id);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends ILocalStorage> List<T> getLocalStorages(Class<T> type, double x, double z, @Nullable Predicate<T> filter) {
-		List<T> storages = new ArrayList<>();
-		int cx = MathHelper.floor(x) >> 4;
-		int cz = MathHelper.floor(z) >> 4;
-		Chunk chunk = this.world.getChunk(cx, cz);
-		IChunkStorage chunkStorage = this.getWorldStorage().getChunkStorage(chunk);
-		if(chunkStorage != null) {
-			for(LocalStorageReference ref : chunkStorage.getLocalStorageReferences()) {
-				ILocalStorage localStorage = this.getLocalStorage(ref.getID());
-				if(localStorage != null && localStorage.getBoundingBox() != null && type.isAssignableFrom(localStorage.getClass())
-						&& (filter == null || filter.apply((T) localStorage))) {
-					if(!storages.contains(localStorage)) {
-						storages.add((T) localStorage);
-					}
-				}
-			}
-		}
-		return storages;
+		return this.storageIndex.query(type, MathHelper.floor(x) >> 4, MathHelper.floor(z) >> 4, filter);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends ILocalStorage> List<T> getLocalStorages(Class<T> type, AxisAlignedBB aabb, @Nullable Predicate<T> filter) {
-		List<T> storages = new ArrayList<>();
-		int sx = MathHelper.floor(aabb.minX) >> 4;
-		int sz = MathHelper.floor(aabb.minZ) >> 4;
-		int ex = MathHelper.floor(aabb.maxX) >> 4;
-		int ez = MathHelper.floor(aabb.maxZ) >> 4;
-		for(int cx = sx; cx <= ex; cx++) {
-			for(int cz = sz; cz <= ez; cz++) {
-				Chunk chunk = this.world.getChunk(cx, cz);
-				IChunkStorage chunkStorage = this.getWorldStorage().getChunkStorage(chunk);
-				if(chunkStorage != null) {
-					for(LocalStorageReference ref : chunkStorage.getLocalStorageReferences()) {
-						ILocalStorage localStorage = this.getLocalStorage(ref.getID());
-						if(localStorage != null && localStorage.getBoundingBox() != null && type.isAssignableFrom(localStorage.getClass()) && localStorage.getBoundingBox().intersects(aabb)
-								&& (filter == null || filter.apply((T) localStorage))) {
-							if(!storages.contains(localStorage)) {
-								storages.add((T) localStorage);
-							}
-						}
-					}
-				}
-			}
-		}
-		return storages;
+		return this.storageIndex.query(type, aabb, filter);
 	}
 
 	@Override
@@ -237,7 +216,7 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 	private boolean deleteLocalStorageFileInternal(ILocalStorage storage) {
 		if(storage.getRegion() == null) {
 			File file = new File(this.getLocalStorageDirectory(), storage.getID().getStringID() + ".dat");
-			this.saveHandler.queueLocalStorage(file, null);
+			this.saveHandler.queueLocalStorage(file, null, true);
 		} else {
 			LocalRegionData data = this.regionCache.getOrCreateRegion(storage.getRegion(), false);
 
@@ -257,14 +236,21 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 
 	@Override
 	public void saveLocalStorageFile(ILocalStorage storage) {
-		this.saveLocalStorageFile(storage, false);
+		this.saveLocalStorageFile(storage, false, true);
 	}
 
-	private void saveLocalStorageFile(ILocalStorage storage, boolean skipRegionUnloading) {
+	/**
+	 * Saves the local storage to its file or region
+	 * @param storage
+	 * @param skipRegionUnloading
+	 * @param mustQueue Whether the local storage file must be queued even if the writer threads are busy
+	 * @return False if the local storage file wasn't queued because the writer threads are busy
+	 */
+	private boolean saveLocalStorageFile(ILocalStorage storage, boolean skipRegionUnloading, boolean mustQueue) {
 		NBTTagCompound nbt = this.saveLocalStorageToNBT(new NBTTagCompound(), storage);
 		if(storage.getRegion() == null) {
 			File file = new File(this.getLocalStorageDirectory(), storage.getID().getStringID() + ".dat");
-			this.saveHandler.queueLocalStorage(file, nbt);
+			return this.saveHandler.queueLocalStorage(file, nbt, mustQueue);
 		} else {
 			LocalRegion region = storage.getRegion();
 			LocalRegionData data = this.regionCache.getOrCreateRegion(region);
@@ -293,6 +279,8 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 					}
 				}
 			}
+
+			return true;
 		}
 	}
 
@@ -400,11 +388,12 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 			if(!this.world.isRemote && storage.isDirty()) {
 				//Skip region unloading because that'll be handled after
 				//unloading the local storage
-				this.saveLocalStorageFile(storage, true);
+				this.saveLocalStorageFile(storage, true, true);
 				storage.setDirty(false);
 			}
 
 			this.localStorage.remove(storage.getID());
+			this.storageIndex.remove(storage);
 
 			Iterator<ILocalStorage> tickableIt = this.tickableLocalStorage.iterator();
 			while(tickableIt.hasNext()) {
@@ -461,15 +450,22 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 			if(dataManager != null) {
 				dataManager.update();
 				if(dataManager.isDirty()) {
-					MessageSyncLocalStorageData message = new MessageSyncLocalStorageData(localStorage, false);
-					for (EntityPlayerMP watcher : localStorage.getWatchers()) {
-						TheBetweenlands.networkWrapper.sendTo(message, watcher);
-					}
+					GenericDataManagerSyncBatch.queueLocalStorage(localStorage, false);
 				}
 			}
 		}
 
 		if(!this.world.isRemote) {
+			if(this.world.getTotalWorldTime() % REGION_PREFETCH_INTERVAL == 0) {
+				this.prefetchRegionsAroundPlayers();
+			}
+
+			this.deferredOperationJournal.flushAppends();
+
+			if(this.world.getTotalWorldTime() % JOURNAL_EXPIRY_INTERVAL == 0) {
+				this.deferredOperationJournal.removeIdleJournals();
+			}
+
 			for(int i = 0; i < this.pendingUnreferencedStorages.size(); i++) {
 				ILocalStorage localStorage = this.pendingUnreferencedStorages.get(i);
 
@@ -490,7 +486,7 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 					pendingUnreferencedRegionsIT.remove();
 
 					if(data.isDirty()) {
-						data.saveRegion(this.regionCache.getDir());
+						data.saveRegion(this.regionCache.getDir(), true);
 					}
 
 					this.regionCache.removeRegion(data.getRegion());
@@ -500,6 +496,66 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 		this.pendingUnreferencedStorages.clear();
 	}
 
+	/**
+	 * Queues the saved regions ahead of all moving players to be read asynchronously before the
+	 * chunks referencing them are loaded. The regions around players are already loaded by their chunks
+	 */
+	private void prefetchRegionsAroundPlayers() {
+		long worldTime = this.world.getTotalWorldTime();
+
+		this.regionCache.updatePrefetchedRegions(worldTime);
+
+		if(this.world instanceof WorldServer) {
+			int range = ((WorldServer) this.world).getMinecraftServer().getPlayerList().getViewDistance() * 16;
+
+			for(EntityPlayer player : this.world.playerEntities) {
+				if(Math.abs(player.motionX) < 0.1D && Math.abs(player.motionZ) < 0.1D) {
+					continue;
+				}
+
+				int x = MathHelper.floor(player.posX + player.motionX * REGION_PREFETCH_INTERVAL * 2);
+				int z = MathHelper.floor(player.posZ + player.motionZ * REGION_PREFETCH_INTERVAL * 2);
+
+				int sx = (x - range) >> 9;
+				int sz = (z - range) >> 9;
+				int ex = (x + range) >> 9;
+				int ez = (z + range) >> 9;
+
+				for(int rx = sx; rx <= ex; rx++) {
+					for(int rz = sz; rz <= ez; rz++) {
+						this.regionCache.prefetchRegion(LocalRegion.getFromBlockPos(rx << 9, rz << 9), worldTime);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues the regions of the specified references whose local storages are not loaded yet to be read
+	 * asynchronously, so that they are read together instead of one after another once the storages are loaded.
+	 * Called when the local storage references of a chunk are read
+	 * @param references
+	 */
+	public void prefetchRegions(Collection<LocalStorageReference> references) {
+		if(!this.world.isRemote && references.size() > 1) {
+			long worldTime = this.world.getTotalWorldTime();
+
+			for(LocalStorageReference reference : references) {
+				if(reference.hasRegion() && this.getLocalStorage(reference.getID()) == null) {
+					this.regionCache.prefetchRegion(reference.getRegion(), worldTime);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the local region cache
+	 * @return
+	 */
+	public LocalRegionCache getRegionCache() {
+		return this.regionCache;
+	}
+
 	@Override
 	public ILocalStorage createLocalStorageFromNBT(NBTTagCompound nbt, @Nullable LocalRegion region) {
 		ResourceLocation type = new ResourceLocation(nbt.getString("type"));
@@ -540,75 +596,51 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 			return;
 		}
 
-		LocalRegion region = LocalRegion.getFromBlockPos(chunk.x * 16, chunk.z * 16);
-		LocalRegionData data = this.regionCache.getOrCreateRegion(region);
-
-		this.incrRegionRef(data);
-
-		try {
-			NBTTagCompound chunkNbt = data.getChunkNBT(chunk);
-			if(chunkNbt == null) {
-				chunkNbt = new NBTTagCompound();
-			}
-
-			NBTTagList operationsNbt = chunkNbt.getTagList("DeferredOperations", Constants.NBT.TAG_COMPOUND);
+		this.migrateLegacyDeferredOperations(LocalRegion.getFromBlockPos(chunk.x * 16, chunk.z * 16));
 
-			ResourceLocation type = StorageRegistry.getDeferredOperationId(operation.getClass());
-			if (type == null) {
-				throw new RuntimeException("Deferred storage operation type not mapped: " + operation);
-			}
-
-			NBTTagCompound nbt = new NBTTagCompound();
-			nbt.setString("type", type.toString());
-			nbt.setTag("data", operation.writeToNBT(new NBTTagCompound()));
-
-			operationsNbt.appendTag(nbt);
-			chunkNbt.setTag("DeferredOperations", operationsNbt);
-
-			data.setChunkNBT(chunk, chunkNbt);
-		} finally {
-			this.decrRegionRef(data, null, true);
-		}
+		this.deferredOperationJournal.append(chunk, operation);
 	}
 
 	@Override
 	public void loadDeferredOperations(IChunkStorage storage) {
 		ChunkPos chunk = storage.getChunk().getPos();
 
-		LocalRegion region = LocalRegion.getFromBlockPos(chunk.x * 16, chunk.z * 16);
+		this.migrateLegacyDeferredOperations(LocalRegion.getFromBlockPos(chunk.x * 16, chunk.z * 16));
+
+		this.deferredOperationJournal.apply(storage);
+	}
+
+	/**
+	 * Moves the deferred operations that were saved in the chunk data of the region
+	 * to the journal. Each region is only checked once, the journal remembers the
+	 * checked regions across sessions
+	 * @param region
+	 */
+	private void migrateLegacyDeferredOperations(LocalRegion region) {
+		if(!this.deferredOperationJournal.markMigrated(region)) {
+			return;
+		}
+
 		LocalRegionData data = this.regionCache.getOrCreateRegion(region, false);
 
 		if(data != null) {
 			this.incrRegionRef(data);
 
 			try {
-				NBTTagCompound chunkNbt = data.getChunkNBT(chunk);
-
-				if(chunkNbt != null && chunkNbt.hasKey("DeferredOperations", Constants.NBT.TAG_LIST)) {
-					NBTTagList operationsNbt = chunkNbt.getTagList("DeferredOperations", Constants.NBT.TAG_COMPOUND);
-
-					for(int i = 0; i < operationsNbt.tagCount(); i++) {
-						NBTTagCompound nbt = operationsNbt.getCompoundTagAt(i);
+				for(ChunkPos chunk : data.getChunkPositions()) {
+					NBTTagCompound chunkNbt = data.getChunkNBT(chunk);
 
-						ResourceLocation type = new ResourceLocation(nbt.getString("type"));
+					if(chunkNbt != null && chunkNbt.hasKey("DeferredOperations", Constants.NBT.TAG_LIST)) {
+						NBTTagList operationsNbt = chunkNbt.getTagList("DeferredOperations", Constants.NBT.TAG_COMPOUND);
 
-						Supplier<? extends IDeferredStorageOperation> factory = StorageRegistry.getDeferredOperationFactory(type);
-						if (factory == null) {
-							TheBetweenlands.logger.error("Deferred storage operation type not mapped: " + type + ". Skipping...");
-							continue;
+						for(int i = 0; i < operationsNbt.tagCount(); i++) {
+							this.deferredOperationJournal.migrate(chunk, operationsNbt.getCompoundTagAt(i));
 						}
 
-						IDeferredStorageOperation operation = factory.get();
+						chunkNbt.removeTag("DeferredOperations");
 
-						operation.readFromNBT(nbt.getCompoundTag("data"));
-
-						operation.apply(storage);
+						data.setChunkNBT(chunk, chunkNbt);
 					}
-
-					//Clear deferred operations
-					chunkNbt.removeTag("DeferredOperations");
-
-					data.setChunkNBT(chunk, chunkNbt);
 				}
 			} finally {
 				this.decrRegionRef(data, null, true);
@@ -616,17 +648,51 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 		}
 	}
 
+	/**
+	 * Called when a chunk has been saved
+	 * @param chunk
+	 */
+	public void onChunkSaved(ChunkPos chunk) {
+		this.deferredOperationJournal.onChunkSaved(chunk);
+	}
+
+	/**
+	 * Returns the journal of the deferred operations queued for unloaded chunks
+	 * @return
+	 */
+	public DeferredOperationJournal getDeferredOperationJournal() {
+		return this.deferredOperationJournal;
+	}
+
 	public LocalStorageSaveHandler getSaveHandler() {
 		return this.saveHandler;
 	}
 
 	@Override
 	public void saveAll() {
+		this.saveAll(false);
+	}
+
+	/**
+	 * Saves everything and blocks until it has been written, then closes the region files
+	 * that are kept open by the writer threads. Called when the world is unloaded
+	 */
+	public void saveAllAndClose() {
+		this.saveAll(true);
+		this.saveHandler.flush();
+		this.saveHandler.closeRegionFiles();
+	}
+
+	/**
+	 * Saves all loaded storages and regions
+	 * @param mustQueue Whether all files must be queued even if the writer threads are busy. Otherwise
+	 * the files that couldn't be queued stay dirty and are saved next time
+	 */
+	private void saveAll(boolean mustQueue) {
 		//Save loaded storages
 		for(ILocalStorage localStorage : this.getLoadedStorages()) {
 			//Only save if dirty
-			if(localStorage.isDirty()) {
-				this.saveLocalStorageFile(localStorage);
+			if(localStorage.isDirty() && this.saveLocalStorageFile(localStorage, false, mustQueue)) {
 				localStorage.setDirty(false);
 			}
 		}
@@ -634,7 +700,7 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 		//Save and unload all unreferenced regions
 		for(LocalRegionData data : this.pendingUnreferencedRegions.keySet()) {
 			if(data.isDirty()) {
-				data.saveRegion(this.regionCache.getDir());
+				data.saveRegion(this.regionCache.getDir(), true);
 			}
 
 			this.regionCache.removeRegion(data.getRegion());
@@ -642,6 +708,11 @@ public class LocalStorageHandlerImpl implements ILocalStorageHandler {
 		this.pendingUnreferencedRegions.clear();
 
 		//Save rest of regional cache
-		this.regionCache.saveAllRegions();
+		this.regionCache.saveAllRegions(mustQueue);
+
+		//Write the deferred operations queued since the last tick and remove replayed ones from the journal files
+		this.deferredOperationJournal.flushAppends();
+		this.deferredOperationJournal.compactAll();
+		this.deferredOperationJournal.saveMigratedRegions();
 	}
 }
@@ -0,0 +1,252 @@
+package thebetweenlands.common.world.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Predicate;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import thebetweenlands.api.storage.ILocalStorage;
+import thebetweenlands.api.storage.StorageID;
+
+/**
+ * Chunk keyed spatial index of the bounding boxes of all loaded local storages.
+ * Queries never load chunks and do not allocate anything if no storage matches.
+ */
+public class LocalStorageIndex {
+	/**
+	 * Storages that would cover more chunks than this are not put into
+	 * the grid and are instead checked on every query
+	 */
+	private static final int MAX_INDEXED_CHUNKS = 1024;
+
+	private static class Entry {
+		private final ILocalStorage storage;
+
+		private AxisAlignedBB indexedBox;
+		private int minChunkX, minChunkZ, maxChunkX, maxChunkZ;
+		private boolean oversized;
+
+		private int queryStamp;
+
+		private Entry(ILocalStorage storage) {
+			this.storage = storage;
+		}
+	}
+
+	private final Map<StorageID, Entry> entries = new HashMap<>();
+	private final Long2ObjectMap<List<Entry>> grid = new Long2ObjectOpenHashMap<>();
+	private final List<Entry> oversizedEntries = new ArrayList<>();
+
+	private int queryStamp;
+
+	/**
+	 * Adds the specified local storage to the index
+	 * @param storage
+	 */
+	public void add(ILocalStorage storage) {
+		if(!this.entries.containsKey(storage.getID())) {
+			Entry entry = new Entry(storage);
+			this.entries.put(storage.getID(), entry);
+			this.insert(entry, storage.getBoundingBox());
+		}
+	}
+
+	/**
+	 * Removes the specified local storage from the index
+	 * @param storage
+	 */
+	public void remove(ILocalStorage storage) {
+		Entry entry = this.entries.remove(storage.getID());
+		if(entry != null) {
+			this.erase(entry);
+		}
+	}
+
+	/**
+	 * Re-indexes the specified local storage if its bounding box has changed
+	 * @param storage
+	 */
+	public void update(ILocalStorage storage) {
+		Entry entry = this.entries.get(storage.getID());
+		if(entry != null) {
+			this.updateEntry(entry);
+		}
+	}
+
+	private void updateEntry(Entry entry) {
+		AxisAlignedBB box = entry.storage.getBoundingBox();
+		//Bounding boxes are immutable, so a reference comparison is enough
+		if(box != entry.indexedBox) {
+			this.erase(entry);
+			this.insert(entry, box);
+		}
+	}
+
+	private void insert(Entry entry, @Nullable AxisAlignedBB box) {
+		entry.indexedBox = box;
+		entry.oversized = false;
+
+		if(box == null) {
+			return;
+		}
+
+		entry.minChunkX = MathHelper.floor(box.minX) >> 4;
+		entry.minChunkZ = MathHelper.floor(box.minZ) >> 4;
+		entry.maxChunkX = MathHelper.floor(box.maxX) >> 4;
+		entry.maxChunkZ = MathHelper.floor(box.maxZ) >> 4;
+
+		if((long) (entry.maxChunkX - entry.minChunkX + 1) * (long) (entry.maxChunkZ - entry.minChunkZ + 1) > MAX_INDEXED_CHUNKS) {
+			entry.oversized = true;
+			this.oversizedEntries.add(entry);
+			return;
+		}
+
+		for(int cx = entry.minChunkX; cx <= entry.maxChunkX; cx++) {
+			for(int cz = entry.minChunkZ; cz <= entry.maxChunkZ; cz++) {
+				long key = ChunkPos.asLong(cx, cz);
+				List<Entry> cell = this.grid.get(key);
+				if(cell == null) {
+					this.grid.put(key, cell = new ArrayList<>(2));
+				}
+				cell.add(entry);
+			}
+		}
+	}
+
+	private void erase(Entry entry) {
+		if(entry.indexedBox == null) {
+			return;
+		}
+
+		if(entry.oversized) {
+			this.oversizedEntries.remove(entry);
+		} else {
+			for(int cx = entry.minChunkX; cx <= entry.maxChunkX; cx++) {
+				for(int cz = entry.minChunkZ; cz <= entry.maxChunkZ; cz++) {
+					long key = ChunkPos.asLong(cx, cz);
+					List<Entry> cell = this.grid.get(key);
+					if(cell != null) {
+						cell.remove(entry);
+						if(cell.isEmpty()) {
+							this.grid.remove(key);
+						}
+					}
+				}
+			}
+		}
+
+		entry.indexedBox = null;
+		entry.oversized = false;
+	}
+
+	/**
+	 * Returns all indexed local storages of the specified type whose bounding box covers the specified chunk.
+	 * @param type
+	 * @param chunkX
+	 * @param chunkZ
+	 * @param filter
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends ILocalStorage> List<T> query(Class<T> type, int chunkX, int chunkZ, @Nullable Predicate<T> filter) {
+		List<T> result = null;
+
+		List<Entry> cell = this.grid.get(ChunkPos.asLong(chunkX, chunkZ));
+		if(cell != null) {
+			for(int i = 0; i < cell.size(); i++) {
+				Entry entry = cell.get(i);
+				if(type.isInstance(entry.storage) && (filter == null || filter.apply((T) entry.storage))) {
+					if(result == null) {
+						result = new ArrayList<>();
+					}
+					result.add((T) entry.storage);
+				}
+			}
+		}
+
+		for(int i = 0; i < this.oversizedEntries.size(); i++) {
+			Entry entry = this.oversizedEntries.get(i);
+			if(chunkX >= entry.minChunkX && chunkX <= entry.maxChunkX && chunkZ >= entry.minChunkZ && chunkZ <= entry.maxChunkZ
+					&& type.isInstance(entry.storage) && (filter == null || filter.apply((T) entry.storage))) {
+				if(result == null) {
+					result = new ArrayList<>();
+				}
+				result.add((T) entry.storage);
+			}
+		}
+
+		return result != null ? result : new ArrayList<>();
+	}
+
+	/**
+	 * Returns all indexed local storages of the specified type whose bounding box intersects the specified AABB.
+	 * @param type
+	 * @param aabb
+	 * @param filter
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends ILocalStorage> List<T> query(Class<T> type, AxisAlignedBB aabb, @Nullable Predicate<T> filter) {
+		List<T> result = null;
+
+		int stamp = ++this.queryStamp;
+
+		int sx = MathHelper.floor(aabb.minX) >> 4;
+		int sz = MathHelper.floor(aabb.minZ) >> 4;
+		int ex = MathHelper.floor(aabb.maxX) >> 4;
+		int ez = MathHelper.floor(aabb.maxZ) >> 4;
+
+		if(!this.grid.isEmpty()) {
+			for(int cx = sx; cx <= ex; cx++) {
+				for(int cz = sz; cz <= ez; cz++) {
+					List<Entry> cell = this.grid.get(ChunkPos.asLong(cx, cz));
+					if(cell != null) {
+						for(int i = 0; i < cell.size(); i++) {
+							Entry entry = cell.get(i);
+							//Storages spanning multiple chunks are only checked once per query
+							if(entry.queryStamp != stamp) {
+								entry.queryStamp = stamp;
+								if(type.isInstance(entry.storage) && entry.indexedBox.intersects(aabb) && (filter == null || filter.apply((T) entry.storage))) {
+									if(result == null) {
+										result = new ArrayList<>();
+									}
+									result.add((T) entry.storage);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+
+		for(int i = 0; i < this.oversizedEntries.size(); i++) {
+			Entry entry = this.oversizedEntries.get(i);
+			if(type.isInstance(entry.storage) && entry.indexedBox.intersects(aabb) && (filter == null || filter.apply((T) entry.storage))) {
+				if(result == null) {
+					result = new ArrayList<>();
+				}
+				result.add((T) entry.storage);
+			}
+		}
+
+		return result != null ? result : new ArrayList<>();
+	}
+
+	/**
+	 * Removes all local storages from the index
+	 */
+	public void clear() {
+		this.entries.clear();
+		this.grid.clear();
+		this.oversizedEntries.clear();
+	}
+}
@@ -2,62 +2,448 @@ package thebetweenlands.common.world.storage;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import javax.annotation.Nullable;
 
 import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.world.storage.IThreadedFileIO;
-import net.minecraft.world.storage.ThreadedFileIOBase;
 import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.config.BetweenlandsConfig;
+import thebetweenlands.util.profiling.HotPathProfiler;
+import thebetweenlands.util.profiling.ProfilerSection;
 
-public class LocalStorageSaveHandler implements IThreadedFileIO {
+/**
+ * Write-behind queue for local storage and region files. Writes to the same file are coalesced until
+ * they are written, and files are striped over a configurable number of writer threads such that all
+ * writes and reads of one file are always handled by the same stripe.
+ */
+public class LocalStorageSaveHandler {
 	private static final NBTTagCompound DELETE_NBT = new NBTTagCompound();
 
-	private final ConcurrentHashMap<File, NBTTagCompound> filesToSave = new ConcurrentHashMap<>();
+	private static final int MAX_OPEN_REGION_FILES_PER_STRIPE = 8;
 
-	private final Set<File> fileLocks = new HashSet<>();
+	private static final AtomicInteger WRITER_THREAD_ID = new AtomicInteger(0);
+
+	private static final ProfilerSection PROFILER_WRITE = HotPathProfiler.section("storage.write");
+	private static final ProfilerSection PROFILER_FILE_TASK = HotPathProfiler.section("storage.file_task");
+	private static final ProfilerSection PROFILER_READ = HotPathProfiler.section("storage.read");
+	private static final ProfilerSection PROFILER_BACK_PRESSURE = HotPathProfiler.section("storage.back_pressure_stall");
+
+	private static ExecutorService[] writers;
+	private static Object[] stripeLocks;
+
+	/**
+	 * Pending write of a file. Instances are never modified once queued
+	 */
+	private static class PendingWrite {
+		/**
+		 * NBT of a local storage file, or {@link LocalStorageSaveHandler#DELETE_NBT}. Null for regions
+		 */
+		@Nullable
+		private final NBTTagCompound fileNbt;
+
+		private final boolean deleteRegion;
+		private final Map<String, NBTTagCompound> regionEntries;
+
+		/**
+		 * Region file in the old single compound format whose entries are included in {@link #regionEntries}
+		 * and that is deleted once they have been written. Null if the region is not being migrated
+		 */
+		@Nullable
+		private final File legacyRegionFile;
+
+		private PendingWrite(@Nullable NBTTagCompound fileNbt, boolean deleteRegion, Map<String, NBTTagCompound> regionEntries, @Nullable File legacyRegionFile) {
+			this.fileNbt = fileNbt;
+			this.deleteRegion = deleteRegion;
+			this.regionEntries = regionEntries;
+			this.legacyRegionFile = legacyRegionFile;
+		}
+	}
+
+	/**
+	 * Task that writes or reads a file itself
+	 */
+	@FunctionalInterface
+	public static interface FileTask {
+		public void run(File file) throws IOException;
+	}
+
+	/**
+	 * Task that reads a file
+	 */
+	@FunctionalInterface
+	public static interface FileReader<T> {
+		public T read(File file) throws IOException;
+	}
+
+	private final ConcurrentHashMap<File, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+	/**
+	 * Region files that are kept open by each stripe, in access order. Only accessed while holding the lock of the stripe.
+	 * Recreated by {@link #getOpenRegionFiles(int)} if the writers were restarted with a different number of threads
+	 */
+	private volatile Map<File, LocalRegionFile>[] openRegionFiles;
+
+	private final AtomicInteger queuedFiles = new AtomicInteger();
+	private final Object queueMonitor = new Object();
+
+	private final AtomicLong queuedWrites = new AtomicLong();
+	private final AtomicLong coalescedWrites = new AtomicLong();
+	private final AtomicLong completedWrites = new AtomicLong();
+	private final AtomicLong failedWrites = new AtomicLong();
+	private final AtomicLong rejectedWrites = new AtomicLong();
+	private final AtomicLong backPressureStallNanos = new AtomicLong();
+
+	private static synchronized void initWriters() {
+		if(writers == null) {
+			int threads = BetweenlandsConfig.PERFORMANCE.localStorageIOThreads;
+			writers = new ExecutorService[threads];
+			stripeLocks = new Object[threads];
+			for(int i = 0; i < threads; i++) {
+				writers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r);
+						thread.setName("BL Local Storage Writer #" + WRITER_THREAD_ID.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+				stripeLocks[i] = new Object();
+			}
+		}
+	}
+
+	/**
+	 * Shuts down the writer threads once all queued writes have been written.
+	 * They are started again when the next save handler is created
+	 */
+	public static synchronized void shutdownWriters() {
+		if(writers != null) {
+			for(ExecutorService writer : writers) {
+				writer.shutdown();
+			}
+			for(ExecutorService writer : writers) {
+				try {
+					if(!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+						TheBetweenlands.logger.error("Timed out waiting for the local storage writer threads to finish");
+						break;
+					}
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			writers = null;
+			stripeLocks = null;
+		}
+	}
+
+	private static int getStripe(File file) {
+		int hash = file.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), writers.length);
+	}
+
+	public LocalStorageSaveHandler() {
+		initWriters();
+
+		this.openRegionFiles = createOpenRegionFiles(writers.length);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<File, LocalRegionFile>[] createOpenRegionFiles(int stripes) {
+		Map<File, LocalRegionFile>[] openRegionFiles = new Map[stripes];
+		for(int i = 0; i < stripes; i++) {
+			openRegionFiles[i] = new LinkedHashMap<File, LocalRegionFile>(16, 0.75F, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<File, LocalRegionFile> eldest) {
+					if(this.size() > MAX_OPEN_REGION_FILES_PER_STRIPE) {
+						closeRegionFile(eldest.getValue());
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+		return openRegionFiles;
+	}
+
+	/**
+	 * Returns the region files kept open by the specified stripe of the current writers. If the writers were
+	 * restarted with a different number of threads since this save handler was created, the region files
+	 * kept open for the old stripes are closed first. Must be called while holding the lock of the stripe
+	 * @param stripe
+	 * @return
+	 */
+	private Map<File, LocalRegionFile> getOpenRegionFiles(int stripe) {
+		Map<File, LocalRegionFile>[] openRegionFiles = this.openRegionFiles;
+
+		if(openRegionFiles.length != writers.length) {
+			synchronized(this) {
+				openRegionFiles = this.openRegionFiles;
+
+				if(openRegionFiles.length != writers.length) {
+					//The old writers have already finished, so nothing else uses the old stripes
+					for(Map<File, LocalRegionFile> openFiles : openRegionFiles) {
+						for(LocalRegionFile regionFile : openFiles.values()) {
+							closeRegionFile(regionFile);
+						}
+						openFiles.clear();
+					}
+
+					this.openRegionFiles = openRegionFiles = createOpenRegionFiles(writers.length);
+				}
+			}
+		}
+
+		return openRegionFiles[stripe];
+	}
+
+	/**
+	 * Returns the open region file, or opens it if it isn't open yet. Must be called while holding the lock of the stripe
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private LocalRegionFile getOpenRegionFile(File file) throws IOException {
+		Map<File, LocalRegionFile> openFiles = this.getOpenRegionFiles(getStripe(file));
+		LocalRegionFile regionFile = openFiles.get(file);
+		if(regionFile == null) {
+			regionFile = new LocalRegionFile(file);
+			openFiles.put(file, regionFile);
+		}
+		return regionFile;
+	}
+
+	/**
+	 * Closes the region file if it is open. Must be called while holding the lock of the stripe
+	 * @param file
+	 */
+	private void closeOpenRegionFile(File file) {
+		LocalRegionFile regionFile = this.getOpenRegionFiles(getStripe(file)).remove(file);
+		if(regionFile != null) {
+			closeRegionFile(regionFile);
+		}
+	}
+
+	private static void closeRegionFile(LocalRegionFile regionFile) {
+		try {
+			regionFile.close();
+		} catch(IOException ex) {
+			TheBetweenlands.logger.error("Failed to close local region file: " + regionFile.getFile().getAbsolutePath(), ex);
+		}
+	}
+
+	/**
+	 * Closes all region files that are kept open. Region files that are written afterwards are opened again
+	 */
+	public void closeRegionFiles() {
+		for(int i = 0; i < writers.length; i++) {
+			synchronized(stripeLocks[i]) {
+				Map<File, LocalRegionFile> openFiles = this.getOpenRegionFiles(i);
+				for(LocalRegionFile regionFile : openFiles.values()) {
+					closeRegionFile(regionFile);
+				}
+				openFiles.clear();
+			}
+		}
+	}
 
 	/**
-	 * Tries to queue the region to be saved by the file IO thread
+	 * Tries to queue the specified region entries to be saved by the writer threads
 	 * @param regionFile The region file
-	 * @param regionNbtCopy A copy of the region NBT that is not changed anywhere else. Null if the file should be deleted
-	 * @return True if the task was queued
+	 * @param entriesCopy Copies of the changed entries that are not changed anywhere else. A null value removes the entry
+	 * @param mustQueue Whether the entries must be queued even if too many files are queued, e.g. because they are about to be unloaded.
+	 * In that case the calling thread is blocked until enough queued files have been written
+	 * @return True if the task was queued, false if too many files are queued and the entries should be saved again later
 	 */
-	public boolean queueRegion(File regionFile, @Nullable NBTTagCompound regionNbtCopy) {
-		this.filesToSave.put(regionFile, regionNbtCopy == null ? DELETE_NBT : regionNbtCopy);
-		ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
-		return true;
+	public boolean queueRegionEntries(File regionFile, Map<String, NBTTagCompound> entriesCopy, boolean mustQueue) {
+		return this.queue(regionFile, mustQueue, pending -> {
+			Map<String, NBTTagCompound> entries = new LinkedHashMap<>();
+			if(pending != null) {
+				entries.putAll(pending.regionEntries);
+			}
+			entries.putAll(entriesCopy);
+			return new PendingWrite(null, pending != null && pending.deleteRegion, entries, pending != null ? pending.legacyRegionFile : null);
+		});
 	}
 
 	/**
-	 * Triers to queue the local storage to be saved by the file IO thread
+	 * Tries to queue the region file to be deleted by the writer threads
+	 * @param regionFile The region file
+	 * @param mustQueue Whether the deletion must be queued even if too many files are queued.
+	 * In that case the calling thread is blocked until enough queued files have been written
+	 * @return True if the task was queued, false if too many files are queued
+	 */
+	public boolean queueRegionDeletion(File regionFile, boolean mustQueue) {
+		return this.queue(regionFile, mustQueue, pending -> new PendingWrite(null, true, new LinkedHashMap<>(), pending != null ? pending.legacyRegionFile : null));
+	}
+
+	/**
+	 * Tries to queue the local storage to be saved by the writer threads
 	 * @param storageFile The local storage file
-	 * @param storageNbtCopy A copy of the local storage NBT that is not changed anywhere else. Null if the file should ne deleted
-	 * @return True if the task was queued
+	 * @param storageNbtCopy A copy of the local storage NBT that is not changed anywhere else. Null if the file should be deleted
+	 * @param mustQueue Whether the local storage must be queued even if too many files are queued, e.g. because it is about to be unloaded.
+	 * In that case the calling thread is blocked until enough queued files have been written
+	 * @return True if the task was queued, false if too many files are queued and the local storage should be saved again later
+	 */
+	public boolean queueLocalStorage(File storageFile, @Nullable NBTTagCompound storageNbtCopy, boolean mustQueue) {
+		return this.queue(storageFile, mustQueue, pending -> new PendingWrite(storageNbtCopy == null ? DELETE_NBT : storageNbtCopy, false, null, null));
+	}
+
+	/**
+	 * Queues a task that writes the specified file itself, e.g. to append to it. The task is run by the
+	 * writer thread of the file, after all tasks of that file that were queued before it. Tasks are never coalesced
+	 * and queuing them never blocks the calling thread, so callers should batch their writes into as few tasks as possible
+	 * @param file The file written by the task
+	 * @param task
 	 */
-	public boolean queueLocalStorage(File storageFile, @Nullable NBTTagCompound storageNbtCopy) {
-		this.filesToSave.put(storageFile, storageNbtCopy == null ? DELETE_NBT : storageNbtCopy);
-		ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+	public void queueFileTask(File file, FileTask task) {
+		this.queuedWrites.incrementAndGet();
+		this.queuedFiles.incrementAndGet();
+
+		writers[getStripe(file)].execute(() -> {
+			try {
+				long startTime = HotPathProfiler.start();
+				synchronized(stripeLocks[getStripe(file)]) {
+					task.run(file);
+				}
+				PROFILER_FILE_TASK.end(startTime);
+				this.completedWrites.incrementAndGet();
+			} catch(Exception ex) {
+				this.failedWrites.incrementAndGet();
+				TheBetweenlands.logger.error("Failed to write file: " + file.getAbsolutePath(), ex);
+			} finally {
+				this.queuedFiles.decrementAndGet();
+
+				synchronized(this.queueMonitor) {
+					this.queueMonitor.notifyAll();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads the specified file while no task or write of that file is running
+	 * @param file
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	public <T> T readFile(File file, FileReader<T> reader) throws IOException {
+		long startTime = HotPathProfiler.start();
+		try {
+			synchronized(stripeLocks[getStripe(file)]) {
+				return reader.read(file);
+			}
+		} finally {
+			PROFILER_READ.end(startTime);
+		}
+	}
+
+	private boolean queue(File file, boolean mustQueue, Function<PendingWrite, PendingWrite> merger) {
+		//Writes that are merged into an already queued write of the same file don't increase the queue size
+		if(!mustQueue && this.queuedFiles.get() >= BetweenlandsConfig.PERFORMANCE.localStorageMaxQueuedFiles && !this.pendingWrites.containsKey(file)) {
+			this.rejectedWrites.incrementAndGet();
+			return false;
+		}
+
+		this.enqueue(file, merger);
+
+		if(mustQueue) {
+			this.applyBackPressure();
+		}
+
 		return true;
 	}
 
-	private void lockFile(File file) throws InterruptedException {
-		synchronized(this.fileLocks) {
-			while(this.fileLocks.contains(file)) {
-				this.fileLocks.wait();
+	/**
+	 * Merges the write into the pending write of the file without applying back pressure,
+	 * so that it can also be called while holding the lock of a stripe
+	 * @param file
+	 * @param merger
+	 */
+	private void enqueue(File file, Function<PendingWrite, PendingWrite> merger) {
+		boolean[] isNewFile = new boolean[1];
+
+		this.pendingWrites.compute(file, (f, pending) -> {
+			isNewFile[0] = pending == null;
+			return merger.apply(pending);
+		});
+
+		this.queuedWrites.incrementAndGet();
+
+		if(isNewFile[0]) {
+			this.queuedFiles.incrementAndGet();
+			writers[getStripe(file)].execute(() -> this.write(file));
+		} else {
+			this.coalescedWrites.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Blocks the calling thread while too many files are queued
+	 */
+	private void applyBackPressure() {
+		int maxQueuedFiles = BetweenlandsConfig.PERFORMANCE.localStorageMaxQueuedFiles;
+
+		if(this.queuedFiles.get() > maxQueuedFiles) {
+			long startTime = System.nanoTime();
+
+			synchronized(this.queueMonitor) {
+				while(this.queuedFiles.get() > maxQueuedFiles / 2) {
+					try {
+						this.queueMonitor.wait();
+					} catch(InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+
+			long stallTime = System.nanoTime() - startTime;
+			this.backPressureStallNanos.addAndGet(stallTime);
+			if(HotPathProfiler.isEnabled()) {
+				PROFILER_BACK_PRESSURE.record(stallTime);
 			}
-			this.fileLocks.add(file);
 		}
 	}
 
-	private void unlockFile(File file) {
-		synchronized(this.fileLocks) {
-			this.fileLocks.remove(file);
-			this.fileLocks.notifyAll();
+	private void write(File file) {
+		long startTime = HotPathProfiler.start();
+		try {
+			synchronized(stripeLocks[getStripe(file)]) {
+				PendingWrite pending = this.pendingWrites.remove(file);
+
+				if(pending != null) {
+					if(pending.fileNbt != null) {
+						this.writeFile(file, pending.fileNbt);
+					} else {
+						this.writeRegion(file, pending);
+					}
+				}
+			}
+			PROFILER_WRITE.end(startTime);
+		} finally {
+			this.queuedFiles.decrementAndGet();
+
+			synchronized(this.queueMonitor) {
+				this.queueMonitor.notifyAll();
+			}
 		}
 	}
 
@@ -65,65 +451,266 @@ public class LocalStorageSaveHandler implements IThreadedFileIO {
 	 * Loads the specified file as NBT
 	 * @param file
 	 * @return
-	 * @throws IOException 
+	 * @throws IOException
 	 */
 	@Nullable
 	public NBTTagCompound loadFileNbt(File file) throws IOException {
-		final NBTTagCompound queuedNbt = this.filesToSave.get(file);
-		if(queuedNbt != null) {
-			return queuedNbt.copy();
-		} else {
-			try {
-				this.lockFile(file);
-				try {
-					return CompressedStreamTools.read(file);
-				} finally {
-					this.unlockFile(file);
+		long startTime = HotPathProfiler.start();
+		try {
+			synchronized(stripeLocks[getStripe(file)]) {
+				PendingWrite pending = this.pendingWrites.get(file);
+				if(pending != null && pending.fileNbt != null) {
+					return pending.fileNbt == DELETE_NBT ? null : pending.fileNbt.copy();
 				}
-			} catch(InterruptedException ex) {
-				Thread.currentThread().interrupt();
+				return CompressedStreamTools.read(file);
 			}
-			return null;
+		} finally {
+			PROFILER_READ.end(startTime);
 		}
 	}
 
-	@Override
-	public boolean writeNextIO() {
-		if(!this.filesToSave.isEmpty()) {
-			final File file = this.filesToSave.keySet().iterator().next();
-
-			final NBTTagCompound nbt = this.filesToSave.remove(file);
+	/**
+	 * Backs up and deletes the region file and the region file in the old format after they failed to load.
+	 * Both are handled while holding the lock of the region file's stripe, like all writes of the region,
+	 * so that they are not deleted while being written
+	 * @param regionFile
+	 * @param legacyRegionFile
+	 */
+	public void deleteCorruptedRegion(File regionFile, File legacyRegionFile) {
+		synchronized(stripeLocks[getStripe(regionFile)]) {
+			this.closeOpenRegionFile(regionFile);
 
-			if(nbt != null) {
-				try {
-					this.lockFile(file);
+			for(File corruptedFile : new File[] { regionFile, legacyRegionFile }) {
+				if(corruptedFile.exists()) {
+					File backup = new File(corruptedFile.getAbsolutePath() + ".backup");
+					try {
+						Files.copy(corruptedFile.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+						TheBetweenlands.logger.info(String.format("Created a backup of local region cache at %s", backup.getAbsolutePath()));
+					} catch(IOException ex) {
+						TheBetweenlands.logger.error("Failed creating backup of local region cache", ex);
+					}
 					try {
-						if(nbt == DELETE_NBT) {
-							if(file.exists()) {
-								file.delete();
-							}
+						Files.deleteIfExists(corruptedFile.toPath());
+					} catch(IOException ex) {
+						TheBetweenlands.logger.error("Failed deleting corrupted local region cache: " + corruptedFile.getAbsolutePath(), ex);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads all entries of the specified region, including changes that are still queued to be written.
+	 * If the region only exists in the old single compound format its migration is queued on the writer thread.
+	 * @param regionFile
+	 * @param legacyRegionFile The region file in the old single compound format
+	 * @return The region NBT or null if the region does not exist
+	 * @throws IOException
+	 */
+	@Nullable
+	public NBTTagCompound loadRegionNbt(File regionFile, File legacyRegionFile) throws IOException {
+		long startTime = HotPathProfiler.start();
+		try {
+			synchronized(stripeLocks[getStripe(regionFile)]) {
+				NBTTagCompound nbt = null;
+
+				PendingWrite pending = this.pendingWrites.get(regionFile);
+
+				if(pending == null || !pending.deleteRegion) {
+					if(regionFile.exists()) {
+						try {
+							nbt = this.getOpenRegionFile(regionFile).readAll();
+						} catch(IOException ex) {
+							this.closeOpenRegionFile(regionFile);
+							throw ex;
+						}
+					} else if(legacyRegionFile.exists() && (pending == null || pending.legacyRegionFile == null)) {
+						this.queueLegacyRegionMigration(regionFile, legacyRegionFile);
+						pending = this.pendingWrites.get(regionFile);
+					}
+				}
+
+				if(pending != null) {
+					if(nbt == null) {
+						nbt = new NBTTagCompound();
+					}
+
+					for(Map.Entry<String, NBTTagCompound> entry : pending.regionEntries.entrySet()) {
+						if(entry.getValue() != null) {
+							nbt.setTag(entry.getKey(), entry.getValue().copy());
 						} else {
-							try {
-								file.getParentFile().mkdirs();
-								CompressedStreamTools.safeWrite(nbt, file);
-							} catch(Exception ex) {
-								TheBetweenlands.logger.error("Failed to save region or local storage: " + file.getAbsolutePath(), ex);
-							}
+							nbt.removeTag(entry.getKey());
 						}
-					} finally {
-						this.unlockFile(file);
 					}
-				} catch(InterruptedException ex) {
-					Thread.currentThread().interrupt();
 				}
+
+				return nbt;
 			}
+		} finally {
+			PROFILER_READ.end(startTime);
+		}
+	}
+
+	/**
+	 * Queues the conversion of a region saved in the old single compound format to the sectorised region format.
+	 * The legacy file is only deleted by the writer thread once the converted region has been synced to disk.
+	 * Must be called while holding the lock of the stripe
+	 * @param regionFile
+	 * @param legacyRegionFile
+	 * @throws IOException
+	 */
+	private void queueLegacyRegionMigration(File regionFile, File legacyRegionFile) throws IOException {
+		NBTTagCompound legacyNbt = CompressedStreamTools.read(legacyRegionFile);
 
-			return true;
+		Map<String, NBTTagCompound> legacyEntries = new LinkedHashMap<>();
+		if(legacyNbt != null) {
+			for(String key : legacyNbt.getKeySet()) {
+				legacyEntries.put(key, legacyNbt.getCompoundTag(key));
+			}
 		}
-		return false;
+
+		this.enqueue(regionFile, pending -> {
+			Map<String, NBTTagCompound> entries = new LinkedHashMap<>(legacyEntries);
+			if(pending != null) {
+				//Changes queued in the meantime are newer than the legacy entries
+				entries.putAll(pending.regionEntries);
+			}
+			return new PendingWrite(null, pending != null && pending.deleteRegion, entries, legacyRegionFile);
+		});
 	}
 
+	private void writeFile(File file, NBTTagCompound nbt) {
+		if(nbt == DELETE_NBT) {
+			if(file.exists()) {
+				file.delete();
+			}
+			this.completedWrites.incrementAndGet();
+		} else {
+			try {
+				file.getParentFile().mkdirs();
+				CompressedStreamTools.safeWrite(nbt, file);
+				this.completedWrites.incrementAndGet();
+			} catch(Exception ex) {
+				this.failedWrites.incrementAndGet();
+				TheBetweenlands.logger.error("Failed to save region or local storage: " + file.getAbsolutePath(), ex);
+			}
+		}
+	}
+
+	private void writeRegion(File file, PendingWrite pending) {
+		try {
+			if(pending.deleteRegion) {
+				this.closeOpenRegionFile(file);
+				if(file.exists()) {
+					file.delete();
+				}
+			}
+
+			if(!pending.regionEntries.isEmpty()) {
+				LocalRegionFile regionFile = this.getOpenRegionFile(file);
+
+				try {
+					regionFile.write(pending.regionEntries);
+				} catch(IOException ex) {
+					//The entry table of the open file may no longer match the file
+					this.closeOpenRegionFile(file);
+					if(pending.legacyRegionFile != null) {
+						//Migrate again from the legacy file the next time the region is loaded
+						file.delete();
+					}
+					throw ex;
+				}
+
+				if(regionFile.isEmpty()) {
+					this.closeOpenRegionFile(file);
+					file.delete();
+				}
+			}
+
+			if(pending.legacyRegionFile != null) {
+				pending.legacyRegionFile.delete();
+			}
+
+			if(pending.legacyRegionFile != null && !pending.regionEntries.isEmpty()) {
+				TheBetweenlands.logger.info(String.format("Migrated local storage region %s to %s", pending.legacyRegionFile.getAbsolutePath(), file.getName()));
+			}
+
+			this.completedWrites.incrementAndGet();
+		} catch(Exception ex) {
+			this.failedWrites.incrementAndGet();
+			TheBetweenlands.logger.error("Failed to save region or local storage: " + file.getAbsolutePath(), ex);
+		}
+	}
+
+	/**
+	 * Blocks until all writes that were queued before this call have been written
+	 */
 	public void flush() {
-		while(this.writeNextIO());
+		synchronized(this.queueMonitor) {
+			while(this.queuedFiles.get() > 0) {
+				try {
+					this.queueMonitor.wait();
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of files that are currently waiting to be written
+	 * @return
+	 */
+	public int getQueuedFiles() {
+		return this.queuedFiles.get();
+	}
+
+	/**
+	 * Returns the total number of queued writes
+	 * @return
+	 */
+	public long getQueuedWrites() {
+		return this.queuedWrites.get();
+	}
+
+	/**
+	 * Returns the number of queued writes that were merged into an already queued write of the same file
+	 * @return
+	 */
+	public long getCoalescedWrites() {
+		return this.coalescedWrites.get();
+	}
+
+	/**
+	 * Returns the number of files that were written successfully
+	 * @return
+	 */
+	public long getCompletedWrites() {
+		return this.completedWrites.get();
+	}
+
+	/**
+	 * Returns the number of files that failed to be written
+	 * @return
+	 */
+	public long getFailedWrites() {
+		return this.failedWrites.get();
+	}
+
+	/**
+	 * Returns the number of writes that were not queued because too many files were queued
+	 * @return
+	 */
+	public long getRejectedWrites() {
+		return this.rejectedWrites.get();
+	}
+
+	/**
+	 * Returns the total time in nanoseconds the server thread was blocked because too many files were queued
+	 * @return
+	 */
+	public long getBackPressureStallNanos() {
+		return this.backPressureStallNanos.get();
 	}
 }
@@ -1,18 +1,38 @@
 package thebetweenlands.common.world.storage;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.Nullable;
 
 import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
@@ -21,110 +41,300 @@ import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 import thebetweenlands.api.storage.IOfflinePlayerDataHandler;
 import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.config.BetweenlandsConfig;
 
+/**
+ * Caches the offline player data in memory and loads and saves it on a separate I/O thread.
+ * The cache is bounded by the number of entries and their estimated size, see {@link BetweenlandsConfig.Performance#offlinePlayerDataCacheSize}
+ * and {@link BetweenlandsConfig.Performance#offlinePlayerDataCacheMaxKb}. Dirty entries are saved when they are evicted.
+ */
 public class OfflinePlayerHandlerImpl implements IOfflinePlayerDataHandler {
+	/**
+	 * Entries that weren't used for this many ticks are removed from the cache
+	 */
+	private static final int EXPIRY_TICKS = 600;
+
+	/**
+	 * Estimated size of new entries until they are saved for the first time
+	 */
+	private static final int DEFAULT_ESTIMATED_SIZE = 1024;
+
+	private static ExecutorService ioExecutor;
+
+	private static synchronized ExecutorService getIOExecutor() {
+		if(ioExecutor == null) {
+			ioExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r);
+					thread.setName("BL Offline Player Data I/O");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return ioExecutor;
+	}
+
 	private static class OfflinePlayerData {
 		private NBTTagCompound nbt;
 		private boolean dirty;
-		private long timestamp;
+		private long lastUseTick;
 
-		protected void setData(NBTTagCompound nbt) {
+		/**
+		 * Size that is currently accounted for in the cache size
+		 */
+		private int size;
+
+		/**
+		 * Size measured by the last save, or -1
+		 */
+		private volatile int measuredSize = -1;
+
+		private OfflinePlayerData(NBTTagCompound nbt, int size) {
 			this.nbt = nbt;
-			this.dirty = true;
-			this.refreshUseTimestamp();
+			this.size = size;
 		}
+	}
 
-		protected NBTTagCompound getData() {
-			return this.nbt;
-		}
+	private static class PendingLoad {
+		private final CompletableFuture<OfflinePlayerData> io;
+		private final CompletableFuture<NBTTagCompound> result = new CompletableFuture<>();
 
-		protected void refreshUseTimestamp() {
-			this.timestamp = System.currentTimeMillis();
+		private PendingLoad(CompletableFuture<OfflinePlayerData> io) {
+			this.io = io;
 		}
+	}
+
+	private static class PendingSave {
+		private final NBTTagCompound nbt;
+		private final OfflinePlayerData data;
 
-		protected boolean isExpired() {
-			return System.currentTimeMillis() - this.timestamp > 30000;
+		private PendingSave(NBTTagCompound nbt, OfflinePlayerData data) {
+			this.nbt = nbt;
+			this.data = data;
 		}
+	}
+
+	/**
+	 * Counts the estimated memory size of the read NBT
+	 */
+	private static class SizeCounter extends NBTSizeTracker {
+		private long bits;
 
-		protected boolean isDirty() {
-			return this.dirty;
+		private SizeCounter() {
+			super(0L);
 		}
 
-		protected void resetDirty() {
-			this.dirty = false;
+		@Override
+		public void read(long bits) {
+			this.bits += bits;
 		}
 	}
 
-	private Map<UUID, OfflinePlayerData> offlinePlayerDataCache = new HashMap<>();
+	private final Map<UUID, OfflinePlayerData> offlinePlayerDataCache = new LinkedHashMap<>(16, 0.75F, true);
+	private long estimatedCacheSize;
 
-	private WorldServer world;
+	private final Map<UUID, PendingLoad> pendingLoads = new HashMap<>();
+
+	/**
+	 * Latest data that is waiting to be written per player. Accessed by the server and I/O thread
+	 */
+	private final Map<UUID, PendingSave> pendingSaves = new ConcurrentHashMap<>();
+
+	private final WorldServer world;
+	private final File folder;
+
+	private long ticks;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadNanos = new AtomicLong();
+	private final AtomicLong maxLoadNanos = new AtomicLong();
+	private final AtomicLong completedSaves = new AtomicLong();
+	private final AtomicLong failedSaves = new AtomicLong();
 
 	public OfflinePlayerHandlerImpl(WorldServer world) {
 		this.world = world;
+		this.folder = new File(new File(world.getSaveHandler().getWorldDirectory(), "playerdata"), "offline_player_data");
 	}
 
 	@Override
 	public void updateCache() {
+		this.ticks++;
+
+		if(!this.pendingLoads.isEmpty()) {
+			List<UUID> completed = null;
+			for(Entry<UUID, PendingLoad> entry : this.pendingLoads.entrySet()) {
+				if(entry.getValue().io.isDone()) {
+					if(completed == null) {
+						completed = new ArrayList<>();
+					}
+					completed.add(entry.getKey());
+				}
+			}
+			if(completed != null) {
+				for(UUID playerUuid : completed) {
+					PendingLoad load = this.pendingLoads.get(playerUuid);
+					this.completeLoad(playerUuid, load, load.io.isCompletedExceptionally() ? null : load.io.getNow(null));
+				}
+			}
+		}
+
 		Iterator<Entry<UUID, OfflinePlayerData>> playerDataIT = this.offlinePlayerDataCache.entrySet().iterator();
 		while(playerDataIT.hasNext()) {
 			Entry<UUID, OfflinePlayerData> entry = playerDataIT.next();
 
 			OfflinePlayerData data = entry.getValue();
 
-			if(data.isExpired()) {
-				if(data.isDirty()) {
-					this.saveOfflinePlayerDataSafely(entry.getKey(), data.getData());
-				}
+			int measuredSize = data.measuredSize;
+			if(measuredSize >= 0 && measuredSize != data.size) {
+				this.estimatedCacheSize += measuredSize - data.size;
+				data.size = measuredSize;
+			}
 
+			if(this.ticks - data.lastUseTick > EXPIRY_TICKS) {
+				this.evict(entry.getKey(), data);
 				playerDataIT.remove();
 			}
 		}
+
+		this.trimCache();
 	}
 
 	@Nullable
 	@Override
 	public NBTTagCompound getOfflinePlayerData(UUID playerUuid) {
-		OfflinePlayerData data = this.offlinePlayerDataCache.get(playerUuid);
+		OfflinePlayerData data = this.getCachedData(playerUuid);
 		if(data != null) {
-			data.refreshUseTimestamp();
 			return data.nbt;
 		}
 
-		NBTTagCompound nbt = this.loadOfflinePlayerDataSafely(playerUuid);
-		if(nbt != null) {
-			data = new OfflinePlayerData();
-			data.setData(nbt);
-			this.offlinePlayerDataCache.put(playerUuid, data);
-			return nbt;
+		PendingLoad load = this.pendingLoads.get(playerUuid);
+		if(load != null) {
+			//Data is already being loaded, wait for the I/O thread
+			return this.completeLoad(playerUuid, load, load.io.join());
+		}
+
+		this.misses++;
+
+		data = this.loadOfflinePlayerDataSafely(playerUuid);
+		if(data != null) {
+			this.insert(playerUuid, data);
+			this.trimCache();
+			return data.nbt;
 		}
 
 		return null;
 	}
 
-	private File getOfflinePlayerDataFolder(WorldServer world) {
-		File file = new File(new File(world.getSaveHandler().getWorldDirectory(), "playerdata"), "offline_player_data");
-		file.mkdirs();
-		return file;
+	@Override
+	public CompletableFuture<NBTTagCompound> getOfflinePlayerDataAsync(UUID playerUuid) {
+		OfflinePlayerData data = this.getCachedData(playerUuid);
+		if(data != null) {
+			return CompletableFuture.completedFuture(data.nbt);
+		}
+
+		PendingLoad load = this.pendingLoads.get(playerUuid);
+		if(load == null) {
+			this.misses++;
+			this.pendingLoads.put(playerUuid, load = new PendingLoad(CompletableFuture.supplyAsync(() -> this.loadOfflinePlayerDataSafely(playerUuid), getIOExecutor())));
+		}
+
+		return load.result;
+	}
+
+	@Nullable
+	private OfflinePlayerData getCachedData(UUID playerUuid) {
+		OfflinePlayerData data = this.offlinePlayerDataCache.get(playerUuid);
+		if(data != null) {
+			this.hits++;
+			data.lastUseTick = this.ticks;
+		}
+		return data;
 	}
 
 	@Nullable
-	private NBTTagCompound loadOfflinePlayerDataSafely(UUID playerUuid) {
+	private NBTTagCompound completeLoad(UUID playerUuid, PendingLoad load, @Nullable OfflinePlayerData loaded) {
+		this.pendingLoads.remove(playerUuid);
+
+		//Data that was set while loading takes precedence
+		OfflinePlayerData data = this.offlinePlayerDataCache.get(playerUuid);
+		if(data == null && loaded != null) {
+			this.insert(playerUuid, data = loaded);
+			this.trimCache();
+		}
+
+		NBTTagCompound nbt = data != null ? data.nbt : null;
+		load.result.complete(nbt);
+		return nbt;
+	}
+
+	private void insert(UUID playerUuid, OfflinePlayerData data) {
+		data.lastUseTick = this.ticks;
+		this.offlinePlayerDataCache.put(playerUuid, data);
+		this.estimatedCacheSize += data.size;
+	}
+
+	private void evict(UUID playerUuid, OfflinePlayerData data) {
+		if(data.dirty) {
+			this.queueSave(playerUuid, data);
+		}
+		this.estimatedCacheSize -= data.size;
+		this.evictions++;
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache is within its limits.
+	 * The most recently used entry is always kept
+	 */
+	private void trimCache() {
+		int maxEntries = BetweenlandsConfig.PERFORMANCE.offlinePlayerDataCacheSize;
+		long maxSize = BetweenlandsConfig.PERFORMANCE.offlinePlayerDataCacheMaxKb * 1024L;
+
+		Iterator<Entry<UUID, OfflinePlayerData>> playerDataIT = this.offlinePlayerDataCache.entrySet().iterator();
+		while(this.offlinePlayerDataCache.size() > 1 && (this.offlinePlayerDataCache.size() > maxEntries || this.estimatedCacheSize > maxSize)) {
+			Entry<UUID, OfflinePlayerData> entry = playerDataIT.next();
+			this.evict(entry.getKey(), entry.getValue());
+			playerDataIT.remove();
+		}
+	}
+
+	@Nullable
+	private OfflinePlayerData loadOfflinePlayerDataSafely(UUID playerUuid) {
+		long start = System.nanoTime();
 		try {
 			return this.loadOfflinePlayerData(playerUuid);
 		} catch(IOException ex) {
 			TheBetweenlands.logger.error(String.format("Failed loading offline player data for UUID %s", playerUuid.toString()), ex);
+		} finally {
+			long time = System.nanoTime() - start;
+			this.loads.incrementAndGet();
+			this.loadNanos.addAndGet(time);
+			this.maxLoadNanos.accumulateAndGet(time, Math::max);
 		}
 		return null;
 	}
 
 	@Nullable
-	private NBTTagCompound loadOfflinePlayerData(UUID playerUuid) throws IOException {
-		String fileName = playerUuid.toString();
+	private OfflinePlayerData loadOfflinePlayerData(UUID playerUuid) throws IOException {
+		//Data that hasn't been written yet is more recent than the file
+		PendingSave save = this.pendingSaves.get(playerUuid);
+		if(save != null) {
+			return new OfflinePlayerData(save.nbt.copy(), DEFAULT_ESTIMATED_SIZE);
+		}
 
-		File file = new File(this.getOfflinePlayerDataFolder((WorldServer) this.world), fileName + ".dat");
+		File file = new File(this.folder, playerUuid.toString() + ".dat");
 
 		if(file.exists()) {
-			return CompressedStreamTools.readCompressed(new FileInputStream(file));
+			SizeCounter counter = new SizeCounter();
+			NBTTagCompound nbt;
+			try(DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+				nbt = CompressedStreamTools.read(in, counter);
+			}
+			return new OfflinePlayerData(nbt, (int) Math.min(Integer.MAX_VALUE, counter.bits / 8));
 		}
 
 		return null;
@@ -134,52 +344,189 @@ public class OfflinePlayerHandlerImpl implements IOfflinePlayerDataHandler {
 	public void setOfflinePlayerData(UUID playerUuid, NBTTagCompound nbt) {
 		OfflinePlayerData data = this.offlinePlayerDataCache.get(playerUuid);
 		if(data != null) {
-			data.setData(nbt);
+			data.nbt = nbt;
+			data.lastUseTick = this.ticks;
 		} else {
-			data = new OfflinePlayerData();
-			data.setData(nbt);
-			this.offlinePlayerDataCache.put(playerUuid, data);
+			this.insert(playerUuid, data = new OfflinePlayerData(nbt, DEFAULT_ESTIMATED_SIZE));
 		}
+		data.dirty = true;
+		this.trimCache();
 	}
 
-	private boolean saveOfflinePlayerDataSafely(UUID playerUuid, NBTTagCompound nbt) {
-		try {
-			this.saveOfflinePlayerData(playerUuid, nbt);
-			return true;
-		} catch(IOException ex) {
-			TheBetweenlands.logger.error(String.format("Failed saving offline player data for UUID %s", playerUuid.toString()), ex);
+	/**
+	 * Queues a copy of the data to be written by the I/O thread. Multiple saves of the same
+	 * player that are queued before the I/O thread gets to them are written only once
+	 * @param playerUuid
+	 * @param data
+	 */
+	private void queueSave(UUID playerUuid, OfflinePlayerData data) {
+		data.dirty = false;
+		if(this.pendingSaves.put(playerUuid, new PendingSave(data.nbt.copy(), data)) == null) {
+			getIOExecutor().execute(() -> this.writePendingSave(playerUuid));
 		}
-		return false;
 	}
 
-	private void saveOfflinePlayerData(UUID playerUuid, NBTTagCompound nbt) throws IOException {
-		String fileName = playerUuid.toString();
+	private void writePendingSave(UUID playerUuid) {
+		PendingSave save;
+		while((save = this.pendingSaves.get(playerUuid)) != null) {
+			try {
+				save.data.measuredSize = this.saveOfflinePlayerData(playerUuid, save.nbt);
+				this.completedSaves.incrementAndGet();
+			} catch(IOException ex) {
+				this.failedSaves.incrementAndGet();
+				TheBetweenlands.logger.error(String.format("Failed saving offline player data for UUID %s", playerUuid.toString()), ex);
+			}
 
-		File folder = this.getOfflinePlayerDataFolder((WorldServer) this.world);
+			//If a newer save was queued in the meantime it is written right away
+			if(this.pendingSaves.remove(playerUuid, save)) {
+				break;
+			}
+		}
+	}
 
-		File tempFile = new File(folder, fileName + ".dat.tmp");
-		File currentFile = new File(folder, fileName + ".dat");
+	/**
+	 * Writes the data to a temporary file and then replaces the current file
+	 * @param playerUuid
+	 * @param nbt
+	 * @return The uncompressed size of the written data
+	 * @throws IOException
+	 */
+	private int saveOfflinePlayerData(UUID playerUuid, NBTTagCompound nbt) throws IOException {
+		String fileName = playerUuid.toString();
+
+		if(!this.folder.exists() && !this.folder.mkdirs() && !this.folder.exists()) {
+			throw new IOException(String.format("Failed creating folder %s", this.folder));
+		}
 
-		CompressedStreamTools.writeCompressed(nbt, new FileOutputStream(tempFile));
+		File tempFile = new File(this.folder, fileName + ".dat.tmp");
+		File currentFile = new File(this.folder, fileName + ".dat");
 
-		if (currentFile.exists()) {
-			currentFile.delete();
+		int size;
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))))) {
+			CompressedStreamTools.write(nbt, out);
+			size = out.size();
 		}
 
-		if(!tempFile.renameTo(currentFile)) {
-			throw new IOException(String.format("Failed renaming %s to %s", tempFile, currentFile));
+		try {
+			Files.move(tempFile.toPath(), currentFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException ex) {
+			Files.move(tempFile.toPath(), currentFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
 		}
+
+		return size;
 	}
 
 	@Override
 	public void saveAllOfflinePlayerData() {
 		for(Entry<UUID, OfflinePlayerData> entry : this.offlinePlayerDataCache.entrySet()) {
-			if(entry.getValue().isDirty()) {
-				this.saveOfflinePlayerDataSafely(entry.getKey(), entry.getValue().getData());
+			if(entry.getValue().dirty) {
+				this.queueSave(entry.getKey(), entry.getValue());
 			}
 		}
 	}
 
+	/**
+	 * Blocks until all queued saves have been written
+	 */
+	private void waitForPendingSaves() {
+		try {
+			//The I/O executor runs tasks in order, so once this task is done all earlier saves are done too
+			getIOExecutor().submit(() -> { }).get();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException ex) {
+			TheBetweenlands.logger.error("Failed waiting for offline player data to be saved", ex);
+		}
+	}
+
+	/**
+	 * Returns the number of cached entries
+	 * @return
+	 */
+	public int getCachedEntries() {
+		return this.offlinePlayerDataCache.size();
+	}
+
+	/**
+	 * Returns the estimated size in bytes of all cached entries
+	 * @return
+	 */
+	public long getEstimatedCacheSize() {
+		return this.estimatedCacheSize;
+	}
+
+	/**
+	 * Returns the number of requests that were served from the cache
+	 * @return
+	 */
+	public long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Returns the number of requests that had to load the data
+	 * @return
+	 */
+	public long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Returns the number of entries that were removed from the cache because they expired or the cache was full
+	 * @return
+	 */
+	public long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * Returns the number of loads, including loads of players without data
+	 * @return
+	 */
+	public long getLoads() {
+		return this.loads.get();
+	}
+
+	/**
+	 * Returns the total time in nanoseconds spent loading data
+	 * @return
+	 */
+	public long getLoadNanos() {
+		return this.loadNanos.get();
+	}
+
+	/**
+	 * Returns the longest time in nanoseconds a single load took
+	 * @return
+	 */
+	public long getMaxLoadNanos() {
+		return this.maxLoadNanos.get();
+	}
+
+	/**
+	 * Returns the number of players whose data is currently waiting to be written
+	 * @return
+	 */
+	public int getQueuedSaves() {
+		return this.pendingSaves.size();
+	}
+
+	/**
+	 * Returns the number of files that were written successfully
+	 * @return
+	 */
+	public long getCompletedSaves() {
+		return this.completedSaves.get();
+	}
+
+	/**
+	 * Returns the number of files that failed to be written
+	 * @return
+	 */
+	public long getFailedSaves() {
+		return this.failedSaves.get();
+	}
+
 	private static OfflinePlayerHandlerImpl handler = null;
 
 	@Nullable
@@ -200,6 +547,7 @@ public class OfflinePlayerHandlerImpl implements IOfflinePlayerDataHandler {
 		if(world != null) {
 			if(handler != null) {
 				handler.saveAllOfflinePlayerData();
+				handler.waitForPendingSaves();
 			}
 			handler = new OfflinePlayerHandlerImpl((WorldServer) world);
 		}
@@ -211,6 +559,7 @@ public class OfflinePlayerHandlerImpl implements IOfflinePlayerDataHandler {
 		if(world != null) {
 			if(handler != null) {
 				handler.saveAllOfflinePlayerData();
+				handler.waitForPendingSaves();
 			}
 			handler = null;
 		}
@@ -226,7 +575,7 @@ public class OfflinePlayerHandlerImpl implements IOfflinePlayerDataHandler {
 
 	@SubscribeEvent
 	public static void onServerTick(TickEvent.ServerTickEvent event) {
-		if(handler != null) {
+		if(event.phase == TickEvent.Phase.END && handler != null) {
 			handler.updateCache();
 		}
 	}
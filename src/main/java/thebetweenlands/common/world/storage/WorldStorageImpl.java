@@ -131,6 +131,8 @@ public abstract class WorldStorageImpl implements IWorldStorage {
 
 	private ILocalStorageHandler localStorageHandler;
 
+	private final ChunkStorageSyncBatch chunkStorageSyncBatch = new ChunkStorageSyncBatch();
+
 	/**
 	 * Sets the capability's world
 	 * @param world
@@ -218,6 +220,9 @@ public abstract class WorldStorageImpl implements IWorldStorage {
 				ChunkStorageImpl storage = this.storageMap.get(chunk.getPos());
 				NBTTagCompound nbt = storage.writeToNBT(new NBTTagCompound(), false);
 				storage.setDirty(false);
+				if(this.localStorageHandler instanceof LocalStorageHandlerImpl) {
+					((LocalStorageHandlerImpl) this.localStorageHandler).onChunkSaved(chunk.getPos());
+				}
 				return nbt;
 			} catch(Exception ex) {
 				TheBetweenlands.logger.error(String.format("Failed saving chunk storage at %s", "[x=" + chunk.x + ", z=" + chunk.z + "]"), ex);
@@ -252,6 +257,14 @@ public abstract class WorldStorageImpl implements IWorldStorage {
 		return this.localStorageHandler;
 	}
 
+	/**
+	 * Returns the batch that collects the chunk storage changes to be sent at the end of the tick
+	 * @return
+	 */
+	public ChunkStorageSyncBatch getChunkStorageSyncBatch() {
+		return this.chunkStorageSyncBatch;
+	}
+
 	@Override
 	public void tick() {
 		this.localStorageHandler.update();
@@ -260,5 +273,7 @@ public abstract class WorldStorageImpl implements IWorldStorage {
 			ITickable tickable = this.tickableStorages.get(i);
 			tickable.update();
 		}
+
+		this.chunkStorageSyncBatch.flush();
 	}
 }
@@ -9,11 +9,14 @@ import javax.annotation.Nullable;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.ITickable;
+import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
 import thebetweenlands.api.storage.IWorldStorage;
 import thebetweenlands.api.storage.LocalRegion;
 import thebetweenlands.api.storage.StorageID;
+import thebetweenlands.common.entity.movement.PathNodeTypeCache;
 import thebetweenlands.common.network.clientbound.MessageBlockGuardData;
 import thebetweenlands.common.network.clientbound.MessageBlockGuardSectionChange;
 import thebetweenlands.common.network.clientbound.MessageClearBlockGuard;
@@ -23,21 +26,23 @@ import thebetweenlands.common.world.storage.location.guard.BlockLocationGuard.Gu
 public class LocationGuarded extends LocationStorage implements ITickable {
 	private BlockLocationGuard guard = new BlockLocationGuard() {
 		@Override
-		public boolean setGuarded(World world, BlockPos pos, boolean guarded) {
-			if(super.setGuarded(world, pos, guarded)) {
-				LocationGuarded.this.setDirty(true);
-				if(!LocationGuarded.this.getWatchers().isEmpty()) {
-					LocationGuarded.this.queuedChanges.add(new BlockPos(pos.getX() / 16, pos.getY() / 16, pos.getZ() / 16));
-				}
-				return true;
+		protected void onSectionChanged(int chunkX, int sectionY, int chunkZ) {
+			LocationGuarded.this.setDirty(true);
+			//Guard chunk coordinates are block coordinates / 16, rounded towards zero
+			PathNodeTypeCache.invalidate(LocationGuarded.this.getWorldStorage().getWorld(), chunkX * 16 - 15, sectionY * 16, chunkZ * 16 - 15, chunkX * 16 + 15, sectionY * 16 + 15, chunkZ * 16 + 15);
+			if(!LocationGuarded.this.getWatchers().isEmpty()) {
+				LocationGuarded.this.queuedChanges.add(new BlockPos(chunkX, sectionY, chunkZ));
 			}
-			return false;
 		}
 
 		@Override
 		public void clear(World world) {
 			super.clear(world);
 			LocationGuarded.this.setDirty(true);
+			AxisAlignedBB bounds = LocationGuarded.this.getBoundingBox();
+			if(bounds != null) {
+				PathNodeTypeCache.invalidate(world, MathHelper.floor(bounds.minX), MathHelper.floor(bounds.minY), MathHelper.floor(bounds.minZ), MathHelper.ceil(bounds.maxX), MathHelper.ceil(bounds.maxY), MathHelper.ceil(bounds.maxZ));
+			}
 			if(!LocationGuarded.this.getWatchers().isEmpty()) {
 				LocationGuarded.this.queuedChanges.clear();
 				LocationGuarded.this.queuedClear = true;
@@ -93,16 +98,22 @@ public class LocationGuarded extends LocationStorage implements ITickable {
 			if(this.getWatchers().isEmpty()) {
 				this.queuedChanges.clear();
 			} else {
+				//All sections changed during this tick are sent together
+				MessageBlockGuardSectionChange message = new MessageBlockGuardSectionChange(this);
 				Iterator<BlockPos> it = this.queuedChanges.iterator();
 				while(it.hasNext()) {
 					BlockPos pos = it.next();
 					BlockPos worldPos = new BlockPos(pos.getX() * 16, pos.getY() * 16, pos.getZ() * 16);
 					GuardChunkSection section = this.guard.getSection(worldPos);
-					MessageBlockGuardSectionChange message = new MessageBlockGuardSectionChange(this, worldPos, section); 
-					for(EntityPlayerMP watcher : this.getWatchers()) {
-						this.sendDataToPlayer(message, watcher);
-					}
+					message.addSection(worldPos, section);
 					it.remove();
+
+					if(message.isFull() || !it.hasNext()) {
+						for(EntityPlayerMP watcher : this.getWatchers()) {
+							this.sendDataToPlayer(message, watcher);
+						}
+						message = new MessageBlockGuardSectionChange(this);
+					}
 				}
 			}
 		}
@@ -26,11 +26,14 @@ import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.util.Constants;
 import net.minecraftforge.event.world.BlockEvent.BreakEvent;
 import thebetweenlands.api.network.IGenericDataManagerAccess;
+import thebetweenlands.api.storage.ILocalStorageHandler;
 import thebetweenlands.api.storage.IWorldStorage;
 import thebetweenlands.api.storage.LocalRegion;
 import thebetweenlands.api.storage.StorageID;
 import thebetweenlands.common.network.datamanager.GenericDataManager;
+import thebetweenlands.common.world.storage.AmateMapLocationIndex;
 import thebetweenlands.common.world.storage.BetweenlandsWorldStorage;
+import thebetweenlands.common.world.storage.LocalStorageHandlerImpl;
 import thebetweenlands.common.world.storage.LocalStorageImpl;
 import thebetweenlands.common.world.storage.location.guard.ILocationGuard;
 
@@ -128,6 +131,31 @@ public class LocationStorage extends LocalStorageImpl {
 			}
 			this.enclosingBoundingBox = union;
 		}
+
+		if(this.isLoaded()) {
+			ILocalStorageHandler localStorageHandler = this.getWorldStorage().getLocalStorageHandler();
+			if(localStorageHandler instanceof LocalStorageHandlerImpl) {
+				((LocalStorageHandlerImpl) localStorageHandler).updateLocalStorageBounds(this);
+			}
+
+			AmateMapLocationIndex index = this.getAmateMapLocationIndex();
+			if(index != null) {
+				index.update(this);
+			}
+		}
+	}
+
+	/**
+	 * Returns the amate map location index this location is tracked by, or null on the client side
+	 * @return
+	 */
+	@Nullable
+	private AmateMapLocationIndex getAmateMapLocationIndex() {
+		IWorldStorage worldStorage = this.getWorldStorage();
+		if(worldStorage instanceof BetweenlandsWorldStorage && !worldStorage.getWorld().isRemote) {
+			return ((BetweenlandsWorldStorage) worldStorage).getAmateMapLocationIndex();
+		}
+		return null;
 	}
 
 	/**
@@ -138,6 +166,26 @@ public class LocationStorage extends LocalStorageImpl {
 		return this.enclosingBoundingBox;
 	}
 
+	@Override
+	public void onLoaded() {
+		super.onLoaded();
+
+		AmateMapLocationIndex index = this.getAmateMapLocationIndex();
+		if(index != null) {
+			index.add(this);
+		}
+	}
+
+	@Override
+	public void onUnloaded() {
+		super.onUnloaded();
+
+		AmateMapLocationIndex index = this.getAmateMapLocationIndex();
+		if(index != null) {
+			index.remove(this);
+		}
+	}
+
 	@Override
 	public void onAdded() {
 		if(!this.getWorldStorage().getWorld().isRemote) {
@@ -1,14 +1,20 @@
 package thebetweenlands.common.world.storage.location.guard;
 
+import java.io.ByteArrayOutputStream;
+
 import javax.annotation.Nullable;
 
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.minecraft.entity.Entity;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.Explosion;
 import net.minecraft.world.World;
 import net.minecraftforge.common.util.Constants;
@@ -16,6 +22,75 @@ import net.minecraftforge.common.util.Constants;
 public class BlockLocationGuard implements ILocationGuard {
 	protected final Long2ObjectMap<GuardChunk> chunkMap = new Long2ObjectOpenHashMap<>(16);
 
+	/**
+	 * Last accessed chunk, most changes are made to the same chunk in a row
+	 */
+	@Nullable
+	private GuardChunk lastChunk;
+
+	private int batchDepth = 0;
+	private final LongSet batchChangedSections = new LongOpenHashSet();
+
+	@Nullable
+	private GuardChunk getOrCreateChunk(int x, int z, boolean create) {
+		int chunkX = x / 16;
+		int chunkZ = z / 16;
+		GuardChunk chunk = this.lastChunk;
+		if(chunk == null || chunk.x != chunkX || chunk.z != chunkZ) {
+			long id = ChunkPos.asLong(chunkX, chunkZ);
+			chunk = this.chunkMap.get(id);
+			if(chunk == null) {
+				if(!create) {
+					return null;
+				}
+				this.chunkMap.put(id, chunk = new GuardChunk(chunkX, chunkZ));
+			}
+			this.lastChunk = chunk;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Starts a batch of changes. Until the matching {@link #endBatch()} the changes are only recorded and
+	 * {@link #onSectionChanged(int, int, int)} is called once per changed section when the batch ends.
+	 * Batches can be nested
+	 */
+	public void beginBatch() {
+		this.batchDepth++;
+	}
+
+	/**
+	 * Ends a batch of changes, see {@link #beginBatch()}
+	 */
+	public void endBatch() {
+		if(this.batchDepth > 0 && --this.batchDepth == 0 && !this.batchChangedSections.isEmpty()) {
+			long[] changedSections = this.batchChangedSections.toLongArray();
+			this.batchChangedSections.clear();
+			for(long section : changedSections) {
+				BlockPos pos = BlockPos.fromLong(section);
+				this.onSectionChanged(pos.getX(), pos.getY(), pos.getZ());
+			}
+		}
+	}
+
+	private void markSectionChanged(int chunkX, int sectionY, int chunkZ) {
+		if(this.batchDepth > 0) {
+			this.batchChangedSections.add(new BlockPos(chunkX, sectionY, chunkZ).toLong());
+		} else {
+			this.onSectionChanged(chunkX, sectionY, chunkZ);
+		}
+	}
+
+	/**
+	 * Called when the guard state of at least one block in the specified section has changed
+	 * @param chunkX Chunk X coordinate, i.e. block X / 16
+	 * @param sectionY Section Y coordinate, i.e. block Y / 16
+	 * @param chunkZ Chunk Z coordinate, i.e. block Z / 16
+	 */
+	protected void onSectionChanged(int chunkX, int sectionY, int chunkZ) {
+
+	}
+
 	/**
 	 * Returns the chunk at the specified position
 	 * @param pos
@@ -48,27 +123,71 @@ public class BlockLocationGuard implements ILocationGuard {
 		int x = pos.getX();
 		int y = pos.getY();
 		int z = pos.getZ();
-		long id = ChunkPos.asLong(x / 16, z / 16);
-		GuardChunk chunk = this.chunkMap.get(id);
-		if(guarded) {
-			if(chunk == null) {
-				this.chunkMap.put(id, chunk = new GuardChunk(x / 16, z / 16));
-			}
-			return chunk.setGuarded(x & 15, y, z & 15, true);
-		} else if(chunk != null) {
-			return chunk.setGuarded(x & 15, y, z & 15, false);
+		GuardChunk chunk = this.getOrCreateChunk(x, z, guarded);
+		if(chunk != null && chunk.setGuarded(x & 15, y, z & 15, guarded)) {
+			this.markSectionChanged(chunk.x, y / 16, chunk.z);
+			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Sets whether all blocks in the specified volume are guarded
+	 * @param world World
+	 * @param from First corner of the volume, inclusive
+	 * @param to Second corner of the volume, inclusive
+	 * @param guarded Whether the blocks are guarded
+	 * @return the number of blocks whose guard state was changed
+	 */
+	public int setGuarded(World world, BlockPos from, BlockPos to, boolean guarded) {
+		int minX = Math.min(from.getX(), to.getX());
+		int minY = Math.max(Math.min(from.getY(), to.getY()), 0);
+		int minZ = Math.min(from.getZ(), to.getZ());
+		int maxX = Math.max(from.getX(), to.getX());
+		int maxY = Math.min(Math.max(from.getY(), to.getY()), 255);
+		int maxZ = Math.max(from.getZ(), to.getZ());
+
+		int changed = 0;
+
+		for(int x = minX; x <= maxX; x++) {
+			for(int z = minZ; z <= maxZ; z++) {
+				GuardChunk chunk = this.getOrCreateChunk(x, z, guarded);
+				if(chunk != null) {
+					int changedSections = chunk.setGuarded(x & 15, minY, maxY, z & 15, guarded);
+					if(changedSections != 0) {
+						for(int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+							if((changedSections & (1 << sectionY)) != 0) {
+								this.markSectionChanged(chunk.x, sectionY, chunk.z);
+							}
+						}
+						changed += chunk.lastChangedBlocks;
+					}
+				}
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Sets whether all blocks in the specified bounding box are guarded
+	 * @param world World
+	 * @param box Bounding box, all blocks that intersect it are affected
+	 * @param guarded Whether the blocks are guarded
+	 * @return the number of blocks whose guard state was changed
+	 */
+	public int setGuarded(World world, AxisAlignedBB box, boolean guarded) {
+		return this.setGuarded(world, new BlockPos(MathHelper.floor(box.minX), MathHelper.floor(box.minY), MathHelper.floor(box.minZ)),
+				new BlockPos(MathHelper.ceil(box.maxX) - 1, MathHelper.ceil(box.maxY) - 1, MathHelper.ceil(box.maxZ) - 1), guarded);
+	}
+
 	@Override
 	public boolean isGuarded(World world, @Nullable Entity entity, BlockPos pos) {
 		if(pos.getY() >= 0) {
 			int x = pos.getX();
 			int y = pos.getY();
 			int z = pos.getZ();
-			long id = ChunkPos.asLong(x / 16, z / 16);
-			GuardChunk chunk = this.chunkMap.get(id);
+			GuardChunk chunk = this.getOrCreateChunk(x, z, false);
 			if(chunk != null && chunk.isGuarded(x & 15, y, z & 15)) {
 				return true;
 			}
@@ -79,6 +198,8 @@ public class BlockLocationGuard implements ILocationGuard {
 	@Override
 	public void clear(World world) {
 		this.chunkMap.clear();
+		this.lastChunk = null;
+		this.batchChangedSections.clear();
 	}
 
 	@Override
@@ -115,6 +236,7 @@ public class BlockLocationGuard implements ILocationGuard {
 	@Override
 	public void readFromNBT(NBTTagCompound nbt) {
 		this.chunkMap.clear();
+		this.lastChunk = null;
 		if(nbt.hasKey("Chunks", Constants.NBT.TAG_LIST)) {
 			NBTTagList chunksList = nbt.getTagList("Chunks", Constants.NBT.TAG_COMPOUND);
 			for(int i = 0; i < chunksList.tagCount(); i++) {
@@ -176,6 +298,25 @@ public class BlockLocationGuard implements ILocationGuard {
 			return false;
 		}
 
+		/**
+		 * Sets whether the blocks from minY to maxY (both inclusive) in the specified column are guarded
+		 * @return the number of blocks whose guard state was changed
+		 */
+		public int setGuarded(int x, int minY, int maxY, int z, boolean guarded) {
+			int changed = 0;
+			byte mask = (byte)(1 << (x & 7));
+			for(int y = minY; y <= maxY; y++) {
+				int byteIndex = this.getByteIndex(x, y, z);
+				byte data = this.data[byteIndex];
+				if(((data & mask) != 0) != guarded) {
+					this.data[byteIndex] = (byte) (guarded ? (data | mask) : (data & (~mask)));
+					changed++;
+				}
+			}
+			this.blockRefCount += guarded ? changed : -changed;
+			return changed;
+		}
+
 		public boolean isGuarded(int x, int y, int z) {
 			int byteIndex = this.getByteIndex(x, y, z);
 			byte mask = (byte)(1 << (x & 7));
@@ -201,6 +342,73 @@ public class BlockLocationGuard implements ILocationGuard {
 		public void writeData(byte[] arr) {
 			System.arraycopy(this.data, 0, arr, 0, 512);
 		}
+
+		/**
+		 * Returns the guard states run-length encoded. The runs alternate between unguarded
+		 * and guarded blocks, starting with unguarded, and their lengths are written as var ints
+		 * @return
+		 */
+		public byte[] writeCompressedData() {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+			boolean runGuarded = false;
+			int runLength = 0;
+			for(int i = 0; i < 4096; i++) {
+				boolean guarded = (this.data[i >> 3] & (1 << (i & 7))) != 0;
+				if(guarded != runGuarded) {
+					writeVarInt(out, runLength);
+					runGuarded = guarded;
+					runLength = 0;
+				}
+				runLength++;
+			}
+			writeVarInt(out, runLength);
+			return out.toByteArray();
+		}
+
+		/**
+		 * Reads guard states written by {@link #writeCompressedData()}
+		 * @param arr
+		 */
+		public void loadCompressedData(byte[] arr) {
+			this.clear();
+			boolean runGuarded = false;
+			int i = 0;
+			int[] readerIndex = new int[1];
+			while(readerIndex[0] < arr.length && i < 4096) {
+				int runLength = readVarInt(arr, readerIndex);
+				if(runGuarded) {
+					for(int end = Math.min(i + runLength, 4096); i < end; i++) {
+						this.data[i >> 3] |= 1 << (i & 7);
+					}
+				} else {
+					i += runLength;
+				}
+				runGuarded = !runGuarded;
+			}
+			this.updateBlockRefCount();
+		}
+
+		private static void writeVarInt(ByteArrayOutputStream out, int value) {
+			while((value & ~0x7F) != 0) {
+				out.write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			out.write(value);
+		}
+
+		private static int readVarInt(byte[] arr, int[] readerIndex) {
+			int value = 0;
+			int shift = 0;
+			while(readerIndex[0] < arr.length) {
+				byte b = arr[readerIndex[0]++];
+				value |= (b & 0x7F) << shift;
+				if((b & 0x80) == 0 || shift >= 28) {
+					break;
+				}
+				shift += 7;
+			}
+			return value;
+		}
 	}
 
 	public static class GuardChunk {
@@ -237,6 +445,34 @@ public class BlockLocationGuard implements ILocationGuard {
 			return false;
 		}
 
+		private int lastChangedBlocks;
+
+		/**
+		 * Sets whether the blocks from minY to maxY (both inclusive, within 0-255) in the specified column are guarded
+		 * @return a bitmask of the sections that were changed
+		 */
+		private int setGuarded(int x, int minY, int maxY, int z, boolean guarded) {
+			int changedSections = 0;
+			this.lastChangedBlocks = 0;
+			for(int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+				GuardChunkSection section = this.sections[sectionY];
+				if(guarded && section == null) {
+					this.sections[sectionY] = section = new GuardChunkSection();
+				}
+				if(section != null) {
+					int changed = section.setGuarded(x, Math.max(minY, sectionY << 4) & 15, Math.min(maxY, (sectionY << 4) + 15) & 15, z, guarded);
+					if(changed != 0) {
+						changedSections |= 1 << sectionY;
+						this.lastChangedBlocks += changed;
+					}
+					if(section.isEmpty()) {
+						this.sections[sectionY] = null;
+					}
+				}
+			}
+			return changedSections;
+		}
+
 		public boolean isGuarded(int x, int y, int z) {
 			int sectionId = y >> 4;
 			if(sectionId >= 0) {
@@ -259,11 +495,16 @@ public class BlockLocationGuard implements ILocationGuard {
 			for(int i = 0; i < this.sections.length; i++) {
 				GuardChunkSection section = this.sections[i];
 				if(section != null) {
-					byte[] data = new byte[512];
-					section.writeData(data);
 					NBTTagCompound sectionNbt = new NBTTagCompound();
 					sectionNbt.setByte("Y", (byte)i);
-					sectionNbt.setByteArray("Data", data);
+					byte[] compressed = section.writeCompressedData();
+					if(compressed.length < 512) {
+						sectionNbt.setByteArray("RLE", compressed);
+					} else {
+						byte[] data = new byte[512];
+						section.writeData(data);
+						sectionNbt.setByteArray("Data", data);
+					}
 					sectionsNbt.appendTag(sectionNbt);
 				}
 			}
@@ -277,9 +518,17 @@ public class BlockLocationGuard implements ILocationGuard {
 				NBTTagList sectionsNbt = nbt.getTagList("Sections", Constants.NBT.TAG_COMPOUND);
 				for(int i = 0; i < sectionsNbt.tagCount(); i++) {
 					NBTTagCompound sectionNbt = sectionsNbt.getCompoundTagAt(i);
-					int y = sectionNbt.getByte("Y");
-					byte[] data = sectionNbt.getByteArray("Data");
-					this.sections[y] = new GuardChunkSection(data);
+					int y = sectionNbt.getByte("Y") & 15;
+					if(sectionNbt.hasKey("RLE", Constants.NBT.TAG_BYTE_ARRAY)) {
+						GuardChunkSection section = new GuardChunkSection();
+						section.loadCompressedData(sectionNbt.getByteArray("RLE"));
+						this.sections[y] = section;
+					} else {
+						byte[] data = sectionNbt.getByteArray("Data");
+						if(data.length == 512) {
+							this.sections[y] = new GuardChunkSection(data);
+						}
+					}
 				}
 			}
 		}
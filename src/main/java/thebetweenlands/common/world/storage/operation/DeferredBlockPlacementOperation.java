@@ -0,0 +1,158 @@
+package thebetweenlands.common.world.storage.operation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.util.Constants;
+import thebetweenlands.api.storage.IChunkStorage;
+import thebetweenlands.api.storage.IDeferredStorageOperation;
+import thebetweenlands.common.world.gen.feature.StructureBuildBuffer;
+
+/**
+ * Block placements of a structure that reached into a chunk which wasn't loaded while the structure was generated.
+ * The placements are stored palette compressed per chunk section and are applied once the chunk is loaded.
+ */
+public class DeferredBlockPlacementOperation implements IDeferredStorageOperation {
+	private final List<IBlockState> palette = new ArrayList<>();
+	private final Reference2IntMap<IBlockState> paletteIndices = new Reference2IntOpenHashMap<>();
+
+	/**
+	 * Placements per chunk section, each packed as <code>sectionIndex &lt;&lt; 16 | paletteIndex</code>
+	 */
+	private final IntArrayList[] sections = new IntArrayList[16];
+
+	public DeferredBlockPlacementOperation() {
+		this.paletteIndices.defaultReturnValue(-1);
+	}
+
+	/**
+	 * Adds a placement. Later placements at the same position replace earlier ones
+	 * @param x Chunk relative X
+	 * @param y
+	 * @param z Chunk relative Z
+	 * @param state
+	 */
+	public void add(int x, int y, int z, IBlockState state) {
+		int paletteIndex = this.paletteIndices.getInt(state);
+		if(paletteIndex < 0) {
+			paletteIndex = this.palette.size();
+			this.palette.add(state);
+			this.paletteIndices.put(state, paletteIndex);
+		}
+
+		IntArrayList section = this.sections[y >> 4];
+		if(section == null) {
+			this.sections[y >> 4] = section = new IntArrayList();
+		}
+
+		section.add((((y & 15) << 8) | ((z & 15) << 4) | (x & 15)) << 16 | paletteIndex);
+	}
+
+	/**
+	 * Returns the block state of the specified palette index, or null if the block state no longer exists
+	 * @param index
+	 * @return
+	 */
+	@Nullable
+	public IBlockState getPaletteState(int index) {
+		return this.palette.get(index);
+	}
+
+	/**
+	 * Returns the packed placements of the specified chunk section, see {@link #getSectionIndex(int)} and {@link #getPaletteIndex(int)}
+	 * @param sectionY
+	 * @return
+	 */
+	@Nullable
+	public IntArrayList getSection(int sectionY) {
+		return this.sections[sectionY];
+	}
+
+	public static int getSectionIndex(int placement) {
+		return placement >>> 16;
+	}
+
+	public static int getPaletteIndex(int placement) {
+		return placement & 0xFFFF;
+	}
+
+	public boolean isEmpty() {
+		for(IntArrayList section : this.sections) {
+			if(section != null && !section.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void apply(IChunkStorage chunkStorage) {
+		World world = chunkStorage.getWorldStorage().getWorld();
+		if(world instanceof WorldServer) {
+			StructureBuildBuffer buffer = new StructureBuildBuffer((WorldServer) world);
+			buffer.applyDeferred(chunkStorage.getChunk(), this);
+			buffer.flush();
+		}
+	}
+
+	@Override
+	public void readFromNBT(NBTTagCompound nbt) {
+		this.palette.clear();
+		this.paletteIndices.clear();
+
+		for(int stateId : nbt.getIntArray("palette")) {
+			IBlockState state = Block.BLOCK_STATE_IDS.getByValue(stateId);
+			this.palette.add(state);
+			if(state != null && !this.paletteIndices.containsKey(state)) {
+				this.paletteIndices.put(state, this.palette.size() - 1);
+			}
+		}
+
+		NBTTagList sectionsNbt = nbt.getTagList("sections", Constants.NBT.TAG_COMPOUND);
+		for(int i = 0; i < sectionsNbt.tagCount(); i++) {
+			NBTTagCompound sectionNbt = sectionsNbt.getCompoundTagAt(i);
+			IntArrayList section = new IntArrayList();
+			for(int placement : sectionNbt.getIntArray("placements")) {
+				if(getPaletteIndex(placement) < this.palette.size()) {
+					section.add(placement);
+				}
+			}
+			this.sections[sectionNbt.getByte("y") & 15] = section;
+		}
+	}
+
+	@Override
+	public NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+		int[] palette = new int[this.palette.size()];
+		for(int i = 0; i < palette.length; i++) {
+			IBlockState state = this.palette.get(i);
+			palette[i] = state != null ? Block.BLOCK_STATE_IDS.get(state) : -1;
+		}
+		nbt.setIntArray("palette", palette);
+
+		NBTTagList sectionsNbt = new NBTTagList();
+		for(int y = 0; y < this.sections.length; y++) {
+			IntArrayList section = this.sections[y];
+			if(section != null && !section.isEmpty()) {
+				NBTTagCompound sectionNbt = new NBTTagCompound();
+				sectionNbt.setByte("y", (byte) y);
+				sectionNbt.setIntArray("placements", section.toIntArray());
+				sectionsNbt.appendTag(sectionNbt);
+			}
+		}
+		nbt.setTag("sections", sectionsNbt);
+
+		return nbt;
+	}
+}
@@ -0,0 +1,461 @@
+package thebetweenlands.common.world.teleporter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.annotation.Nullable;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.border.WorldBorder;
+import net.minecraft.world.gen.ChunkProviderServer;
+import net.minecraftforge.common.util.FakePlayer;
+import net.minecraftforge.event.entity.living.LivingAttackEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent.Phase;
+import net.minecraftforge.fml.common.gameevent.TickEvent.ServerTickEvent;
+import thebetweenlands.api.capability.IPortalCapability;
+import thebetweenlands.common.TheBetweenlands;
+import thebetweenlands.common.config.BetweenlandsConfig;
+import thebetweenlands.common.handler.PlayerPortalHandler;
+import thebetweenlands.common.registries.CapabilityRegistry;
+import thebetweenlands.common.world.gen.ChunkGeneratorBetweenlands;
+import thebetweenlands.common.world.gen.WorldPregenerator;
+
+/**
+ * Searches the position of a new portal over multiple ticks when a player enters a portal that isn't linked yet,
+ * instead of generating all chunks around the destination at once:
+ * <ol>
+ * <li>The biomes around the destination are sampled on the server thread and searched for a suitable column on a worker thread</li>
+ * <li>The chunks around the column are generated and the portal center is determined</li>
+ * <li>The chunks around the center are generated ring by ring. After each ring the generated area is checked for a portal
+ * tree position and the search ends early if there is one</li>
+ * </ol>
+ * At most {@link BetweenlandsConfig.Performance#portalSearchChunksPerTick} chunks are generated per tick for all searches together,
+ * and if the dimension uses {@link ChunkGeneratorBetweenlands} their base terrain is precomputed on the world generation workers.
+ * Meanwhile the player is held in place and can't be damaged. Once the search has ended the player is teleported and the portal
+ * is made around the found center.
+ */
+public class PortalSearchScheduler {
+	/**
+	 * Searches that take longer than this are ended and the player is teleported right away. The portal is then
+	 * placed within the area that has already been generated, see {@link PortalSearch#finish(EntityPlayerMP)}
+	 */
+	private static final int MAX_SEARCH_TICKS = 600;
+
+	/**
+	 * Radii in which a portal tree position is searched before the next ring of chunks is generated
+	 */
+	private static final int[] PROBE_RADII = new int[] { 16, 32, 48, TeleporterBetweenlands.PORTAL_SEARCH_RADIUS };
+
+	/**
+	 * Range around the selected column that is generated before the portal center is determined
+	 */
+	private static final int CENTER_RANGE = 32;
+
+	private static final double MAX_HOLD_DISTANCE_SQ = 1.0D;
+
+	private static enum Stage {
+		SCAN, CENTER, PROBE, DONE
+	}
+
+	private static class PortalSearch {
+		private final UUID playerId;
+		private final String playerName;
+		private final int fromDim;
+		private final WorldServer toWorld;
+		private final TeleporterBetweenlands teleporter;
+		private final double holdX, holdY, holdZ;
+
+		private final BlockPos start;
+		private final CompletableFuture<BlockPos> columnFuture;
+		private BlockPos column;
+		@Nullable
+		private BlockPos center;
+		private int probe;
+
+		private Stage stage = Stage.SCAN;
+
+		private final TLongSet queuedChunks = new TLongHashSet();
+		private final List<ChunkPos> chunkQueue = new ArrayList<>();
+		private int chunkQueueIndex;
+
+		private final long startTime;
+		private final long sampleNanos;
+		private volatile long scanNanos;
+		private long loadNanos;
+		private long probeNanos;
+		private int ticks;
+		private int loadedChunks;
+		private int generatedChunks;
+		private int probes;
+
+		private PortalSearch(EntityPlayerMP player, WorldServer toWorld, TeleporterBetweenlands teleporter) {
+			this.startTime = System.nanoTime();
+
+			this.playerId = player.getUniqueID();
+			this.playerName = player.getName();
+			this.fromDim = player.dimension;
+			this.toWorld = toWorld;
+			this.teleporter = teleporter;
+			this.holdX = player.posX;
+			this.holdY = player.posY;
+			this.holdZ = player.posZ;
+
+			//Same position as the entity will have in the other world when the portal is made, see PlayerList#transferEntityToWorld
+			double moveFactor = player.world.provider.getMovementFactor() / toWorld.provider.getMovementFactor();
+			WorldBorder border = toWorld.getWorldBorder();
+			int x = MathHelper.clamp((int) MathHelper.clamp(player.posX * moveFactor, border.minX() + 16.0D, border.maxX() - 16.0D), -29999872, 29999872);
+			int z = MathHelper.clamp((int) MathHelper.clamp(player.posZ * moveFactor, border.minZ() + 16.0D, border.maxZ() - 16.0D), -29999872, 29999872);
+			this.start = new BlockPos(x, MathHelper.floor(player.posY), z);
+
+			TeleporterBetweenlands.BiomeSearch biomeSearch = teleporter.createBiomeSearch(this.start);
+			Random rand = new Random(toWorld.rand.nextLong());
+
+			this.sampleNanos = System.nanoTime() - this.startTime;
+
+			this.columnFuture = CompletableFuture.supplyAsync(() -> {
+				long scanStart = System.nanoTime();
+				BlockPos column = biomeSearch.select(rand);
+				this.scanNanos = System.nanoTime() - scanStart;
+				return column;
+			}, WorldPregenerator.getWorkerPool());
+		}
+
+		/**
+		 * Continues the search
+		 * @param budget Number of chunks that may still be generated or loaded this tick
+		 * @return The remaining budget
+		 */
+		private int update(int budget) {
+			switch(this.stage) {
+			case SCAN:
+				if(!this.columnFuture.isDone()) {
+					return budget;
+				}
+				try {
+					this.column = this.columnFuture.join();
+				} catch(CompletionException | CancellationException ex) {
+					TheBetweenlands.logger.error(String.format("Failed searching portal biome for %s", this.playerName), ex);
+					this.column = this.start;
+				}
+				this.queueChunks(this.column, CENTER_RANGE);
+				this.stage = Stage.CENTER;
+			case CENTER:
+				budget = this.loadChunks(budget);
+				if(this.chunkQueueIndex < this.chunkQueue.size()) {
+					return budget;
+				}
+				this.center = this.teleporter.findPortalCenter(this.column);
+				this.queueChunks(this.center, PROBE_RADII[0] + TeleporterBetweenlands.DECORATION_RANGE);
+				this.stage = Stage.PROBE;
+			case PROBE:
+				while(true) {
+					budget = this.loadChunks(budget);
+					if(this.chunkQueueIndex < this.chunkQueue.size()) {
+						return budget;
+					}
+
+					if(this.probe == PROBE_RADII.length - 1) {
+						//All chunks the portal could need are generated
+						this.stage = Stage.DONE;
+						return budget;
+					}
+
+					long probeStart = System.nanoTime();
+					boolean hasSite = this.teleporter.hasTreePortalSite(this.center, PROBE_RADII[this.probe]);
+					this.probeNanos += System.nanoTime() - probeStart;
+					this.probes++;
+
+					if(hasSite) {
+						this.stage = Stage.DONE;
+						return budget;
+					}
+
+					this.probe++;
+					this.queueChunks(this.center, PROBE_RADII[this.probe] + TeleporterBetweenlands.DECORATION_RANGE);
+				}
+			default:
+				return budget;
+			}
+		}
+
+		/**
+		 * Queues all chunks that must be generated so that the area within the range around the center is fully decorated
+		 * @param center
+		 * @param range
+		 */
+		private void queueChunks(BlockPos center, int range) {
+			int centerChunkX = center.getX() >> 4;
+			int centerChunkZ = center.getZ() >> 4;
+
+			//Chunks are populated once their +X, +Z and +XZ neighbours are loaded
+			int minChunkX = (center.getX() - range) >> 4;
+			int minChunkZ = (center.getZ() - range) >> 4;
+			int maxChunkX = ((center.getX() + range) >> 4) + 1;
+			int maxChunkZ = ((center.getZ() + range) >> 4) + 1;
+
+			int queueStart = this.chunkQueue.size();
+
+			for(int cx = minChunkX; cx <= maxChunkX; cx++) {
+				for(int cz = minChunkZ; cz <= maxChunkZ; cz++) {
+					if(this.queuedChunks.add(ChunkPos.asLong(cx, cz))) {
+						this.chunkQueue.add(new ChunkPos(cx, cz));
+					}
+				}
+			}
+
+			this.chunkQueue.subList(queueStart, this.chunkQueue.size()).sort((c1, c2) -> Integer.compare(
+					Math.max(Math.abs(c1.x - centerChunkX), Math.abs(c1.z - centerChunkZ)),
+					Math.max(Math.abs(c2.x - centerChunkX), Math.abs(c2.z - centerChunkZ))));
+
+			ChunkProviderServer provider = this.toWorld.getChunkProvider();
+			if(provider.chunkGenerator instanceof ChunkGeneratorBetweenlands) {
+				ChunkGeneratorBetweenlands generator = (ChunkGeneratorBetweenlands) provider.chunkGenerator;
+				for(int i = queueStart; i < this.chunkQueue.size(); i++) {
+					ChunkPos chunk = this.chunkQueue.get(i);
+					if(!provider.isChunkGeneratedAt(chunk.x, chunk.z)) {
+						generator.precomputeTerrain(chunk.x, chunk.z, this, WorldPregenerator.getWorkerPool());
+					}
+				}
+			}
+		}
+
+		private int loadChunks(int budget) {
+			ChunkProviderServer provider = this.toWorld.getChunkProvider();
+
+			while(budget > 0 && this.chunkQueueIndex < this.chunkQueue.size()) {
+				ChunkPos chunk = this.chunkQueue.get(this.chunkQueueIndex++);
+
+				if(provider.getLoadedChunk(chunk.x, chunk.z) == null) {
+					long loadStart = System.nanoTime();
+
+					if(!provider.isChunkGeneratedAt(chunk.x, chunk.z)) {
+						this.generatedChunks++;
+					}
+					provider.provideChunk(chunk.x, chunk.z);
+
+					this.loadNanos += System.nanoTime() - loadStart;
+					this.loadedChunks++;
+					budget--;
+				}
+			}
+
+			return budget;
+		}
+
+		/**
+		 * Keeps the player at the position where the search was started
+		 * @param player
+		 */
+		private void hold(EntityPlayerMP player) {
+			if(player.getDistanceSq(this.holdX, this.holdY, this.holdZ) > MAX_HOLD_DISTANCE_SQ) {
+				player.connection.setPlayerLocation(this.holdX, this.holdY, this.holdZ, player.rotationYaw, player.rotationPitch);
+			}
+			player.fallDistance = 0;
+		}
+
+		private void discardPrecomputedTerrain() {
+			ChunkProviderServer provider = this.toWorld.getChunkProvider();
+			if(provider.chunkGenerator instanceof ChunkGeneratorBetweenlands) {
+				((ChunkGeneratorBetweenlands) provider.chunkGenerator).discardPrecomputedTerrain(this);
+			}
+		}
+
+		private void cancel() {
+			this.columnFuture.cancel(false);
+			this.discardPrecomputedTerrain();
+		}
+
+		private void finish(EntityPlayerMP player) {
+			this.discardPrecomputedTerrain();
+
+			long placeStart = System.nanoTime();
+
+			BlockPos portalCenter = this.center;
+			int portalSearchRadius = TeleporterBetweenlands.PORTAL_SEARCH_RADIUS;
+
+			if(this.stage != Stage.DONE) {
+				//Timed out, only search close to the center instead of generating the full search area at once
+				if(portalCenter == null) {
+					this.columnFuture.cancel(false);
+					portalCenter = this.teleporter.findPortalCenter(this.column != null ? this.column : this.start);
+				}
+				portalSearchRadius = PROBE_RADII[Math.max(0, this.probe - 1)];
+			}
+
+			TeleporterHandler.transferToDim(player, this.toWorld, portalCenter, portalSearchRadius);
+
+			long placeNanos = System.nanoTime() - placeStart;
+
+			player.timeUntilPortal = 10;
+			IPortalCapability cap = player.getCapability(CapabilityRegistry.CAPABILITY_PORTAL, null);
+			if(cap != null) {
+				cap.setInPortal(false);
+				cap.setTicksUntilTeleport(PlayerPortalHandler.MAX_PORTAL_TIME);
+			}
+
+			TheBetweenlands.logger.debug(String.format("Portal search for %s to dimension %d %s after %d ticks (%.1f ms): biome sampling %.2f ms, biome scan %.2f ms, %d chunks loaded (%d generated) in %.2f ms, %d probes in %.2f ms, placement %.2f ms",
+					this.playerName, this.toWorld.provider.getDimension(), this.stage == Stage.DONE ? "completed" : "timed out", this.ticks, (System.nanoTime() - this.startTime) / 1.0E6D,
+					this.sampleNanos / 1.0E6D, this.scanNanos / 1.0E6D, this.loadedChunks, this.generatedChunks, this.loadNanos / 1.0E6D, this.probes, this.probeNanos / 1.0E6D, placeNanos / 1.0E6D));
+		}
+	}
+
+	private static final Map<UUID, PortalSearch> SEARCHES = new LinkedHashMap<>();
+
+	private static long completedSearches;
+	private static long timedOutSearches;
+	private static long cancelledSearches;
+	private static long totalLoadedChunks;
+	private static long totalGeneratedChunks;
+	private static long totalWaitTicks;
+
+	/**
+	 * Transfers the player to the specified world through a portal. If a new portal has to be made its position
+	 * is searched over the next ticks and the player is transferred once the search has ended
+	 * @param player
+	 * @param toWorld
+	 */
+	public static void transferToDim(EntityPlayerMP player, WorldServer toWorld) {
+		if(SEARCHES.containsKey(player.getUniqueID())) {
+			return;
+		}
+
+		if(BetweenlandsConfig.PERFORMANCE.asyncPortalSearch && !(player instanceof FakePlayer) && !player.isDead) {
+			TeleporterBetweenlands teleporter = new TeleporterBetweenlands(player.dimension, player.getEntityBoundingBox(), toWorld, true, true);
+			if(teleporter.requiresPortalSearch()) {
+				SEARCHES.put(player.getUniqueID(), new PortalSearch(player, toWorld, teleporter));
+				return;
+			}
+		}
+
+		TeleporterHandler.transferToDim(player, toWorld);
+	}
+
+	/**
+	 * Returns whether a portal search is running for the specified player
+	 * @param player
+	 * @return
+	 */
+	public static boolean isSearching(EntityPlayerMP player) {
+		return SEARCHES.containsKey(player.getUniqueID());
+	}
+
+	@SubscribeEvent
+	public static void onServerTick(ServerTickEvent event) {
+		if(event.phase == Phase.END && !SEARCHES.isEmpty()) {
+			MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+
+			int budget = BetweenlandsConfig.PERFORMANCE.portalSearchChunksPerTick;
+
+			Iterator<PortalSearch> it = SEARCHES.values().iterator();
+			while(it.hasNext()) {
+				PortalSearch search = it.next();
+
+				EntityPlayerMP player = server.getPlayerList().getPlayerByUUID(search.playerId);
+				if(player == null || player.isDead || player.dimension != search.fromDim) {
+					it.remove();
+					search.cancel();
+					cancelledSearches++;
+					continue;
+				}
+
+				search.ticks++;
+				search.hold(player);
+
+				budget = search.update(budget);
+
+				if(search.stage == Stage.DONE || search.ticks >= MAX_SEARCH_TICKS) {
+					it.remove();
+
+					if(search.stage == Stage.DONE) {
+						completedSearches++;
+					} else {
+						timedOutSearches++;
+					}
+					totalLoadedChunks += search.loadedChunks;
+					totalGeneratedChunks += search.generatedChunks;
+					totalWaitTicks += search.ticks;
+
+					search.finish(player);
+				}
+			}
+		}
+	}
+
+	@SubscribeEvent
+	public static void onWorldUnload(WorldEvent.Unload event) {
+		Iterator<PortalSearch> it = SEARCHES.values().iterator();
+		while(it.hasNext()) {
+			PortalSearch search = it.next();
+			if(search.toWorld == event.getWorld()) {
+				it.remove();
+				search.cancel();
+				cancelledSearches++;
+			}
+		}
+	}
+
+	@SubscribeEvent
+	public static void onLivingAttack(LivingAttackEvent event) {
+		if(!event.getEntityLiving().world.isRemote && event.getEntityLiving() instanceof EntityPlayerMP && SEARCHES.containsKey(event.getEntityLiving().getUniqueID())) {
+			event.setCanceled(true);
+		}
+	}
+
+	public static int getPendingSearches() {
+		return SEARCHES.size();
+	}
+
+	public static long getCompletedSearches() {
+		return completedSearches;
+	}
+
+	public static long getTimedOutSearches() {
+		return timedOutSearches;
+	}
+
+	public static long getCancelledSearches() {
+		return cancelledSearches;
+	}
+
+	/**
+	 * Returns the total number of chunks that were loaded or generated by all finished searches
+	 * @return
+	 */
+	public static long getLoadedChunks() {
+		return totalLoadedChunks;
+	}
+
+	/**
+	 * Returns the total number of chunks that were generated by all finished searches
+	 * @return
+	 */
+	public static long getGeneratedChunks() {
+		return totalGeneratedChunks;
+	}
+
+	/**
+	 * Returns the total number of ticks players waited for all finished searches
+	 * @return
+	 */
+	public static long getWaitTicks() {
+		return totalWaitTicks;
+	}
+}
@@ -1,10 +1,11 @@
 package thebetweenlands.common.world.teleporter;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import javax.annotation.Nullable;
 
@@ -46,10 +47,49 @@ public final class TeleporterBetweenlands extends Teleporter {
 	private final boolean makePortal;
 	private final boolean setSpawn;
 	private final boolean isToEnd;
+	private final boolean isToBL;
+	@Nullable
+	private final BlockPos portalCenter;
+	private final int portalSearchRadius;
 
 	public static final String LAST_PORTAL_POS_NBT = "thebetweenlands.last_portal_location";
 
+	/**
+	 * Radius around the portal center in which the portal is placed
+	 */
+	public static final int PORTAL_SEARCH_RADIUS = 64;
+
+	/**
+	 * Range around a checked position in which chunks are generated so that the checked position is fully decorated
+	 */
+	public static final int DECORATION_RANGE = 16;
+
 	public TeleporterBetweenlands(int fromDim, AxisAlignedBB fromBounds, WorldServer toWorld, boolean makePortal, boolean setSpawn) {
+		this(fromDim, fromBounds, toWorld, makePortal, setSpawn, null);
+	}
+
+	/**
+	 * @param fromDim
+	 * @param fromBounds
+	 * @param toWorld
+	 * @param makePortal
+	 * @param setSpawn
+	 * @param portalCenter The center around which a new portal is placed, see {@link #findPortalCenter(BlockPos)}. If null the center is searched when the portal is made
+	 */
+	public TeleporterBetweenlands(int fromDim, AxisAlignedBB fromBounds, WorldServer toWorld, boolean makePortal, boolean setSpawn, @Nullable BlockPos portalCenter) {
+		this(fromDim, fromBounds, toWorld, makePortal, setSpawn, portalCenter, PORTAL_SEARCH_RADIUS);
+	}
+
+	/**
+	 * @param fromDim
+	 * @param fromBounds
+	 * @param toWorld
+	 * @param makePortal
+	 * @param setSpawn
+	 * @param portalCenter The center around which a new portal is placed, see {@link #findPortalCenter(BlockPos)}. If null the center is searched when the portal is made
+	 * @param portalSearchRadius Radius around the portal center in which the portal is placed. Chunks within this radius may be generated
+	 */
+	public TeleporterBetweenlands(int fromDim, AxisAlignedBB fromBounds, WorldServer toWorld, boolean makePortal, boolean setSpawn, @Nullable BlockPos portalCenter, int portalSearchRadius) {
 		super(toWorld);
 		this.fromBounds = fromBounds;
 		this.fromDim = fromDim;
@@ -57,6 +97,18 @@ public final class TeleporterBetweenlands extends Teleporter {
 		this.makePortal = makePortal;
 		this.setSpawn = setSpawn;
 		this.isToEnd = this.toWorld.provider.getDimensionType().getId() == 1;
+		this.isToBL = this.toWorld.provider.getDimension() == BetweenlandsConfig.WORLD_AND_DIMENSION.dimensionId;
+		this.portalCenter = portalCenter;
+		this.portalSearchRadius = portalSearchRadius;
+	}
+
+	/**
+	 * Returns whether teleporting will make a new portal whose position can be searched
+	 * in advance, see {@link #createBiomeSearch(BlockPos)} and {@link #findPortalCenter(BlockPos)}
+	 * @return
+	 */
+	public boolean requiresPortalSearch() {
+		return this.makePortal && !this.isToEnd && (!this.setSpawn || this.findExistingPortalPos() == null);
 	}
 
 	@Override
@@ -82,7 +134,7 @@ public final class TeleporterBetweenlands extends Teleporter {
 						} else {
 							//Portal failed to generate... fallback?
 
-							BlockPos pos = this.findSuitableBetweenlandsPortalPos(entity.getPosition());
+							BlockPos pos = this.portalCenter != null ? this.portalCenter : this.findSuitableBetweenlandsPortalPos(entity.getPosition());
 							Chunk chunk = this.getDecoratedChunk(this.toWorld, pos); //Force chunk to generate
 							pos = new BlockPos(pos.getX(), chunk.getHeight(pos), pos.getZ());
 							for(int xo = -1; xo <= 1; xo++) {
@@ -250,111 +302,121 @@ public final class TeleporterBetweenlands extends Teleporter {
 	}
 
 	/**
-	 * Finds a suitable position for a portal to generate nearby
-	 * @param start
-	 * @return
+	 * Snapshot of the biomes around a start position that can be searched for a suitable portal column on any thread
 	 */
-	protected BlockPos findSuitableBetweenlandsPortalPos(BlockPos start) {
-		List<Biome> validBiomes = new ArrayList<Biome>();
-
-		validBiomes.add(BiomeRegistry.SWAMPLANDS);
-		validBiomes.add(BiomeRegistry.PATCHY_ISLANDS);
-
-		int range = BetweenlandsConfig.WORLD_AND_DIMENSION.portalBiomeSearchRange;
-
-		IntCache.resetIntCache();
-		int searchStartX = start.getX() - range >> 2;
-		int searchStartZ = start.getZ() - range >> 2;
-		int searchEndX = start.getX() + range >> 2;
-		int searchEndZ = start.getZ() + range >> 2;
-		int searchWidth = searchEndX - searchStartX + 1;
-		int searchDepth = searchEndZ - searchStartZ + 1;
-
-		WorldBorder border = this.toWorld.getWorldBorder();
-		
-		Biome[] biomes = this.toWorld.getBiomeProvider().getBiomesForGeneration(new Biome[0], searchStartX, searchStartZ, searchWidth, searchDepth);
+	public static class BiomeSearch {
+		private final BlockPos start;
+		@Nullable
+		private final Biome[] biomes;
+		private final Predicate<Biome> isSuitable;
+		private final int searchStartX, searchStartZ, searchWidth, searchDepth;
+		private final double minX, minZ, maxX, maxZ;
+
+		private BiomeSearch(BlockPos start) {
+			this.start = start;
+			this.biomes = null;
+			this.isSuitable = biome -> false;
+			this.searchStartX = this.searchStartZ = this.searchWidth = this.searchDepth = 0;
+			this.minX = this.minZ = this.maxX = this.maxZ = 0;
+		}
+
+		private BiomeSearch(WorldServer world, BlockPos start, Predicate<Biome> isSuitable) {
+			this.start = start;
+			this.isSuitable = isSuitable;
+
+			int range = BetweenlandsConfig.WORLD_AND_DIMENSION.portalBiomeSearchRange;
+
+			IntCache.resetIntCache();
+			this.searchStartX = start.getX() - range >> 2;
+			this.searchStartZ = start.getZ() - range >> 2;
+			int searchEndX = start.getX() + range >> 2;
+			int searchEndZ = start.getZ() + range >> 2;
+			this.searchWidth = searchEndX - this.searchStartX + 1;
+			this.searchDepth = searchEndZ - this.searchStartZ + 1;
+
+			WorldBorder border = world.getWorldBorder();
+			this.minX = border.minX();
+			this.minZ = border.minZ();
+			this.maxX = border.maxX();
+			this.maxZ = border.maxZ();
+
+			this.biomes = world.getBiomeProvider().getBiomesForGeneration(new Biome[0], this.searchStartX, this.searchStartZ, this.searchWidth, this.searchDepth);
+		}
+
+		/**
+		 * Returns a random column in a suitable biome that is not too close to the world border,
+		 * or the start position if there is none. Only uses the biome snapshot, so this can be called from any thread
+		 * @param rand
+		 * @return
+		 */
+		public BlockPos select(Random rand) {
+			if(this.biomes == null) {
+				return this.start;
+			}
 
-		BlockPos suitablePos = null;
+			BlockPos suitablePos = null;
 
-		int counter = 0;
+			int counter = 0;
 
-		for (int i = 0; i < searchWidth * searchDepth; ++i) {
-			int bx = searchStartX + i % searchWidth << 2;
-			int bz = searchStartZ + i / searchWidth << 2;
+			for (int i = 0; i < this.searchWidth * this.searchDepth; ++i) {
+				int bx = this.searchStartX + i % this.searchWidth << 2;
+				int bz = this.searchStartZ + i / this.searchWidth << 2;
 
-			Biome biome = biomes[i];
+				Biome biome = this.biomes[i];
 
-			if (validBiomes.contains(biome) &&
-					bx > border.minX() + 16 && bz > border.minZ() + 16 && bx < border.maxX() - 16 && bz < border.maxZ() - 16 &&
-					(suitablePos == null || this.toWorld.rand.nextInt(counter + 1) == 0)) {
-				suitablePos = new BlockPos(bx, 0, bz);
-				++counter;
+				if (this.isSuitable.test(biome) &&
+						bx > this.minX + 16 && bz > this.minZ + 16 && bx < this.maxX - 16 && bz < this.maxZ - 16 &&
+						(suitablePos == null || rand.nextInt(counter + 1) == 0)) {
+					suitablePos = new BlockPos(bx, 0, bz);
+					++counter;
+				}
 			}
-		}
-		
-		BlockPos selectedPos;
-		if(suitablePos != null) {
-			selectedPos = suitablePos;
-		} else {
-			selectedPos = start;
-		}
 
-		Chunk chunk = this.getDecoratedChunk(this.toWorld, selectedPos); //Force chunk to generate
-		int height = chunk.getHeight(selectedPos);
-		return new BlockPos(selectedPos.getX(), height, selectedPos.getZ());
+			return suitablePos != null ? suitablePos : this.start;
+		}
 	}
 
 	/**
-	 * Tries to find a suitable position in a safe biome in another dimension
+	 * Takes a snapshot of the biomes around the start position in which a suitable portal column is searched.
+	 * Biome generation is not thread safe, so this must be called from the server thread
 	 * @param start
 	 * @return
 	 */
-	@Nullable
-	protected BlockPos findSuitableNonBLStartPos(BlockPos start) {
-		Set<String> unsafeBiomes = BetweenlandsConfig.WORLD_AND_DIMENSION.portalUnsafeBiomesSet;
-
-		if(unsafeBiomes.isEmpty()) {
-			return start;
+	public BiomeSearch createBiomeSearch(BlockPos start) {
+		if(this.isToBL) {
+			return new BiomeSearch(this.toWorld, start, biome -> biome == BiomeRegistry.SWAMPLANDS || biome == BiomeRegistry.PATCHY_ISLANDS);
 		}
 
-		if(!unsafeBiomes.contains(this.toWorld.getBiome(start).getRegistryName().toString())) {
+		Set<String> unsafeBiomes = BetweenlandsConfig.WORLD_AND_DIMENSION.portalUnsafeBiomesSet;
+
+		if(unsafeBiomes.isEmpty() || !unsafeBiomes.contains(this.toWorld.getBiome(start).getRegistryName().toString())) {
 			//Start position is already in a safe biome
-			return start;
+			return new BiomeSearch(start);
 		}
 
-		int range = BetweenlandsConfig.WORLD_AND_DIMENSION.portalBiomeSearchRange;
-
-		IntCache.resetIntCache();
-		int searchStartX = start.getX() - range >> 2;
-		int searchStartZ = start.getZ() - range >> 2;
-		int searchEndX = start.getX() + range >> 2;
-		int searchEndZ = start.getZ() + range >> 2;
-		int searchWidth = searchEndX - searchStartX + 1;
-		int searchDepth = searchEndZ - searchStartZ + 1;
-
-		WorldBorder border = this.toWorld.getWorldBorder();
-		
-		Biome[] biomes = this.toWorld.getBiomeProvider().getBiomesForGeneration(new Biome[0], searchStartX, searchStartZ, searchWidth, searchDepth);
-
-		BlockPos suitablePos = null;
-
-		int counter = 0;
-
-		for (int i = 0; i < searchWidth * searchDepth; ++i) {
-			int bx = searchStartX + i % searchWidth << 2;
-			int bz = searchStartZ + i / searchWidth << 2;
-
-			Biome biome = biomes[i];
+		return new BiomeSearch(this.toWorld, start, biome -> !unsafeBiomes.contains(biome.getRegistryName().toString()));
+	}
 
-			if (!unsafeBiomes.contains(biome.getRegistryName().toString()) &&
-					bx > border.minX() + 16 && bz > border.minZ() + 16 && bx < border.maxX() - 16 && bz < border.maxZ() - 16 &&
-					(suitablePos == null || this.toWorld.rand.nextInt(counter + 1) == 0)) {
-				suitablePos = new BlockPos(bx, 0, bz);
-				++counter;
-			}
+	/**
+	 * Returns the center around which a new portal is placed
+	 * @param column The column selected by {@link BiomeSearch#select(Random)}
+	 * @return
+	 */
+	public BlockPos findPortalCenter(BlockPos column) {
+		if(this.isToBL) {
+			Chunk chunk = this.getDecoratedChunk(this.toWorld, column); //Force chunk to generate
+			return new BlockPos(column.getX(), chunk.getHeight(column), column.getZ());
 		}
+		return this.findSuitableNonBLPortalPosNear(column);
+	}
 
-		return suitablePos;
+	/**
+	 * Finds a suitable position for a portal to generate nearby
+	 * @param start
+	 * @return
+	 */
+	protected BlockPos findSuitableBetweenlandsPortalPos(BlockPos start) {
+		return this.findPortalCenter(this.createBiomeSearch(start).select(this.toWorld.rand));
 	}
 
 	/**
@@ -363,10 +425,15 @@ public final class TeleporterBetweenlands extends Teleporter {
 	 * @return
 	 */
 	protected BlockPos findSuitableNonBLPortalPos(BlockPos start) {
-		BlockPos suitableStartPos = this.findSuitableNonBLStartPos(start);
-		if(suitableStartPos != null) {
-			start = suitableStartPos;
-		}
+		return this.findPortalCenter(this.createBiomeSearch(start).select(this.toWorld.rand));
+	}
+
+	/**
+	 * Finds a suitable position for a portal to generate near a position in a safe biome
+	 * @param start
+	 * @return
+	 */
+	protected BlockPos findSuitableNonBLPortalPosNear(BlockPos start) {
 		int bestYSpace = -1;
 		BlockPos bestSuitablePos = null;
 		MutableBlockPos checkPos = new MutableBlockPos();
@@ -432,16 +499,17 @@ public final class TeleporterBetweenlands extends Teleporter {
 	@Override
 	public boolean makePortal(Entity entity) {
 		if(this.makePortal) {
-			boolean isToBL = this.toWorld.provider.getDimension() == BetweenlandsConfig.WORLD_AND_DIMENSION.dimensionId;
 			BlockPos center;
-			if(isToBL) {
+			if(this.portalCenter != null) {
+				center = this.portalCenter;
+			} else if(this.isToBL) {
 				center = this.findSuitableBetweenlandsPortalPos(entity.getPosition());
 			} else {
 				center = this.findSuitableNonBLPortalPos(entity.getPosition());
 			}
-			if(isToBL && this.generateBetweenlandsTreePortal(entity, center)) {
+			if(this.isToBL && this.generateBetweenlandsTreePortal(entity, center)) {
 				return true;
-			} else if(!isToBL && this.generateTreePortal(entity, center)) {
+			} else if(!this.isToBL && this.generateTreePortal(entity, center)) {
 				return true;
 			}
 			return this.generateSmallPortal(entity, center);
@@ -449,21 +517,49 @@ public final class TeleporterBetweenlands extends Teleporter {
 		return false;
 	}
 
+	/**
+	 * Returns whether there is a position for a portal tree within the specified radius around the center
+	 * without generating anything. The positions are checked in the same order as when the portal is made,
+	 * so if a position is found here the portal is made at the same position as long as the world doesn't change
+	 * @param center
+	 * @param radius
+	 * @return
+	 */
+	public boolean hasTreePortalSite(BlockPos center, int radius) {
+		if(this.isToBL) {
+			return this.spiralGenerate(center, radius, 0, 0, this::isBetweenlandsTreePortalSite);
+		}
+		return this.spiralGenerate(center, radius, Math.min(center.getY() - 2, 8), 8, this::isTreePortalSite);
+	}
+
+	protected boolean isBetweenlandsTreePortalSite(MutableBlockPos checkPos) {
+		WorldBorder border = this.toWorld.getWorldBorder();
+
+		if(checkPos.getX() > border.minX() + 16 && checkPos.getZ() > border.minZ() + 16 && checkPos.getX() < border.maxX() - 16 && checkPos.getZ() < border.maxZ() - 16) {
+			Chunk chunk = this.getDecoratedChunk(this.toWorld, checkPos); //Force chunk to generate
+			checkPos.setY(chunk.getHeight(checkPos) - 1);
+
+			return SurfaceType.MIXED_GROUND.matches(this.toWorld.getBlockState(checkPos)) && this.toWorld.isAirBlock(checkPos.up()) && this.canGeneratePortalTree(this.toWorld, checkPos);
+		}
+
+		return false;
+	}
+
+	protected boolean isTreePortalSite(MutableBlockPos checkPos) {
+		WorldBorder border = this.toWorld.getWorldBorder();
+
+		return checkPos.getX() > border.minX() + 16 && checkPos.getZ() > border.minZ() + 16 && checkPos.getX() < border.maxX() - 16 && checkPos.getZ() < border.maxZ() - 16 &&
+				this.toWorld.getBlockState(checkPos).isNormalCube() && this.toWorld.isAirBlock(checkPos.up()) && this.canGeneratePortalTree(this.toWorld, checkPos);
+	}
+
 	protected boolean generateBetweenlandsTreePortal(Entity entity, BlockPos center) {
 		WorldGenWeedwoodPortalTree genTree = new WorldGenWeedwoodPortalTree();
 
-		return this.spiralGenerate(center, 64, 0, 0, checkPos -> {
-			WorldBorder border = this.toWorld.getWorldBorder();
-	
-			if(checkPos.getX() > border.minX() + 16 && checkPos.getZ() > border.minZ() + 16 && checkPos.getX() < border.maxX() - 16 && checkPos.getZ() < border.maxZ() - 16) {
-				Chunk chunk = this.getDecoratedChunk(this.toWorld, checkPos); //Force chunk to generate
-				checkPos.setY(chunk.getHeight(checkPos) - 1);
-	
-				if(SurfaceType.MIXED_GROUND.matches(this.toWorld.getBlockState(checkPos)) && this.toWorld.isAirBlock(checkPos.up()) && this.canGeneratePortalTree(this.toWorld, checkPos)) {
-					if(genTree.generate(this.toWorld, this.toWorld.rand, checkPos.toImmutable())) {
-						this.lonkPortalsTogetherAndTeleport(entity, checkPos, 0.5D, 2.0D, 0.5D);
-						return true;
-					}
+		return this.spiralGenerate(center, this.portalSearchRadius, 0, 0, checkPos -> {
+			if(this.isBetweenlandsTreePortalSite(checkPos)) {
+				if(genTree.generate(this.toWorld, this.toWorld.rand, checkPos.toImmutable())) {
+					this.lonkPortalsTogetherAndTeleport(entity, checkPos, 0.5D, 2.0D, 0.5D);
+					return true;
 				}
 			}
 
@@ -474,11 +570,8 @@ public final class TeleporterBetweenlands extends Teleporter {
 	protected boolean generateTreePortal(Entity entity, BlockPos center) {
 		WorldGenWeedwoodPortalTree genTree = new WorldGenWeedwoodPortalTree();
 
-		return this.spiralGenerate(center, 64, Math.min(center.getY() - 2, 8), 8, checkPos -> {
-			WorldBorder border = this.toWorld.getWorldBorder();
-			
-			if(checkPos.getX() > border.minX() + 16 && checkPos.getZ() > border.minZ() + 16 && checkPos.getX() < border.maxX() - 16 && checkPos.getZ() < border.maxZ() - 16 &&
-					this.toWorld.getBlockState(checkPos).isNormalCube() && this.toWorld.isAirBlock(checkPos.up()) && this.canGeneratePortalTree(this.toWorld, checkPos)) {
+		return this.spiralGenerate(center, this.portalSearchRadius, Math.min(center.getY() - 2, 8), 8, checkPos -> {
+			if(this.isTreePortalSite(checkPos)) {
 				BlockPos pos = checkPos.toImmutable();
 				if(genTree.generate(this.toWorld, this.toWorld.rand, pos)) {
 					this.lonkPortalsTogetherAndTeleport(entity, pos, 0.5D, 2.0D, 0.5D);
@@ -496,7 +589,7 @@ public final class TeleporterBetweenlands extends Teleporter {
 	protected boolean generateSmallPortal(Entity entity, BlockPos center) {
 		WorldGenSmallPortal genPortal = new WorldGenSmallPortal(EnumFacing.NORTH);
 
-		if(this.spiralGenerate(center, 64, Math.min(center.getY() - 2, 8), 8, checkPos -> {
+		if(this.spiralGenerate(center, this.portalSearchRadius, Math.min(center.getY() - 2, 8), 8, checkPos -> {
 			WorldBorder border = this.toWorld.getWorldBorder();
 			
 			if(checkPos.getX() > border.minX() + 6 && checkPos.getZ() > border.minZ() + 6 && checkPos.getX() < border.maxX() - 6 && checkPos.getZ() < border.maxZ() - 6 &&
@@ -516,7 +609,7 @@ public final class TeleporterBetweenlands extends Teleporter {
 			return true;
 		}
 
-		if(this.spiralGenerate(center, 32, Math.min(center.getY() - 2, 8), 8, checkPos -> {
+		if(this.spiralGenerate(center, Math.min(32, this.portalSearchRadius), Math.min(center.getY() - 2, 8), 8, checkPos -> {
 			WorldBorder border = this.toWorld.getWorldBorder();
 			
 			if(checkPos.getX() > border.minX() + 6 && checkPos.getZ() > border.minZ() + 6 && checkPos.getX() < border.maxX() - 6 && checkPos.getZ() < border.maxZ() - 6 &&
@@ -726,9 +819,9 @@ public final class TeleporterBetweenlands extends Teleporter {
 		int bx = pos.getX();
 		int by = pos.getY();
 		int bz = pos.getZ();
-		for (int xo = -16; xo <= 16; xo += 16) {
-			for (int yo = -16; yo <= 16; yo += 16) {
-				for (int zo = -16; zo <= 16; zo += 16) {
+		for (int xo = -DECORATION_RANGE; xo <= DECORATION_RANGE; xo += DECORATION_RANGE) {
+			for (int yo = -DECORATION_RANGE; yo <= DECORATION_RANGE; yo += DECORATION_RANGE) {
+				for (int zo = -DECORATION_RANGE; zo <= DECORATION_RANGE; zo += DECORATION_RANGE) {
 					mutableBlockPos.setPos(bx + xo, by + yo, bz + zo);
 					world.getBlockState(mutableBlockPos); //Get block for compat with cubic chunks mod
 				}
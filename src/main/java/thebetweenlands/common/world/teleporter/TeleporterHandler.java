@@ -1,9 +1,12 @@
 package thebetweenlands.common.world.teleporter;
 
+import javax.annotation.Nullable;
+
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.DimensionType;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
@@ -16,14 +19,25 @@ public final class TeleporterHandler {
 	private TeleporterHandler() {}
 	
 	public static void transferToDim(Entity entity, World world) {
-		INSTANCE.transferEntity(entity, world.provider.getDimension(), true, true);
+		INSTANCE.transferEntity(entity, world.provider.getDimension(), true, true, null, TeleporterBetweenlands.PORTAL_SEARCH_RADIUS);
 	}
 	
 	public static void transferToDim(Entity entity, World world, boolean makePortal, boolean setSpawn) {
-		INSTANCE.transferEntity(entity, world.provider.getDimension(), makePortal, setSpawn);
+		INSTANCE.transferEntity(entity, world.provider.getDimension(), makePortal, setSpawn, null, TeleporterBetweenlands.PORTAL_SEARCH_RADIUS);
+	}
+
+	/**
+	 * Transfers the entity to the specified world and makes a new portal around the specified center if necessary
+	 * @param entity
+	 * @param world
+	 * @param portalCenter See {@link TeleporterBetweenlands#findPortalCenter(BlockPos)}
+	 * @param portalSearchRadius Radius around the portal center in which the portal is placed
+	 */
+	public static void transferToDim(Entity entity, World world, BlockPos portalCenter, int portalSearchRadius) {
+		INSTANCE.transferEntity(entity, world.provider.getDimension(), true, true, portalCenter, portalSearchRadius);
 	}
 
-	private void transferEntity(Entity entity, int dimensionId, boolean makePortal, boolean setSpawn) {
+	private void transferEntity(Entity entity, int dimensionId, boolean makePortal, boolean setSpawn, @Nullable BlockPos portalCenter, int portalSearchRadius) {
 		World world = entity.world;
 		if (!world.isRemote && !entity.isDead && !(entity instanceof FakePlayer) && world instanceof WorldServer) {
 			if (!net.minecraftforge.common.ForgeHooks.onTravelToDimension(entity, dimensionId)) {
@@ -37,7 +51,7 @@ public final class TeleporterHandler {
 			if (entity instanceof EntityPlayerMP) {
 				EntityPlayerMP player = (EntityPlayerMP) entity;
 				player.invulnerableDimensionChange = true;
-				player.server.getPlayerList().transferPlayerToDimension(player, dimensionId, new TeleporterBetweenlands(world.provider.getDimension(), aabb, toWorld, makePortal, setSpawn));
+				player.server.getPlayerList().transferPlayerToDimension(player, dimensionId, new TeleporterBetweenlands(world.provider.getDimension(), aabb, toWorld, makePortal, setSpawn, portalCenter, portalSearchRadius));
 				player.timeUntilPortal = 0;
 			} else {
 				entity.setDropItemsWhenDead(false);
@@ -45,7 +59,7 @@ public final class TeleporterHandler {
 				entity.dimension = dimensionId;
 				entity.isDead = false;
 				WorldServer oldWorld = server.getWorld(entity.dimension);
-				server.getPlayerList().transferEntityToWorld(entity, dimensionId, oldWorld, toWorld, new TeleporterBetweenlands(world.provider.getDimension(), aabb, toWorld, makePortal, setSpawn));
+				server.getPlayerList().transferEntityToWorld(entity, dimensionId, oldWorld, toWorld, new TeleporterBetweenlands(world.provider.getDimension(), aabb, toWorld, makePortal, setSpawn, portalCenter, portalSearchRadius));
 			}
 		}
 	}
@@ -188,9 +188,66 @@ public class OpenSimplexNoise {
 
     // 3D OpenSimplex (Simplectic) Noise.
     public double eval(double x, double y, double z) {
+        return this.eval3D(x, y, z, (x + y + z) * STRETCH_CONSTANT_3D);
+    }
+
+    /**
+     * Fills the specified array with 2D noise sampled at all combinations of the specified coordinates.
+     * The sample of <code>xs[i], ys[j]</code> is written to <code>out[offset + i * strideX + j * strideY]</code>
+     * and is exactly equal to <code>eval(xs[i], ys[j])</code>.
+     *
+     * @param xs      x coordinates
+     * @param ys      y coordinates
+     * @param out     The array to write the samples to
+     * @param offset  Index of the first sample
+     * @param strideX Index step between two x coordinates
+     * @param strideY Index step between two y coordinates
+     */
+    public void fill2D(double[] xs, double[] ys, double[] out, int offset, int strideX, int strideY) {
+        for (int i = 0; i < xs.length; i++) {
+            double x = xs[i];
+            int index = offset + i * strideX;
+            for (int j = 0; j < ys.length; j++) {
+                out[index] = this.eval(x, ys[j]);
+                index += strideY;
+            }
+        }
+    }
+
+    /**
+     * Fills the specified array with 3D noise sampled at all combinations of the specified coordinates.
+     * The sample of <code>xs[i], ys[j], zs[k]</code> is written to <code>out[offset + i * strideX + j * strideY + k * strideZ]</code>
+     * and is exactly equal to <code>eval(xs[i], ys[j], zs[k])</code>.
+     *
+     * @param xs      x coordinates
+     * @param ys      y coordinates
+     * @param zs      z coordinates
+     * @param out     The array to write the samples to
+     * @param offset  Index of the first sample
+     * @param strideX Index step between two x coordinates
+     * @param strideY Index step between two y coordinates
+     * @param strideZ Index step between two z coordinates
+     */
+    public void fill3D(double[] xs, double[] ys, double[] zs, double[] out, int offset, int strideX, int strideY, int strideZ) {
+        for (int i = 0; i < xs.length; i++) {
+            double x = xs[i];
+            for (int j = 0; j < ys.length; j++) {
+                double y = ys[j];
+                // x + y + z is evaluated as (x + y) + z, so the partial sum can be shared by the whole z row
+                double xy = x + y;
+                int index = offset + i * strideX + j * strideY;
+                for (int k = 0; k < zs.length; k++) {
+                    double z = zs[k];
+                    out[index] = this.eval3D(x, y, z, (xy + z) * STRETCH_CONSTANT_3D);
+                    index += strideZ;
+                }
+            }
+        }
+    }
+
+    private double eval3D(double x, double y, double z, double stretchOffset) {
 
         // Place input coordinates on simplectic honeycomb.
-        double stretchOffset = (x + y + z) * STRETCH_CONSTANT_3D;
         double xs = x + stretchOffset;
         double ys = y + stretchOffset;
         double zs = z + stretchOffset;
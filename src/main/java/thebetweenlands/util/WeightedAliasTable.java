@@ -0,0 +1,138 @@
+package thebetweenlands.util;
+
+import java.util.Random;
+
+/**
+ * Weighted random selection of indices in constant time using Vose's alias method.
+ * All arrays are reused when the table is rebuilt, so rebuilding a table with the
+ * same or a smaller number of weights does not allocate.
+ */
+public class WeightedAliasTable {
+	private int size;
+	private int totalWeight;
+	private int[] weights = new int[0];
+	private int[] thresholds = new int[0];
+	private int[] aliases = new int[0];
+
+	private int[] scaled = new int[0];
+	private int[] small = new int[0];
+	private int[] large = new int[0];
+
+	private void ensureCapacity(int capacity) {
+		if(this.weights.length < capacity) {
+			this.weights = new int[capacity];
+			this.thresholds = new int[capacity];
+			this.aliases = new int[capacity];
+			this.scaled = new int[capacity];
+			this.small = new int[capacity];
+			this.large = new int[capacity];
+		}
+	}
+
+	/**
+	 * Returns whether the table was built from exactly the specified weights
+	 * @param weights
+	 * @param size
+	 * @return
+	 */
+	public boolean matches(int[] weights, int size) {
+		if(this.size != size) {
+			return false;
+		}
+		for(int i = 0; i < size; i++) {
+			if(this.weights[i] != weights[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Rebuilds the table from the first <code>size</code> non-negative weights
+	 * @param weights
+	 * @param size
+	 */
+	public void build(int[] weights, int size) {
+		this.ensureCapacity(size);
+
+		this.size = size;
+		this.totalWeight = 0;
+		for(int i = 0; i < size; i++) {
+			this.weights[i] = weights[i];
+			this.totalWeight += weights[i];
+		}
+
+		if(this.totalWeight <= 0) {
+			return;
+		}
+
+		int smallCount = 0, largeCount = 0;
+		for(int i = 0; i < size; i++) {
+			//Scale weights so that the average weight equals the total weight
+			this.scaled[i] = weights[i] * size;
+			if(this.scaled[i] < this.totalWeight) {
+				this.small[smallCount++] = i;
+			} else {
+				this.large[largeCount++] = i;
+			}
+		}
+
+		while(smallCount > 0 && largeCount > 0) {
+			int s = this.small[--smallCount];
+			int l = this.large[--largeCount];
+
+			this.thresholds[s] = this.scaled[s];
+			this.aliases[s] = l;
+
+			this.scaled[l] = this.scaled[l] + this.scaled[s] - this.totalWeight;
+			if(this.scaled[l] < this.totalWeight) {
+				this.small[smallCount++] = l;
+			} else {
+				this.large[largeCount++] = l;
+			}
+		}
+
+		while(largeCount > 0) {
+			int l = this.large[--largeCount];
+			this.thresholds[l] = this.totalWeight;
+			this.aliases[l] = l;
+		}
+
+		//Only left over due to rounding, always selects itself
+		while(smallCount > 0) {
+			int s = this.small[--smallCount];
+			this.thresholds[s] = this.totalWeight;
+			this.aliases[s] = s;
+		}
+	}
+
+	/**
+	 * Returns the number of weights
+	 * @return
+	 */
+	public int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the sum of all weights
+	 * @return
+	 */
+	public int getTotalWeight() {
+		return this.totalWeight;
+	}
+
+	/**
+	 * Returns a random index with a probability proportional to its weight,
+	 * or -1 if the table is empty or all weights are 0
+	 * @param rand
+	 * @return
+	 */
+	public int getRandomIndex(Random rand) {
+		if(this.size == 0 || this.totalWeight <= 0) {
+			return -1;
+		}
+		int column = rand.nextInt(this.size);
+		return rand.nextInt(this.totalWeight) < this.thresholds[column] ? column : this.aliases[column];
+	}
+}
@@ -0,0 +1,175 @@
+package thebetweenlands.util.profiling;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.Nullable;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Low overhead profiler for hot code paths such as chunk generation, decoration, spawning, local storage I/O,
+ * network messages and tile entity ticks. Unlike the vanilla profiler it is available on dedicated servers
+ * without debug mode and can safely be used from any thread. While disabled a profiled section
+ * costs one volatile read.
+ */
+public final class HotPathProfiler {
+	private HotPathProfiler() { }
+
+	public static enum Sort {
+		TOTAL("total", ProfilerSection::getTotalNanos),
+		AVERAGE("average", ProfilerSection::getAverageNanos),
+		P99("p99", section -> section.getPercentileNanos(0.99D)),
+		MAX("max", ProfilerSection::getMaxNanos),
+		COUNT("count", ProfilerSection::getCount);
+
+		private final String name;
+		private final Comparator<ProfilerSection> comparator;
+
+		private Sort(String name, ToLongFunction<ProfilerSection> key) {
+			this.name = name;
+			this.comparator = Comparator.comparingLong(key).reversed();
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		@Nullable
+		public static Sort fromName(String name) {
+			for(Sort sort : values()) {
+				if(sort.name.equals(name)) {
+					return sort;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final ConcurrentMap<String, ProfilerSection> SECTIONS = new ConcurrentHashMap<>();
+
+	private static volatile boolean enabled;
+	private static volatile long enabledTime;
+	private static volatile long disabledTime;
+
+	/**
+	 * Returns the section with the specified name, or creates it if it doesn't exist yet
+	 * @param name
+	 * @return
+	 */
+	public static ProfilerSection section(String name) {
+		ProfilerSection section = SECTIONS.get(name);
+		if(section == null) {
+			section = SECTIONS.computeIfAbsent(name, ProfilerSection::new);
+		}
+		return section;
+	}
+
+	/**
+	 * Returns the start time for {@link ProfilerSection#end(long)}, or 0 if profiling is disabled
+	 * @return
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		if(enabled && !HotPathProfiler.enabled) {
+			enabledTime = System.currentTimeMillis();
+		} else if(!enabled && HotPathProfiler.enabled) {
+			disabledTime = System.currentTimeMillis();
+		}
+		HotPathProfiler.enabled = enabled;
+	}
+
+	/**
+	 * Returns the time in milliseconds between profiling being enabled or reset and now or profiling being disabled
+	 * @return
+	 */
+	public static long getProfiledMillis() {
+		return Math.max(0L, (enabled ? System.currentTimeMillis() : disabledTime) - enabledTime);
+	}
+
+	/**
+	 * Resets the measurements of all sections
+	 */
+	public static void reset() {
+		for(ProfilerSection section : SECTIONS.values()) {
+			section.reset();
+		}
+		enabledTime = disabledTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the sections that were called at least once, sorted by the specified criterion
+	 * @param sort
+	 * @param limit Maximum number of returned sections
+	 * @return
+	 */
+	public static List<ProfilerSection> getTopSections(Sort sort, int limit) {
+		List<ProfilerSection> sections = new ArrayList<>();
+		for(ProfilerSection section : SECTIONS.values()) {
+			if(section.getCount() > 0) {
+				sections.add(section);
+			}
+		}
+		sections.sort(sort.comparator);
+		return sections.size() > limit ? sections.subList(0, limit) : sections;
+	}
+
+	/**
+	 * Writes all sections that were called at least once to a new JSON file in the specified folder
+	 * @param folder
+	 * @return The written file
+	 * @throws IOException
+	 */
+	public static File writeReport(File folder) throws IOException {
+		if(!folder.exists() && !folder.mkdirs()) {
+			throw new IOException(String.format("Failed creating folder %s", folder));
+		}
+
+		File file = new File(folder, "profile-" + new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss", Locale.ROOT).format(new Date()) + ".json");
+
+		List<ProfilerSection> sections = getTopSections(Sort.TOTAL, Integer.MAX_VALUE);
+
+		try(BufferedWriter fileWriter = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8); JsonWriter writer = new JsonWriter(fileWriter)) {
+			writer.setIndent("  ");
+			writer.beginObject();
+			writer.name("time").value(System.currentTimeMillis());
+			writer.name("profiled_ms").value(getProfiledMillis());
+			writer.name("sections").beginArray();
+			for(ProfilerSection section : sections) {
+				writer.beginObject();
+				writer.name("name").value(section.getName());
+				writer.name("count").value(section.getCount());
+				writer.name("total_ns").value(section.getTotalNanos());
+				writer.name("avg_ns").value(section.getAverageNanos());
+				writer.name("p50_ns").value(section.getPercentileNanos(0.5D));
+				writer.name("p90_ns").value(section.getPercentileNanos(0.9D));
+				writer.name("p99_ns").value(section.getPercentileNanos(0.99D));
+				writer.name("max_ns").value(section.getMaxNanos());
+				writer.endObject();
+			}
+			writer.endArray();
+			writer.endObject();
+		}
+
+		return file;
+	}
+}
@@ -0,0 +1,78 @@
+package thebetweenlands.util.profiling;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of nanosecond latencies.
+ * Each power of two is split into {@link #SUB_BUCKETS} linear sub-buckets, so recorded values
+ * are accurate to within 12.5% over the entire long range while the histogram has a fixed size of a few kilobytes.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private static int getBucket(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest value that falls into the specified bucket
+	 * @param bucket
+	 * @return
+	 */
+	private static long getBucketUpperBound(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = bucket & (SUB_BUCKETS - 1);
+		long lowerBound = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	public void record(long value) {
+		this.counts.incrementAndGet(getBucket(value));
+	}
+
+	/**
+	 * Returns the value below which the specified fraction of all recorded values lie.
+	 * The result is only approximate if values are recorded concurrently
+	 * @param percentile Percentile between 0 and 1
+	 * @return
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			total += this.counts.get(i);
+		}
+
+		if(total == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(total * percentile));
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			count += this.counts.get(i);
+			if(count >= target) {
+				return getBucketUpperBound(i);
+			}
+		}
+
+		return Long.MAX_VALUE;
+	}
+
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			this.counts.set(i, 0);
+		}
+	}
+}
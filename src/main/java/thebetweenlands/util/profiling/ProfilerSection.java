@@ -0,0 +1,87 @@
+package thebetweenlands.util.profiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free call counter and latency histogram of one profiled code path.
+ * Sections are obtained from {@link HotPathProfiler#section(String)} and are usually kept in a static field:
+ * <pre>
+ * long start = HotPathProfiler.start();
+ * ...
+ * SECTION.end(start);
+ * </pre>
+ */
+public final class ProfilerSection {
+	private final String name;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	ProfilerSection(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Records the time since the specified start time. Does nothing if the start time
+	 * is 0, i.e. profiling was disabled when {@link HotPathProfiler#start()} was called
+	 * @param start
+	 */
+	public void end(long start) {
+		if(start != 0L) {
+			this.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Records a single call with the specified duration
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		this.count.increment();
+		this.totalNanos.add(nanos);
+		this.histogram.record(nanos);
+
+		long max;
+		while(nanos > (max = this.maxNanos.get()) && !this.maxNanos.compareAndSet(max, nanos));
+	}
+
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	public long getTotalNanos() {
+		return this.totalNanos.sum();
+	}
+
+	public long getMaxNanos() {
+		return this.maxNanos.get();
+	}
+
+	public long getAverageNanos() {
+		long count = this.getCount();
+		return count > 0 ? this.getTotalNanos() / count : 0;
+	}
+
+	/**
+	 * Returns the approximate latency below which the specified fraction of all calls lie
+	 * @param percentile Percentile between 0 and 1
+	 * @return
+	 */
+	public long getPercentileNanos(double percentile) {
+		return this.histogram.getPercentile(percentile);
+	}
+
+	public void reset() {
+		this.count.reset();
+		this.totalNanos.reset();
+		this.maxNanos.set(0);
+		this.histogram.reset();
+	}
+}
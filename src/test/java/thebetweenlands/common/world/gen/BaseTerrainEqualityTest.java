@@ -0,0 +1,146 @@
+package thebetweenlands.common.world.gen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Biomes;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.ChunkPrimer;
+import net.minecraft.world.gen.NoiseGeneratorOctaves;
+import net.minecraft.world.gen.NoiseGeneratorPerlin;
+import thebetweenlands.common.world.WorldProviderBetweenlands;
+
+/**
+ * Checks that the base terrain precomputed on a {@link ForkJoinPool}, like {@link ChunkGeneratorBetweenlands#precomputeTerrain(int, int, Object, java.util.concurrent.Executor)}
+ * does, is identical to the base terrain generated inline with a single reused context, like {@link ChunkGeneratorBetweenlands#generateChunk(int, int)} does
+ * without precomputed terrain. Uses fixed seeds and chunk coordinates and a fixed biome layout instead of the biome layers.
+ */
+public class BaseTerrainEqualityTest {
+	private static final long[] SEEDS = { 0L, 1L, 8675309L, -4962768465676381896L };
+
+	private static final int[][] CHUNKS = { { 0, 0 }, { 1, 0 }, { 0, 1 }, { -1, -1 }, { 7, -3 }, { -12, 5 }, { 100, 100 }, { -1000, 2500 }, { 31250, -31250 } };
+
+	private static class PrecomputedChunk {
+		private final ChunkPrimer primer;
+		private final float[] terrainBiomeWeights;
+
+		private PrecomputedChunk(ChunkPrimer primer, float[] terrainBiomeWeights) {
+			this.primer = primer;
+			this.terrainBiomeWeights = terrainBiomeWeights;
+		}
+	}
+
+	private static Biome[] biomes;
+
+	private static IBlockState baseBlockState;
+	private static IBlockState layerBlockState;
+
+	@BeforeClass
+	public static void setup() {
+		Bootstrap.register();
+
+		//Biomes with different base heights and variations so that the biome borders are part of the terrain
+		biomes = new Biome[] { Biomes.PLAINS, Biomes.OCEAN, Biomes.DEEP_OCEAN, Biomes.EXTREME_HILLS, Biomes.SWAMPLAND, Biomes.MESA_ROCK };
+
+		baseBlockState = Blocks.STONE.getDefaultState();
+		layerBlockState = Blocks.WATER.getDefaultState();
+	}
+
+	@Test
+	public void precomputedTerrainMatchesInlineTerrain() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			for(long seed : SEEDS) {
+				BaseTerrainGenerator generator = createGenerator(seed);
+
+				//Precomputed, in reverse order and with one context per pool thread
+				ThreadLocal<ChunkGenerationContext> contexts = ThreadLocal.withInitial(ChunkGenerationContext::new);
+				List<Future<PrecomputedChunk>> precomputed = new ArrayList<>();
+				for(int i = CHUNKS.length - 1; i >= 0; i--) {
+					int chunkX = CHUNKS[i][0];
+					int chunkZ = CHUNKS[i][1];
+					Biome[] biomesForGeneration = getBiomesForGeneration(seed, null, chunkX, chunkZ);
+					precomputed.add(0, pool.submit(() -> {
+						ChunkGenerationContext ctx = contexts.get();
+						ChunkPrimer primer = new ChunkPrimer();
+						generator.generate(ctx, chunkX, chunkZ, biomesForGeneration, primer);
+						return new PrecomputedChunk(primer, ctx.terrainBiomeWeights.clone());
+					}));
+				}
+
+				//Inline, with a single context that is reused for all chunks
+				ChunkGenerationContext ctx = new ChunkGenerationContext();
+				for(int i = 0; i < CHUNKS.length; i++) {
+					int chunkX = CHUNKS[i][0];
+					int chunkZ = CHUNKS[i][1];
+					ctx.biomesForGeneration = getBiomesForGeneration(seed, ctx.biomesForGeneration, chunkX, chunkZ);
+					ChunkPrimer primer = new ChunkPrimer();
+					generator.generate(ctx, chunkX, chunkZ, ctx.biomesForGeneration, primer);
+
+					String chunk = String.format("seed %d, chunk %d, %d", seed, chunkX, chunkZ);
+
+					PrecomputedChunk precomputedChunk = precomputed.get(i).get();
+
+					assertArrayEquals("Terrain biome weights differ at " + chunk, ctx.terrainBiomeWeights, precomputedChunk.terrainBiomeWeights, 0.0F);
+
+					for(int x = 0; x < 16; x++) {
+						for(int y = 0; y < 256; y++) {
+							for(int z = 0; z < 16; z++) {
+								if(primer.getBlockState(x, y, z) != precomputedChunk.primer.getBlockState(x, y, z)) {
+									fail(String.format("Block differs at %d, %d, %d in %s", x, y, z, chunk));
+								}
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Creates the base terrain generator with the same noise generators as {@link ChunkGeneratorBetweenlands}
+	 */
+	private static BaseTerrainGenerator createGenerator(long seed) {
+		Random rand = new Random(seed);
+		NoiseGeneratorOctaves minLimitPerlinNoise = new NoiseGeneratorOctaves(rand, 16);
+		NoiseGeneratorOctaves maxLimitPerlinNoise = new NoiseGeneratorOctaves(rand, 16);
+		NoiseGeneratorOctaves mainPerlinNoise = new NoiseGeneratorOctaves(rand, 8);
+		new NoiseGeneratorPerlin(rand, 4);
+		new NoiseGeneratorOctaves(rand, 10);
+		NoiseGeneratorOctaves depthNoise = new NoiseGeneratorOctaves(rand, 16);
+		return new BaseTerrainGenerator(minLimitPerlinNoise, maxLimitPerlinNoise, mainPerlinNoise, depthNoise, baseBlockState, layerBlockState, WorldProviderBetweenlands.LAYER_HEIGHT);
+	}
+
+	/**
+	 * Returns the 15x15 biomes at 1:4 scale around the chunk, from patches of 4x4 biomes that only depend on the seed
+	 */
+	private static Biome[] getBiomesForGeneration(long seed, Biome[] biomesForGeneration, int chunkX, int chunkZ) {
+		if(biomesForGeneration == null) {
+			biomesForGeneration = new Biome[15 * 15];
+		}
+		for(int z = 0; z < 15; z++) {
+			for(int x = 0; x < 15; x++) {
+				int bx = (chunkX * 4 - 5 + x) >> 2;
+				int bz = (chunkZ * 4 - 5 + z) >> 2;
+				Random rand = new Random(seed + bx * 341873128712L + bz * 132897987541L);
+				biomesForGeneration[x + z * 15] = biomes[rand.nextInt(biomes.length)];
+			}
+		}
+		return biomesForGeneration;
+	}
+}
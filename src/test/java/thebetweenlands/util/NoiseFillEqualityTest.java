@@ -0,0 +1,109 @@
+package thebetweenlands.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import thebetweenlands.common.world.gen.feature.FractalOpenSimplexNoise;
+
+/**
+ * Checks that the batched fill methods of {@link OpenSimplexNoise} and {@link FractalOpenSimplexNoise}
+ * produce exactly the same samples as the corresponding eval methods
+ */
+public class NoiseFillEqualityTest {
+	private static final int SEEDS = 8;
+
+	@Test
+	public void fillMatchesEval() {
+		Random rand = new Random(0);
+
+		for(int s = 0; s < SEEDS; s++) {
+			long seed = rand.nextLong();
+
+			OpenSimplexNoise noise = new OpenSimplexNoise(seed);
+			FractalOpenSimplexNoise fractalNoise = new FractalOpenSimplexNoise(seed, 1 + s % 4, 0.01D + rand.nextDouble() * 0.1D);
+
+			for(int layout = 0; layout < 2; layout++) {
+				double[] xs = coords(rand, 5 + rand.nextInt(12));
+				double[] ys = coords(rand, 5 + rand.nextInt(12));
+				double[] zs = coords(rand, 5 + rand.nextInt(12));
+				int offset = rand.nextInt(4);
+
+				//Both x-major and z-major sample layouts
+				int strideX2D = layout == 0 ? ys.length : 1;
+				int strideY2D = layout == 0 ? 1 : xs.length;
+				checkFill2D(noise, fractalNoise, xs, ys, offset, strideX2D, strideY2D);
+
+				int strideX3D = layout == 0 ? ys.length * zs.length : 1;
+				int strideY3D = layout == 0 ? zs.length : xs.length;
+				int strideZ3D = layout == 0 ? 1 : xs.length * ys.length;
+				checkFill3D(noise, fractalNoise, xs, ys, zs, offset, strideX3D, strideY3D, strideZ3D);
+			}
+		}
+	}
+
+	/**
+	 * Returns random coordinates, including negative ones, integer ones and ones close to simplex cell borders
+	 */
+	private static double[] coords(Random rand, int count) {
+		double[] coords = new double[count];
+		for(int i = 0; i < count; i++) {
+			switch(i % 3) {
+			case 0:
+				coords[i] = (rand.nextDouble() - 0.5D) * 2000.0D;
+				break;
+			case 1:
+				coords[i] = rand.nextInt(200) - 100;
+				break;
+			default:
+				coords[i] = rand.nextInt(200) - 100 + (rand.nextBoolean() ? 1.0E-9D : -1.0E-9D);
+				break;
+			}
+		}
+		return coords;
+	}
+
+	private static void checkFill2D(OpenSimplexNoise noise, FractalOpenSimplexNoise fractalNoise, double[] xs, double[] ys, int offset, int strideX, int strideY) {
+		int size = offset + xs.length * ys.length;
+		double[] out = new double[size];
+		double[] fractalOut = new double[size];
+
+		noise.fill2D(xs, ys, out, offset, strideX, strideY);
+		fractalNoise.fill2D(xs, ys, fractalOut, new double[size], offset, strideX, strideY);
+
+		for(int i = 0; i < xs.length; i++) {
+			for(int j = 0; j < ys.length; j++) {
+				int index = offset + i * strideX + j * strideY;
+				check("OpenSimplexNoise.fill2D", out[index], noise.eval(xs[i], ys[j]), xs[i], ys[j]);
+				check("FractalOpenSimplexNoise.fill2D", fractalOut[index], fractalNoise.eval(xs[i], ys[j]), xs[i], ys[j]);
+			}
+		}
+	}
+
+	private static void checkFill3D(OpenSimplexNoise noise, FractalOpenSimplexNoise fractalNoise, double[] xs, double[] ys, double[] zs, int offset, int strideX, int strideY, int strideZ) {
+		int size = offset + xs.length * ys.length * zs.length;
+		double[] out = new double[size];
+		double[] fractalOut = new double[size];
+
+		noise.fill3D(xs, ys, zs, out, offset, strideX, strideY, strideZ);
+		fractalNoise.fill3D(xs, ys, zs, fractalOut, new double[size], offset, strideX, strideY, strideZ);
+
+		for(int i = 0; i < xs.length; i++) {
+			for(int j = 0; j < ys.length; j++) {
+				for(int k = 0; k < zs.length; k++) {
+					int index = offset + i * strideX + j * strideY + k * strideZ;
+					check("OpenSimplexNoise.fill3D", out[index], noise.eval(xs[i], ys[j], zs[k]), xs[i], ys[j], zs[k]);
+					check("FractalOpenSimplexNoise.fill3D", fractalOut[index], fractalNoise.eval(xs[i], ys[j], zs[k]), xs[i], ys[j], zs[k]);
+				}
+			}
+		}
+	}
+
+	private static void check(String method, double actual, double expected, double... pos) {
+		//Compares the bits so that the samples must be exactly identical
+		assertEquals(String.format("%s mismatch at %s: %s != %s", method, Arrays.toString(pos), actual, expected), Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+	}
+}